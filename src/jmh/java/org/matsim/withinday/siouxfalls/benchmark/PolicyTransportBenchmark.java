@@ -0,0 +1,91 @@
+package org.matsim.withinday.siouxfalls.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.matsim.withinday.siouxfalls.src.policy.CurrentModePolicy;
+import org.matsim.withinday.siouxfalls.src.policy.DecisionBatch;
+import org.matsim.withinday.siouxfalls.src.policy.DecisionPolicy;
+import org.matsim.withinday.siouxfalls.src.policy.LocalPolicyServer;
+import org.matsim.withinday.siouxfalls.src.policy.SharedMemoryDecisionPolicy;
+import org.matsim.withinday.siouxfalls.src.policy.SharedMemoryPolicyServer;
+import org.matsim.withinday.siouxfalls.src.policy.SocketDecisionPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Round trips of one decision batch through the policy link against an in-process echo server that
+ * keeps the current modes, so the numbers are the transport alone. Throughput gives the round trips
+ * per second, the sample time mode the latency percentiles (p0.99).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PolicyTransportBenchmark {
+
+	private static final int STATE_WIDTH = 16;
+	private static final int MAX_BATCH_SIZE = 4096;
+
+	@Param({ "socket", "sharedMemory" })
+	public String transport;
+
+	@Param({ "1", "16", "256", "4096" })
+	public int batchSize;
+
+	private Path outputDirectory;
+	private AutoCloseable server;
+	private DecisionPolicy client;
+	private DecisionBatch batch;
+
+	@Setup
+	public void setup() throws IOException {
+		if ("socket".equals(this.transport)) {
+			LocalPolicyServer socketServer = new LocalPolicyServer(new CurrentModePolicy(), STATE_WIDTH);
+			this.server = socketServer;
+			this.client = new SocketDecisionPolicy("localhost", socketServer.getPort());
+		} else {
+			this.outputDirectory = Files.createTempDirectory("policy-transport-benchmark");
+			Path file = this.outputDirectory.resolve("policy.shm");
+			this.server = new SharedMemoryPolicyServer(file, new CurrentModePolicy(), STATE_WIDTH, MAX_BATCH_SIZE);
+			this.client = new SharedMemoryDecisionPolicy(file, STATE_WIDTH);
+		}
+
+		this.batch = new DecisionBatch(STATE_WIDTH, this.batchSize);
+		this.batch.clear(8 * 3600.0);
+		for (int i = 0; i < this.batchSize; i++) {
+			int row = this.batch.addRow(i, i % 4);
+			for (int column = 0; column < STATE_WIDTH; column++) this.batch.setState(row, column, i + column);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		this.client.close();
+		this.server.close();
+		if (this.outputDirectory != null) {
+			Files.deleteIfExists(this.outputDirectory.resolve("policy.shm"));
+			Files.deleteIfExists(this.outputDirectory);
+		}
+	}
+
+	@Benchmark
+	public int roundTrip() throws IOException {
+		this.client.decide(this.batch);
+		return this.batch.getAction(this.batchSize - 1);
+	}
+}
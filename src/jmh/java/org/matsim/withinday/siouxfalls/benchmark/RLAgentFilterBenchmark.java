@@ -0,0 +1,97 @@
+package org.matsim.withinday.siouxfalls.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.withinday.siouxfalls.src.replanner.filters.RLAgentFilter;
+import org.matsim.withinday.siouxfalls.src.replanner.filters.RLAgentFilterFactory;
+import org.matsim.withinday.siouxfalls.src.replanner.filters.RLAgentSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Filtering the agents identified in one time step. identifiedAgents is the size of the set the
+ * identifier hands to the filter, rlShare the share of the population controlled by the policy.
+ *
+ * The filter removes from the set it is given, so every invocation refills a working copy first;
+ * {@link #copyOnly()} measures that part alone.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RLAgentFilterBenchmark {
+
+	// Sioux Falls 10% has about 8,500 agents, the full population about 85,000
+	private static final int POPULATION = 85000;
+
+	@Param({ "100", "1000", "10000" })
+	public int identifiedAgents;
+
+	@Param({ "0.0001", "0.1", "1.0" })
+	public double rlShare;
+
+	private List<Id<Person>> identified;
+	private Set<Id<Person>> workingSet;
+	private RLAgentFilter filter;
+	private int next = 0;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(4711);
+		List<Id<Person>> population = new ArrayList<>(POPULATION);
+		List<Id<Person>> rlAgents = new ArrayList<>();
+		for (int i = 0; i < POPULATION; i++) {
+			Id<Person> id = Id.createPersonId("benchmark_" + i);
+			population.add(id);
+			if (random.nextDouble() < rlShare) rlAgents.add(id);
+		}
+
+		this.identified = new ArrayList<>(identifiedAgents);
+		for (int i = 0; i < identifiedAgents; i++) {
+			this.identified.add(population.get(random.nextInt(POPULATION)));
+		}
+		this.workingSet = new HashSet<>(this.identified);
+		this.filter = new RLAgentFilterFactory(new RLAgentSet(rlAgents)).createAgentFilter();
+	}
+
+	@Benchmark
+	public Set<Id<Person>> copyOnly() {
+		this.workingSet.clear();
+		this.workingSet.addAll(this.identified);
+		return this.workingSet;
+	}
+
+	@Benchmark
+	public Set<Id<Person>> applyAgentFilterSet() {
+		this.workingSet.clear();
+		this.workingSet.addAll(this.identified);
+		this.filter.applyAgentFilter(this.workingSet, 8 * 3600.0);
+		return this.workingSet;
+	}
+
+	@Benchmark
+	public void applyAgentFilterSingle(Blackhole blackhole) {
+		Id<Person> id = this.identified.get(this.next);
+		this.next = (this.next + 1 == this.identified.size()) ? 0 : this.next + 1;
+		blackhole.consume(this.filter.applyAgentFilter(id, 8 * 3600.0));
+	}
+}
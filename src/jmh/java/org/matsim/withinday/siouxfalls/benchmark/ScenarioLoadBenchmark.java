@@ -0,0 +1,71 @@
+package org.matsim.withinday.siouxfalls.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.withinday.siouxfalls.src.modules.RLConfigGroup;
+import org.matsim.withinday.siouxfalls.src.scenario.ScenarioCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Startup of a run on the Sioux Falls scenario: reading the XML inputs against reading the binary
+ * snapshot of the ScenarioCache. Run from the project root so the scenario is found.
+ *
+ * Every invocation is a full load, as at the start of an episode, so the mode is single shot. The
+ * snapshot is written once in the setup; hashing the inputs for the key is part of the cached load.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class ScenarioLoadBenchmark {
+
+	private static final String CONFIG = "scenarios/sioux-falls/modified/input/config.xml";
+
+	@Param({ "xml", "cache" })
+	public String source;
+
+	private Config config;
+	private Path cacheDirectory;
+
+	@Setup
+	public void setup() throws IOException {
+		this.config = ConfigUtils.loadConfig(CONFIG, new RLConfigGroup());
+		this.cacheDirectory = Files.createTempDirectory("scenario-cache");
+		if (source.equals("cache")) ScenarioCache.load(this.config, this.cacheDirectory);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(this.cacheDirectory)) {
+			for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) Files.delete(file);
+		}
+	}
+
+	@Benchmark
+	public Scenario load() {
+		if (source.equals("xml")) return ScenarioUtils.loadScenario(this.config);
+		return ScenarioCache.load(this.config, this.cacheDirectory);
+	}
+}
@@ -0,0 +1,162 @@
+package org.matsim.withinday.siouxfalls.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.groups.ControllerConfigGroup;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.Injector;
+import org.matsim.core.events.EventsManagerModule;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.router.TripRouter;
+import org.matsim.core.router.TripRouterModule;
+import org.matsim.core.router.TripStructureUtils;
+import org.matsim.core.router.TripStructureUtils.Trip;
+import org.matsim.core.router.costcalculators.TravelDisutilityModule;
+import org.matsim.core.scenario.ScenarioByInstanceModule;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.trafficmonitoring.TravelTimeCalculatorModule;
+import org.matsim.core.utils.timing.TimeInterpretation;
+import org.matsim.core.utils.timing.TimeInterpretationModule;
+import org.matsim.withinday.siouxfalls.src.modules.RLConfigGroup;
+import org.matsim.withinday.utils.EditTrips;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The trip lookup and rerouting done by NextLegModeReplanner for every replanned agent, on the Sioux
+ * Falls network with sidewalks. Run from the project root so the scenario is found.
+ *
+ * replanFutureTrip changes the plan, so every invocation gets a fresh copy of the next sampled plan.
+ * The copy is made in the invocation level setup of {@link PlanCopy}, only the replanning benchmark
+ * uses that state, so the setup neither runs for nor disturbs the timing of the lookup benchmark.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class TripReplanningBenchmark {
+
+	private static final String CONFIG = "scenarios/sioux-falls/modified/input/config.xml";
+	private static final String POPULATION = "population_10p.xml.gz";
+	private static final int SAMPLES = 1000;
+
+	@Param({ "car", "bike", "pedestrian" })
+	public String replanMode;
+
+	private Scenario scenario;
+	private TimeInterpretation timeInterpretation;
+	private EditTrips editTrips;
+	// Activities that are followed by a trip, with their plan
+	private final List<Plan> samplePlans = new ArrayList<>();
+	private final List<Integer> sampleActivities = new ArrayList<>();
+	private int next = 0;
+
+	/** The plan of the current replanFutureTrip invocation, copied before every invocation. */
+	@State(Scope.Thread)
+	public static class PlanCopy {
+		Plan plan;
+		Trip trip;
+		double departureTime;
+
+		@Setup(Level.Invocation)
+		public void copyNextPlan(TripReplanningBenchmark benchmark) {
+			int sample = benchmark.nextSample();
+			Plan original = benchmark.samplePlans.get(sample);
+			this.plan = PopulationUtils.createPlan(original.getPerson());
+			PopulationUtils.copyFromTo(original, this.plan);
+
+			Activity activity = (Activity) this.plan.getPlanElements().get(benchmark.sampleActivities.get(sample));
+			this.trip = TripStructureUtils.findTripStartingAtActivity(activity, this.plan);
+			this.departureTime = TripStructureUtils.getDepartureTime(this.trip).orElse(activity.getEndTime().orElse(8 * 3600.0));
+		}
+	}
+
+	@Setup
+	public void setup() {
+		Config config = ConfigUtils.loadConfig(CONFIG, new RLConfigGroup());
+		config.plans().setInputFile(POPULATION);
+		config.controller().setRoutingAlgorithmType(ControllerConfigGroup.RoutingAlgorithmType.Dijkstra);
+		this.scenario = ScenarioUtils.loadScenario(config);
+		this.timeInterpretation = TimeInterpretation.create(config);
+
+		com.google.inject.Injector injector = Injector.createInjector(config, new AbstractModule() {
+			@Override
+			public void install() {
+				install(new ScenarioByInstanceModule(scenario));
+				install(new EventsManagerModule());
+				install(new TimeInterpretationModule());
+				install(new TravelTimeCalculatorModule());
+				install(new TravelDisutilityModule());
+				install(new TripRouterModule());
+			}
+		});
+		TripRouter tripRouter = injector.getInstance(TripRouter.class);
+		// Future trips only, so no access to the running mobsim is needed
+		this.editTrips = new EditTrips(tripRouter, this.scenario, null, this.timeInterpretation);
+
+		List<Plan> plans = new ArrayList<>();
+		List<Integer> activities = new ArrayList<>();
+		for (Person person : this.scenario.getPopulation().getPersons().values()) {
+			Plan selected = person.getSelectedPlan();
+			List<PlanElement> elements = selected.getPlanElements();
+			for (int i = 0; i < elements.size(); i++) {
+				if (!(elements.get(i) instanceof Activity)) continue;
+				if (TripStructureUtils.findTripStartingAtActivity((Activity) elements.get(i), selected) == null) continue;
+				plans.add(selected);
+				activities.add(i);
+			}
+		}
+		if (plans.isEmpty()) throw new IllegalStateException("No trips found in " + POPULATION);
+
+		Random random = new Random(4711);
+		for (int i = 0; i < SAMPLES; i++) {
+			int sample = random.nextInt(plans.size());
+			this.samplePlans.add(plans.get(sample));
+			this.sampleActivities.add(activities.get(sample));
+		}
+	}
+
+	private int nextSample() {
+		int sample = this.next;
+		this.next = (this.next + 1 == SAMPLES) ? 0 : this.next + 1;
+		return sample;
+	}
+
+	@Benchmark
+	public Trip findTripStartingAtActivity() {
+		int sample = nextSample();
+		Plan samplePlan = this.samplePlans.get(sample);
+		Activity activity = (Activity) samplePlan.getPlanElements().get(this.sampleActivities.get(sample));
+		return TripStructureUtils.findTripStartingAtActivity(activity, samplePlan);
+	}
+
+	@Benchmark
+	public List<? extends PlanElement> findTripAndReplanFutureTrip(PlanCopy copy) {
+		// lookup again as the replanner does, the trip of the setup only provides the departure time
+		Activity activity = copy.trip.getOriginActivity();
+		Trip replannedTrip = TripStructureUtils.findTripStartingAtActivity(activity, copy.plan);
+		return this.editTrips.replanFutureTrip(replannedTrip, copy.plan, this.replanMode, copy.departureTime);
+	}
+}
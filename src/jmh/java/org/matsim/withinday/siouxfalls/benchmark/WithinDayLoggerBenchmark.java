@@ -0,0 +1,100 @@
+package org.matsim.withinday.siouxfalls.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.withinday.siouxfalls.utils.WithinDayLogger;
+import org.matsim.withinday.siouxfalls.utils.WithinDayLogger.Format;
+import org.matsim.withinday.siouxfalls.utils.WithinDayLogger.OverflowPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One logger shared by 1, 2 or 8 replanner threads, as in the within-day engine. The asynchronous
+ * logger blocks when its queue is full, so the numbers are the sustained rate including the writer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WithinDayLoggerBenchmark {
+
+	private static final int AGENTS = 1024;
+	private static final int STATE_WIDTH = 3;
+
+	@Param({ "sync", "async" })
+	public String logMode;
+
+	@Param({ "xml", "binary" })
+	public Format format;
+
+	private Path outputDirectory;
+	private WithinDayLogger logger;
+	private Id<Person>[] agentIds;
+	private final float[] state = { 8 * 3600.0f, 8 * 3600.0f + 60.0f, 0.0f };
+
+	@State(Scope.Thread)
+	public static class ThreadState {
+		int next = 0;
+	}
+
+	@Setup
+	@SuppressWarnings("unchecked")
+	public void setup() throws IOException {
+		this.outputDirectory = Files.createTempDirectory("withinday-logger-benchmark");
+		int queueCapacity = "async".equals(this.logMode) ? 65536 : 0;
+		this.logger = new WithinDayLogger(this.outputDirectory.toString(), this.format, STATE_WIDTH, queueCapacity, OverflowPolicy.block);
+		this.agentIds = new Id[AGENTS];
+		for (int i = 0; i < AGENTS; i++) this.agentIds[i] = Id.createPersonId("benchmark_" + i);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		this.logger.closeLog();
+		try (Stream<Path> files = Files.walk(this.outputDirectory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	private void log(ThreadState thread) {
+		int i = thread.next++ & (AGENTS - 1);
+		this.logger.logReplanningEvent(0, 8 * 3600.0 + i, this.agentIds[i], "car", 0, this.state, 0);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void logReplanningEvent1Thread(ThreadState thread) {
+		log(thread);
+	}
+
+	@Benchmark
+	@Threads(2)
+	public void logReplanningEvent2Threads(ThreadState thread) {
+		log(thread);
+	}
+
+	@Benchmark
+	@Threads(8)
+	public void logReplanningEvent8Threads(ThreadState thread) {
+		log(thread);
+	}
+}
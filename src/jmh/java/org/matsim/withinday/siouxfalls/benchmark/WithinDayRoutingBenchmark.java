@@ -0,0 +1,94 @@
+package org.matsim.withinday.siouxfalls.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.groups.ControllerConfigGroup.RoutingAlgorithmType;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.network.algorithms.TransportModeNetworkFilter;
+import org.matsim.core.network.io.MatsimNetworkReader;
+import org.matsim.core.router.costcalculators.OnlyTimeDependentTravelDisutility;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.util.LeastCostPathCalculator.Path;
+import org.matsim.core.router.util.TravelDisutility;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.withinday.siouxfalls.src.routing.WithinDayRoutingModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One least-cost path query per invocation on a mode subnetwork of the Sioux Falls network with
+ * sidewalks, with time dependent (congested) travel times as during within-day replanning. Compare the
+ * algorithms per mode for the speedup of the landmark based ones. Run from the project root.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WithinDayRoutingBenchmark {
+
+	private static final String NETWORK = "scenarios/sioux-falls/modified/input/networkwithsidewalks.xml";
+	private static final int QUERIES = 1024;
+
+	private static final TravelTime LIVE_TRAVEL_TIME = (link, time, person, vehicle) -> {
+		double factor = 1.0 + ((link.getId().index() * 31 + (int) (time / 900)) % 7) * 0.5;
+		return factor * link.getLength() / link.getFreespeed();
+	};
+
+	@Param({ "Dijkstra", "AStarLandmarks", "SpeedyALT" })
+	public RoutingAlgorithmType algorithm;
+
+	@Param({ "car", "bike", "pedestrian" })
+	public String mode;
+
+	private LeastCostPathCalculator calculator;
+	private final Node[] fromNodes = new Node[QUERIES];
+	private final Node[] toNodes = new Node[QUERIES];
+	private final double[] departures = new double[QUERIES];
+	private int next = 0;
+
+	@Setup
+	public void setup() {
+		Network network = NetworkUtils.createNetwork();
+		new MatsimNetworkReader(network).readFile(NETWORK);
+		Network subNetwork = NetworkUtils.createNetwork();
+		new TransportModeNetworkFilter(network).filter(subNetwork, Set.of(this.mode));
+
+		TravelDisutility disutility = new OnlyTimeDependentTravelDisutility(LIVE_TRAVEL_TIME);
+		// includes the landmark preprocessing, which is not part of the measurement
+		this.calculator = WithinDayRoutingModule.createPathCalculatorFactory(this.algorithm, ConfigUtils.createConfig())
+				.createPathCalculator(subNetwork, disutility, LIVE_TRAVEL_TIME);
+
+		List<Node> nodes = new ArrayList<>(subNetwork.getNodes().values());
+		Random random = new Random(4711);
+		for (int i = 0; i < QUERIES; i++) {
+			this.fromNodes[i] = nodes.get(random.nextInt(nodes.size()));
+			this.toNodes[i] = nodes.get(random.nextInt(nodes.size()));
+			this.departures[i] = 6 * 3600 + random.nextInt(4 * 3600);
+		}
+	}
+
+	@Benchmark
+	public Path calcLeastCostPath() {
+		int i = this.next;
+		this.next = (i + 1) & (QUERIES - 1);
+		return this.calculator.calcLeastCostPath(this.fromNodes[i], this.toNodes[i], this.departures[i], null, null);
+	}
+}
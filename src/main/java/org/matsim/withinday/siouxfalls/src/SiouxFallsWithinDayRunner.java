@@ -7,46 +7,61 @@ import org.matsim.core.config.groups.ControllerConfigGroup;
 import org.matsim.core.controler.AbstractModule;
 import org.matsim.core.controler.Controler;
 import org.matsim.core.controler.OutputDirectoryHierarchy.OverwriteFileSetting;
-import org.matsim.core.controler.events.IterationStartsEvent;
-import org.matsim.core.controler.listener.IterationStartsListener;
 import org.matsim.core.mobsim.framework.listeners.MobsimListener;
-import org.matsim.core.scenario.ScenarioUtils;
 import org.matsim.withinday.controller.WithinDayModule;
-import org.matsim.withinday.siouxfalls.utils.SimulationState;
+import org.matsim.withinday.siouxfalls.src.checkpoint.CheckpointModule;
+import org.matsim.withinday.siouxfalls.src.checkpoint.PlanCheckpoint;
+import org.matsim.withinday.siouxfalls.src.episodes.EpisodeContext;
+import org.matsim.withinday.siouxfalls.src.episodes.EpisodeModule;
+import org.matsim.withinday.siouxfalls.src.events.RLEventsModule;
 import org.matsim.withinday.siouxfalls.src.modules.CustomWithinDayModule;
+import org.matsim.withinday.siouxfalls.src.modules.RLConfigGroup;
+import org.matsim.withinday.siouxfalls.src.routing.ModeTravelTimeEstimator;
+import org.matsim.withinday.siouxfalls.src.routing.WithinDayRoutingModule;
+import org.matsim.withinday.siouxfalls.src.scenario.ScenarioCache;
+import org.matsim.withinday.siouxfalls.src.state.LinkCongestionTracker;
+import org.matsim.withinday.siouxfalls.src.state.TripRewardTracker;
 
 public class SiouxFallsWithinDayRunner{
 
     public static void main(String[] args) {
 		Config config;
 		if ( args==null || args.length==0 || args[0]==null ){
-			config = ConfigUtils.loadConfig( "scenarios/sioux-falls/modified/input/config.xml" );
+			config = ConfigUtils.loadConfig( "scenarios/sioux-falls/modified/input/config.xml", new RLConfigGroup() );
 		} else {
-			config = ConfigUtils.loadConfig( args );
+			config = ConfigUtils.loadConfig( args, new RLConfigGroup() );
 		}
 
-        // Required to initiate the within day module
+        // Required to initiate the within day module (the within-day routing algorithm is set by WithinDayRoutingModule)
         config.controller().setRoutingAlgorithmType( ControllerConfigGroup.RoutingAlgorithmType.Dijkstra );
 
 		config.controller().setOverwriteFileSetting( OverwriteFileSetting.deleteDirectoryIfExists );
 		config.controller().setLastIteration(0);
 
-        Scenario scenario = ScenarioUtils.loadScenario(config);
+        // Reads the binary snapshot of the inputs if scenarioCacheDirectory is set
+        Scenario scenario = ScenarioCache.load(config);
+
+        // Start from a plan checkpoint of an earlier run (checkpointInput)
+        PlanCheckpoint.restore(scenario);
+
         Controler controler = new Controler(scenario);
 
+        // Within-day replanning with the state of this run
+        configureWithinDay(controler, EpisodeContext.single(config));
+
+        // Start timer
+        long start = System.currentTimeMillis();
+        controler.run();
+        System.out.println("Total Execution Time: " + (System.currentTimeMillis() - start) / 1000.0 + "s");
+    }
+
+    /**
+     * Installs the within-day replanning into a Controler. Everything a run keeps between iterations
+     * lives in the given context, so several Controlers can be configured this way in one JVM.
+     */
+    public static void configureWithinDay(Controler controler, EpisodeContext context) {
         // Installing the custom iteration tracker within th eqsim environment
-        controler.addOverridingModule(new AbstractModule() {
-            @Override
-            public void install() {
-                // Use bind() to link your listener to the Matsim Controler
-                bind(IterationStartsListener.class).toInstance(new IterationStartsListener() {
-                    @Override
-                    public void notifyIterationStarts(IterationStartsEvent event) {
-                        SimulationState.currentIteration = event.getIteration();
-                    }
-                });
-            }
-        });
+        controler.addOverridingModule(new EpisodeModule(context));
         
         // Overriding the iteration base qsim with the within day module
         controler.addOverridingModule(new AbstractModule() {
@@ -60,13 +75,32 @@ public class SiouxFallsWithinDayRunner{
                     addMobsimListenerBinding().to((Class<? extends MobsimListener>) CustomWithinDayModule.class);
                     addControlerListenerBinding().to(CustomWithinDayModule.class);
 
+                    // The decision state is only built for a policy
+                    RLConfigGroup rlConfig = ConfigUtils.addOrGetModule(getConfig(), RLConfigGroup.class);
+                    if (rlConfig.getPolicyTransport() != RLConfigGroup.PolicyTransport.none) {
+                        // Live link conditions for the decision state, its events handler is added in CustomWithinDayModule
+                        bind(LinkCongestionTracker.class).asEagerSingleton();
+                        addMobsimListenerBinding().to(LinkCongestionTracker.class);
+
+                        // Travel time estimates of the candidate modes (state schema V3), cached per origin and time bin
+                        bind(ModeTravelTimeEstimator.class).asEagerSingleton();
+                        addMobsimListenerBinding().to(ModeTravelTimeEstimator.class);
+
+                        // Trip rewards from the scoring parameters (state schema V4), its events handler is added in CustomWithinDayModule
+                        bind(TripRewardTracker.class).asEagerSingleton();
+                    }
+
                     System.out.println("Within-Day Strategy Linked to Factory Engine!");
                 }
         });
 
-        // Start timer
-        long start = System.currentTimeMillis();
-        controler.run();
-        System.out.println("Total Execution Time: " + (System.currentTimeMillis() - start) / 1000.0 + "s");
+        // Within-day routing algorithm (withinDayRoutingAlgorithm) and shared route cache (routeCacheSize > 0)
+        controler.addOverridingModule(new WithinDayRoutingModule());
+
+        // Plan checkpoint at checkpointTime
+        controler.addOverridingModule(new CheckpointModule());
+
+        // Binary RL events every rlEventsInterval iterations
+        controler.addOverridingModule(new RLEventsModule());
     }
 }
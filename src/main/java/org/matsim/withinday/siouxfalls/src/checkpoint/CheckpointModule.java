@@ -0,0 +1,22 @@
+package org.matsim.withinday.siouxfalls.src.checkpoint;
+
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.withinday.siouxfalls.src.modules.RLConfigGroup;
+
+/**
+ * Records a {@link PlanCheckpoint} in every iteration if <code>checkpointTime</code> is set.
+ * Restoring happens on the scenario before the Controler is created, see
+ * {@link PlanCheckpoint#restore(org.matsim.api.core.v01.Scenario)}.
+ */
+public class CheckpointModule extends AbstractModule {
+
+	@Override
+	public void install() {
+		RLConfigGroup rlConfig = ConfigUtils.addOrGetModule(getConfig(), RLConfigGroup.class);
+		if (rlConfig.getCheckpointTime() < 0) return;
+
+		addMobsimListenerBinding().toInstance(new CheckpointRecorder(rlConfig.getCheckpointTime()));
+		System.out.println("Plan checkpoint at " + rlConfig.getCheckpointTime() + "s");
+	}
+}
@@ -0,0 +1,50 @@
+package org.matsim.withinday.siouxfalls.src.checkpoint;
+
+import jakarta.inject.Inject;
+
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
+import org.matsim.core.mobsim.framework.events.MobsimBeforeSimStepEvent;
+import org.matsim.core.mobsim.framework.events.MobsimInitializedEvent;
+import org.matsim.core.mobsim.framework.listeners.MobsimBeforeSimStepListener;
+import org.matsim.core.mobsim.framework.listeners.MobsimInitializedListener;
+import org.matsim.withinday.mobsim.MobsimDataProvider;
+import org.matsim.withinday.siouxfalls.src.episodes.EpisodeContext;
+
+/**
+ * Writes a {@link PlanCheckpoint} before the first time step at or after the checkpoint time, to
+ * the <code>checkpoint</code> directory of the iteration.
+ */
+public class CheckpointRecorder implements MobsimInitializedListener, MobsimBeforeSimStepListener {
+
+	public static final String DIRECTORY = "checkpoint";
+
+	@Inject private Scenario scenario;
+	@Inject private MobsimDataProvider mobsimDataProvider;
+	@Inject private OutputDirectoryHierarchy controlerIO;
+	@Inject private EpisodeContext episode;
+
+	private final double checkpointTime;
+	private boolean written = false;
+
+	public CheckpointRecorder(double checkpointTime) {
+		this.checkpointTime = checkpointTime;
+	}
+
+	@Override
+	public void notifyMobsimInitialized(MobsimInitializedEvent e) {
+		this.written = false;
+	}
+
+	@Override
+	public void notifyMobsimBeforeSimStep(MobsimBeforeSimStepEvent e) {
+		if (this.written || e.getSimulationTime() < this.checkpointTime) return;
+		this.written = true;
+
+		PlanCheckpoint checkpoint = PlanCheckpoint.capture(e.getSimulationTime(), this.mobsimDataProvider.getAgents(), this.scenario);
+		String directory = this.controlerIO.getIterationFilename(this.episode.getCurrentIteration(), DIRECTORY);
+		checkpoint.write(directory);
+		System.out.println("Wrote " + checkpoint + " to " + directory);
+		if (!checkpoint.isRestorable()) System.err.println("The checkpoint cannot be restored, agents or buses were on the road at " + e.getSimulationTime());
+	}
+}
@@ -0,0 +1,308 @@
+package org.matsim.withinday.siouxfalls.src.checkpoint;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.api.core.v01.population.PopulationWriter;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.groups.QSimConfigGroup;
+import org.matsim.core.mobsim.framework.MobsimAgent;
+import org.matsim.core.mobsim.qsim.agents.WithinDayAgentUtils;
+import org.matsim.core.mobsim.qsim.pt.TransitDriverAgentImpl;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.io.PopulationReader;
+import org.matsim.core.router.TripStructureUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.utils.misc.Time;
+import org.matsim.pt.transitSchedule.api.Departure;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.withinday.siouxfalls.src.modules.RLConfigGroup;
+
+/**
+ * The executed plans of all agents at a quiet time of day, so that episodes can start from a common,
+ * within-day modified state of the population.
+ *
+ * This is not a snapshot of the mobsim: the link queues, the vehicles in traffic, the transit drivers
+ * and the within-day maps are not saved, the QSim does not expose them for serialization. What is
+ * saved is what MATSim can start from: the plan of every agent from its current plan element on, with
+ * the end time the agent had scheduled for its current activity. Restoring starts the QSim at the
+ * checkpoint time, drops the transit departures before it and lets the mobsim rebuild everything else.
+ *
+ * From the checkpoint time on, the restored run produces the same events as the uninterrupted run
+ * (with the same actions) only if nobody is on the road at that time, i.e. for a checkpoint taken
+ * while {@link #getAgentsInFlight()} and {@link #getTransitDeparturesInService()} are 0. Such
+ * checkpoints are refused when restored ({@link #checkRestorable()}). That limits the checkpoint to
+ * near empty times of day (e.g. 04:00), so restoring it saves hardly any simulation time, it is not a
+ * way to skip the busy hours.
+ */
+public final class PlanCheckpoint {
+
+	public static final String POPULATION_FILE = "population.xml.gz";
+	public static final String STATE_FILE = "checkpoint.properties";
+
+	private final double time;
+	private final Population population;
+	private final int agentsInFlight;
+	private final int agentsAborted;
+	private final int transitDeparturesInService;
+
+	private PlanCheckpoint(double time, Population population, int agentsInFlight, int agentsAborted, int transitDeparturesInService) {
+		this.time = time;
+		this.population = population;
+		this.agentsInFlight = agentsInFlight;
+		this.agentsAborted = agentsAborted;
+		this.transitDeparturesInService = transitDeparturesInService;
+	}
+
+	/**
+	 * Captures the agents of a running mobsim, before the time step <code>time</code> is simulated.
+	 * The persons are kept in the order of the scenario population, which is the order the QSim
+	 * inserts them in.
+	 */
+	public static PlanCheckpoint capture(double time, Map<Id<Person>, MobsimAgent> agents, Scenario scenario) {
+		Population population = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+		int inFlight = 0;
+		int aborted = 0;
+		for (Person person : scenario.getPopulation().getPersons().values()) {
+			MobsimAgent agent = agents.get(person.getId());
+			if (agent == null || agent instanceof TransitDriverAgentImpl) continue;
+			if (agent.getState() == MobsimAgent.State.ABORT) {
+				aborted++;
+				continue;
+			}
+
+			Plan executedPlan = WithinDayAgentUtils.getModifiablePlan(agent);
+			Integer index = WithinDayAgentUtils.getCurrentPlanElementIndex(agent);
+			if (executedPlan == null || index == null) continue;
+
+			Person checkpointPerson = population.getFactory().createPerson(person.getId());
+			Plan plan;
+			if (agent.getState() == MobsimAgent.State.ACTIVITY) {
+				plan = createPlan(checkpointPerson, executedPlan, index, agent.getActivityEndTime());
+			} else {
+				// Cannot be put back on its link: starts its trip again at the checkpoint time
+				plan = createPlan(checkpointPerson, executedPlan, findTripStart(executedPlan, index), time);
+				inFlight++;
+			}
+			checkpointPerson.addPlan(plan);
+			checkpointPerson.setSelectedPlan(plan);
+			population.addPerson(checkpointPerson);
+		}
+		int inService = (scenario.getTransitSchedule() != null) ? countDeparturesInService(scenario.getTransitSchedule(), time) : 0;
+		return new PlanCheckpoint(time, population, inFlight, aborted, inService);
+	}
+
+	// The plan from the activity at firstIndex on, which ends at activityEndTime
+	static Plan createPlan(Person person, Plan executedPlan, int firstIndex, double activityEndTime) {
+		Plan plan = PopulationUtils.createPlan(person);
+		List<PlanElement> elements = executedPlan.getPlanElements();
+		Activity first = PopulationUtils.createActivity((Activity) elements.get(firstIndex));
+		if (Double.isFinite(activityEndTime)) {
+			first.setEndTime(activityEndTime);
+		} else {
+			first.setEndTimeUndefined();
+		}
+		plan.addActivity(first);
+		for (int i = firstIndex + 1; i < elements.size(); i++) {
+			PlanElement element = elements.get(i);
+			if (element instanceof Activity) {
+				plan.addActivity((Activity) element);
+			} else {
+				plan.addLeg((Leg) element);
+			}
+		}
+		return plan;
+	}
+
+	// Index of the last real (non stage) activity before the leg at legIndex
+	static int findTripStart(Plan plan, int legIndex) {
+		List<PlanElement> elements = plan.getPlanElements();
+		for (int i = legIndex - 1; i > 0; i--) {
+			PlanElement element = elements.get(i);
+			if (element instanceof Activity && !TripStructureUtils.isStageActivityType(((Activity) element).getType())) return i;
+		}
+		return 0;
+	}
+
+	static int countDeparturesInService(TransitSchedule schedule, double time) {
+		int inService = 0;
+		for (TransitLine line : schedule.getTransitLines().values()) {
+			for (TransitRoute route : line.getRoutes().values()) {
+				double duration = getRouteDuration(route);
+				for (Departure departure : route.getDepartures().values()) {
+					if (departure.getDepartureTime() < time && departure.getDepartureTime() + duration > time) inService++;
+				}
+			}
+		}
+		return inService;
+	}
+
+	/**
+	 * Removes the departures before the checkpoint time. The QSim would otherwise start all of them at
+	 * once at the checkpoint time.
+	 *
+	 * @return the number of removed departures
+	 */
+	public int trimTransitSchedule(TransitSchedule schedule) {
+		int removed = 0;
+		for (TransitLine line : schedule.getTransitLines().values()) {
+			for (TransitRoute route : line.getRoutes().values()) {
+				List<Departure> early = new ArrayList<>();
+				for (Departure departure : route.getDepartures().values()) {
+					if (departure.getDepartureTime() < this.time) early.add(departure);
+				}
+				for (Departure departure : early) {
+					if (route.removeDeparture(departure)) removed++;
+				}
+			}
+		}
+		return removed;
+	}
+
+	private static double getRouteDuration(TransitRoute route) {
+		if (route.getStops().isEmpty()) return 0;
+		return route.getStops().get(route.getStops().size() - 1).getArrivalOffset().orElse(0);
+	}
+
+	/**
+	 * Replaces the plans of the scenario population by copies of the checkpoint plans. Persons that
+	 * were not in the mobsim any more (aborted) are removed.
+	 */
+	public void restorePopulation(Population target) {
+		List<Id<Person>> missing = new ArrayList<>();
+		for (Person person : target.getPersons().values()) {
+			Person checkpointPerson = this.population.getPersons().get(person.getId());
+			if (checkpointPerson == null) {
+				missing.add(person.getId());
+				continue;
+			}
+			// A copy: the checkpoint may be restored into several scenarios
+			Plan plan = PopulationUtils.createPlan(person);
+			PopulationUtils.copyFromTo(checkpointPerson.getSelectedPlan(), plan);
+			for (Plan old : new ArrayList<>(person.getPlans())) person.removePlan(old);
+			person.addPlan(plan);
+			person.setSelectedPlan(plan);
+		}
+		for (Id<Person> personId : missing) target.removePerson(personId);
+	}
+
+	/** Lets the QSim start at the checkpoint time, also if no activity ends then. */
+	public void restoreStartTime(Config config) {
+		config.qsim().setStartTime(this.time);
+		config.qsim().setSimStarttimeInterpretation(QSimConfigGroup.StarttimeInterpretation.onlyUseStarttime);
+	}
+
+	/**
+	 * Restores the checkpoint given by <code>checkpointInput</code> into the scenario, if there is one.
+	 *
+	 * @return the restored checkpoint or null
+	 */
+	public static PlanCheckpoint restore(Scenario scenario) {
+		RLConfigGroup rlConfig = ConfigUtils.addOrGetModule(scenario.getConfig(), RLConfigGroup.class);
+		String directory = rlConfig.getCheckpointInput();
+		if (directory == null || directory.isEmpty()) return null;
+
+		PlanCheckpoint checkpoint = read(directory);
+		checkpoint.checkRestorable();
+		if (scenario.getTransitSchedule() != null) checkpoint.trimTransitSchedule(scenario.getTransitSchedule());
+		checkpoint.restorePopulation(scenario.getPopulation());
+		checkpoint.restoreStartTime(scenario.getConfig());
+		System.out.println("Restored " + checkpoint);
+		return checkpoint;
+	}
+
+	/**
+	 * @throws IllegalStateException if agents were on a leg or buses in service at the checkpoint time,
+	 * the restored run would then differ from the uninterrupted one
+	 */
+	public void checkRestorable() {
+		if (isRestorable()) return;
+		throw new IllegalStateException("Cannot restore the " + this + ": the restored run would not be the same as the uninterrupted run."
+				+ " Take the checkpoint at a time when nobody travels and no bus is in service.");
+	}
+
+	public boolean isRestorable() {
+		return this.agentsInFlight == 0 && this.transitDeparturesInService == 0;
+	}
+
+	public void write(String directory) {
+		try {
+			Files.createDirectories(Paths.get(directory));
+			new PopulationWriter(this.population).write(Paths.get(directory, POPULATION_FILE).toString());
+
+			Properties state = new Properties();
+			state.setProperty("time", Double.toString(this.time));
+			state.setProperty("agents", Integer.toString(this.population.getPersons().size()));
+			state.setProperty("agentsInFlight", Integer.toString(this.agentsInFlight));
+			state.setProperty("agentsAborted", Integer.toString(this.agentsAborted));
+			state.setProperty("transitDeparturesInService", Integer.toString(this.transitDeparturesInService));
+			try (OutputStream out = Files.newOutputStream(Paths.get(directory, STATE_FILE))) {
+				state.store(out, "Within-day plan checkpoint");
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not write the checkpoint to " + directory, e);
+		}
+	}
+
+	public static PlanCheckpoint read(String directory) {
+		Path stateFile = Paths.get(directory, STATE_FILE);
+		Properties state = new Properties();
+		try (InputStream in = Files.newInputStream(stateFile)) {
+			state.load(in);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not read the checkpoint " + stateFile, e);
+		}
+
+		Scenario checkpointScenario = ScenarioUtils.createScenario(ConfigUtils.createConfig());
+		new PopulationReader(checkpointScenario).readFile(Paths.get(directory, POPULATION_FILE).toString());
+		return new PlanCheckpoint(Double.parseDouble(state.getProperty("time")), checkpointScenario.getPopulation(),
+				Integer.parseInt(state.getProperty("agentsInFlight", "0")), Integer.parseInt(state.getProperty("agentsAborted", "0")),
+				Integer.parseInt(state.getProperty("transitDeparturesInService", "0")));
+	}
+
+	public double getTime() {
+		return time;
+	}
+
+	public Population getPopulation() {
+		return population;
+	}
+
+	public int getAgentsInFlight() {
+		return agentsInFlight;
+	}
+
+	public int getAgentsAborted() {
+		return agentsAborted;
+	}
+
+	public int getTransitDeparturesInService() {
+		return transitDeparturesInService;
+	}
+
+	@Override
+	public String toString() {
+		return "plan checkpoint at " + Time.writeTime(time) + ": " + population.getPersons().size() + " agents, "
+				+ agentsInFlight + " on a leg, " + agentsAborted + " aborted, " + transitDeparturesInService + " transit departures in service";
+	}
+}
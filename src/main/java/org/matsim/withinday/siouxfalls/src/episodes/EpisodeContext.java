@@ -0,0 +1,62 @@
+package org.matsim.withinday.siouxfalls.src.episodes;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.matsim.core.config.Config;
+
+/**
+ * State of one simulation (episode) that used to be global: the current iteration and where the
+ * within-day output goes. Bound once per Controler by {@link EpisodeModule}, so several episodes can
+ * run side by side in one JVM.
+ */
+public final class EpisodeContext {
+
+	private final int episodeId;
+	private final long seed;
+	private final String outputDirectory;
+	private volatile int currentIteration = 0;
+	private final LongAdder replanningEvents = new LongAdder();
+
+	public EpisodeContext(int episodeId, long seed, String outputDirectory) {
+		this.episodeId = episodeId;
+		this.seed = seed;
+		this.outputDirectory = outputDirectory;
+	}
+
+	/**
+	 * Context of a run that is not part of a batch of episodes: the within-day output goes to the
+	 * output directory of the controller, with the global random seed.
+	 */
+	public static EpisodeContext single(Config config) {
+		return new EpisodeContext(0, config.global().getRandomSeed(), config.controller().getOutputDirectory());
+	}
+
+	public int getEpisodeId() {
+		return episodeId;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public String getOutputDirectory() {
+		return outputDirectory;
+	}
+
+	public int getCurrentIteration() {
+		return currentIteration;
+	}
+
+	public void setCurrentIteration(int currentIteration) {
+		this.currentIteration = currentIteration;
+	}
+
+	/** Called by the replanners for every agent they replanned. */
+	public void countReplanningEvent() {
+		replanningEvents.increment();
+	}
+
+	public long getReplanningEvents() {
+		return replanningEvents.sum();
+	}
+}
@@ -0,0 +1,28 @@
+package org.matsim.withinday.siouxfalls.src.episodes;
+
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.events.IterationStartsEvent;
+import org.matsim.core.controler.listener.IterationStartsListener;
+
+/**
+ * Makes the {@link EpisodeContext} of a Controler injectable and keeps its iteration up to date.
+ */
+public class EpisodeModule extends AbstractModule {
+
+	private final EpisodeContext context;
+
+	public EpisodeModule(EpisodeContext context) {
+		this.context = context;
+	}
+
+	@Override
+	public void install() {
+		bind(EpisodeContext.class).toInstance(this.context);
+		addControlerListenerBinding().toInstance(new IterationStartsListener() {
+			@Override
+			public void notifyIterationStarts(IterationStartsEvent event) {
+				context.setCurrentIteration(event.getIteration());
+			}
+		});
+	}
+}
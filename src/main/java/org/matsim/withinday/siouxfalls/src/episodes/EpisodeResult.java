@@ -0,0 +1,56 @@
+package org.matsim.withinday.siouxfalls.src.episodes;
+
+/**
+ * Outcome of one episode run by the {@link EpisodeRunner}.
+ */
+public final class EpisodeResult {
+
+	public static final String CSV_HEADER = "episode,seed,status,replanning_events,wall_s,output_directory,error";
+
+	private final EpisodeContext context;
+	private final boolean success;
+	private final double wallSeconds;
+	private final String error;
+
+	EpisodeResult(EpisodeContext context, boolean success, double wallSeconds, String error) {
+		this.context = context;
+		this.success = success;
+		this.wallSeconds = wallSeconds;
+		this.error = error;
+	}
+
+	public int getEpisodeId() {
+		return context.getEpisodeId();
+	}
+
+	public long getSeed() {
+		return context.getSeed();
+	}
+
+	public String getOutputDirectory() {
+		return context.getOutputDirectory();
+	}
+
+	public long getReplanningEvents() {
+		return context.getReplanningEvents();
+	}
+
+	public boolean isSuccess() {
+		return success;
+	}
+
+	public double getWallSeconds() {
+		return wallSeconds;
+	}
+
+	/** @return the failure message, null if the episode succeeded */
+	public String getError() {
+		return error;
+	}
+
+	String toCsv() {
+		String message = (error == null) ? "" : "\"" + error.replace("\"", "'") + "\"";
+		return getEpisodeId() + "," + getSeed() + "," + (success ? "ok" : "failed") + "," + getReplanningEvents() + ","
+				+ String.format(java.util.Locale.ROOT, "%.1f", wallSeconds) + "," + getOutputDirectory() + "," + message;
+	}
+}
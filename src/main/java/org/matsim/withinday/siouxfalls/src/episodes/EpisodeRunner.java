@@ -0,0 +1,167 @@
+package org.matsim.withinday.siouxfalls.src.episodes;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.groups.ControllerConfigGroup;
+import org.matsim.core.controler.Controler;
+import org.matsim.core.controler.OutputDirectoryHierarchy.OverwriteFileSetting;
+import org.matsim.core.scenario.MutableScenario;
+import org.matsim.withinday.siouxfalls.src.SiouxFallsWithinDayRunner;
+import org.matsim.withinday.siouxfalls.src.checkpoint.PlanCheckpoint;
+import org.matsim.withinday.siouxfalls.src.modules.RLConfigGroup;
+import org.matsim.withinday.siouxfalls.src.scenario.ScenarioCache;
+
+/**
+ * Runs N independent within-day simulations (episodes) at the same time in one JVM.
+ *
+ * Network, transit schedule and transit vehicles are read once and shared read-only by all episodes,
+ * so is the transit travel time table built from the schedule (see ModeTravelTimeEstimator).
+ * Every episode reads its own population, facilities and vehicles (it changes them), and has its own
+ * config, random seed, output directory and {@link EpisodeContext}. A summary of all episodes is
+ * written to episodes.csv in the base output directory. With <code>checkpointInput</code> set, all
+ * episodes start from that {@link PlanCheckpoint} instead of the qsim start time.
+ *
+ * Arguments: config file, number of episodes, episodes running at the same time, base seed, base
+ * output directory.
+ */
+public class EpisodeRunner {
+
+	private final String configFile;
+	private final String baseOutputDirectory;
+	private final int parallelEpisodes;
+	private Scenario sharedScenario;
+	private PlanCheckpoint checkpoint;
+
+	public static void main(String[] args) throws Exception {
+		String configFile = (args.length > 0) ? args[0] : "scenarios/sioux-falls/modified/input/config.xml";
+		int episodes = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+		int parallelEpisodes = (args.length > 2) ? Integer.parseInt(args[2]) : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+		long baseSeed = (args.length > 3) ? Long.parseLong(args[3]) : 4711;
+		String baseOutputDirectory = (args.length > 4) ? args[4] : "scenarios/sioux-falls/modified/output/episodes";
+
+		EpisodeRunner runner = new EpisodeRunner(configFile, baseOutputDirectory, parallelEpisodes);
+		long start = System.currentTimeMillis();
+		List<EpisodeResult> results = runner.run(episodes, baseSeed);
+		long failed = results.stream().filter(result -> !result.isSuccess()).count();
+		System.out.println(episodes + " episodes (" + failed + " failed) in " + (System.currentTimeMillis() - start) / 1000.0 + "s");
+	}
+
+	public EpisodeRunner(String configFile, String baseOutputDirectory, int parallelEpisodes) {
+		this.configFile = configFile;
+		this.baseOutputDirectory = baseOutputDirectory;
+		this.parallelEpisodes = Math.max(1, parallelEpisodes);
+	}
+
+	/**
+	 * Runs the episodes 0 .. episodes-1 with the seeds baseSeed + episode and waits for all of them.
+	 * A failing episode does not stop the others.
+	 */
+	public List<EpisodeResult> run(int episodes, long baseSeed) throws InterruptedException {
+		loadSharedScenario();
+
+		ExecutorService executor = Executors.newFixedThreadPool(this.parallelEpisodes);
+		List<Future<EpisodeResult>> futures = new ArrayList<>();
+		for (int episode = 0; episode < episodes; episode++) {
+			String outputDirectory = this.baseOutputDirectory + File.separator + "episode_" + episode;
+			EpisodeContext context = new EpisodeContext(episode, baseSeed + episode, outputDirectory);
+			futures.add(executor.submit(() -> runEpisode(context)));
+		}
+		executor.shutdown();
+
+		List<EpisodeResult> results = new ArrayList<>();
+		for (Future<EpisodeResult> future : futures) {
+			try {
+				results.add(future.get());
+			} catch (ExecutionException e) {
+				// runEpisode catches everything, this is a bug
+				throw new RuntimeException(e.getCause());
+			}
+		}
+		writeResults(results);
+		return results;
+	}
+
+	private synchronized void loadSharedScenario() {
+		if (this.sharedScenario != null) return;
+		Config config = ConfigUtils.loadConfig(this.configFile, new RLConfigGroup());
+		config.plans().setInputFile(null);
+		config.facilities().setInputFile(null);
+		this.sharedScenario = ScenarioCache.load(config);
+
+		// All episodes start from the same checkpoint (checkpointInput), the schedule is trimmed once
+		String checkpointInput = ConfigUtils.addOrGetModule(config, RLConfigGroup.class).getCheckpointInput();
+		if (checkpointInput != null && !checkpointInput.isEmpty()) {
+			this.checkpoint = PlanCheckpoint.read(checkpointInput);
+			this.checkpoint.checkRestorable();
+			this.checkpoint.trimTransitSchedule(this.sharedScenario.getTransitSchedule());
+			System.out.println("Episodes start from " + this.checkpoint);
+		}
+	}
+
+	private EpisodeResult runEpisode(EpisodeContext context) {
+		long start = System.nanoTime();
+		try {
+			Config config = ConfigUtils.loadConfig(this.configFile, new RLConfigGroup());
+			// Required to initiate the within day module
+			config.controller().setRoutingAlgorithmType(ControllerConfigGroup.RoutingAlgorithmType.Dijkstra);
+			config.controller().setOverwriteFileSetting(OverwriteFileSetting.deleteDirectoryIfExists);
+			config.controller().setLastIteration(0);
+			config.controller().setOutputDirectory(context.getOutputDirectory());
+			config.global().setRandomSeed(context.getSeed());
+
+			// The shared inputs are not read again
+			config.network().setInputFile(null);
+			config.transit().setTransitScheduleFile(null);
+			config.transit().setVehiclesFile(null);
+			MutableScenario scenario = (MutableScenario) ScenarioCache.load(config);
+			scenario.setNetwork(this.sharedScenario.getNetwork());
+			scenario.setTransitSchedule(this.sharedScenario.getTransitSchedule());
+			scenario.setTransitVehicles(this.sharedScenario.getTransitVehicles());
+			if (this.checkpoint != null) {
+				this.checkpoint.restorePopulation(scenario.getPopulation());
+				this.checkpoint.restoreStartTime(config);
+			}
+
+			Controler controler = new Controler(scenario);
+			SiouxFallsWithinDayRunner.configureWithinDay(controler, context);
+			controler.run();
+
+			return new EpisodeResult(context, true, (System.nanoTime() - start) / 1e9, null);
+		} catch (Exception e) {
+			System.err.println("Episode " + context.getEpisodeId() + " failed: " + e.getMessage());
+			e.printStackTrace();
+			return new EpisodeResult(context, false, (System.nanoTime() - start) / 1e9, String.valueOf(e.getMessage()));
+		}
+	}
+
+	private void writeResults(List<EpisodeResult> results) {
+		String file = this.baseOutputDirectory + File.separator + "episodes.csv";
+		try {
+			Files.createDirectories(Paths.get(this.baseOutputDirectory));
+			try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8)) {
+				writer.write(EpisodeResult.CSV_HEADER);
+				writer.newLine();
+				for (EpisodeResult result : results) {
+					writer.write(result.toCsv());
+					writer.newLine();
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("Could not write the episode results to " + file + ": " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package org.matsim.withinday.siouxfalls.src.events;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+
+import jakarta.inject.Inject;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.events.ActivityEndEvent;
+import org.matsim.api.core.v01.events.ActivityStartEvent;
+import org.matsim.api.core.v01.events.PersonArrivalEvent;
+import org.matsim.api.core.v01.events.PersonDepartureEvent;
+import org.matsim.api.core.v01.events.PersonStuckEvent;
+import org.matsim.api.core.v01.events.handler.ActivityEndEventHandler;
+import org.matsim.api.core.v01.events.handler.ActivityStartEventHandler;
+import org.matsim.api.core.v01.events.handler.PersonArrivalEventHandler;
+import org.matsim.api.core.v01.events.handler.PersonDepartureEventHandler;
+import org.matsim.api.core.v01.events.handler.PersonStuckEventHandler;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
+import org.matsim.core.controler.events.IterationEndsEvent;
+import org.matsim.core.controler.events.IterationStartsEvent;
+import org.matsim.core.controler.listener.IterationEndsListener;
+import org.matsim.core.controler.listener.IterationStartsListener;
+import org.matsim.withinday.siouxfalls.src.modules.RLConfigGroup;
+import org.matsim.withinday.siouxfalls.utils.BinaryEventsWriter;
+import org.matsim.withinday.siouxfalls.utils.BinaryEventsWriter.Type;
+
+/**
+ * Writes the events of the population the RL pipeline reads (departures, arrivals, activity starts
+ * and ends, stuck agents) and the within-day decisions to {@link BinaryEventsWriter#FILE_NAME} of
+ * every <code>rlEventsInterval</code>th iteration. Events of persons outside the population, like
+ * the transit drivers, are skipped.
+ */
+public class RLEventRecorder implements PersonDepartureEventHandler, PersonArrivalEventHandler, ActivityStartEventHandler,
+		ActivityEndEventHandler, PersonStuckEventHandler, IterationStartsListener, IterationEndsListener {
+
+	private final Scenario scenario;
+	private final OutputDirectoryHierarchy controlerIO;
+	private final int interval;
+
+	// null in iterations without a file
+	private volatile BinaryEventsWriter writer;
+
+	@Inject
+	public RLEventRecorder(Scenario scenario, OutputDirectoryHierarchy controlerIO) {
+		this.scenario = scenario;
+		this.controlerIO = controlerIO;
+		this.interval = ConfigUtils.addOrGetModule(scenario.getConfig(), RLConfigGroup.class).getRlEventsInterval();
+	}
+
+	public boolean isEnabled() {
+		return interval > 0;
+	}
+
+	@Override
+	public void notifyIterationStarts(IterationStartsEvent event) {
+		if (!isEnabled() || event.getIteration() % interval != 0) return;
+		String file = this.controlerIO.getIterationFilename(event.getIteration(), BinaryEventsWriter.FILE_NAME);
+		this.writer = new BinaryEventsWriter(Paths.get(file), event.getIteration());
+	}
+
+	@Override
+	public void notifyIterationEnds(IterationEndsEvent event) {
+		BinaryEventsWriter current = this.writer;
+		if (current == null) return;
+		this.writer = null;
+		try {
+			current.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not write the RL events of iteration " + current.getIteration(), e);
+		}
+		System.out.println("RL events: " + current.size() + " events of iteration " + current.getIteration());
+	}
+
+	/** Called by the replanner threads for every within-day decision. */
+	public void recordDecision(double time, Id<Person> agentId, String mode, int action) {
+		BinaryEventsWriter current = this.writer;
+		if (current != null) current.add(Type.DECISION, time, agentId, null, mode, action);
+	}
+
+	@Override
+	public void handleEvent(PersonDepartureEvent event) {
+		if (isRecorded(event.getPersonId())) this.writer.add(Type.DEPARTURE, event.getTime(), event.getPersonId(), event.getLinkId(), event.getLegMode(), -1);
+	}
+
+	@Override
+	public void handleEvent(PersonArrivalEvent event) {
+		if (isRecorded(event.getPersonId())) this.writer.add(Type.ARRIVAL, event.getTime(), event.getPersonId(), event.getLinkId(), event.getLegMode(), -1);
+	}
+
+	@Override
+	public void handleEvent(ActivityStartEvent event) {
+		if (isRecorded(event.getPersonId())) this.writer.add(Type.ACTIVITY_START, event.getTime(), event.getPersonId(), event.getLinkId(), event.getActType(), -1);
+	}
+
+	@Override
+	public void handleEvent(ActivityEndEvent event) {
+		if (isRecorded(event.getPersonId())) this.writer.add(Type.ACTIVITY_END, event.getTime(), event.getPersonId(), event.getLinkId(), event.getActType(), -1);
+	}
+
+	@Override
+	public void handleEvent(PersonStuckEvent event) {
+		if (isRecorded(event.getPersonId())) this.writer.add(Type.STUCK, event.getTime(), event.getPersonId(), event.getLinkId(), event.getLegMode(), -1);
+	}
+
+	// The writer only changes between iterations, not while events are handled
+	private boolean isRecorded(Id<Person> personId) {
+		return this.writer != null && this.scenario.getPopulation().getPersons().containsKey(personId);
+	}
+}
@@ -0,0 +1,24 @@
+package org.matsim.withinday.siouxfalls.src.events;
+
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.withinday.siouxfalls.src.modules.RLConfigGroup;
+
+/**
+ * Records the binary RL events if <code>rlEventsInterval</code> is set. The recorder is bound in any
+ * case, so the within-day module can hand it the decisions.
+ */
+public class RLEventsModule extends AbstractModule {
+
+	@Override
+	public void install() {
+		bind(RLEventRecorder.class).asEagerSingleton();
+
+		RLConfigGroup rlConfig = ConfigUtils.addOrGetModule(getConfig(), RLConfigGroup.class);
+		if (rlConfig.getRlEventsInterval() <= 0) return;
+
+		addEventHandlerBinding().to(RLEventRecorder.class);
+		addControlerListenerBinding().to(RLEventRecorder.class);
+		System.out.println("Binary RL events every " + rlConfig.getRlEventsInterval() + " iteration(s)");
+	}
+}
@@ -0,0 +1,79 @@
+package org.matsim.withinday.siouxfalls.src.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear histogram of durations in nanoseconds that many threads can record into without
+ * locking. Every power of two is split into 16 buckets, so percentiles are accurate to about 6%.
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long nanos) {
+		if (nanos < 0) nanos = 0;
+		counts.incrementAndGet(bucket(nanos));
+		count.incrementAndGet();
+		long currentMax = max.get();
+		while (nanos > currentMax && !max.compareAndSet(currentMax, nanos)) {
+			currentMax = max.get();
+		}
+	}
+
+	static int bucket(long nanos) {
+		if (nanos < SUB_BUCKETS) return (int) nanos;
+		// keep the highest SUB_BITS + 1 bits, the leading one is implied by the shift
+		int shift = (63 - Long.numberOfLeadingZeros(nanos)) - SUB_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) ((nanos >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	// Upper bound of the values in the bucket
+	static long bucketLimit(int bucket) {
+		if (bucket < SUB_BUCKETS) return bucket;
+		int shift = bucket / SUB_BUCKETS - 1;
+		long mantissa = SUB_BUCKETS + (bucket % SUB_BUCKETS);
+		return ((mantissa + 1) << shift) - 1;
+	}
+
+	/** Adds all values of the other histogram to this one. */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < BUCKETS; i++) {
+			long c = other.counts.get(i);
+			if (c != 0) counts.addAndGet(i, c);
+		}
+		count.addAndGet(other.count.get());
+		long otherMax = other.getMax();
+		long currentMax = max.get();
+		while (otherMax > currentMax && !max.compareAndSet(currentMax, otherMax)) {
+			currentMax = max.get();
+		}
+	}
+
+	/** @param percentile between 0 and 100 @return the value in nanoseconds, 0 if nothing was recorded */
+	public long getPercentile(double percentile) {
+		long total = count.get();
+		if (total == 0) return 0;
+		long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) return Math.min(bucketLimit(i), getMax());
+		}
+		return getMax();
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+}
@@ -0,0 +1,53 @@
+package org.matsim.withinday.siouxfalls.src.metrics;
+
+import java.util.Set;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.withinday.replanning.identifiers.interfaces.AgentFilter;
+import org.matsim.withinday.replanning.identifiers.interfaces.AgentFilterFactory;
+
+/**
+ * Records the time the filters of another factory spend in {@link ReplanningMetrics}.
+ */
+public class MeasuringAgentFilterFactory implements AgentFilterFactory {
+
+	private final AgentFilterFactory delegate;
+	private final ReplanningMetrics metrics;
+
+	public MeasuringAgentFilterFactory(AgentFilterFactory delegate, ReplanningMetrics metrics) {
+		this.delegate = delegate;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public AgentFilter createAgentFilter() {
+		return new MeasuringAgentFilter(this.delegate.createAgentFilter(), this.metrics);
+	}
+
+	private static final class MeasuringAgentFilter implements AgentFilter {
+
+		private final AgentFilter delegate;
+		private final ReplanningMetrics metrics;
+
+		MeasuringAgentFilter(AgentFilter delegate, ReplanningMetrics metrics) {
+			this.delegate = delegate;
+			this.metrics = metrics;
+		}
+
+		@Override
+		public void applyAgentFilter(Set<Id<Person>> set, double time) {
+			long start = System.nanoTime();
+			this.delegate.applyAgentFilter(set, time);
+			this.metrics.recordFilter(System.nanoTime() - start);
+		}
+
+		@Override
+		public boolean applyAgentFilter(Id<Person> id, double time) {
+			long start = System.nanoTime();
+			boolean include = this.delegate.applyAgentFilter(id, time);
+			this.metrics.recordFilter(System.nanoTime() - start);
+			return include;
+		}
+	}
+}
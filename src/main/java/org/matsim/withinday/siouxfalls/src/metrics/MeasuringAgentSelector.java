@@ -0,0 +1,30 @@
+package org.matsim.withinday.siouxfalls.src.metrics;
+
+import java.util.Set;
+
+import org.matsim.core.mobsim.framework.MobsimAgent;
+import org.matsim.withinday.replanning.identifiers.interfaces.DuringActivityAgentSelector;
+
+/**
+ * Wraps the activity end identifier (including its filters) to record how many agents it selects
+ * per time step and how long that takes. Also moves the {@link ReplanningMetrics} to the next time step.
+ */
+public class MeasuringAgentSelector extends DuringActivityAgentSelector {
+
+	private final DuringActivityAgentSelector delegate;
+	private final ReplanningMetrics metrics;
+
+	public MeasuringAgentSelector(DuringActivityAgentSelector delegate, ReplanningMetrics metrics) {
+		this.delegate = delegate;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public Set<MobsimAgent> getAgentsToReplan(double time) {
+		this.metrics.startTimeStep(time);
+		long start = System.nanoTime();
+		Set<MobsimAgent> agentsToReplan = this.delegate.getAgentsToReplan(time);
+		this.metrics.recordIdentification(agentsToReplan.size(), System.nanoTime() - start);
+		return agentsToReplan;
+	}
+}
@@ -0,0 +1,270 @@
+package org.matsim.withinday.siouxfalls.src.metrics;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.matsim.core.utils.misc.Time;
+
+/**
+ * Where the time of the within-day replanning goes, per simulation time bin and iteration.
+ *
+ * The identification side (identifier, filters, scheduler, policy) is recorded by the within-day engine thread,
+ * which also moves on to the next time bin in {@link #startTimeStep(double)}. The replanning side is
+ * recorded concurrently by the replanner threads. Bins are written as one CSV per iteration and
+ * summed up for {@link #getSummary()}.
+ */
+public final class ReplanningMetrics {
+
+	public static final String FILE_NAME = "withinday_metrics.csv";
+
+	private static final String HEADER = "iteration,bin_start,bin_end,agents_identified,agents_replanned,policy_agents,"
+			+ "identification_ms,filter_ms,policy_ms,replanning_ms,routing_ms,logging_ms,"
+			+ "replanning_p50_us,replanning_p99_us,replanning_max_us,routing_p50_us,routing_p99_us,routing_max_us,"
+			+ "sim_s,wall_ms,sim_to_wall,"
+			+ "scheduled,deferred,deferral_mean_s,deadlines_missed,over_budget,pending_max,"
+			+ "policy_timeouts,policy_fallback_agents,policy_late_replies";
+
+	private final double timeBinSize;
+	private final double timeStepSize;
+	private final List<Bin> closedBins = new ArrayList<>();
+	private final Bin total = new Bin(0);
+	private volatile Bin current;
+	private int iterations = 0;
+	// whole run, for the replanning time budget of the scheduler
+	private final LongAdder runReplanned = new LongAdder();
+	private final LongAdder runReplanningNanos = new LongAdder();
+
+	/** @param timeStepSize of the mobsim, the simulated time of the last step of a bin */
+	public ReplanningMetrics(double timeBinSize, double timeStepSize) {
+		if (timeBinSize <= 0) throw new IllegalArgumentException("timeBinSize must be positive: " + timeBinSize);
+		if (timeStepSize <= 0) throw new IllegalArgumentException("timeStepSize must be positive: " + timeStepSize);
+		this.timeBinSize = timeBinSize;
+		this.timeStepSize = timeStepSize;
+	}
+
+	// ---- engine thread ----
+
+	/** Called once per time step before the agents are identified. */
+	public void startTimeStep(double time) {
+		long index = (long) Math.floor(time / timeBinSize);
+		long now = System.nanoTime();
+		Bin open = current;
+		if (open == null || open.index != index) {
+			closeCurrentBin(now);
+			open = new Bin(index);
+			open.firstStep = time;
+			open.wallStart = now;
+			current = open;
+		}
+		open.lastStep = time;
+		open.wallLastStep = now;
+	}
+
+	public void recordIdentification(int identifiedAgents, long nanos) {
+		Bin bin = current;
+		if (bin == null) return;
+		bin.identified.add(identifiedAgents);
+		bin.identificationNanos.add(nanos);
+	}
+
+	public void recordFilter(long nanos) {
+		Bin bin = current;
+		if (bin != null) bin.filterNanos.add(nanos);
+	}
+
+	public void recordPolicy(int agents, long nanos) {
+		Bin bin = current;
+		if (bin == null) return;
+		bin.policyAgents.add(agents);
+		bin.policyNanos.add(nanos);
+	}
+
+	/** One time step of the ReplanningScheduler. */
+	public void recordScheduling(int scheduled, int deferred, double deferralSeconds, int missed, int overBudget, int pending) {
+		Bin bin = current;
+		if (bin == null) return;
+		bin.scheduled += scheduled;
+		bin.deferred += deferred;
+		bin.deferralSeconds += deferralSeconds;
+		bin.deadlinesMissed += missed;
+		bin.overBudget += overBudget;
+		bin.pendingMax = Math.max(bin.pendingMax, pending);
+	}
+
+	/** Calls of the policy that missed their deadline, see policyTimeout. */
+	public void recordPolicyTimeout(int timeouts, int fallbackAgents, int lateReplies) {
+		Bin bin = current;
+		if (bin == null) return;
+		bin.policyTimeouts += timeouts;
+		bin.policyFallbackAgents += fallbackAgents;
+		bin.policyLateReplies += lateReplies;
+	}
+
+	/** @return mean time of a doReplanning call so far in this run, 0 before the first one */
+	public double getMeanReplanningNanos() {
+		long replanned = runReplanned.sum();
+		return (replanned > 0) ? (double) runReplanningNanos.sum() / replanned : 0.0;
+	}
+
+	// ---- replanner threads ----
+
+	/** One successful doReplanning call, including routing and logging. */
+	public void recordReplanning(long nanos) {
+		Bin bin = current;
+		if (bin == null) return;
+		bin.replanned.increment();
+		bin.replanningNanos.add(nanos);
+		bin.replanningLatency.record(nanos);
+		runReplanned.increment();
+		runReplanningNanos.add(nanos);
+	}
+
+	public void recordRouting(long nanos) {
+		Bin bin = current;
+		if (bin == null) return;
+		bin.routingNanos.add(nanos);
+		bin.routingLatency.record(nanos);
+	}
+
+	public void recordLogging(long nanos) {
+		Bin bin = current;
+		if (bin != null) bin.loggingNanos.add(nanos);
+	}
+
+	// ---- end of iteration / run ----
+
+	/**
+	 * Closes the open bin, writes all bins of the iteration to the file and starts over for the next
+	 * iteration.
+	 */
+	public synchronized void writeIteration(int iteration, String file) {
+		closeCurrentBin(-1);
+		iterations++;
+		try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8)) {
+			writer.write(HEADER);
+			writer.newLine();
+			for (Bin bin : closedBins) {
+				writer.write(iteration + "," + bin.toCsv(timeBinSize));
+				writer.newLine();
+			}
+		} catch (IOException e) {
+			System.err.println("Could not write the within-day metrics to " + file + ": " + e.getMessage());
+		}
+		closedBins.clear();
+	}
+
+	public synchronized String getSummary() {
+		closeCurrentBin(-1);
+		double wallSeconds = total.wallNanos / 1e9;
+		return String.format(Locale.ROOT,
+				"Within-day replanning over %d iteration(s): %d agents identified, %d replanned, %d sent to the policy%n"
+				+ "  identification %.1f s (filters %.1f s), policy %.1f s, replanning %.1f s (routing %.1f s, logging %.1f s)%n"
+				+ "  replanning latency p50 %.1f us, p99 %.1f us, max %.1f us; routing latency p50 %.1f us, p99 %.1f us, max %.1f us%n"
+				+ "  %.0f s simulated in %.1f s wall time (%.1fx real time)%n"
+				+ "  scheduler: %d decisions deferred (mean %.1f s), %d deadlines missed, %d over budget%n"
+				+ "  policy: %d timeouts, %d agents decided by the fallback, %d late replies",
+				iterations, total.identified.sum(), total.replanned.sum(), total.policyAgents.sum(),
+				total.identificationNanos.sum() / 1e9, total.filterNanos.sum() / 1e9, total.policyNanos.sum() / 1e9,
+				total.replanningNanos.sum() / 1e9, total.routingNanos.sum() / 1e9, total.loggingNanos.sum() / 1e9,
+				total.replanningLatency.getPercentile(50) / 1e3, total.replanningLatency.getPercentile(99) / 1e3, total.replanningLatency.getMax() / 1e3,
+				total.routingLatency.getPercentile(50) / 1e3, total.routingLatency.getPercentile(99) / 1e3, total.routingLatency.getMax() / 1e3,
+				total.simSeconds, wallSeconds, (wallSeconds > 0) ? total.simSeconds / wallSeconds : 0.0,
+				total.deferred, (total.deferred > 0) ? total.deferralSeconds / total.deferred : 0.0, total.deadlinesMissed, total.overBudget,
+				total.policyTimeouts, total.policyFallbackAgents, total.policyLateReplies);
+	}
+
+	// wallEnd -1: the mobsim is over, the bin ends with its last time step
+	private synchronized void closeCurrentBin(long wallEnd) {
+		Bin bin = current;
+		if (bin == null) return;
+		current = null;
+		bin.wallNanos = ((wallEnd < 0) ? bin.wallLastStep : wallEnd) - bin.wallStart;
+		// the last step of the bin is simulated as well
+		bin.simSeconds = bin.lastStep - bin.firstStep + timeStepSize;
+		closedBins.add(bin);
+		total.add(bin);
+	}
+
+	private static final class Bin {
+		final long index;
+		double firstStep;
+		double lastStep;
+		long wallStart;
+		long wallLastStep;
+		long wallNanos;
+		double simSeconds;
+
+		// engine thread only
+		long scheduled;
+		long deferred;
+		double deferralSeconds;
+		long deadlinesMissed;
+		long overBudget;
+		int pendingMax;
+		long policyTimeouts;
+		long policyFallbackAgents;
+		long policyLateReplies;
+
+		final LongAdder identified = new LongAdder();
+		final LongAdder replanned = new LongAdder();
+		final LongAdder policyAgents = new LongAdder();
+		final LongAdder identificationNanos = new LongAdder();
+		final LongAdder filterNanos = new LongAdder();
+		final LongAdder policyNanos = new LongAdder();
+		final LongAdder replanningNanos = new LongAdder();
+		final LongAdder routingNanos = new LongAdder();
+		final LongAdder loggingNanos = new LongAdder();
+		final LatencyHistogram replanningLatency = new LatencyHistogram();
+		final LatencyHistogram routingLatency = new LatencyHistogram();
+
+		Bin(long index) {
+			this.index = index;
+		}
+
+		void add(Bin other) {
+			identified.add(other.identified.sum());
+			replanned.add(other.replanned.sum());
+			policyAgents.add(other.policyAgents.sum());
+			identificationNanos.add(other.identificationNanos.sum());
+			filterNanos.add(other.filterNanos.sum());
+			policyNanos.add(other.policyNanos.sum());
+			replanningNanos.add(other.replanningNanos.sum());
+			routingNanos.add(other.routingNanos.sum());
+			loggingNanos.add(other.loggingNanos.sum());
+			replanningLatency.add(other.replanningLatency);
+			routingLatency.add(other.routingLatency);
+			wallNanos += other.wallNanos;
+			simSeconds += other.simSeconds;
+			scheduled += other.scheduled;
+			deferred += other.deferred;
+			deferralSeconds += other.deferralSeconds;
+			deadlinesMissed += other.deadlinesMissed;
+			overBudget += other.overBudget;
+			pendingMax = Math.max(pendingMax, other.pendingMax);
+			policyTimeouts += other.policyTimeouts;
+			policyFallbackAgents += other.policyFallbackAgents;
+			policyLateReplies += other.policyLateReplies;
+		}
+
+		String toCsv(double timeBinSize) {
+			double wallMillis = wallNanos / 1e6;
+			return String.format(Locale.ROOT, "%s,%s,%d,%d,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%.0f,%.3f,%.2f,%d,%d,%.1f,%d,%d,%d,%d,%d,%d",
+					Time.writeTime(index * timeBinSize), Time.writeTime((index + 1) * timeBinSize),
+					identified.sum(), replanned.sum(), policyAgents.sum(),
+					identificationNanos.sum() / 1e6, filterNanos.sum() / 1e6, policyNanos.sum() / 1e6,
+					replanningNanos.sum() / 1e6, routingNanos.sum() / 1e6, loggingNanos.sum() / 1e6,
+					replanningLatency.getPercentile(50) / 1e3, replanningLatency.getPercentile(99) / 1e3, replanningLatency.getMax() / 1e3,
+					routingLatency.getPercentile(50) / 1e3, routingLatency.getPercentile(99) / 1e3, routingLatency.getMax() / 1e3,
+					simSeconds, wallMillis, (wallMillis > 0) ? simSeconds / (wallMillis / 1e3) : 0.0,
+					scheduled, deferred, (deferred > 0) ? deferralSeconds / deferred : 0.0, deadlinesMissed, overBudget, pendingMax,
+					policyTimeouts, policyFallbackAgents, policyLateReplies);
+		}
+	}
+}
@@ -1,5 +1,8 @@
 package org.matsim.withinday.siouxfalls.src.modules;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 import java.util.Map;
 import java.util.Collection;
 import java.util.HashSet;
@@ -14,7 +17,13 @@ import org.matsim.api.core.v01.TransportMode;
 import org.matsim.api.core.v01.events.handler.PersonDepartureEventHandler;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
+import org.matsim.core.controler.events.IterationEndsEvent;
+import org.matsim.core.controler.events.ShutdownEvent;
 import org.matsim.core.controler.events.StartupEvent;
+import org.matsim.core.controler.listener.IterationEndsListener;
+import org.matsim.core.controler.listener.ShutdownListener;
 import org.matsim.core.controler.listener.StartupListener;
 import org.matsim.core.router.TripRouter;
 import org.matsim.core.router.costcalculators.TravelDisutilityFactory;
@@ -34,10 +43,29 @@ import org.matsim.withinday.replanning.identifiers.tools.ActivityReplanningMap;
 import org.matsim.withinday.replanning.identifiers.tools.LinkReplanningMap;
 import org.matsim.withinday.replanning.replanners.NextLegReplannerFactory;
 import org.matsim.withinday.replanning.replanners.interfaces.WithinDayDuringActivityReplannerFactory;
+import org.matsim.withinday.siouxfalls.src.episodes.EpisodeContext;
+import org.matsim.withinday.siouxfalls.src.events.RLEventRecorder;
+import org.matsim.withinday.siouxfalls.src.metrics.MeasuringAgentFilterFactory;
+import org.matsim.withinday.siouxfalls.src.metrics.MeasuringAgentSelector;
+import org.matsim.withinday.siouxfalls.src.metrics.ReplanningMetrics;
+import org.matsim.withinday.siouxfalls.src.policy.BatchingAgentSelector;
+import org.matsim.withinday.siouxfalls.src.policy.DecisionBroker;
+import org.matsim.withinday.siouxfalls.src.policy.DecisionPolicy;
+import org.matsim.withinday.siouxfalls.src.policy.ExportedPolicy;
+import org.matsim.withinday.siouxfalls.src.policy.ModeActions;
+import org.matsim.withinday.siouxfalls.src.policy.ReplayBuffer;
+import org.matsim.withinday.siouxfalls.src.policy.SharedMemoryDecisionPolicy;
+import org.matsim.withinday.siouxfalls.src.policy.SocketDecisionPolicy;
 import org.matsim.withinday.siouxfalls.src.replanner.NextLegModeReplannerFactory;
+import org.matsim.withinday.siouxfalls.src.replanner.ReplanningScheduler;
 import org.matsim.withinday.siouxfalls.src.replanner.filters.RLAgentFilterFactory;
+import org.matsim.withinday.siouxfalls.src.replanner.filters.RLAgentSet;
+import org.matsim.withinday.siouxfalls.src.routing.ModeTravelTimeEstimator;
+import org.matsim.withinday.siouxfalls.src.state.DecisionStateBuilder;
+import org.matsim.withinday.siouxfalls.src.state.LinkCongestionTracker;
+import org.matsim.withinday.siouxfalls.src.state.TripRewardTracker;
 
-public class CustomWithinDayModule implements StartupListener{
+public class CustomWithinDayModule implements StartupListener, IterationEndsListener, ShutdownListener{
 
 	@Inject private Scenario scenario;
 	@Inject private WithinDayEngine withinDayEngine;
@@ -47,6 +75,20 @@ public class CustomWithinDayModule implements StartupListener{
 	@Inject private LeastCostPathCalculatorFactory pathCalculatorFactory;
 	@Inject private Map<String,TravelDisutilityFactory> travelDisutilityFactories;
 	@Inject private Map<String,TravelTime> travelTimes;
+	@Inject private OutputDirectoryHierarchy controlerIO;
+	@Inject private EpisodeContext episode;
+	// Only bound with a policy (policyTransport != none)
+	@Inject private Provider<LinkCongestionTracker> linkCongestionTrackerProvider;
+	@Inject private Provider<ModeTravelTimeEstimator> modeTravelTimeEstimatorProvider;
+	@Inject private Provider<TripRewardTracker> tripRewardTrackerProvider;
+	@Inject private RLEventRecorder rlEventRecorder;
+
+	private LinkCongestionTracker linkCongestionTracker;
+	private TripRewardTracker tripRewardTracker;
+	private DecisionBroker decisionBroker;
+	private WithinDayLogger logger;
+	private RLAgentSet rlAgents;
+	private ReplanningMetrics metrics;
 
     @Override
 	public void notifyStartup(StartupEvent event) {
@@ -54,6 +96,26 @@ public class CustomWithinDayModule implements StartupListener{
 		this.initReplanners();
 	}
 
+	@Override
+	public void notifyIterationEnds(IterationEndsEvent event) {
+		if (this.metrics != null) {
+			this.metrics.writeIteration(event.getIteration(), this.controlerIO.getIterationFilename(event.getIteration(), ReplanningMetrics.FILE_NAME));
+		}
+		// The last decision of every agent ends the episode, before the trip rewards are reset
+		if (this.decisionBroker != null && this.decisionBroker.getReplayBuffer() != null) {
+			this.decisionBroker.getReplayBuffer().endEpisode();
+		}
+	}
+
+	@Override
+	public void notifyShutdown(ShutdownEvent event) {
+		if (this.metrics != null) System.out.println(this.metrics.getSummary());
+		if (this.decisionBroker != null && this.decisionBroker.getPrefetchSummary() != null) System.out.println(this.decisionBroker.getPrefetchSummary());
+		if (this.decisionBroker != null && this.decisionBroker.getTimeoutSummary() != null) System.out.println(this.decisionBroker.getTimeoutSummary());
+		if (this.decisionBroker != null) this.decisionBroker.close();
+		if (this.logger != null) this.logger.closeLog();
+	}
+
 	private void initReplanners( ) {
 		// Add the activityMap to the events handler
 		this.eventsManager.addHandler(this.activityReplanningMap);
@@ -61,24 +123,72 @@ public class CustomWithinDayModule implements StartupListener{
 		// Define the Agent Identifier factory 
 		ActivityEndIdentifierFactory activityEndIdentifierFactory = new ActivityEndIdentifierFactory(this.activityReplanningMap);
 
+		// Timing of identification, filters, policy and replanning (optional)
+		RLConfigGroup rlConfig = ConfigUtils.addOrGetModule(this.scenario.getConfig(), RLConfigGroup.class);
+		if (rlConfig.getMetricsTimeBin() > 0) this.metrics = new ReplanningMetrics(rlConfig.getMetricsTimeBin(), this.scenario.getConfig().qsim().getTimeStepSize());
+
 		// Probability based filter (optional)
-		ProbabilityFilterFactory duringActivityProbabilityFilterFactory = new ProbabilityFilterFactory(1.0);
+		AgentFilterFactory duringActivityProbabilityFilterFactory = new ProbabilityFilterFactory(1.0);
+		if (this.metrics != null) duringActivityProbabilityFilterFactory = new MeasuringAgentFilterFactory(duringActivityProbabilityFilterFactory, this.metrics);
 		activityEndIdentifierFactory.addAgentFilterFactory(duringActivityProbabilityFilterFactory);
 
 		// Specify persons to be filtered
-        Collection<Id<Person>> ids = new HashSet<>();
-        ids.add(Id.createPersonId("10434_2"));
+		this.rlAgents = createRLAgents(rlConfig);
 
         // Custom agent filter
-		AgentFilterFactory agentFilter = new RLAgentFilterFactory(ids);
+		AgentFilterFactory agentFilter = new RLAgentFilterFactory(this.rlAgents);
+		if (this.metrics != null) agentFilter = new MeasuringAgentFilterFactory(agentFilter, this.metrics);
         // identifier.addAgentFilter(new RLAgentFilter(ids));
 		activityEndIdentifierFactory.addAgentFilterFactory(agentFilter);
 
 		// Create a new identifier
 		DuringActivityAgentSelector activityEndIdentifier = activityEndIdentifierFactory.createIdentifier();
 
+		// Spread the replanning over the steps before the departures (optional)
+		if (rlConfig.getReplanningLookahead() > 0 || rlConfig.getMaxReplanningsPerStep() > 0 || rlConfig.getReplanningTimeBudget() > 0) {
+			activityEndIdentifier = new ReplanningScheduler(activityEndIdentifier, rlConfig.getReplanningLookahead(), this.scenario.getConfig().qsim().getTimeStepSize(),
+					rlConfig.getMaxReplanningsPerStep(), (long) (rlConfig.getReplanningTimeBudget() * 1e6), this.metrics);
+		}
+		if (this.metrics != null) activityEndIdentifier = new MeasuringAgentSelector(activityEndIdentifier, this.metrics);
+
+		// Batch the decisions of all identified agents of a time step into one policy call
+		if (rlConfig.getPolicyTransport() != RLConfigGroup.PolicyTransport.none) {
+			// Live link conditions, updated from the link events
+			this.linkCongestionTracker = this.linkCongestionTrackerProvider.get();
+			this.eventsManager.addHandler(this.linkCongestionTracker);
+
+			// Rewards of the trips, final when the agents arrive
+			this.tripRewardTracker = this.tripRewardTrackerProvider.get();
+			this.eventsManager.addHandler(this.tripRewardTracker);
+
+			DecisionStateBuilder stateBuilder = DecisionStateBuilder.create(rlConfig.getStateSchema(), this.scenario, this.linkCongestionTracker,
+					this.modeTravelTimeEstimatorProvider.get(), this.tripRewardTracker);
+			DecisionPolicy policy = createPolicy(rlConfig, stateBuilder.getWidth());
+			this.decisionBroker = new DecisionBroker(ModeActions.fromConfig(this.scenario.getConfig()), policy, stateBuilder);
+			if (rlConfig.getPrefetchLookahead() > 0) {
+				// A second identifier, asked ahead of the mobsim. The shared memory
+				// link serves one client, there the prefetcher shares the policy with the engine.
+				DecisionPolicy prefetchPolicy = (rlConfig.getPolicyTransport() != RLConfigGroup.PolicyTransport.sharedMemory)
+						? createPolicy(rlConfig, stateBuilder.getWidth()) : null;
+				this.decisionBroker.enablePrefetching(rlConfig.getPrefetchDriftThreshold(), prefetchPolicy);
+				activityEndIdentifier = new BatchingAgentSelector(activityEndIdentifier, this.decisionBroker, this.metrics,
+						createLookaheadIdentifier(), rlConfig.getPrefetchLookahead());
+			} else {
+				activityEndIdentifier = new BatchingAgentSelector(activityEndIdentifier, this.decisionBroker, this.metrics, null, 0);
+			}
+			if (rlConfig.getPolicyTimeout() > 0) {
+				this.decisionBroker.enableTimeout(rlConfig.getPolicyTimeout(), createFallbackPolicy(rlConfig, stateBuilder.getWidth()), this.metrics);
+			}
+			if (rlConfig.getReplayBufferCapacity() > 0) this.decisionBroker.enableReplay(createReplayBuffer(rlConfig));
+		}
+
+		// One log for all replanner threads
+		this.logger = createLogger(rlConfig);
+		// Decisions also go to the binary RL events (rlEventsInterval > 0)
+		if (this.rlEventRecorder.isEnabled()) this.logger.setDecisionListener(this.rlEventRecorder::recordDecision);
+
 		// Create a planner
-		WithinDayDuringActivityReplannerFactory duringActivityReplannerFactory = new NextLegModeReplannerFactory(this.scenario, this.withinDayEngine, (com.google.inject.Provider<TripRouter>) this.tripRouterProvider, TimeInterpretation.create(scenario.getConfig()));
+		WithinDayDuringActivityReplannerFactory duringActivityReplannerFactory = new NextLegModeReplannerFactory(this.scenario, this.withinDayEngine, (com.google.inject.Provider<TripRouter>) this.tripRouterProvider, TimeInterpretation.create(scenario.getConfig()), this.decisionBroker, this.logger, this.metrics, this.episode);
 
 		// Add identifier to the planner factory
 		duringActivityReplannerFactory.addIdentifier(activityEndIdentifier);
@@ -94,4 +204,114 @@ public class CustomWithinDayModule implements StartupListener{
 		// this.withinDayEngine.addDuringActivityReplannerFactory(this.duringActivityReplannerFactory);
 	}
 
+	private RLAgentSet createRLAgents(RLConfigGroup rlConfig) {
+		RLAgentSet agents = new RLAgentSet();
+		if (rlConfig.isRlAllAgents()) {
+			agents.setAllAgents(true);
+			return agents;
+		}
+
+		String file = rlConfig.getRlAgentsFile();
+		String attribute = rlConfig.getRlAgentsAttribute();
+		boolean hasFile = file != null && !file.isEmpty();
+		boolean hasAttribute = attribute != null && !attribute.isEmpty();
+		if (!hasFile && !hasAttribute) {
+			// Nothing configured: the single test agent
+			agents.add(Id.createPersonId("10434_2"));
+			return agents;
+		}
+
+		if (hasFile) {
+			try {
+				agents.addAll(RLAgentSet.readFile(Paths.get(file)).getIncludedAgents());
+			} catch (IOException e) {
+				throw new UncheckedIOException("Could not read the RL agents from " + file, e);
+			}
+		}
+		if (hasAttribute) {
+			agents.addAll(RLAgentSet.fromAttribute(this.scenario.getPopulation(), attribute).getIncludedAgents());
+		}
+		System.out.println("RL agents: " + agents.size());
+		return agents;
+	}
+
+	/** The agents controlled by the policy. Changes take effect at the next identification pass. */
+	public RLAgentSet getRLAgents() {
+		return rlAgents;
+	}
+
+	/** Live link conditions of the decision states, null without a policy. */
+	public LinkCongestionTracker getLinkCongestionTracker() {
+		return linkCongestionTracker;
+	}
+
+	/** Trip rewards of the current iteration, from the live events. Null without a policy. */
+	public TripRewardTracker getTripRewardTracker() {
+		return tripRewardTracker;
+	}
+
+	private WithinDayLogger createLogger(RLConfigGroup rlConfig) {
+		String outputDirectory = this.episode.getOutputDirectory();
+		int stateWidth = (this.decisionBroker != null) ? this.decisionBroker.getBatch().getStateWidth() : 0;
+		int queueCapacity = (rlConfig.getLogMode() == RLConfigGroup.LogMode.async) ? rlConfig.getLogQueueCapacity() : 0;
+		return new WithinDayLogger(outputDirectory, rlConfig.getLogFormat(), stateWidth, queueCapacity, rlConfig.getLogOverflowPolicy());
+	}
+
+	private ReplayBuffer createReplayBuffer(RLConfigGroup rlConfig) {
+		String file = rlConfig.getReplayBufferFile();
+		if (file == null || file.isEmpty()) file = this.controlerIO.getOutputFilename(ReplayBuffer.FILE_NAME);
+		try {
+			ReplayBuffer replayBuffer = new ReplayBuffer(Paths.get(file), this.decisionBroker.getBatch().getStateWidth(), rlConfig.getReplayBufferCapacity(),
+					Id.getNumberOfIds(Person.class), this.tripRewardTracker::getRewardSince);
+			System.out.println("Replay buffer " + file + ": " + replayBuffer.getHead() + " transitions recorded before");
+			return replayBuffer;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not open the replay buffer " + file, e);
+		}
+	}
+
+	// Only the RL agent filter, without metrics and without the probability filter: the lookahead must
+	// not count in the filter timing nor draw other agents than the ones replanned at the departure
+	private DuringActivityAgentSelector createLookaheadIdentifier() {
+		ActivityEndIdentifierFactory factory = new ActivityEndIdentifierFactory(this.activityReplanningMap);
+		factory.addAgentFilterFactory(new RLAgentFilterFactory(this.rlAgents));
+		return factory.createIdentifier();
+	}
+
+	private DecisionPolicy createFallbackPolicy(RLConfigGroup rlConfig, int stateWidth) {
+		String file = rlConfig.getPolicyFallbackFile();
+		if (file == null || file.isEmpty()) return null;
+		try {
+			return ExportedPolicy.load(Paths.get(file), stateWidth, ModeActions.fromConfig(this.scenario.getConfig()).size());
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not load the fallback policy " + file, e);
+		}
+	}
+
+	private DecisionPolicy createPolicy(RLConfigGroup rlConfig, int stateWidth) {
+		switch (rlConfig.getPolicyTransport()) {
+			case socket:
+				try {
+					return new SocketDecisionPolicy(rlConfig.getPolicyHost(), rlConfig.getPolicyPort());
+				} catch (IOException e) {
+					throw new UncheckedIOException("Could not connect to the policy server at " + rlConfig.getPolicyHost() + ":" + rlConfig.getPolicyPort(), e);
+				}
+			case sharedMemory:
+				try {
+					return new SharedMemoryDecisionPolicy(Paths.get(rlConfig.getPolicySharedMemoryFile()), stateWidth);
+				} catch (IOException e) {
+					throw new UncheckedIOException("Could not attach to the policy server at " + rlConfig.getPolicySharedMemoryFile(), e);
+				}
+			case exported:
+				try {
+					return ExportedPolicy.load(Paths.get(rlConfig.getPolicyFile()), stateWidth, ModeActions.fromConfig(this.scenario.getConfig()).size());
+				} catch (IOException e) {
+					throw new UncheckedIOException("Could not load the exported policy " + rlConfig.getPolicyFile(), e);
+				}
+			case none:
+			default:
+				return null;
+		}
+	}
+
 }
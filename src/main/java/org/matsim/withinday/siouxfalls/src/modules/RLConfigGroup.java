@@ -0,0 +1,432 @@
+package org.matsim.withinday.siouxfalls.src.modules;
+
+import org.matsim.core.config.ReflectiveConfigGroup;
+import org.matsim.core.config.groups.ControllerConfigGroup.RoutingAlgorithmType;
+import org.matsim.withinday.siouxfalls.src.state.StateSchema;
+import org.matsim.withinday.siouxfalls.utils.WithinDayLogger.Format;
+import org.matsim.withinday.siouxfalls.utils.WithinDayLogger.OverflowPolicy;
+
+/**
+ * Settings of the reinforcement learning extension of the within-day module.
+ * Read from the <code>withinDayRL</code> module of the config file.
+ */
+public class RLConfigGroup extends ReflectiveConfigGroup {
+
+	public static final String GROUP_NAME = "withinDayRL";
+
+	public enum PolicyTransport { none, socket, sharedMemory, exported }
+
+	public enum LogMode { sync, async }
+
+	@Parameter
+	@Comment("How decisions are obtained from the policy. 'none' keeps the current routing mode of every agent, 'socket' sends one binary batch per time step to an external policy server, 'sharedMemory' exchanges it through the memory-mapped file of a policy server on the same host, 'exported' evaluates an exported Q-table or MLP (policyFile) inside the JVM, for evaluation runs without the policy server.")
+	private PolicyTransport policyTransport = PolicyTransport.none;
+
+	@Parameter
+	@Comment("Host of the external policy server.")
+	private String policyHost = "localhost";
+
+	@Parameter
+	@Comment("Port of the external policy server.")
+	private int policyPort = 5555;
+
+	@Parameter
+	@Comment("Memory-mapped file created by the policy server for the 'sharedMemory' transport, e.g. below /dev/shm.")
+	private String policySharedMemoryFile = "policy.shm";
+
+	@Parameter
+	@Comment("Q-table or MLP exported by the trainer for the 'exported' transport, see ExportedPolicy.")
+	private String policyFile = "";
+
+	@Parameter
+	@Comment("Seconds the within-day engine waits for the policy in a time step before the agents fall back, see policyFallbackFile. The late answer is discarded. 0 waits as long as it takes.")
+	private double policyTimeout = 0.0;
+
+	@Parameter
+	@Comment("Exported Q-table or MLP that decides when the policy misses its timeout. Empty keeps the current routing mode of the agents.")
+	private String policyFallbackFile = "";
+
+	@Parameter
+	@Comment("Layout of the state rows sent to the policy. 'V1' is the first prototype (time, departure, current mode), 'V2' adds schedule constraints, carAvail, trip distance and live network conditions, 'V3' adds the estimated travel time of every candidate mode, 'V4' the reward of the previous trip. See StateSchema.")
+	private StateSchema stateSchema = StateSchema.V2;
+
+	@Parameter
+	@Comment("File with the ids of the agents controlled by the policy, one per line. Empty for none.")
+	private String rlAgentsFile = "";
+
+	@Parameter
+	@Comment("Person attribute marking the agents controlled by the policy (true/false). Empty for none. Combined with rlAgentsFile if both are given.")
+	private String rlAgentsAttribute = "";
+
+	@Parameter
+	@Comment("If true, every agent is controlled by the policy and rlAgentsFile/rlAgentsAttribute are ignored.")
+	private boolean rlAllAgents = false;
+
+	@Parameter
+	@Comment("How withinday_log.xml is written. 'sync' opens the file for every event, 'async' queues the events and writes them from a single background thread.")
+	private LogMode logMode = LogMode.sync;
+
+	@Parameter
+	@Comment("Format of the within-day log. 'xml' writes withinday_log.xml, 'binary' writes the compact withinday_log.bin with the decision states (see ReplanningLogConverter to get the xml back).")
+	private Format logFormat = Format.xml;
+
+	@Parameter
+	@Comment("Number of events the asynchronous log queue can hold. Rounded up to a power of two.")
+	private int logQueueCapacity = 65536;
+
+	@Parameter
+	@Comment("What replanner threads do when the asynchronous log queue is full. 'block' waits for the writer, 'drop' discards the event.")
+	private OverflowPolicy logOverflowPolicy = OverflowPolicy.block;
+
+	@Parameter
+	@Comment("Width of the simulation time bins of the replanning metrics (withinday_metrics.csv in every iteration directory), in seconds. 0 disables the metrics.")
+	private double metricsTimeBin = 900.0;
+
+	@Parameter
+	@Comment("Seconds ahead of the mobsim the agents ending their activities are identified, so that their replanning can be spread over the steps before their departure. 0 replans every agent in the step it departs.")
+	private double replanningLookahead = 0.0;
+
+	@Parameter
+	@Comment("Maximum number of agents replanned per time step. Agents departing in the step are replanned anyway. 0 for no limit.")
+	private int maxReplanningsPerStep = 0;
+
+	@Parameter
+	@Comment("Replanning time per time step in milliseconds, summed over the replanner threads and converted to agents with the mean replanning time measured so far (needs the metrics). Agents departing in the step are replanned anyway. 0 for no limit.")
+	private double replanningTimeBudget = 0.0;
+
+	@Parameter
+	@Comment("Seconds ahead of their departure the decisions of the agents are requested from the policy in the background. The prefetched action is used at the departure unless the state has drifted. 0 asks the policy at the departure only.")
+	private double prefetchLookahead = 0.0;
+
+	@Parameter
+	@Comment("Largest change of any state column (except the clock) between the prefetch and the departure for which the prefetched action is used, in the units of the state schema.")
+	private double prefetchDriftThreshold = 0.1;
+
+	@Parameter
+	@Comment("Every how many iterations the departures, arrivals, activity starts and ends, stuck agents and within-day decisions of the population are written to the compact binary rl_events.bin of the iteration. Full xml events are then only needed every few iterations, see controller.writeEventsInterval. 0 for none.")
+	private int rlEventsInterval = 0;
+
+	@Parameter
+	@Comment("Number of (state, action, reward, next state) transitions the memory-mapped experience replay ring keeps for the trainer, needs a policy and state schema V4 for rewards other than 0. 0 for no replay buffer.")
+	private int replayBufferCapacity = 0;
+
+	@Parameter
+	@Comment("File of the experience replay ring. An existing ring with the same layout is continued, so a file outside the output directory outlives restarts. Empty for replay_buffer.bin in the output directory.")
+	private String replayBufferFile = "";
+
+	@Parameter
+	@Comment("Least-cost path algorithm of the network routers used for within-day replanning. The landmark based 'SpeedyALT' and 'AStarLandmarks' prepare every (mode sub-)network once and stay exact under live travel times.")
+	private RoutingAlgorithmType withinDayRoutingAlgorithm = RoutingAlgorithmType.Dijkstra;
+
+	@Parameter
+	@Comment("Maximum number of least-cost paths the within-day route cache keeps. 0 disables the cache. Needs routing.routingRandomness = 0.")
+	private int routeCacheSize = 0;
+
+	@Parameter
+	@Comment("Width of the departure time bins of the route cache, in seconds.")
+	private double routeCacheTimeBin = 900.0;
+
+	@Parameter
+	@Comment("A cached path is recomputed if it is requested for a departure more than this many seconds away from the departure it was computed for. Must be shorter than routeCacheTimeBin.")
+	private double routeCacheMaxAge = 300.0;
+
+	@Parameter
+	@Comment("Width of the departure time bins of the travel time estimates of the candidate modes (state schema V3), in seconds. Should be the travelTimeCalculator.traveltimeBinSize.")
+	private double modeEstimateTimeBin = 900.0;
+
+	@Parameter
+	@Comment("Maximum number of one-to-many travel time trees the mode estimates keep (one per origin node, mode and time bin, about 4 bytes per node each).")
+	private int modeEstimateMaxTrees = 10000;
+
+	@Parameter
+	@Comment("Width of the departure time bins of the stop to stop transit table behind the pt estimates (state schema V3), in seconds. A passenger waits at most this long longer than the schedule requires.")
+	private double transitEstimateTimeBin = 300.0;
+
+	@Parameter
+	@Comment("Time of day (seconds) at which the executed plans of the agents are written to the checkpoint directory of the iteration. Only a time without agents on the road or buses in service can be restored. Negative for none.")
+	private double checkpointTime = -1.0;
+
+	@Parameter
+	@Comment("Checkpoint directory written by an earlier run. If set, the mobsim starts at the checkpoint time from the saved plans instead of at the qsim start time. Empty for none.")
+	private String checkpointInput = "";
+
+	@Parameter
+	@Comment("Directory of binary scenario snapshots keyed by a hash of the XML inputs and the loading settings. Repeated runs read the snapshot instead of the XML files, a changed input writes a new one. Empty to always read the XML files.")
+	private String scenarioCacheDirectory = "";
+
+	public RLConfigGroup() {
+		super(GROUP_NAME);
+	}
+
+	public PolicyTransport getPolicyTransport() {
+		return policyTransport;
+	}
+
+	public void setPolicyTransport(PolicyTransport policyTransport) {
+		this.policyTransport = policyTransport;
+	}
+
+	public String getPolicyFile() {
+		return policyFile;
+	}
+
+	public void setPolicyFile(String policyFile) {
+		this.policyFile = policyFile;
+	}
+
+	public double getPolicyTimeout() {
+		return policyTimeout;
+	}
+
+	public void setPolicyTimeout(double policyTimeout) {
+		this.policyTimeout = policyTimeout;
+	}
+
+	public String getPolicyFallbackFile() {
+		return policyFallbackFile;
+	}
+
+	public void setPolicyFallbackFile(String policyFallbackFile) {
+		this.policyFallbackFile = policyFallbackFile;
+	}
+
+	public String getPolicySharedMemoryFile() {
+		return policySharedMemoryFile;
+	}
+
+	public void setPolicySharedMemoryFile(String policySharedMemoryFile) {
+		this.policySharedMemoryFile = policySharedMemoryFile;
+	}
+
+	public String getPolicyHost() {
+		return policyHost;
+	}
+
+	public void setPolicyHost(String policyHost) {
+		this.policyHost = policyHost;
+	}
+
+	public int getPolicyPort() {
+		return policyPort;
+	}
+
+	public void setPolicyPort(int policyPort) {
+		this.policyPort = policyPort;
+	}
+
+	public StateSchema getStateSchema() {
+		return stateSchema;
+	}
+
+	public void setStateSchema(StateSchema stateSchema) {
+		this.stateSchema = stateSchema;
+	}
+
+	public String getRlAgentsFile() {
+		return rlAgentsFile;
+	}
+
+	public void setRlAgentsFile(String rlAgentsFile) {
+		this.rlAgentsFile = rlAgentsFile;
+	}
+
+	public String getRlAgentsAttribute() {
+		return rlAgentsAttribute;
+	}
+
+	public void setRlAgentsAttribute(String rlAgentsAttribute) {
+		this.rlAgentsAttribute = rlAgentsAttribute;
+	}
+
+	public boolean isRlAllAgents() {
+		return rlAllAgents;
+	}
+
+	public void setRlAllAgents(boolean rlAllAgents) {
+		this.rlAllAgents = rlAllAgents;
+	}
+
+	public LogMode getLogMode() {
+		return logMode;
+	}
+
+	public void setLogMode(LogMode logMode) {
+		this.logMode = logMode;
+	}
+
+	public Format getLogFormat() {
+		return logFormat;
+	}
+
+	public void setLogFormat(Format logFormat) {
+		this.logFormat = logFormat;
+	}
+
+	public int getLogQueueCapacity() {
+		return logQueueCapacity;
+	}
+
+	public void setLogQueueCapacity(int logQueueCapacity) {
+		this.logQueueCapacity = logQueueCapacity;
+	}
+
+	public OverflowPolicy getLogOverflowPolicy() {
+		return logOverflowPolicy;
+	}
+
+	public void setLogOverflowPolicy(OverflowPolicy logOverflowPolicy) {
+		this.logOverflowPolicy = logOverflowPolicy;
+	}
+
+	public double getMetricsTimeBin() {
+		return metricsTimeBin;
+	}
+
+	public void setMetricsTimeBin(double metricsTimeBin) {
+		this.metricsTimeBin = metricsTimeBin;
+	}
+
+	public double getReplanningLookahead() {
+		return replanningLookahead;
+	}
+
+	public void setReplanningLookahead(double replanningLookahead) {
+		this.replanningLookahead = replanningLookahead;
+	}
+
+	public int getMaxReplanningsPerStep() {
+		return maxReplanningsPerStep;
+	}
+
+	public void setMaxReplanningsPerStep(int maxReplanningsPerStep) {
+		this.maxReplanningsPerStep = maxReplanningsPerStep;
+	}
+
+	public double getReplanningTimeBudget() {
+		return replanningTimeBudget;
+	}
+
+	public void setReplanningTimeBudget(double replanningTimeBudget) {
+		this.replanningTimeBudget = replanningTimeBudget;
+	}
+
+	public double getPrefetchLookahead() {
+		return prefetchLookahead;
+	}
+
+	public void setPrefetchLookahead(double prefetchLookahead) {
+		this.prefetchLookahead = prefetchLookahead;
+	}
+
+	public double getPrefetchDriftThreshold() {
+		return prefetchDriftThreshold;
+	}
+
+	public void setPrefetchDriftThreshold(double prefetchDriftThreshold) {
+		this.prefetchDriftThreshold = prefetchDriftThreshold;
+	}
+
+	public int getRlEventsInterval() {
+		return rlEventsInterval;
+	}
+
+	public void setRlEventsInterval(int rlEventsInterval) {
+		this.rlEventsInterval = rlEventsInterval;
+	}
+
+	public int getReplayBufferCapacity() {
+		return replayBufferCapacity;
+	}
+
+	public void setReplayBufferCapacity(int replayBufferCapacity) {
+		this.replayBufferCapacity = replayBufferCapacity;
+	}
+
+	public String getReplayBufferFile() {
+		return replayBufferFile;
+	}
+
+	public void setReplayBufferFile(String replayBufferFile) {
+		this.replayBufferFile = replayBufferFile;
+	}
+
+	public RoutingAlgorithmType getWithinDayRoutingAlgorithm() {
+		return withinDayRoutingAlgorithm;
+	}
+
+	public void setWithinDayRoutingAlgorithm(RoutingAlgorithmType withinDayRoutingAlgorithm) {
+		this.withinDayRoutingAlgorithm = withinDayRoutingAlgorithm;
+	}
+
+	public int getRouteCacheSize() {
+		return routeCacheSize;
+	}
+
+	public void setRouteCacheSize(int routeCacheSize) {
+		this.routeCacheSize = routeCacheSize;
+	}
+
+	public double getRouteCacheTimeBin() {
+		return routeCacheTimeBin;
+	}
+
+	public void setRouteCacheTimeBin(double routeCacheTimeBin) {
+		this.routeCacheTimeBin = routeCacheTimeBin;
+	}
+
+	public double getRouteCacheMaxAge() {
+		return routeCacheMaxAge;
+	}
+
+	public void setRouteCacheMaxAge(double routeCacheMaxAge) {
+		this.routeCacheMaxAge = routeCacheMaxAge;
+	}
+
+	public double getModeEstimateTimeBin() {
+		return modeEstimateTimeBin;
+	}
+
+	public void setModeEstimateTimeBin(double modeEstimateTimeBin) {
+		this.modeEstimateTimeBin = modeEstimateTimeBin;
+	}
+
+	public int getModeEstimateMaxTrees() {
+		return modeEstimateMaxTrees;
+	}
+
+	public void setModeEstimateMaxTrees(int modeEstimateMaxTrees) {
+		this.modeEstimateMaxTrees = modeEstimateMaxTrees;
+	}
+
+	public double getTransitEstimateTimeBin() {
+		return transitEstimateTimeBin;
+	}
+
+	public void setTransitEstimateTimeBin(double transitEstimateTimeBin) {
+		this.transitEstimateTimeBin = transitEstimateTimeBin;
+	}
+
+	public double getCheckpointTime() {
+		return checkpointTime;
+	}
+
+	public void setCheckpointTime(double checkpointTime) {
+		this.checkpointTime = checkpointTime;
+	}
+
+	public String getCheckpointInput() {
+		return checkpointInput;
+	}
+
+	public void setCheckpointInput(String checkpointInput) {
+		this.checkpointInput = checkpointInput;
+	}
+
+	public String getScenarioCacheDirectory() {
+		return scenarioCacheDirectory;
+	}
+
+	public void setScenarioCacheDirectory(String scenarioCacheDirectory) {
+		this.scenarioCacheDirectory = scenarioCacheDirectory;
+	}
+}
@@ -0,0 +1,52 @@
+package org.matsim.withinday.siouxfalls.src.policy;
+
+import java.util.Set;
+
+import org.matsim.core.mobsim.framework.MobsimAgent;
+import org.matsim.withinday.replanning.identifiers.interfaces.DuringActivityAgentSelector;
+import org.matsim.withinday.siouxfalls.src.metrics.ReplanningMetrics;
+
+/**
+ * Wraps the activity end identifier (including all its filters) and hands the agents it selects in
+ * a time step to the {@link DecisionBroker} in one go, before they are passed on to the replanners.
+ *
+ * With a lookahead identifier, the agents it finds <code>lookahead</code> seconds ahead of the mobsim are
+ * handed to {@link DecisionBroker#prefetch(double, java.util.Collection)} after the decisions of the
+ * step, so that their policy call runs while the mobsim moves on.
+ */
+public class BatchingAgentSelector extends DuringActivityAgentSelector {
+
+	private final DuringActivityAgentSelector delegate;
+	private final DecisionBroker decisionBroker;
+	private final ReplanningMetrics metrics;
+	private final DuringActivityAgentSelector lookaheadIdentifier;
+	private final double lookahead;
+
+	/**
+	 * @param metrics may be null
+	 * @param lookaheadIdentifier null without prefetching
+	 */
+	public BatchingAgentSelector(DuringActivityAgentSelector delegate, DecisionBroker decisionBroker, ReplanningMetrics metrics,
+			DuringActivityAgentSelector lookaheadIdentifier, double lookahead) {
+		this.delegate = delegate;
+		this.decisionBroker = decisionBroker;
+		this.metrics = metrics;
+		this.lookaheadIdentifier = lookaheadIdentifier;
+		this.lookahead = lookahead;
+	}
+
+	@Override
+	public Set<MobsimAgent> getAgentsToReplan(double time) {
+		Set<MobsimAgent> agentsToReplan = this.delegate.getAgentsToReplan(time);
+		if (!agentsToReplan.isEmpty()) {
+			long start = System.nanoTime();
+			this.decisionBroker.decide(time, agentsToReplan);
+			if (this.metrics != null) this.metrics.recordPolicy(agentsToReplan.size(), System.nanoTime() - start);
+		}
+		if (this.lookaheadIdentifier != null) {
+			// one identifier time step per mobsim time step, every departure is seen once
+			this.decisionBroker.prefetch(time, this.lookaheadIdentifier.getAgentsToReplan(time + this.lookahead));
+		}
+		return agentsToReplan;
+	}
+}
@@ -0,0 +1,15 @@
+package org.matsim.withinday.siouxfalls.src.policy;
+
+/**
+ * Trivial policy that keeps every agent on its current mode. Used as stand-in for the trained
+ * policy, e.g. behind a {@link LocalPolicyServer}.
+ */
+public final class CurrentModePolicy implements DecisionPolicy {
+
+	@Override
+	public void decide(DecisionBatch batch) {
+		for (int row = 0; row < batch.size(); row++) {
+			batch.setAction(row, batch.getCurrentAction(row));
+		}
+	}
+}
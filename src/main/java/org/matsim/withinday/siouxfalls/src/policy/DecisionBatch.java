@@ -0,0 +1,123 @@
+package org.matsim.withinday.siouxfalls.src.policy;
+
+import java.util.Arrays;
+
+/**
+ * All decisions of one simulation time step, stored row-wise in flat primitive arrays so that the
+ * batch can be reused from step to step and written to the policy without per-agent objects.
+ *
+ * Row <code>i</code> holds the person index (<code>Id.index()</code>) of the agent, the code of its
+ * current mode, its state vector at <code>states[i * stateWidth .. (i + 1) * stateWidth)</code> and,
+ * once the policy has answered, the chosen action code.
+ */
+public final class DecisionBatch {
+
+	private final int stateWidth;
+
+	private double time;
+	private int size;
+
+	private int[] agentIndices;
+	private int[] currentActions;
+	private int[] actions;
+	private float[] states;
+
+	public DecisionBatch(int stateWidth, int initialCapacity) {
+		if (stateWidth <= 0) throw new IllegalArgumentException("stateWidth must be positive: " + stateWidth);
+		int capacity = Math.max(initialCapacity, 1);
+		this.stateWidth = stateWidth;
+		this.agentIndices = new int[capacity];
+		this.currentActions = new int[capacity];
+		this.actions = new int[capacity];
+		this.states = new float[capacity * stateWidth];
+	}
+
+	/** Empties the batch for a new time step. The buffers are kept. */
+	public void clear(double time) {
+		this.time = time;
+		this.size = 0;
+	}
+
+	/**
+	 * Appends a row and returns its index. The state of the row is zeroed and the action is preset to
+	 * the current action, so an unanswered row keeps the agent on its mode.
+	 */
+	public int addRow(int agentIndex, int currentAction) {
+		if (size == agentIndices.length) {
+			ensureCapacity(size * 2);
+		}
+		int row = size++;
+		agentIndices[row] = agentIndex;
+		currentActions[row] = currentAction;
+		actions[row] = currentAction;
+		Arrays.fill(states, row * stateWidth, (row + 1) * stateWidth, 0.0f);
+		return row;
+	}
+
+	public void ensureCapacity(int capacity) {
+		if (capacity <= agentIndices.length) return;
+		agentIndices = Arrays.copyOf(agentIndices, capacity);
+		currentActions = Arrays.copyOf(currentActions, capacity);
+		actions = Arrays.copyOf(actions, capacity);
+		states = Arrays.copyOf(states, capacity * stateWidth);
+	}
+
+	public void setState(int row, int column, float value) {
+		states[row * stateWidth + column] = value;
+	}
+
+	public float getState(int row, int column) {
+		return states[row * stateWidth + column];
+	}
+
+	public void setAction(int row, int action) {
+		actions[row] = action;
+	}
+
+	public int getAction(int row) {
+		return actions[row];
+	}
+
+	public int getCurrentAction(int row) {
+		return currentActions[row];
+	}
+
+	public int getAgentIndex(int row) {
+		return agentIndices[row];
+	}
+
+	public double getTime() {
+		return time;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getStateWidth() {
+		return stateWidth;
+	}
+
+	/** Backing state matrix, valid for the first <code>size() * getStateWidth()</code> entries. */
+	public float[] states() {
+		return states;
+	}
+
+	/** Backing action array, valid for the first <code>size()</code> entries. */
+	public int[] actions() {
+		return actions;
+	}
+
+	/* package */ int[] agentIndices() {
+		return agentIndices;
+	}
+
+	/* package */ int[] currentActions() {
+		return currentActions;
+	}
+
+	/* package */ void setSize(int size) {
+		ensureCapacity(size);
+		this.size = size;
+	}
+}
@@ -0,0 +1,97 @@
+package org.matsim.withinday.siouxfalls.src.policy;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Binary wire format of the policy link. All values are big-endian (Python: <code>struct</code> with
+ * <code>'>'</code>, numpy: <code>'>f4'</code>/<code>'>i4'</code>).
+ *
+ * <pre>
+ * request  : int magic 'RLB1' | double time | int rows | int width
+ *            | int[rows] agentIndex | int[rows] currentAction | float[rows * width] states
+ * response : int magic 'RLA1' | int rows | int[rows] action
+ * </pre>
+ */
+public final class DecisionBatchCodec {
+
+	public static final int REQUEST_MAGIC = 0x524C4231; // "RLB1"
+	public static final int RESPONSE_MAGIC = 0x524C4131; // "RLA1"
+
+	private DecisionBatchCodec() {
+	}
+
+	public static void writeRequest(DataOutputStream out, DecisionBatch batch) throws IOException {
+		int rows = batch.size();
+		int width = batch.getStateWidth();
+		out.writeInt(REQUEST_MAGIC);
+		out.writeDouble(batch.getTime());
+		out.writeInt(rows);
+		out.writeInt(width);
+		int[] agentIndices = batch.agentIndices();
+		int[] currentActions = batch.currentActions();
+		for (int row = 0; row < rows; row++) out.writeInt(agentIndices[row]);
+		for (int row = 0; row < rows; row++) out.writeInt(currentActions[row]);
+		float[] states = batch.states();
+		for (int i = 0, n = rows * width; i < n; i++) out.writeFloat(states[i]);
+	}
+
+	/**
+	 * Reads a request into the given batch. Returns <code>false</code> if the stream ended cleanly
+	 * before a new request started.
+	 */
+	public static boolean readRequest(DataInputStream in, DecisionBatch batch) throws IOException {
+		int magic;
+		try {
+			magic = in.readInt();
+		} catch (EOFException e) {
+			return false;
+		}
+		checkMagic(REQUEST_MAGIC, magic);
+		double time = in.readDouble();
+		int rows = in.readInt();
+		int width = in.readInt();
+		if (width != batch.getStateWidth()) {
+			throw new IOException("State width " + width + " does not match the expected width " + batch.getStateWidth());
+		}
+		batch.clear(time);
+		batch.setSize(rows);
+		int[] agentIndices = batch.agentIndices();
+		int[] currentActions = batch.currentActions();
+		int[] actions = batch.actions();
+		for (int row = 0; row < rows; row++) agentIndices[row] = in.readInt();
+		for (int row = 0; row < rows; row++) {
+			currentActions[row] = in.readInt();
+			actions[row] = currentActions[row];
+		}
+		float[] states = batch.states();
+		for (int i = 0, n = rows * width; i < n; i++) states[i] = in.readFloat();
+		return true;
+	}
+
+	public static void writeResponse(DataOutputStream out, DecisionBatch batch) throws IOException {
+		int rows = batch.size();
+		int[] actions = batch.actions();
+		out.writeInt(RESPONSE_MAGIC);
+		out.writeInt(rows);
+		for (int row = 0; row < rows; row++) out.writeInt(actions[row]);
+	}
+
+	public static void readResponse(DataInputStream in, DecisionBatch batch) throws IOException {
+		checkMagic(RESPONSE_MAGIC, in.readInt());
+		int rows = in.readInt();
+		if (rows != batch.size()) {
+			throw new IOException("Policy answered " + rows + " rows for a batch of " + batch.size());
+		}
+		int[] actions = batch.actions();
+		for (int row = 0; row < rows; row++) actions[row] = in.readInt();
+	}
+
+	private static void checkMagic(int expected, int actual) throws IOException {
+		if (expected != actual) {
+			throw new IOException("Unexpected frame header 0x" + Integer.toHexString(actual) + ", expected 0x" + Integer.toHexString(expected));
+		}
+	}
+}
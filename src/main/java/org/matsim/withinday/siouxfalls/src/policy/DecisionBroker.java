@@ -0,0 +1,274 @@
+package org.matsim.withinday.siouxfalls.src.policy;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.core.mobsim.framework.MobsimAgent;
+import org.matsim.core.mobsim.qsim.agents.WithinDayAgentUtils;
+import org.matsim.core.mobsim.qsim.pt.TransitDriverAgentImpl;
+import org.matsim.core.router.TripStructureUtils;
+import org.matsim.core.router.TripStructureUtils.Trip;
+import org.matsim.withinday.siouxfalls.src.metrics.ReplanningMetrics;
+import org.matsim.withinday.siouxfalls.src.state.DecisionStateBuilder;
+import org.matsim.withinday.siouxfalls.src.state.StateSchema;
+
+/**
+ * Collects all agents selected for replanning in one time step, asks the {@link DecisionPolicy}
+ * for all of them with a single {@link DecisionBatch} and keeps the decisions until the
+ * replanners pick them up with {@link #pollDecision(Id)} or {@link #pollMode(Id, String)}.
+ *
+ * {@link #decide(double, Collection)} runs on the within-day engine thread before the (parallel)
+ * replanners are started, so the replanner threads only ever read the batch. The state rows are
+ * filled by a {@link DecisionStateBuilder}. With prefetching, decisions requested ahead of the
+ * departure (see {@link DecisionPrefetcher}) replace the policy call for the rows they still fit.
+ */
+public final class DecisionBroker {
+
+	// Width of the first state layout (StateSchema.V1): simulation time, planned departure of the next trip, code of its current mode
+	public static final int STATE_WIDTH = 3;
+
+	private final ModeActions modeActions;
+	private final DecisionPolicy policy;
+	private final DecisionStateBuilder stateBuilder;
+	private final DecisionBatch batch;
+	private final List<Id<Person>> rowAgents = new ArrayList<>();
+	private final Map<Id<Person>, Integer> decidedRows = new ConcurrentHashMap<>();
+	private DecisionPrefetcher prefetcher;
+	private DecisionPolicy prefetchPolicy;
+	private double[] prefetchDepartures = new double[256];
+	private ReplayBuffer replayBuffer;
+	private PolicyTimeout timeout;
+	private DecisionPolicy fallback;
+	private final DecisionBatch missingRows;
+	private double stepTime = Double.NaN;
+
+	public DecisionBroker(ModeActions modeActions, DecisionPolicy policy) {
+		this(modeActions, policy, DecisionStateBuilder.v1());
+	}
+
+	public DecisionBroker(ModeActions modeActions, DecisionPolicy policy, DecisionStateBuilder stateBuilder) {
+		this.modeActions = modeActions;
+		this.policy = policy;
+		this.stateBuilder = stateBuilder;
+		this.batch = new DecisionBatch(stateBuilder.getWidth(), 256);
+		this.missingRows = new DecisionBatch(stateBuilder.getWidth(), 256);
+	}
+
+	/**
+	 * Requests the decisions of the agents identified ahead of their departure in the background, see
+	 * {@link #prefetch(double, Collection)}.
+	 *
+	 * @param driftThreshold largest change of a state column (other than the clock) until the departure
+	 * for which the prefetched decision still counts
+	 * @param prefetchPolicy another instance (connection) of the policy for the background calls, closed
+	 * with the broker. Null shares the policy of the engine, the prefetch calls then wait for the engine.
+	 */
+	public void enablePrefetching(double driftThreshold, DecisionPolicy prefetchPolicy) {
+		if (this.prefetcher != null) return;
+		StateSchema schema = this.stateBuilder.getSchema();
+		boolean[] clockColumns = new boolean[this.stateBuilder.getWidth()];
+		for (int column = 0; column < clockColumns.length; column++) clockColumns[column] = schema.isClockColumn(column);
+		this.prefetchPolicy = prefetchPolicy;
+		if (prefetchPolicy != null) {
+			this.prefetcher = new DecisionPrefetcher(prefetchPolicy, false, clockColumns, driftThreshold);
+		} else {
+			this.prefetcher = new DecisionPrefetcher(this.policy, true, clockColumns, driftThreshold);
+		}
+	}
+
+	/**
+	 * Bounds the time the engine waits for the policy in a time step, see {@link PolicyTimeout}. The
+	 * calls of the prefetcher have no deadline, they run beside the engine.
+	 *
+	 * @param fallback decides on the rows of a call that timed out, null to keep the current modes
+	 * @param metrics null without metrics
+	 */
+	public void enableTimeout(double timeoutSeconds, DecisionPolicy fallback, ReplanningMetrics metrics) {
+		if (this.timeout != null) return;
+		this.fallback = fallback;
+		this.timeout = new PolicyTimeout(this.policy, fallback, timeoutSeconds, this.stateBuilder.getWidth(), metrics);
+	}
+
+	/** The replanners record their decisions as transitions in the buffer. */
+	public void enableReplay(ReplayBuffer replayBuffer) {
+		this.replayBuffer = replayBuffer;
+	}
+
+	/** @return null without experience replay */
+	public ReplayBuffer getReplayBuffer() {
+		return replayBuffer;
+	}
+
+	public void decide(double time, Collection<MobsimAgent> agents) {
+		this.batch.clear(time);
+		this.rowAgents.clear();
+		// Decisions that were not picked up in the previous step are outdated
+		this.decidedRows.clear();
+		beginStep(time);
+
+		for (MobsimAgent agent : agents) {
+			if (addRow(this.batch, time, agent) >= 0) this.rowAgents.add(agent.getId());
+		}
+
+		if (this.batch.size() == 0) return;
+
+		try {
+			if (this.prefetcher == null) {
+				callPolicy(this.batch);
+			} else {
+				decideMissing(time);
+			}
+		} catch (IOException e) {
+			// Without an answer every agent keeps its current mode
+			System.err.println("Policy call failed at time " + time + " for " + this.batch.size() + " agents: " + e.getMessage());
+			return;
+		}
+
+		for (int row = 0; row < this.batch.size(); row++) {
+			this.decidedRows.put(this.rowAgents.get(row), row);
+		}
+	}
+
+	// Rows with a usable prefetched decision take it, only the others go to the policy
+	private void decideMissing(double time) throws IOException {
+		this.missingRows.clear(time);
+		int width = this.batch.getStateWidth();
+		int[] rows = new int[this.batch.size()];
+		for (int row = 0; row < this.batch.size(); row++) {
+			if (this.prefetcher.apply(this.batch, row)) continue;
+			int missingRow = this.missingRows.addRow(this.batch.getAgentIndex(row), this.batch.getCurrentAction(row));
+			System.arraycopy(this.batch.states(), row * width, this.missingRows.states(), missingRow * width, width);
+			rows[missingRow] = row;
+		}
+		this.prefetcher.expire(time);
+		if (this.missingRows.size() == 0) return;
+		callPolicy(this.missingRows);
+		for (int missingRow = 0; missingRow < this.missingRows.size(); missingRow++) {
+			this.batch.setAction(rows[missingRow], this.missingRows.getAction(missingRow));
+		}
+	}
+
+	private void callPolicy(DecisionBatch rows) throws IOException {
+		if (this.prefetcher != null) this.prefetcher.beginEngineCall();
+		try {
+			if (this.timeout != null) {
+				this.timeout.decide(rows);
+			} else {
+				this.policy.decide(rows);
+			}
+		} finally {
+			if (this.prefetcher != null) this.prefetcher.endEngineCall();
+		}
+	}
+
+	/**
+	 * Builds the states of agents that will depart within the next seconds and sends them to the policy
+	 * in the background. Does nothing unless {@link #enablePrefetching(double, DecisionPolicy)} was called.
+	 */
+	public void prefetch(double time, Collection<MobsimAgent> agents) {
+		if (this.prefetcher == null || agents.isEmpty()) return;
+		beginStep(time);
+		// a batch of its own, the policy answers it while the engine moves on
+		DecisionBatch prefetchBatch = this.prefetcher.takeBatch(time);
+		if (this.prefetchDepartures.length < agents.size()) this.prefetchDepartures = new double[Math.max(agents.size(), 2 * this.prefetchDepartures.length)];
+		for (MobsimAgent agent : agents) {
+			int row = addRow(prefetchBatch, time, agent);
+			if (row >= 0) this.prefetchDepartures[row] = agent.getActivityEndTime();
+		}
+		this.prefetcher.submit(prefetchBatch, this.prefetchDepartures);
+	}
+
+	private void beginStep(double time) {
+		if (time == this.stepTime) return;
+		// a new mobsim (next iteration or episode): the prefetched decisions belong to the old one
+		if (this.prefetcher != null && time < this.stepTime) this.prefetcher.clear();
+		this.stateBuilder.beginStep(time);
+		this.stepTime = time;
+	}
+
+	// @return the row of the agent or -1 if it has no trip to decide on
+	private int addRow(DecisionBatch target, double time, MobsimAgent agent) {
+		// pt drivers are not replanned
+		if (agent instanceof TransitDriverAgentImpl) return -1;
+
+		Plan plan = WithinDayAgentUtils.getModifiablePlan(agent);
+		if (plan == null) return -1;
+
+		PlanElement currentElement = WithinDayAgentUtils.getCurrentPlanElement(agent);
+		if (!(currentElement instanceof Activity)) return -1;
+
+		Trip trip = TripStructureUtils.findTripStartingAtActivity((Activity) currentElement, plan);
+		if (trip == null) return -1;
+
+		String routingMode = TripStructureUtils.identifyMainMode(trip.getTripElements());
+		double departureTime = TripStructureUtils.getDepartureTime(trip).orElse(time);
+
+		int row = target.addRow(agent.getId().index(), this.modeActions.getAction(routingMode));
+		this.stateBuilder.fill(target, row, time, departureTime, (Activity) currentElement, trip, agent.getId().index());
+		return row;
+	}
+
+	/**
+	 * @return the row of the agent in the batch of the current time step, or -1 if the policy did not
+	 * decide on this agent. The row stays valid until the next time step.
+	 */
+	public int pollDecision(Id<Person> agentId) {
+		Integer row = this.decidedRows.remove(agentId);
+		return (row != null) ? row : -1;
+	}
+
+	/** @return the mode chosen for the row, or null if the policy answered with an unknown action */
+	public String getMode(int row) {
+		return this.modeActions.getMode(this.batch.getAction(row));
+	}
+
+	/**
+	 * @return the mode decided for the agent in the current time step, or the fallback mode if the
+	 * policy did not decide on this agent
+	 */
+	public String pollMode(Id<Person> agentId, String fallbackMode) {
+		int row = pollDecision(agentId);
+		String mode = (row >= 0) ? getMode(row) : null;
+		return (mode != null) ? mode : fallbackMode;
+	}
+
+	public DecisionBatch getBatch() {
+		return batch;
+	}
+
+	public ModeActions getModeActions() {
+		return modeActions;
+	}
+
+	/** @return what became of the prefetched decisions, null without prefetching */
+	public String getPrefetchSummary() {
+		return (this.prefetcher != null) ? this.prefetcher.getSummary() : null;
+	}
+
+	/** @return what became of the policy calls with a deadline, null without a timeout */
+	public String getTimeoutSummary() {
+		return (this.timeout != null) ? this.timeout.getSummary() : null;
+	}
+
+	public void close() {
+		if (this.prefetcher != null) this.prefetcher.close();
+		if (this.timeout != null) this.timeout.close();
+		try {
+			this.policy.close();
+			if (this.prefetchPolicy != null) this.prefetchPolicy.close();
+			if (this.fallback != null) this.fallback.close();
+			if (this.replayBuffer != null) this.replayBuffer.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,17 @@
+package org.matsim.withinday.siouxfalls.src.policy;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Maps the states of a {@link DecisionBatch} to actions. Implementations write one action code per
+ * row into the batch. Rows they leave untouched keep the current action of the agent.
+ */
+public interface DecisionPolicy extends Closeable {
+
+	void decide(DecisionBatch batch) throws IOException;
+
+	@Override
+	default void close() throws IOException {
+	}
+}
@@ -0,0 +1,255 @@
+package org.matsim.withinday.siouxfalls.src.policy;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Decisions requested ahead of the departures. The states are built on the engine thread when the
+ * agents are identified ahead of time, the policy call runs on a background thread while the mobsim
+ * goes on. At the departure {@link #apply(DecisionBatch, int)} takes over the prefetched action if the
+ * answer is there and the state has not drifted away from the one the policy saw.
+ *
+ * The prefetcher should have a policy instance (connection) of its own. If it shares the one of the
+ * engine, the engine brackets its calls with {@link #beginEngineCall()} and {@link #endEngineCall()}:
+ * prefetch calls that have not started yet are held back until the engine has its answer, a running
+ * one is waited for and the wait is reported in the summary.
+ *
+ * The batches come from {@link #takeBatch(double)} and go back to a pool once all their rows are used
+ * or forgotten and the policy has answered them.
+ *
+ * Everything but the policy call happens on the engine thread.
+ */
+final class DecisionPrefetcher {
+
+	private final DecisionPolicy policy;
+	// held by the engine during its calls and by the prefetch calls, null with a policy of its own
+	private final ReentrantLock sharedPolicyLock;
+	private final boolean[] clockColumns;
+	private final double driftThreshold;
+	private final ExecutorService executor;
+	// person index -> prefetched decision
+	private final Map<Integer, Prefetch> prefetched = new HashMap<>();
+	private final ArrayDeque<DecisionBatch> freeBatches = new ArrayDeque<>();
+	// without rows, but the policy may still be writing into them
+	private final List<Submission> retired = new ArrayList<>();
+
+	private long requested = 0;
+	private long hits = 0;
+	private long drifted = 0;
+	private long notReady = 0;
+	private long failed = 0;
+	private long engineWaitNanos = 0;
+
+	/**
+	 * @param sharesEnginePolicy true if the engine calls the same policy instance
+	 * @param clockColumns state columns that move with the simulation time alone and do not count as drift
+	 * @param driftThreshold largest absolute difference of any other state column, in the units of the schema
+	 */
+	DecisionPrefetcher(DecisionPolicy policy, boolean sharesEnginePolicy, boolean[] clockColumns, double driftThreshold) {
+		this.policy = policy;
+		this.sharedPolicyLock = sharesEnginePolicy ? new ReentrantLock() : null;
+		this.clockColumns = clockColumns;
+		this.driftThreshold = driftThreshold;
+		this.executor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "DecisionPrefetcher");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/** @return an empty batch for {@link #submit(DecisionBatch, double[])} */
+	DecisionBatch takeBatch(double time) {
+		for (int i = retired.size() - 1; i >= 0; i--) {
+			if (retired.get(i).answer.isDone()) freeBatches.add(retired.remove(i).batch);
+		}
+		DecisionBatch batch = freeBatches.poll();
+		if (batch == null) batch = new DecisionBatch(clockColumns.length, 256);
+		batch.clear(time);
+		return batch;
+	}
+
+	/**
+	 * Hands the batch to the policy in the background. The batch must not be touched afterwards.
+	 *
+	 * @param departures per row, only read during the call
+	 */
+	void submit(DecisionBatch batch, double[] departures) {
+		if (batch.size() == 0) {
+			freeBatches.add(batch);
+			return;
+		}
+		Future<?> answer = executor.submit(() -> {
+			if (sharedPolicyLock == null) {
+				policy.decide(batch);
+				return null;
+			}
+			sharedPolicyLock.lock();
+			try {
+				policy.decide(batch);
+			} finally {
+				sharedPolicyLock.unlock();
+			}
+			return null;
+		});
+		Submission submission = new Submission(batch, answer);
+		for (int row = 0; row < batch.size(); row++) {
+			submission.rows++;
+			release(prefetched.put(batch.getAgentIndex(row), new Prefetch(submission, row, departures[row])));
+		}
+		requested += batch.size();
+	}
+
+	// The row is not needed anymore, neither is the batch after its last row
+	private void release(Prefetch prefetch) {
+		if (prefetch == null || --prefetch.submission.rows > 0) return;
+		retired.add(prefetch.submission);
+	}
+
+	/**
+	 * Called by the engine before it calls a policy shared with the prefetcher, waits for a running
+	 * prefetch call. Must be followed by {@link #endEngineCall()}.
+	 */
+	void beginEngineCall() {
+		if (sharedPolicyLock == null) return;
+		long start = System.nanoTime();
+		sharedPolicyLock.lock();
+		engineWaitNanos += System.nanoTime() - start;
+	}
+
+	/** Lets the held back prefetch calls go on. */
+	void endEngineCall() {
+		if (sharedPolicyLock != null) sharedPolicyLock.unlock();
+	}
+
+	/**
+	 * Sets the action of the row to the prefetched one of its agent.
+	 *
+	 * @return false if there is none, it is not answered yet or the state has drifted, the row then
+	 * needs the policy
+	 */
+	boolean apply(DecisionBatch target, int row) {
+		Prefetch prefetch = prefetched.remove(target.getAgentIndex(row));
+		if (prefetch == null) return false;
+		try {
+			return apply(prefetch, target, row);
+		} finally {
+			release(prefetch);
+		}
+	}
+
+	private boolean apply(Prefetch prefetch, DecisionBatch target, int row) {
+		Future<?> answer = prefetch.submission.answer;
+		if (!answer.isDone()) {
+			notReady++;
+			return false;
+		}
+		try {
+			answer.get();
+		} catch (ExecutionException | InterruptedException e) {
+			failed++;
+			return false;
+		}
+		DecisionBatch batch = prefetch.submission.batch;
+		if (getDrift(batch, prefetch.row, target, row) > driftThreshold) {
+			drifted++;
+			return false;
+		}
+		target.setAction(row, batch.getAction(prefetch.row));
+		hits++;
+		return true;
+	}
+
+	double getDrift(DecisionBatch prefetchedBatch, int prefetchedRow, DecisionBatch target, int row) {
+		// another current mode means another decision
+		if (prefetchedBatch.getCurrentAction(prefetchedRow) != target.getCurrentAction(row)) return Double.POSITIVE_INFINITY;
+		double drift = 0;
+		for (int column = 0; column < target.getStateWidth(); column++) {
+			if (column < clockColumns.length && clockColumns[column]) continue;
+			drift = Math.max(drift, Math.abs(prefetchedBatch.getState(prefetchedRow, column) - target.getState(row, column)));
+		}
+		return drift;
+	}
+
+	/** Forgets the decisions of agents that should have departed before <code>time</code>. */
+	void expire(double time) {
+		prefetched.values().removeIf(prefetch -> {
+			if (prefetch.departure >= time) return false;
+			release(prefetch);
+			return true;
+		});
+	}
+
+	void clear() {
+		for (Prefetch prefetch : prefetched.values()) release(prefetch);
+		prefetched.clear();
+	}
+
+	/** Waits for all requests sent so far. */
+	void awaitPending() throws InterruptedException {
+		try {
+			executor.submit(() -> { }).get();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	int size() {
+		return prefetched.size();
+	}
+
+	long getRequested() {
+		return requested;
+	}
+
+	long getHits() {
+		return hits;
+	}
+
+	/** @return the time the engine waited for prefetch calls on the shared policy, 0 with a policy of its own */
+	long getEngineWaitNanos() {
+		return engineWaitNanos;
+	}
+
+	String getSummary() {
+		String engineWait = (sharedPolicyLock != null) ? "engine waited " + engineWaitNanos / 1_000_000 + " ms for prefetch calls on the shared policy"
+				: "own policy instance, the engine never waited";
+		return "Decision prefetching: " + requested + " decisions requested ahead, " + hits + " used, "
+				+ drifted + " recomputed after drift, " + notReady + " not answered in time, " + failed + " failed, " + engineWait;
+	}
+
+	void close() {
+		executor.shutdownNow();
+	}
+
+	private static final class Submission {
+		final DecisionBatch batch;
+		final Future<?> answer;
+		// rows not used or forgotten yet
+		int rows = 0;
+
+		Submission(DecisionBatch batch, Future<?> answer) {
+			this.batch = batch;
+			this.answer = answer;
+		}
+	}
+
+	private static final class Prefetch {
+		final Submission submission;
+		final int row;
+		final double departure;
+
+		Prefetch(Submission submission, int row, double departure) {
+			this.submission = submission;
+			this.row = row;
+			this.departure = departure;
+		}
+	}
+}
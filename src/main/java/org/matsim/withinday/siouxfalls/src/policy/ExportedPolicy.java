@@ -0,0 +1,111 @@
+package org.matsim.withinday.siouxfalls.src.policy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a policy exported by the trainer for evaluation runs inside the JVM, without the policy server.
+ * All values are little-endian, so the arrays can be written with numpy <code>tofile</code>
+ * (<code>'&lt;f4'</code>, <code>'&lt;i4'</code>).
+ *
+ * <pre>
+ * Q-table : int magic 'RLQT' | int version | int stateWidth | int actions | int binnedColumns
+ *           | binnedColumns * (int column | int bins | float[bins - 1] edges)
+ *           | float[bins_0 * .. * bins_k * actions] q
+ * MLP     : int magic 'RLMP' | int version | int stateWidth | int actions | int layers
+ *           | layers * (int inputs | int outputs | int activation | float[outputs * inputs] weight
+ *           | float[outputs] bias)
+ * </pre>
+ *
+ * See {@link QTablePolicy} and {@link MlpPolicy} for the meaning of the arrays.
+ */
+public final class ExportedPolicy {
+
+	public static final int QTABLE_MAGIC = 0x5451524C; // "RLQT" read as little-endian bytes
+	public static final int MLP_MAGIC = 0x504D524C; // "RLMP" read as little-endian bytes
+	public static final int VERSION = 1;
+
+	private ExportedPolicy() {
+	}
+
+	/**
+	 * @param stateWidth width of the states the policy will be asked for
+	 * @param actions size of the action space
+	 */
+	public static DecisionPolicy load(Path file, int stateWidth, int actions) throws IOException {
+		ByteBuffer buffer = read(file);
+		int magic = buffer.getInt();
+		int version = buffer.getInt();
+		int width = buffer.getInt();
+		int outputs = buffer.getInt();
+		if (magic != QTABLE_MAGIC && magic != MLP_MAGIC) throw new IOException(file + " is not an exported Q-table or MLP");
+		if (version != VERSION) throw new IOException(file + " has version " + version + ", expected " + VERSION);
+		if (width != stateWidth || outputs != actions) {
+			throw new IOException(file + " maps states of width " + width + " to " + outputs + " actions, expected " + stateWidth + " and " + actions);
+		}
+		try {
+			return (magic == QTABLE_MAGIC) ? readQTable(buffer, width, outputs) : readMlp(buffer, width, outputs);
+		} catch (RuntimeException e) {
+			throw new IOException(file + " is not a valid exported policy: " + e.getMessage(), e);
+		}
+	}
+
+	private static ByteBuffer read(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) throw new IOException(file + " is too large for an exported policy");
+			ByteBuffer buffer = ByteBuffer.allocate((int) channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) { }
+			buffer.flip();
+			if (buffer.remaining() < 20) throw new IOException(file + " is not an exported Q-table or MLP");
+			return buffer;
+		}
+	}
+
+	private static QTablePolicy readQTable(ByteBuffer buffer, int stateWidth, int actions) {
+		int binnedColumns = buffer.getInt();
+		int[] columns = new int[binnedColumns];
+		float[][] edges = new float[binnedColumns][];
+		long cells = 1;
+		for (int i = 0; i < binnedColumns; i++) {
+			columns[i] = buffer.getInt();
+			int bins = buffer.getInt();
+			if (bins <= 0) throw new IllegalArgumentException("column " + columns[i] + " has " + bins + " bins");
+			edges[i] = readFloats(buffer, bins - 1);
+			cells *= bins;
+		}
+		if (cells * actions > Integer.MAX_VALUE) throw new IllegalArgumentException(cells + " cells of " + actions + " actions do not fit into one array");
+		return new QTablePolicy(stateWidth, actions, columns, edges, readFloats(buffer, (int) (cells * actions)));
+	}
+
+	private static MlpPolicy readMlp(ByteBuffer buffer, int stateWidth, int actions) {
+		int layers = buffer.getInt();
+		if (layers <= 0) throw new IllegalArgumentException(layers + " layers");
+		float[][] weights = new float[layers][];
+		float[][] biases = new float[layers][];
+		MlpPolicy.Activation[] activations = new MlpPolicy.Activation[layers];
+		int expectedInputs = stateWidth;
+		for (int layer = 0; layer < layers; layer++) {
+			int inputs = buffer.getInt();
+			int outputs = buffer.getInt();
+			int activation = buffer.getInt();
+			if (inputs != expectedInputs || outputs <= 0) throw new IllegalArgumentException("layer " + layer + " maps " + inputs + " to " + outputs + " values");
+			if (activation < 0 || activation >= MlpPolicy.Activation.values().length) throw new IllegalArgumentException("unknown activation " + activation);
+			activations[layer] = MlpPolicy.Activation.values()[activation];
+			weights[layer] = readFloats(buffer, outputs * inputs);
+			biases[layer] = readFloats(buffer, outputs);
+			expectedInputs = outputs;
+		}
+		return new MlpPolicy(stateWidth, actions, weights, biases, activations);
+	}
+
+	private static float[] readFloats(ByteBuffer buffer, int length) {
+		float[] values = new float[length];
+		buffer.asFloatBuffer().get(values);
+		buffer.position(buffer.position() + 4 * length);
+		return values;
+	}
+}
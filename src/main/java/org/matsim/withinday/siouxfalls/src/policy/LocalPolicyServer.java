@@ -0,0 +1,80 @@
+package org.matsim.withinday.siouxfalls.src.policy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+
+/**
+ * In-process stand-in for the Python policy server. Speaks the {@link DecisionBatchCodec} protocol
+ * on a loopback port and answers every batch with the given {@link DecisionPolicy}. Meant for tests
+ * and for dry runs of the within-day pipeline without the training side.
+ */
+public final class LocalPolicyServer implements AutoCloseable {
+
+	private final ServerSocket serverSocket;
+	private final DecisionPolicy policy;
+	private final int stateWidth;
+	private final Thread acceptThread;
+	private volatile boolean closed = false;
+
+	public LocalPolicyServer(DecisionPolicy policy, int stateWidth) throws IOException {
+		this(0, policy, stateWidth);
+	}
+
+	/** @param port the port to listen on, 0 picks a free one (see {@link #getPort()}) */
+	public LocalPolicyServer(int port, DecisionPolicy policy, int stateWidth) throws IOException {
+		this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		this.policy = policy;
+		this.stateWidth = stateWidth;
+		this.acceptThread = new Thread(this::acceptLoop, "LocalPolicyServer-" + getPort());
+		this.acceptThread.setDaemon(true);
+		this.acceptThread.start();
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	private void acceptLoop() {
+		while (!closed) {
+			try {
+				Socket socket = serverSocket.accept();
+				Thread connectionThread = new Thread(() -> serve(socket), "LocalPolicyServer-connection");
+				connectionThread.setDaemon(true);
+				connectionThread.start();
+			} catch (IOException e) {
+				if (!closed) e.printStackTrace();
+			}
+		}
+	}
+
+	private void serve(Socket socket) {
+		try (socket) {
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+			DecisionBatch batch = new DecisionBatch(stateWidth, 64);
+			while (DecisionBatchCodec.readRequest(in, batch)) {
+				policy.decide(batch);
+				DecisionBatchCodec.writeResponse(out, batch);
+				out.flush();
+			}
+		} catch (SocketException e) {
+			// client went away
+		} catch (IOException e) {
+			if (!closed) e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		serverSocket.close();
+	}
+}
@@ -0,0 +1,101 @@
+package org.matsim.withinday.siouxfalls.src.policy;
+
+/**
+ * Greedy policy of a small dense network (e.g. the Q-network or the actor of the trainer). Every layer
+ * computes <code>activation(weight * input + bias)</code> with the weight stored row-major as
+ * <code>outputs x inputs</code>, the layout of a torch <code>Linear</code> layer. The last layer has
+ * one output per action, the row takes the action with the largest output. Input normalization is
+ * expected to be folded into the first layer by the export. Rows without a finite output keep their
+ * current action.
+ *
+ * The activations of one row live in two preallocated buffers, so {@link #decide(DecisionBatch)}
+ * allocates nothing. It is synchronized on them, the broker and the prefetcher may call concurrently.
+ */
+public final class MlpPolicy implements DecisionPolicy {
+
+	/** Codes in the exported file are the ordinals. */
+	public enum Activation { linear, relu, tanh }
+
+	private final int stateWidth;
+	private final int actions;
+	private final int[] inputs;
+	private final int[] outputs;
+	private final float[][] weights;
+	private final float[][] biases;
+	private final Activation[] activations;
+
+	private final float[] current;
+	private final float[] next;
+
+	public MlpPolicy(int stateWidth, int actions, float[][] weights, float[][] biases, Activation[] activations) {
+		int layers = weights.length;
+		if (layers == 0 || biases.length != layers || activations.length != layers) {
+			throw new IllegalArgumentException(layers + " weights, " + biases.length + " biases and " + activations.length + " activations");
+		}
+		this.stateWidth = stateWidth;
+		this.actions = actions;
+		this.inputs = new int[layers];
+		this.outputs = new int[layers];
+		this.weights = weights.clone();
+		this.biases = biases.clone();
+		this.activations = activations.clone();
+
+		int width = stateWidth;
+		int maxWidth = stateWidth;
+		for (int layer = 0; layer < layers; layer++) {
+			inputs[layer] = width;
+			outputs[layer] = biases[layer].length;
+			if (weights[layer].length != inputs[layer] * outputs[layer]) {
+				throw new IllegalArgumentException("layer " + layer + " has " + weights[layer].length + " weights for " + inputs[layer] + " inputs and " + outputs[layer] + " outputs");
+			}
+			width = outputs[layer];
+			maxWidth = Math.max(maxWidth, width);
+		}
+		if (width != actions) throw new IllegalArgumentException("the last layer has " + width + " outputs for " + actions + " actions");
+		this.current = new float[maxWidth];
+		this.next = new float[maxWidth];
+	}
+
+	@Override
+	public synchronized void decide(DecisionBatch batch) {
+		if (batch.getStateWidth() != stateWidth) throw new IllegalArgumentException("State width " + batch.getStateWidth() + " does not match the input width " + stateWidth);
+		float[] states = batch.states();
+		int[] batchActions = batch.actions();
+		for (int row = 0; row < batch.size(); row++) {
+			// the first layer reads the state in place
+			float[] in = states;
+			int inOffset = row * stateWidth;
+			float[] out = current;
+			for (int layer = 0; layer < weights.length; layer++) {
+				layer(layer, in, inOffset, out);
+				in = out;
+				inOffset = 0;
+				out = (out == current) ? next : current;
+			}
+			int action = QTablePolicy.argmax(in, 0, actions);
+			if (action >= 0) batchActions[row] = action;
+		}
+	}
+
+	private void layer(int layer, float[] in, int inOffset, float[] out) {
+		float[] weight = weights[layer];
+		float[] bias = biases[layer];
+		int n = inputs[layer];
+		Activation activation = activations[layer];
+		for (int o = 0, w = 0; o < outputs[layer]; o++) {
+			float sum = bias[o];
+			for (int i = 0; i < n; i++, w++) sum += weight[w] * in[inOffset + i];
+			switch (activation) {
+				case relu:
+					out[o] = Math.max(sum, 0.0f);
+					break;
+				case tanh:
+					out[o] = (float) Math.tanh(sum);
+					break;
+				case linear:
+				default:
+					out[o] = sum;
+			}
+		}
+	}
+}
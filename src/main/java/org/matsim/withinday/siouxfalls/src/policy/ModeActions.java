@@ -0,0 +1,46 @@
+package org.matsim.withinday.siouxfalls.src.policy;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.matsim.core.config.Config;
+
+/**
+ * Action space of the mode decision: the modes of the <code>subtourModeChoice</code> module, in
+ * config order. The action code of a mode is its position in that list.
+ */
+public final class ModeActions {
+
+	public static final int UNKNOWN = -1;
+
+	private final String[] modes;
+
+	public ModeActions(String... modes) {
+		this.modes = modes.clone();
+	}
+
+	public static ModeActions fromConfig(Config config) {
+		return new ModeActions(config.subtourModeChoice().getModes());
+	}
+
+	/** @return the action code of the mode or {@link #UNKNOWN} if the mode is not part of the action space */
+	public int getAction(String mode) {
+		for (int i = 0; i < modes.length; i++) {
+			if (modes[i].equals(mode)) return i;
+		}
+		return UNKNOWN;
+	}
+
+	/** @return the mode of the action code or <code>null</code> if the code is out of range */
+	public String getMode(int action) {
+		return (action >= 0 && action < modes.length) ? modes[action] : null;
+	}
+
+	public int size() {
+		return modes.length;
+	}
+
+	public List<String> getModes() {
+		return Arrays.asList(modes);
+	}
+}
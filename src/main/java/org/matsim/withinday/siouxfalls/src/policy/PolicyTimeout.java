@@ -0,0 +1,141 @@
+package org.matsim.withinday.siouxfalls.src.policy;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.matsim.withinday.siouxfalls.src.metrics.ReplanningMetrics;
+
+/**
+ * Deadline of the policy call of one time step, so that a slow or hung policy server cannot stall the
+ * within-day engine. The call runs on a background thread with a copy of the batch. If it does not
+ * answer in time the rows fall back to the fallback policy, or keep the current mode of the agent
+ * without one, and the late answer is discarded when it arrives. While a late call is still running,
+ * the following time steps fall back right away.
+ *
+ * Everything but the policy call happens on the engine thread.
+ */
+final class PolicyTimeout {
+
+	private final DecisionPolicy policy;
+	private final DecisionPolicy fallback;
+	private final long timeoutNanos;
+	private final ReplanningMetrics metrics;
+	private final ExecutorService executor;
+	// the call owns the request until it returns
+	private final DecisionBatch request;
+	private Future<?> pending;
+	private boolean pendingLate = false;
+
+	private long calls = 0;
+	private long timeouts = 0;
+	private long busy = 0;
+	private long fallbackRows = 0;
+	private long lateReplies = 0;
+
+	/**
+	 * @param fallback answers the rows of a call that timed out, null to keep the current modes
+	 * @param metrics null without metrics
+	 */
+	PolicyTimeout(DecisionPolicy policy, DecisionPolicy fallback, double timeoutSeconds, int stateWidth, ReplanningMetrics metrics) {
+		if (timeoutSeconds <= 0) throw new IllegalArgumentException("timeout must be positive: " + timeoutSeconds);
+		this.policy = policy;
+		this.fallback = fallback;
+		this.timeoutNanos = (long) (timeoutSeconds * 1e9);
+		this.metrics = metrics;
+		this.request = new DecisionBatch(stateWidth, 256);
+		this.executor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "PolicyTimeout");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/** Asks the policy for the rows of the batch and waits at most until the deadline. */
+	void decide(DecisionBatch batch) throws IOException {
+		if (batch.size() == 0) return;
+		calls++;
+		if (pending != null && !pending.isDone()) {
+			// the previous call still holds the policy and the request
+			busy++;
+			fallback(batch, 0);
+			return;
+		}
+		collectLate();
+
+		copy(batch, request);
+		pending = executor.submit(() -> {
+			policy.decide(request);
+			return null;
+		});
+		try {
+			pending.get(timeoutNanos, TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			pendingLate = true;
+			timeouts++;
+			fallback(batch, 1);
+			return;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the policy", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			throw (cause instanceof IOException) ? (IOException) cause : new IOException(cause);
+		}
+		System.arraycopy(request.actions(), 0, batch.actions(), 0, batch.size());
+	}
+
+	private void fallback(DecisionBatch batch, int timedOut) {
+		fallbackRows += batch.size();
+		if (metrics != null) metrics.recordPolicyTimeout(timedOut, batch.size(), 0);
+		if (fallback == null) return;
+		try {
+			fallback.decide(batch);
+		} catch (IOException e) {
+			// the rows keep the current modes
+			System.err.println("Fallback policy failed at time " + batch.getTime() + ": " + e.getMessage());
+		}
+	}
+
+	// A call that timed out and has answered since, its actions are not used
+	private void collectLate() {
+		if (!pendingLate || !pending.isDone()) return;
+		pendingLate = false;
+		lateReplies++;
+		if (metrics != null) metrics.recordPolicyTimeout(0, 0, 1);
+	}
+
+	private static void copy(DecisionBatch from, DecisionBatch to) {
+		int width = from.getStateWidth();
+		to.clear(from.getTime());
+		to.ensureCapacity(from.size());
+		for (int row = 0; row < from.size(); row++) to.addRow(from.getAgentIndex(row), from.getCurrentAction(row));
+		System.arraycopy(from.states(), 0, to.states(), 0, from.size() * width);
+	}
+
+	long getTimeouts() {
+		return timeouts;
+	}
+
+	long getLateReplies() {
+		return lateReplies;
+	}
+
+	long getFallbackRows() {
+		return fallbackRows;
+	}
+
+	String getSummary() {
+		collectLate();
+		return "Policy timeout: " + calls + " calls, " + timeouts + " timed out after " + (timeoutNanos / 1e6) + " ms, " + busy
+				+ " skipped while a late call was running, " + fallbackRows + " decisions by the fallback, " + lateReplies + " late replies discarded";
+	}
+
+	void close() {
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,84 @@
+package org.matsim.withinday.siouxfalls.src.policy;
+
+/**
+ * Greedy policy of a tabular Q-function. The state is discretized by a few of its columns: a value
+ * falls into bin <code>i</code> of its column if <code>edges[i - 1] &lt;= value &lt; edges[i]</code>
+ * (numpy <code>digitize</code>). The cell of a state is the row-major index of its bins, the Q-values
+ * of cell <code>c</code> are at <code>q[c * actions .. (c + 1) * actions)</code>. Rows without a finite
+ * Q-value keep their current action.
+ *
+ * Stateless apart from the tables, so {@link #decide(DecisionBatch)} allocates nothing and may be
+ * called from several threads.
+ */
+public final class QTablePolicy implements DecisionPolicy {
+
+	private final int stateWidth;
+	private final int actions;
+	private final int[] columns;
+	private final float[][] edges;
+	private final float[] q;
+
+	/**
+	 * @param columns state columns that span the table
+	 * @param edges per binned column the ascending inner bin edges (one less than its bins)
+	 */
+	public QTablePolicy(int stateWidth, int actions, int[] columns, float[][] edges, float[] q) {
+		if (columns.length != edges.length) throw new IllegalArgumentException(columns.length + " columns but " + edges.length + " edge arrays");
+		long cells = 1;
+		for (int i = 0; i < columns.length; i++) {
+			if (columns[i] < 0 || columns[i] >= stateWidth) throw new IllegalArgumentException("column " + columns[i] + " is not part of states of width " + stateWidth);
+			cells *= edges[i].length + 1;
+		}
+		if (q.length != cells * actions) throw new IllegalArgumentException(q.length + " Q-values for " + cells + " cells of " + actions + " actions");
+		this.stateWidth = stateWidth;
+		this.actions = actions;
+		this.columns = columns.clone();
+		this.edges = edges.clone();
+		this.q = q;
+	}
+
+	@Override
+	public void decide(DecisionBatch batch) {
+		if (batch.getStateWidth() != stateWidth) throw new IllegalArgumentException("State width " + batch.getStateWidth() + " does not match the table width " + stateWidth);
+		float[] states = batch.states();
+		int[] batchActions = batch.actions();
+		for (int row = 0; row < batch.size(); row++) {
+			int offset = row * stateWidth;
+			int cell = 0;
+			for (int i = 0; i < columns.length; i++) {
+				cell = cell * (edges[i].length + 1) + bin(edges[i], states[offset + columns[i]]);
+			}
+			int action = argmax(q, cell * actions, actions);
+			if (action >= 0) batchActions[row] = action;
+		}
+	}
+
+	private static int bin(float[] edges, float value) {
+		// number of edges <= value
+		int low = 0;
+		int high = edges.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (edges[middle] <= value) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/** @return the index of the largest finite value or -1 if there is none */
+	static int argmax(float[] values, int offset, int length) {
+		int best = -1;
+		float bestValue = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i < length; i++) {
+			float value = values[offset + i];
+			if (value > bestValue && !Float.isInfinite(value)) {
+				best = i;
+				bestValue = value;
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,264 @@
+package org.matsim.withinday.siouxfalls.src.policy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Experience replay of the within-day decisions in a memory-mapped file, so that a trainer on the same
+ * host can map the file as well and sample without copying through the policy link.
+ *
+ * The file is a ring of fixed-width little-endian records. Every decision of an agent completes the
+ * transition of its previous decision: (previous state, previous action, reward of the trip in
+ * between, this state). {@link #endEpisode()} completes the last transition of every agent with
+ * <code>done</code> set and a zero next state.
+ *
+ * <pre>
+ * header (64 bytes) : int magic 'RLRB' | int version | int stateWidth | int recordSize
+ *                     | long capacity | long head | long tail | padding
+ * record            : long stamp | double time | int iteration | int agent | int action | float reward
+ *                     | int done | int padding | float[stateWidth] state | float[stateWidth] nextState
+ *                     | padding to a multiple of 8 bytes
+ * </pre>
+ *
+ * Transition <code>n</code> (counted over the life of the file) lives in record <code>n % capacity</code>.
+ * <code>head</code> is the number of transitions claimed so far, <code>tail</code> the oldest one not
+ * yet overwritten. Writers claim a transition by an atomic add on <code>head</code>, set the stamp of
+ * its record to <code>-(n + 1)</code>, fence (store-store) so that no field is written before that
+ * stamp, write the fields and publish it by setting the stamp to <code>n + 1</code> with release
+ * semantics. A reader reads the stamp with acquire semantics, copies the record, issues an acquire
+ * (load-load) fence so that the copy is not read after the stamp, reads the stamp again and keeps the
+ * copy if the stamp was <code>n + 1</code> both times. {@link #isPublished(long)} does both stamp
+ * reads; readers in other processes need the same fence, e.g.
+ * <code>std::atomic_thread_fence(std::memory_order_acquire)</code>.
+ *
+ * An existing file with the same layout is continued, so the buffer outlives iterations and restarts.
+ * The replanner threads write without allocating. The pending transitions are kept per person index,
+ * the replanning of one agent is never split over threads.
+ */
+public final class ReplayBuffer implements Closeable {
+
+	public static final int MAGIC = 0x4252524C; // "RLRB" read as little-endian bytes
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 64;
+	public static final int FIXED_RECORD_SIZE = 40;
+	public static final String FILE_NAME = "replay_buffer.bin";
+
+	private static final int HEAD = 24;
+	private static final int TAIL = 32;
+	private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+	/** Reward an agent collected since a time, see TripRewardTracker. */
+	public interface RewardSource {
+		double getRewardSince(int personIndex, double time);
+	}
+
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+	private final RewardSource rewards;
+	private final int stateWidth;
+	private final int recordSize;
+	private final long capacity;
+
+	// per person index: the decision that waits for its reward and next state
+	private final int[] pendingActions;
+	private final int[] pendingIterations;
+	private final double[] pendingTimes;
+	private final float[] pendingStates;
+
+	/**
+	 * @param persons number of person indices (<code>Id.getNumberOfIds(Person.class)</code> once the
+	 * population is loaded)
+	 */
+	public ReplayBuffer(Path file, int stateWidth, long capacity, int persons, RewardSource rewards) throws IOException {
+		if (stateWidth <= 0) throw new IllegalArgumentException("stateWidth must be positive: " + stateWidth);
+		if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		this.stateWidth = stateWidth;
+		this.recordSize = recordSize(stateWidth);
+		this.capacity = capacity;
+		this.rewards = rewards;
+		long size = HEADER_SIZE + capacity * recordSize;
+		if (size > Integer.MAX_VALUE) throw new IllegalArgumentException("A replay buffer of " + capacity + " transitions does not fit into one mapping");
+
+		if (file.getParent() != null) file.getParent().toFile().mkdirs();
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		boolean existing = this.channel.size() > 0;
+		if (existing) checkHeader(file);
+		this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+		if (!existing) {
+			this.buffer.putInt(0, MAGIC);
+			this.buffer.putInt(4, VERSION);
+			this.buffer.putInt(8, stateWidth);
+			this.buffer.putInt(12, recordSize);
+			this.buffer.putLong(16, capacity);
+			LONGS.setRelease(this.buffer, HEAD, 0L);
+			LONGS.setRelease(this.buffer, TAIL, 0L);
+		}
+
+		int initial = Math.max(persons, 1);
+		this.pendingActions = new int[initial];
+		this.pendingIterations = new int[initial];
+		this.pendingTimes = new double[initial];
+		this.pendingStates = new float[initial * stateWidth];
+		Arrays.fill(this.pendingActions, -1);
+	}
+
+	public static int recordSize(int stateWidth) {
+		int size = FIXED_RECORD_SIZE + 8 * stateWidth;
+		return (size + 7) & ~7;
+	}
+
+	private void checkHeader(Path file) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		while (header.hasRemaining() && this.channel.read(header, header.position()) > 0) { }
+		header.flip();
+		if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) throw new IOException(file + " is not a replay buffer");
+		int version = header.getInt();
+		int width = header.getInt();
+		int size = header.getInt();
+		long slots = header.getLong();
+		if (version != VERSION || width != stateWidth || size != recordSize || slots != capacity) {
+			throw new IOException(file + " holds a replay buffer of version " + version + ", state width " + width + " and capacity " + slots
+					+ ", expected version " + VERSION + ", state width " + stateWidth + " and capacity " + capacity + ". Move it away to start a new one.");
+		}
+	}
+
+	/**
+	 * The decision of an agent: completes its previous transition and keeps this one until the next
+	 * decision. Called by the replanner threads.
+	 */
+	public void add(int iteration, int personIndex, double time, float[] states, int stateOffset, int action) {
+		if (personIndex >= pendingActions.length) throw new IllegalArgumentException("Person index " + personIndex + " beyond the " + pendingActions.length + " persons of the replay buffer");
+		int pendingOffset = personIndex * stateWidth;
+		if (pendingActions[personIndex] >= 0 && pendingIterations[personIndex] == iteration) {
+			double reward = rewards.getRewardSince(personIndex, pendingTimes[personIndex]);
+			write(personIndex, reward, false, states, stateOffset);
+		}
+		pendingActions[personIndex] = action;
+		pendingIterations[personIndex] = iteration;
+		pendingTimes[personIndex] = time;
+		System.arraycopy(states, stateOffset, pendingStates, pendingOffset, stateWidth);
+	}
+
+	/**
+	 * Completes the last transition of every agent as the end of the episode, with the reward of the
+	 * trips after it. Called on the engine thread after the mobsim, before the rewards are reset.
+	 */
+	public void endEpisode() {
+		for (int person = 0; person < pendingActions.length; person++) {
+			if (pendingActions[person] < 0) continue;
+			write(person, rewards.getRewardSince(person, pendingTimes[person]), true, null, 0);
+			pendingActions[person] = -1;
+		}
+		buffer.force();
+	}
+
+	private void write(int person, double reward, boolean done, float[] nextStates, int nextOffset) {
+		long sequence = (long) LONGS.getAndAdd(buffer, HEAD, 1L);
+		int record = offset(sequence);
+		LONGS.setRelease(buffer, record, -(sequence + 1));
+		// release only orders the writes before the stamp, the fields below must not overtake it
+		VarHandle.storeStoreFence();
+
+		buffer.putDouble(record + 8, pendingTimes[person]);
+		buffer.putInt(record + 16, pendingIterations[person]);
+		buffer.putInt(record + 20, person);
+		buffer.putInt(record + 24, pendingActions[person]);
+		buffer.putFloat(record + 28, (float) reward);
+		buffer.putInt(record + 32, done ? 1 : 0);
+		int state = record + FIXED_RECORD_SIZE;
+		int next = state + 4 * stateWidth;
+		int pendingOffset = person * stateWidth;
+		for (int column = 0; column < stateWidth; column++) {
+			buffer.putFloat(state + 4 * column, pendingStates[pendingOffset + column]);
+			buffer.putFloat(next + 4 * column, (nextStates != null) ? nextStates[nextOffset + column] : 0.0f);
+		}
+
+		// the record of the transition capacity before this one is gone
+		long oldest = sequence + 1 - capacity;
+		long tail;
+		while (oldest > (tail = (long) LONGS.getAcquire(buffer, TAIL)) && !LONGS.compareAndSet(buffer, TAIL, tail, oldest)) { }
+		LONGS.setRelease(buffer, record, sequence + 1);
+	}
+
+	private int offset(long sequence) {
+		return HEADER_SIZE + (int) (sequence % capacity) * recordSize;
+	}
+
+	/** @return number of transitions claimed over the life of the file */
+	public long getHead() {
+		return (long) LONGS.getAcquire(buffer, HEAD);
+	}
+
+	/** @return oldest transition still in the ring */
+	public long getTail() {
+		return (long) LONGS.getAcquire(buffer, TAIL);
+	}
+
+	public long getCapacity() {
+		return capacity;
+	}
+
+	public int getStateWidth() {
+		return stateWidth;
+	}
+
+	/**
+	 * Call before and after copying the fields of a transition, the copy is valid if both calls
+	 * return true. The fence keeps the field reads of the copy before the second stamp read.
+	 *
+	 * @return whether the transition is completely written and not yet overwritten
+	 */
+	public boolean isPublished(long sequence) {
+		VarHandle.loadLoadFence();
+		return (long) LONGS.getAcquire(buffer, offset(sequence)) == sequence + 1;
+	}
+
+	public double getTime(long sequence) {
+		return buffer.getDouble(offset(sequence) + 8);
+	}
+
+	public int getIteration(long sequence) {
+		return buffer.getInt(offset(sequence) + 16);
+	}
+
+	public int getAgentIndex(long sequence) {
+		return buffer.getInt(offset(sequence) + 20);
+	}
+
+	public int getAction(long sequence) {
+		return buffer.getInt(offset(sequence) + 24);
+	}
+
+	public float getReward(long sequence) {
+		return buffer.getFloat(offset(sequence) + 28);
+	}
+
+	public boolean isDone(long sequence) {
+		return buffer.getInt(offset(sequence) + 32) != 0;
+	}
+
+	public float getState(long sequence, int column) {
+		return buffer.getFloat(offset(sequence) + FIXED_RECORD_SIZE + 4 * column);
+	}
+
+	public float getNextState(long sequence, int column) {
+		return buffer.getFloat(offset(sequence) + FIXED_RECORD_SIZE + 4 * (stateWidth + column));
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!channel.isOpen()) return;
+		buffer.force();
+		channel.close();
+	}
+}
@@ -0,0 +1,227 @@
+package org.matsim.withinday.siouxfalls.src.policy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Memory-mapped file with one request and one response slot, the shared-memory counterpart of the
+ * {@link DecisionBatchCodec} wire format. All values are little-endian (numpy: <code>'&lt;f4'</code>,
+ * <code>'&lt;i4'</code>), the arrays can be mapped in place.
+ *
+ * <pre>
+ * header (64 bytes) : int magic 'RLSM' | int version | int stateWidth | int maxRows
+ *                     | long requestSequence | long responseSequence | int clientClosed | int serverClosed
+ *                     | padding
+ * request slot      : double time | int rows | int width | int[maxRows] agentIndex
+ *                     | int[maxRows] currentAction | float[maxRows * stateWidth] states
+ * response slot     : int rows | int padding | int[maxRows] action
+ * </pre>
+ *
+ * The server creates the file. The client writes a request and publishes it by incrementing
+ * <code>requestSequence</code>, the server answers by setting <code>responseSequence</code> to the same
+ * number. Both sides wait by spinning first and parking for growing intervals after, the other side
+ * may be another process, so there is nothing to unpark.
+ */
+final class SharedMemoryChannel implements Closeable {
+
+	static final int MAGIC = 0x4D534C52; // "RLSM" read as little-endian bytes
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 64;
+
+	private static final int STATE_WIDTH = 8;
+	private static final int MAX_ROWS = 12;
+	private static final int REQUEST_SEQUENCE = 16;
+	private static final int RESPONSE_SEQUENCE = 24;
+	private static final int CLIENT_CLOSED = 32;
+	private static final int SERVER_CLOSED = 36;
+
+	private static final int SPINS = 1000;
+	private static final long MAX_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+	private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+	private final int stateWidth;
+	private final int maxRows;
+	private final int agentIndices;
+	private final int currentActions;
+	private final int states;
+	private final int response;
+
+	private SharedMemoryChannel(FileChannel channel, MappedByteBuffer buffer, int stateWidth, int maxRows) {
+		this.channel = channel;
+		this.buffer = buffer;
+		this.stateWidth = stateWidth;
+		this.maxRows = maxRows;
+		this.agentIndices = HEADER_SIZE + 16;
+		this.currentActions = agentIndices + 4 * maxRows;
+		this.states = currentActions + 4 * maxRows;
+		this.response = align(states + 4 * maxRows * stateWidth);
+	}
+
+	private static int align(int offset) {
+		return (offset + 7) & ~7;
+	}
+
+	static long size(int stateWidth, int maxRows) {
+		long request = HEADER_SIZE + 16 + 8L * maxRows + 4L * maxRows * stateWidth;
+		return ((request + 7) & ~7L) + 8 + 4L * maxRows;
+	}
+
+	/** Server side: creates (or replaces) the file. */
+	static SharedMemoryChannel create(Path file, int stateWidth, int maxRows) throws IOException {
+		if (stateWidth <= 0) throw new IllegalArgumentException("stateWidth must be positive: " + stateWidth);
+		if (maxRows <= 0) throw new IllegalArgumentException("maxRows must be positive: " + maxRows);
+		long size = size(stateWidth, maxRows);
+		if (size > Integer.MAX_VALUE) throw new IllegalArgumentException(maxRows + " rows of width " + stateWidth + " do not fit into one mapping");
+		if (file.getParent() != null) file.getParent().toFile().mkdirs();
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(4, VERSION);
+		buffer.putInt(STATE_WIDTH, stateWidth);
+		buffer.putInt(MAX_ROWS, maxRows);
+		// the magic last, a client only attaches to a complete header
+		INTS.setRelease(buffer, 0, MAGIC);
+		return new SharedMemoryChannel(channel, buffer, stateWidth, maxRows);
+	}
+
+	/** Client side: maps the file of a running server. */
+	static SharedMemoryChannel attach(Path file, int stateWidth) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		if (channel.size() < HEADER_SIZE) {
+			channel.close();
+			throw new IOException(file + " is not a policy shared memory file");
+		}
+		MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		if ((int) INTS.getAcquire(header, 0) != MAGIC || header.getInt(4) != VERSION) {
+			channel.close();
+			throw new IOException(file + " is not a policy shared memory file of version " + VERSION);
+		}
+		int width = header.getInt(STATE_WIDTH);
+		if (width != stateWidth) {
+			channel.close();
+			throw new IOException("State width " + width + " of the policy server does not match the expected width " + stateWidth);
+		}
+		int maxRows = header.getInt(MAX_ROWS);
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size(stateWidth, maxRows));
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		// a new client after one that has closed the link
+		INTS.setRelease(buffer, CLIENT_CLOSED, 0);
+		return new SharedMemoryChannel(channel, buffer, stateWidth, maxRows);
+	}
+
+	int getMaxRows() {
+		return maxRows;
+	}
+
+	long getRequestSequence() {
+		return (long) LONGS.getAcquire(buffer, REQUEST_SEQUENCE);
+	}
+
+	long getResponseSequence() {
+		return (long) LONGS.getAcquire(buffer, RESPONSE_SEQUENCE);
+	}
+
+	/** Writes the rows <code>[from, from + rows)</code> of the batch and publishes them as the next request. */
+	long writeRequest(DecisionBatch batch, int from, int rows) {
+		buffer.putDouble(HEADER_SIZE, batch.getTime());
+		buffer.putInt(HEADER_SIZE + 8, rows);
+		buffer.putInt(HEADER_SIZE + 12, stateWidth);
+		int[] batchAgents = batch.agentIndices();
+		int[] batchCurrentActions = batch.currentActions();
+		for (int row = 0; row < rows; row++) {
+			buffer.putInt(agentIndices + 4 * row, batchAgents[from + row]);
+			buffer.putInt(currentActions + 4 * row, batchCurrentActions[from + row]);
+		}
+		float[] batchStates = batch.states();
+		int first = from * stateWidth;
+		for (int i = 0, n = rows * stateWidth; i < n; i++) buffer.putFloat(states + 4 * i, batchStates[first + i]);
+
+		long sequence = getRequestSequence() + 1;
+		LONGS.setRelease(buffer, REQUEST_SEQUENCE, sequence);
+		return sequence;
+	}
+
+	/** Reads the published request into the batch (server side). */
+	void readRequest(DecisionBatch batch) throws IOException {
+		int rows = buffer.getInt(HEADER_SIZE + 8);
+		int width = buffer.getInt(HEADER_SIZE + 12);
+		if (width != batch.getStateWidth()) {
+			throw new IOException("State width " + width + " does not match the expected width " + batch.getStateWidth());
+		}
+		batch.clear(buffer.getDouble(HEADER_SIZE));
+		batch.setSize(rows);
+		int[] batchAgents = batch.agentIndices();
+		int[] batchCurrentActions = batch.currentActions();
+		int[] batchActions = batch.actions();
+		for (int row = 0; row < rows; row++) {
+			batchAgents[row] = buffer.getInt(agentIndices + 4 * row);
+			batchCurrentActions[row] = buffer.getInt(currentActions + 4 * row);
+			batchActions[row] = batchCurrentActions[row];
+		}
+		float[] batchStates = batch.states();
+		for (int i = 0, n = rows * width; i < n; i++) batchStates[i] = buffer.getFloat(states + 4 * i);
+	}
+
+	/** Writes the actions of the batch and publishes them as the answer to the request (server side). */
+	void writeResponse(DecisionBatch batch, long sequence) {
+		int rows = batch.size();
+		int[] batchActions = batch.actions();
+		buffer.putInt(response, rows);
+		for (int row = 0; row < rows; row++) buffer.putInt(response + 8 + 4 * row, batchActions[row]);
+		LONGS.setRelease(buffer, RESPONSE_SEQUENCE, sequence);
+	}
+
+	/** Reads the answer into the rows <code>[from, from + rows)</code> of the batch (client side). */
+	void readResponse(DecisionBatch batch, int from, int rows) throws IOException {
+		int answered = buffer.getInt(response);
+		if (answered != rows) throw new IOException("Policy answered " + answered + " rows for a request of " + rows);
+		int[] batchActions = batch.actions();
+		for (int row = 0; row < rows; row++) batchActions[from + row] = buffer.getInt(response + 8 + 4 * row);
+	}
+
+	/**
+	 * Waits until the response sequence (client side) or the request sequence (server side) reaches the
+	 * given value.
+	 *
+	 * @return false if the other side has closed the channel
+	 */
+	boolean await(boolean response, long sequence) {
+		int offset = response ? RESPONSE_SEQUENCE : REQUEST_SEQUENCE;
+		int otherClosed = response ? SERVER_CLOSED : CLIENT_CLOSED;
+		long parkNanos = 1000;
+		for (int spins = 0; ; spins++) {
+			if ((long) LONGS.getAcquire(buffer, offset) >= sequence) return true;
+			if ((int) INTS.getAcquire(buffer, otherClosed) != 0) return false;
+			if (spins < SPINS) {
+				Thread.onSpinWait();
+			} else {
+				LockSupport.parkNanos(parkNanos);
+				parkNanos = Math.min(parkNanos * 2, MAX_PARK_NANOS);
+				if (Thread.currentThread().isInterrupted()) return false;
+			}
+		}
+	}
+
+	void markClosed(boolean server) {
+		INTS.setRelease(buffer, server ? SERVER_CLOSED : CLIENT_CLOSED, 1);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,34 @@
+package org.matsim.withinday.siouxfalls.src.policy;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Client side of the Java–Python policy link over shared memory, see {@link SharedMemoryChannel}. The
+ * policy server must have created the file before. A batch with more rows than the server's slots
+ * hold is sent in several requests.
+ */
+public final class SharedMemoryDecisionPolicy implements DecisionPolicy {
+
+	private final SharedMemoryChannel channel;
+
+	public SharedMemoryDecisionPolicy(Path file, int stateWidth) throws IOException {
+		this.channel = SharedMemoryChannel.attach(file, stateWidth);
+	}
+
+	@Override
+	public synchronized void decide(DecisionBatch batch) throws IOException {
+		for (int from = 0; from < batch.size(); from += channel.getMaxRows()) {
+			int rows = Math.min(channel.getMaxRows(), batch.size() - from);
+			long sequence = channel.writeRequest(batch, from, rows);
+			if (!channel.await(true, sequence)) throw new IOException("The policy server has closed the shared memory link");
+			channel.readResponse(batch, from, rows);
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		channel.markClosed(false);
+		channel.close();
+	}
+}
@@ -0,0 +1,65 @@
+package org.matsim.withinday.siouxfalls.src.policy;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process stand-in for the Python policy server on the shared memory link, the counterpart of the
+ * {@link LocalPolicyServer}. Creates the file and answers every request with the given
+ * {@link DecisionPolicy} on a daemon thread. Meant for tests and benchmarks.
+ */
+public final class SharedMemoryPolicyServer implements AutoCloseable {
+
+	private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final SharedMemoryChannel channel;
+	private final DecisionPolicy policy;
+	private final DecisionBatch batch;
+	private final Thread serverThread;
+	private volatile boolean closed = false;
+
+	/** @param maxRows rows per request, larger batches are split by the client */
+	public SharedMemoryPolicyServer(Path file, DecisionPolicy policy, int stateWidth, int maxRows) throws IOException {
+		this.channel = SharedMemoryChannel.create(file, stateWidth, maxRows);
+		this.policy = policy;
+		this.batch = new DecisionBatch(stateWidth, maxRows);
+		this.serverThread = new Thread(this::serve, "SharedMemoryPolicyServer");
+		this.serverThread.setDaemon(true);
+		this.serverThread.start();
+	}
+
+	private void serve() {
+		long sequence = channel.getRequestSequence();
+		while (!closed) {
+			// a client that closes the link may be followed by another one
+			if (!channel.await(false, sequence + 1)) {
+				if (closed) return;
+				LockSupport.parkNanos(IDLE_NANOS);
+				continue;
+			}
+			sequence = channel.getRequestSequence();
+			try {
+				channel.readRequest(batch);
+				policy.decide(batch);
+			} catch (IOException e) {
+				if (!closed) e.printStackTrace();
+			}
+			channel.writeResponse(batch, sequence);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		channel.markClosed(true);
+		serverThread.interrupt();
+		try {
+			serverThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		channel.close();
+	}
+}
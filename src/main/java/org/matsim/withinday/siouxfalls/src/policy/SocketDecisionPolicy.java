@@ -0,0 +1,41 @@
+package org.matsim.withinday.siouxfalls.src.policy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Client side of the Java–Python policy link. Keeps one TCP connection open for the whole run and
+ * exchanges exactly one request/response pair per {@link DecisionBatch}, see {@link DecisionBatchCodec}.
+ */
+public final class SocketDecisionPolicy implements DecisionPolicy {
+
+	private final Socket socket;
+	private final DataInputStream in;
+	private final DataOutputStream out;
+
+	public SocketDecisionPolicy(String host, int port) throws IOException {
+		this.socket = new Socket();
+		this.socket.setTcpNoDelay(true);
+		this.socket.connect(new InetSocketAddress(host, port));
+		this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+		this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+	}
+
+	@Override
+	public synchronized void decide(DecisionBatch batch) throws IOException {
+		if (batch.size() == 0) return;
+		DecisionBatchCodec.writeRequest(out, batch);
+		out.flush();
+		DecisionBatchCodec.readResponse(in, batch);
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		socket.close();
+	}
+}
@@ -0,0 +1,142 @@
+package org.matsim.withinday.siouxfalls.src.replanner;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Pending decisions ordered by their deadline (earliest first, then first come first served).
+ *
+ * Per time step {@link #next(double, int, ToDoubleFunction)} hands out all decisions due in the step,
+ * even beyond the budget, and fills the rest of the budget with the earliest of the later ones. The
+ * deadline of a decision is looked up again when it comes up, an item whose deadline moved goes back
+ * into the queue, an item without one (NaN) no longer needs a decision.
+ */
+final class DeadlineScheduler<T> {
+
+	private final PriorityQueue<Entry<T>> queue = new PriorityQueue<>();
+	private final Set<T> pending = new HashSet<>();
+	private long sequence = 0;
+
+	// of the last call of next
+	private int deferred;
+	private double deferralSeconds;
+	private int missed;
+	private int overBudget;
+	private int dropped;
+
+	/**
+	 * An item that is already pending keeps its place, its deadline is looked up again in
+	 * {@link #next(double, int, ToDoubleFunction)} anyway.
+	 *
+	 * @return false if the item is already pending
+	 */
+	boolean add(T item, double deadline, double time) {
+		if (!pending.add(item)) return false;
+		queue.add(new Entry<>(item, deadline, time, sequence++));
+		return true;
+	}
+
+	/**
+	 * @param budget number of decisions for this step, {@link Integer#MAX_VALUE} for no limit
+	 * @param deadlines the current deadline of an item, NaN if it does not need a decision anymore
+	 */
+	List<T> next(double time, int budget, ToDoubleFunction<T> deadlines) {
+		deferred = 0;
+		deferralSeconds = 0;
+		missed = 0;
+		overBudget = 0;
+		dropped = 0;
+
+		List<T> due = new ArrayList<>();
+		while (!queue.isEmpty()) {
+			Entry<T> entry = queue.peek();
+			double deadline = deadlines.applyAsDouble(entry.item);
+			if (Double.isNaN(deadline)) {
+				queue.poll();
+				pending.remove(entry.item);
+				dropped++;
+				continue;
+			}
+			if (deadline != entry.deadline) {
+				queue.poll();
+				queue.add(new Entry<>(entry.item, deadline, entry.added, entry.sequence));
+				continue;
+			}
+			if (deadline < time) {
+				// the agent has left before its turn
+				queue.poll();
+				pending.remove(entry.item);
+				missed++;
+				continue;
+			}
+			if (deadline > time && due.size() >= budget) break;
+			queue.poll();
+			pending.remove(entry.item);
+			if (due.size() >= budget) overBudget++;
+			if (time > entry.added) {
+				deferred++;
+				deferralSeconds += time - entry.added;
+			}
+			due.add(entry.item);
+		}
+		return due;
+	}
+
+	void clear() {
+		queue.clear();
+		pending.clear();
+	}
+
+	int size() {
+		return queue.size();
+	}
+
+	/** @return decisions of the last step that were made later than the step they were added in */
+	int getDeferred() {
+		return deferred;
+	}
+
+	/** @return sum of the delays of the deferred decisions of the last step */
+	double getDeferralSeconds() {
+		return deferralSeconds;
+	}
+
+	/** @return decisions of the last step whose deadline had passed */
+	int getMissed() {
+		return missed;
+	}
+
+	/** @return decisions of the last step that were due and made beyond the budget */
+	int getOverBudget() {
+		return overBudget;
+	}
+
+	/** @return decisions of the last step that were not needed anymore */
+	int getDropped() {
+		return dropped;
+	}
+
+	private static final class Entry<T> implements Comparable<Entry<T>> {
+		final T item;
+		final double deadline;
+		final double added;
+		final long sequence;
+
+		Entry(T item, double deadline, double added, long sequence) {
+			this.item = item;
+			this.deadline = deadline;
+			this.added = added;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(Entry<T> other) {
+			int byDeadline = Double.compare(deadline, other.deadline);
+			return (byDeadline != 0) ? byDeadline : Long.compare(sequence, other.sequence);
+		}
+	}
+}
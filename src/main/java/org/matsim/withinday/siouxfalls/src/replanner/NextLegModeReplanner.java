@@ -41,7 +41,11 @@ import org.matsim.withinday.replanning.replanners.interfaces.WithinDayDuringActi
 import org.matsim.withinday.replanning.replanners.interfaces.WithinDayReplanner;
 import org.matsim.withinday.utils.EditTrips;
 
-import org.matsim.withinday.siouxfalls.utils.SimulationState;
+import org.matsim.withinday.siouxfalls.src.episodes.EpisodeContext;
+import org.matsim.withinday.siouxfalls.src.metrics.ReplanningMetrics;
+import org.matsim.withinday.siouxfalls.src.policy.DecisionBatch;
+import org.matsim.withinday.siouxfalls.src.policy.DecisionBroker;
+import org.matsim.withinday.siouxfalls.src.policy.ReplayBuffer;
 import org.matsim.withinday.siouxfalls.utils.WithinDayLogger;
 
 
@@ -52,19 +56,31 @@ public class NextLegModeReplanner extends WithinDayDuringActivityReplanner {
 	private final WithinDayEngine engine;
 	private InternalInterface qsimInternalInterface;
 	private final WithinDayLogger logger;
-
-	public NextLegModeReplanner(Id<WithinDayReplanner> id, Scenario scenario, ActivityEndRescheduler internalInterface, WithinDayEngine withinDayEngine, TripRouter tripRouter, TimeInterpretation timeInterpretation) {
+	private final DecisionBroker decisionBroker;
+	private final ReplanningMetrics metrics;
+	private final EpisodeContext episode;
+
+	/**
+	 * @param decisionBroker null to keep the current routing mode of every agent
+	 * @param logger shared by all replanner instances of a factory
+	 * @param metrics may be null
+	 * @param episode provides the current iteration
+	 */
+	public NextLegModeReplanner(Id<WithinDayReplanner> id, Scenario scenario, ActivityEndRescheduler internalInterface, WithinDayEngine withinDayEngine, TripRouter tripRouter, TimeInterpretation timeInterpretation, DecisionBroker decisionBroker, WithinDayLogger logger, ReplanningMetrics metrics, EpisodeContext episode) {
 		super(id, scenario, internalInterface);
 		this.tripRouter = tripRouter;
 		this.timeInterpretation = timeInterpretation;
 		this.engine = withinDayEngine;
-
-		this.logger = new WithinDayLogger("scenarios\\sioux-falls\\modified\\output");
+		this.decisionBroker = decisionBroker;
+		this.logger = logger;
+		this.metrics = metrics;
+		this.episode = episode;
 	}
 
 	@Override
 	public boolean doReplanning(MobsimAgent withinDayAgent) {
-		
+		long startNanos = System.nanoTime();
+
 		// 1. Skip ONLY the bus/pt drivers
 		if (withinDayAgent instanceof org.matsim.core.mobsim.qsim.pt.TransitDriverAgentImpl) {
 			return false; // Only the driver is "discarded" here
@@ -87,7 +103,7 @@ public class NextLegModeReplanner extends WithinDayDuringActivityReplanner {
 		String routingMode = TripStructureUtils.identifyMainMode(trip.getTripElements());
 		OptionalTime departureTime = TripStructureUtils.getDepartureTime(trip);
 
-        int iteration = SimulationState.currentIteration;
+        int iteration = this.episode.getCurrentIteration();
 		
 		// 2. Get the current Simulation Time (Live Clock)
     	double simTime = this.getTime().orElse(0.0);
@@ -95,14 +111,32 @@ public class NextLegModeReplanner extends WithinDayDuringActivityReplanner {
 		// 3. Get the AGENT ID
     	Id<Person> agentId = (Id<Person>) withinDayAgent.getId();
 
+		// 4. Mode decided by the policy for this time step (batched by the DecisionBroker)
+		int decisionRow = (this.decisionBroker != null) ? this.decisionBroker.pollDecision(agentId) : -1;
+		String decidedMode = (decisionRow >= 0) ? this.decisionBroker.getMode(decisionRow) : null;
+		String chosenMode = (decidedMode != null) ? decidedMode : routingMode;
 
-        // Log the event
+        // Log the event (with the decision state if there was one)
+        long logStartNanos = System.nanoTime();
         try {
-            logger.logReplanningEvent(iteration, simTime, agentId, routingMode);
+            if (decisionRow >= 0) {
+                DecisionBatch batch = this.decisionBroker.getBatch();
+                logger.logReplanningEvent(iteration, simTime, agentId, chosenMode, batch.getAction(decisionRow), batch.states(), decisionRow * batch.getStateWidth());
+            } else {
+                logger.logReplanningEvent(iteration, simTime, agentId, chosenMode);
+            }
         }
         catch(Exception e){
             System.err.println("Failed to log replanning event: " + e.getMessage());
         }
+        if (this.metrics != null) this.metrics.recordLogging(System.nanoTime() - logStartNanos);
+
+        // The decision completes the previous transition of the agent in the replay buffer
+        ReplayBuffer replayBuffer = (this.decisionBroker != null) ? this.decisionBroker.getReplayBuffer() : null;
+        if (decisionRow >= 0 && replayBuffer != null) {
+            DecisionBatch batch = this.decisionBroker.getBatch();
+            replayBuffer.add(iteration, agentId.index(), simTime, batch.states(), decisionRow * batch.getStateWidth(), batch.getAction(decisionRow));
+        }
 
 		// Extract the internalInterface from the withinday engine -> Experiemental (only once per replanner instance)
         if (this.qsimInternalInterface == null) {
@@ -116,8 +150,15 @@ public class NextLegModeReplanner extends WithinDayDuringActivityReplanner {
         }
 
 		// To replan pt legs, we would need internalInterface of type InternalInterface.class
-		new EditTrips( this.tripRouter, scenario, qsimInternalInterface, timeInterpretation ).replanFutureTrip(trip, executedPlan, routingMode, departureTime.seconds() );
-		
+		long routingStartNanos = System.nanoTime();
+		new EditTrips( this.tripRouter, scenario, qsimInternalInterface, timeInterpretation ).replanFutureTrip(trip, executedPlan, chosenMode, departureTime.seconds() );
+
+		this.episode.countReplanningEvent();
+		if (this.metrics != null) {
+			long endNanos = System.nanoTime();
+			this.metrics.recordRouting(endNanos - routingStartNanos);
+			this.metrics.recordReplanning(endNanos - startNanos);
+		}
 		return true;
 	}
 
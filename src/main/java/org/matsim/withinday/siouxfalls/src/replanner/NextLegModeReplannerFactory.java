@@ -27,6 +27,10 @@ import org.matsim.core.utils.timing.TimeInterpretation;
 import org.matsim.withinday.mobsim.WithinDayEngine;
 import org.matsim.withinday.replanning.replanners.interfaces.WithinDayDuringActivityReplanner;
 import org.matsim.withinday.replanning.replanners.interfaces.WithinDayDuringActivityReplannerFactory;
+import org.matsim.withinday.siouxfalls.src.episodes.EpisodeContext;
+import org.matsim.withinday.siouxfalls.src.metrics.ReplanningMetrics;
+import org.matsim.withinday.siouxfalls.src.policy.DecisionBroker;
+import org.matsim.withinday.siouxfalls.utils.WithinDayLogger;
 
 import com.google.inject.Provider;
 
@@ -35,22 +39,39 @@ public class NextLegModeReplannerFactory extends WithinDayDuringActivityReplanne
 	private final Scenario scenario;
 	private final Provider<TripRouter> tripRouterFactory;
 	private final TimeInterpretation timeInterpretation;
+	private final DecisionBroker decisionBroker;
+	private final WithinDayLogger logger;
+	private final ReplanningMetrics metrics;
+	private final EpisodeContext episode;
 	private InternalInterface internalInterface;
 
+	/**
+	 * @param decisionBroker null to keep the current routing mode of every agent
+	 * @param metrics may be null
+	 * @param episode provides the current iteration
+	 */
 	public NextLegModeReplannerFactory(Scenario scenario, WithinDayEngine withinDayEngine,
 																 Provider<TripRouter> tripRouterFactory,
-																 TimeInterpretation timeInterpretation) {
+																 TimeInterpretation timeInterpretation,
+																 DecisionBroker decisionBroker,
+																 WithinDayLogger logger,
+																 ReplanningMetrics metrics,
+																 EpisodeContext episode) {
 		super(withinDayEngine);
 		this.scenario = scenario;
 		this.tripRouterFactory = tripRouterFactory;
 		this.timeInterpretation = timeInterpretation;
+		this.decisionBroker = decisionBroker;
+		this.logger = logger;
+		this.metrics = metrics;
+		this.episode = episode;
 	}
 
 	@Override
 	public WithinDayDuringActivityReplanner createReplanner() {
 		WithinDayDuringActivityReplanner replanner = new NextLegModeReplanner(super.getId(), this.scenario,
 				this.getWithinDayEngine().getActivityRescheduler(), (WithinDayEngine) this.getWithinDayEngine(),
-				this.tripRouterFactory.get(), timeInterpretation);
+				this.tripRouterFactory.get(), timeInterpretation, this.decisionBroker, this.logger, this.metrics, this.episode);
 		return replanner;
 	}
 
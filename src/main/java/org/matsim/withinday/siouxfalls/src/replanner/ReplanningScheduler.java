@@ -0,0 +1,106 @@
+package org.matsim.withinday.siouxfalls.src.replanner;
+
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.matsim.core.mobsim.framework.MobsimAgent;
+import org.matsim.withinday.replanning.identifiers.interfaces.DuringActivityAgentSelector;
+import org.matsim.withinday.siouxfalls.src.metrics.ReplanningMetrics;
+
+/**
+ * Spreads the replanning of agents that end their activities at the same time over the preceding
+ * time steps.
+ *
+ * Wraps the activity end identifier (including its filters) and asks it <code>lookahead</code> seconds
+ * ahead of the mobsim, so every agent is known before its departure. The agents wait in a queue
+ * ordered by departure; per time step the replanners get at most <code>maxAgentsPerStep</code> of
+ * them, and as many as fit into <code>timeBudget</code> at the mean replanning time measured so far.
+ * Agents departing in the current step are always replanned, over the budget if need be, so only the
+ * decisions with slack are deferred.
+ *
+ * The identifier only lists an agent once it is at its activity, and it moves the agent when its
+ * activity end changes. So the whole lookahead window is asked again in every step: an activity
+ * shorter than the lookahead, or an end moved into a window asked before, is still found. The agents
+ * already queued or decided on for their current activity are skipped.
+ *
+ * Runs on the engine thread, like the identifier.
+ */
+public class ReplanningScheduler extends DuringActivityAgentSelector {
+
+	private final DuringActivityAgentSelector delegate;
+	private final double lookahead;
+	private final double timeStepSize;
+	private final int maxAgentsPerStep;
+	private final long timeBudgetNanos;
+	private final ReplanningMetrics metrics;
+
+	private final DeadlineScheduler<MobsimAgent> queue = new DeadlineScheduler<>();
+	// handed to the replanners, until they leave their activity
+	private final Set<MobsimAgent> decided = new HashSet<>();
+	private double lastTime = Double.NaN;
+
+	/**
+	 * @param maxAgentsPerStep 0 for no limit
+	 * @param timeBudgetNanos replanning time per step summed over the replanner threads, 0 for no
+	 * limit. Needs the metrics.
+	 * @param metrics may be null
+	 */
+	public ReplanningScheduler(DuringActivityAgentSelector delegate, double lookahead, double timeStepSize,
+			int maxAgentsPerStep, long timeBudgetNanos, ReplanningMetrics metrics) {
+		if (lookahead < 0) throw new IllegalArgumentException("lookahead must not be negative: " + lookahead);
+		if (timeStepSize <= 0) throw new IllegalArgumentException("timeStepSize must be positive: " + timeStepSize);
+		this.delegate = delegate;
+		this.lookahead = lookahead;
+		this.timeStepSize = timeStepSize;
+		this.maxAgentsPerStep = maxAgentsPerStep;
+		this.timeBudgetNanos = timeBudgetNanos;
+		this.metrics = metrics;
+		if (timeBudgetNanos > 0 && metrics == null) System.err.println("The replanning time budget needs the metrics (metricsTimeBin > 0), only the agent limit applies.");
+	}
+
+	@Override
+	public Set<MobsimAgent> getAgentsToReplan(double time) {
+		// A new mobsim (next iteration or episode) starts over
+		if (!Double.isNaN(lastTime) && time < lastTime) {
+			queue.clear();
+			decided.clear();
+		}
+		lastTime = time;
+		decided.removeIf(agent -> agent.getState() != MobsimAgent.State.ACTIVITY);
+
+		// The whole window from the current step, queued agents stay where they are
+		double until = time + lookahead;
+		for (double step = time; step <= until; step += timeStepSize) {
+			for (MobsimAgent agent : delegate.getAgentsToReplan(step)) {
+				if (!decided.contains(agent)) queue.add(agent, agent.getActivityEndTime(), time);
+			}
+		}
+
+		List<MobsimAgent> due = queue.next(time, getBudget(), ReplanningScheduler::getDeparture);
+		decided.addAll(due);
+		if (metrics != null) {
+			metrics.recordScheduling(due.size(), queue.getDeferred(), queue.getDeferralSeconds(), queue.getMissed(), queue.getOverBudget(), queue.size());
+		}
+		return new LinkedHashSet<>(due);
+	}
+
+	private int getBudget() {
+		int budget = (maxAgentsPerStep > 0) ? maxAgentsPerStep : Integer.MAX_VALUE;
+		if (timeBudgetNanos > 0 && metrics != null) {
+			double meanNanos = metrics.getMeanReplanningNanos();
+			if (meanNanos > 0) budget = (int) Math.min(budget, Math.max(1, timeBudgetNanos / meanNanos));
+		}
+		return budget;
+	}
+
+	// An agent that is not at an activity anymore does not need a decision
+	private static double getDeparture(MobsimAgent agent) {
+		return (agent.getState() == MobsimAgent.State.ACTIVITY) ? agent.getActivityEndTime() : Double.NaN;
+	}
+
+	public int getPendingAgents() {
+		return queue.size();
+	}
+}
@@ -1,10 +1,8 @@
 package org.matsim.withinday.siouxfalls.src.replanner.filters;
 
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.Set;
-import java.util.HashSet;
 
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.population.Person;
@@ -12,24 +10,22 @@ import org.matsim.withinday.replanning.identifiers.interfaces.AgentFilter;
 
 public class RLAgentFilter implements AgentFilter {
 
-    private final Set<Id<Person>> agentIds;
-    private final boolean allowAll;
+    // Shared with the factory and all other filters it created, so membership changes apply everywhere
+    private final RLAgentSet agents;
 
     // Package-private constructor: intended to be used by the Factory
-    /*package*/ RLAgentFilter(Set<Id<Person>> ids, boolean allowAll) {
-        this.agentIds = (ids != null) ? ids : new HashSet<>();
-        this.allowAll = allowAll;
+    /*package*/ RLAgentFilter(RLAgentSet agents) {
+        this.agents = agents;
     }
 
     @Override
     public void applyAgentFilter(Set<Id<Person>> set, double time) {
-        if (allowAll) return; // Quick exit: everyone is allowed
+        if (agents.isAllAgents()) return; // Quick exit: everyone is allowed
 
         Iterator<Id<Person>> iter = set.iterator();
         while (iter.hasNext()) {
-            Id<Person> id = iter.next();
             // If the individual check returns false, remove from the set
-            if (!this.applyAgentFilter(id, time)) {
+            if (!agents.contains(iter.next())) {
                 iter.remove();
             }
         }
@@ -37,11 +33,10 @@ public class RLAgentFilter implements AgentFilter {
 
     @Override
     public boolean applyAgentFilter(Id<Person> id, double time) {
-        if (allowAll) return true;
-        return agentIds.contains(id);
+        return agents.contains(id);
     }
 
     public Collection<Id<Person>> getIncludedAgents() {
-        return Collections.unmodifiableSet(this.agentIds);
+        return agents.getIncludedAgents();
     }
 }
@@ -1,8 +1,6 @@
 package org.matsim.withinday.siouxfalls.src.replanner.filters;
 
 import java.util.Collection;
-import java.util.Set;
-import java.util.HashSet;
 
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.population.Person;
@@ -10,23 +8,30 @@ import org.matsim.withinday.replanning.identifiers.interfaces.AgentFilterFactory
 
 public class RLAgentFilterFactory implements AgentFilterFactory {
 
-    private final Set<Id<Person>> agents;
-    private final boolean allowAllAgents;
+    private final RLAgentSet agents;
 
     // Constructor to target specific RL agents
     public RLAgentFilterFactory(Collection<Id<Person>> ids) {
-        this.agents = new HashSet<>(ids);
-        this.allowAllAgents = false;
+        this(new RLAgentSet(ids));
     }
 
     // Constructor for global settings (e.g., allow everyone)
     public RLAgentFilterFactory(boolean allowAllAgents) {
-        this.agents = new HashSet<>();
-        this.allowAllAgents = allowAllAgents;
+        this(new RLAgentSet());
+        this.agents.setAllAgents(allowAllAgents);
+    }
+
+    // Constructor for a set that is changed while the simulation runs
+    public RLAgentFilterFactory(RLAgentSet agents) {
+        this.agents = agents;
     }
 
     @Override
     public RLAgentFilter createAgentFilter() {
-        return new RLAgentFilter(agents, allowAllAgents);
+        return new RLAgentFilter(agents);
+    }
+
+    public RLAgentSet getAgents() {
+        return agents;
     }
 }
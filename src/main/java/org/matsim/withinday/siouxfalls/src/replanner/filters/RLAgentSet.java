@@ -0,0 +1,122 @@
+package org.matsim.withinday.siouxfalls.src.replanner.filters;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Population;
+
+/**
+ * The agents controlled by the RL policy, as a bit set over {@link Id#index()}.
+ *
+ * Lookups read a published snapshot without locking or allocating. Changes copy the bit set and
+ * publish the copy, so they are safe while the replanner threads are filtering (they see either the
+ * old or the new membership, never a half-updated one). Changes are expected between time steps or
+ * iterations, not per agent and second.
+ */
+public final class RLAgentSet {
+
+    private volatile BitSet members = new BitSet();
+    private volatile boolean allAgents = false;
+
+    public RLAgentSet() {
+    }
+
+    public RLAgentSet(Collection<Id<Person>> ids) {
+        addAll(ids);
+    }
+
+    public boolean contains(Id<Person> id) {
+        return allAgents || members.get(id.index());
+    }
+
+    public synchronized void add(Id<Person> id) {
+        BitSet copy = (BitSet) members.clone();
+        copy.set(id.index());
+        members = copy;
+    }
+
+    public synchronized void remove(Id<Person> id) {
+        BitSet copy = (BitSet) members.clone();
+        copy.clear(id.index());
+        members = copy;
+    }
+
+    public synchronized void addAll(Collection<Id<Person>> ids) {
+        BitSet copy = (BitSet) members.clone();
+        for (Id<Person> id : ids) copy.set(id.index());
+        members = copy;
+    }
+
+    /** Replaces the whole membership in one step. */
+    public synchronized void setAll(Collection<Id<Person>> ids) {
+        BitSet copy = new BitSet();
+        for (Id<Person> id : ids) copy.set(id.index());
+        members = copy;
+    }
+
+    public synchronized void clear() {
+        members = new BitSet();
+    }
+
+    /** If true, every agent is included regardless of the individual membership. */
+    public void setAllAgents(boolean allAgents) {
+        this.allAgents = allAgents;
+    }
+
+    public boolean isAllAgents() {
+        return allAgents;
+    }
+
+    /** @return number of individually included agents */
+    public int size() {
+        return members.cardinality();
+    }
+
+    public List<Id<Person>> getIncludedAgents() {
+        BitSet snapshot = members;
+        List<Id<Person>> ids = new ArrayList<>(snapshot.cardinality());
+        for (int index = snapshot.nextSetBit(0); index >= 0; index = snapshot.nextSetBit(index + 1)) {
+            ids.add(Id.get(index, Person.class));
+        }
+        return ids;
+    }
+
+    /**
+     * Reads one person id per line. Empty lines and lines starting with '#' are skipped.
+     */
+    public static RLAgentSet readFile(Path file) throws IOException {
+        List<Id<Person>> ids = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                ids.add(Id.createPersonId(line));
+            }
+        }
+        return new RLAgentSet(ids);
+    }
+
+    /**
+     * Includes every person whose attribute is true (as Boolean or as the string "true").
+     */
+    public static RLAgentSet fromAttribute(Population population, String attribute) {
+        List<Id<Person>> ids = new ArrayList<>();
+        for (Person person : population.getPersons().values()) {
+            Object value = person.getAttributes().getAttribute(attribute);
+            if (Boolean.TRUE.equals(value) || (value instanceof String && Boolean.parseBoolean((String) value))) {
+                ids.add(person.getId());
+            }
+        }
+        return new RLAgentSet(ids);
+    }
+}
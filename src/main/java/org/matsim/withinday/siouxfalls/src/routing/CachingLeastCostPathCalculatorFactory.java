@@ -0,0 +1,59 @@
+package org.matsim.withinday.siouxfalls.src.routing;
+
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.util.LeastCostPathCalculatorFactory;
+import org.matsim.core.router.util.TravelDisutility;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.vehicles.Vehicle;
+
+/**
+ * Puts the shared {@link RouteCache} in front of every path calculator the network routing modules
+ * create, so all trip routers of the within-day replanners share the cached paths.
+ */
+public final class CachingLeastCostPathCalculatorFactory implements LeastCostPathCalculatorFactory {
+
+	private final LeastCostPathCalculatorFactory delegate;
+	private final RouteCache routeCache;
+
+	public CachingLeastCostPathCalculatorFactory(LeastCostPathCalculatorFactory delegate, RouteCache routeCache) {
+		this.delegate = delegate;
+		this.routeCache = routeCache;
+	}
+
+	@Override
+	public LeastCostPathCalculator createPathCalculator(Network network, TravelDisutility travelCosts, TravelTime travelTimes) {
+		LeastCostPathCalculator calculator = this.delegate.createPathCalculator(network, travelCosts, travelTimes);
+		return new CachingLeastCostPathCalculator(calculator, this.routeCache, this.routeCache.getPartition(network, travelCosts, travelTimes));
+	}
+
+	private static final class CachingLeastCostPathCalculator implements LeastCostPathCalculator {
+
+		private final LeastCostPathCalculator delegate;
+		private final RouteCache routeCache;
+		private final int partition;
+
+		CachingLeastCostPathCalculator(LeastCostPathCalculator delegate, RouteCache routeCache, int partition) {
+			this.delegate = delegate;
+			this.routeCache = routeCache;
+			this.partition = partition;
+		}
+
+		@Override
+		public Path calcLeastCostPath(Node fromNode, Node toNode, double starttime, Person person, Vehicle vehicle) {
+			if (!this.routeCache.isActive()) {
+				return this.delegate.calcLeastCostPath(fromNode, toNode, starttime, person, vehicle);
+			}
+
+			RouteCache.RouteKey key = new RouteCache.RouteKey(this.partition, fromNode.getId().index(), toNode.getId().index(), this.routeCache.getTimeBin(starttime));
+			Path path = this.routeCache.get(key, starttime);
+			if (path == null) {
+				path = this.delegate.calcLeastCostPath(fromNode, toNode, starttime, person, vehicle);
+				if (path != null) this.routeCache.put(key, path, starttime);
+			}
+			return path;
+		}
+	}
+}
@@ -0,0 +1,279 @@
+package org.matsim.withinday.siouxfalls.src.routing;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import jakarta.inject.Inject;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.groups.RoutingConfigGroup.TeleportedModeParams;
+import org.matsim.core.mobsim.framework.events.MobsimBeforeSimStepEvent;
+import org.matsim.core.mobsim.framework.events.MobsimInitializedEvent;
+import org.matsim.core.mobsim.framework.listeners.MobsimBeforeSimStepListener;
+import org.matsim.core.mobsim.framework.listeners.MobsimInitializedListener;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.vehicles.VehicleType;
+import org.matsim.withinday.siouxfalls.src.modules.RLConfigGroup;
+import org.matsim.withinday.siouxfalls.src.policy.ModeActions;
+
+/**
+ * Estimated door-to-door travel times of all candidate modes of a decision, without routing every
+ * mode for every agent.
+ *
+ * Network modes answer from one-to-many travel time trees per (origin node, mode subnetwork,
+ * departure time bin). The first query from an origin in a bin builds the tree, every further query
+ * from that origin in that bin, for any destination, is an array lookup. Trees of a bin are dropped
+ * once the mobsim has left the bin, so the bin size should be the update interval of the travel times
+ * (<code>travelTimeCalculator.traveltimeBinSize</code>). Teleported modes are estimated from the
+ * beeline distance with their routing parameters. Access and egress are not included.
+ *
+ * pt is estimated from the {@link TransitTravelTimeTable} of the schedule, between the end points of
+ * the links. The table is built on the first pt estimate and shared by all estimators of the same
+ * schedule, only state schemas with action travel times ask for it. Other modes have no estimate here
+ * and yield NaN.
+ */
+public final class ModeTravelTimeEstimator implements MobsimInitializedListener, MobsimBeforeSimStepListener {
+
+	private final String[] modes;
+	private final OneToManyTravelTimes[] networkModes;
+	private final double[] teleportedSpeeds;
+	private final double[] beelineFactors;
+	// built from transitScenario on the first pt estimate if not given
+	private volatile TransitTravelTimeTable transit;
+	private final Scenario transitScenario;
+	private final int transitMode;
+
+	private final Link[] links;
+	private final int[] fromNodes;
+	private final int[] toNodes;
+	private final double[] linkX;
+	private final double[] linkY;
+	private final int nodes;
+
+	private final double timeBinSize;
+	private final int maxTrees;
+	// time bin -> [mode][origin node] -> travel time to every node
+	private final Map<Integer, float[][][]> trees = new HashMap<>();
+	private int treeCount = 0;
+	// the bins before it are dropped
+	private int firstBin = 0;
+	private long treesBuilt = 0;
+	private long lookups = 0;
+	// only read and written on the mobsim thread
+	private int currentBin = -1;
+
+	@Inject
+	public ModeTravelTimeEstimator(Scenario scenario, Map<String, TravelTime> travelTimes) {
+		this(scenario, ModeActions.fromConfig(scenario.getConfig()).getModes(), travelTimes, null,
+				hasTransitEstimates(scenario) ? scenario : null,
+				ConfigUtils.addOrGetModule(scenario.getConfig(), RLConfigGroup.class).getModeEstimateTimeBin(),
+				ConfigUtils.addOrGetModule(scenario.getConfig(), RLConfigGroup.class).getModeEstimateMaxTrees());
+	}
+
+	/** @param transit estimates of the pt mode, may be null */
+	public ModeTravelTimeEstimator(Scenario scenario, List<String> modes, Map<String, TravelTime> travelTimes, TransitTravelTimeTable transit, double timeBinSize, int maxTrees) {
+		this(scenario, modes, travelTimes, transit, null, timeBinSize, maxTrees);
+	}
+
+	private ModeTravelTimeEstimator(Scenario scenario, List<String> modes, Map<String, TravelTime> travelTimes, TransitTravelTimeTable transit,
+			Scenario transitScenario, double timeBinSize, int maxTrees) {
+		if (timeBinSize <= 0) throw new IllegalArgumentException("timeBinSize must be positive: " + timeBinSize);
+		this.modes = modes.toArray(new String[0]);
+		this.timeBinSize = timeBinSize;
+		this.maxTrees = maxTrees;
+		this.transit = transit;
+		this.transitScenario = transitScenario;
+		this.transitMode = (transit != null || transitScenario != null) ? modes.indexOf(TransportMode.pt) : -1;
+
+		this.nodes = Id.getNumberOfIds(Node.class);
+		int linkCount = Id.getNumberOfIds(Link.class);
+		this.links = new Link[linkCount];
+		this.fromNodes = new int[linkCount];
+		this.toNodes = new int[linkCount];
+		this.linkX = new double[linkCount];
+		this.linkY = new double[linkCount];
+		for (Link link : scenario.getNetwork().getLinks().values()) {
+			int index = link.getId().index();
+			links[index] = link;
+			fromNodes[index] = link.getFromNode().getId().index();
+			toNodes[index] = link.getToNode().getId().index();
+			linkX[index] = link.getCoord().getX();
+			linkY[index] = link.getCoord().getY();
+		}
+
+		this.networkModes = new OneToManyTravelTimes[this.modes.length];
+		this.teleportedSpeeds = new double[this.modes.length];
+		this.beelineFactors = new double[this.modes.length];
+		Map<String, TeleportedModeParams> teleported = scenario.getConfig().routing().getTeleportedModeParams();
+		for (int i = 0; i < this.modes.length; i++) {
+			String mode = this.modes[i];
+			if (scenario.getConfig().routing().getNetworkModes().contains(mode)) {
+				TravelTime travelTime = travelTimes.get(mode);
+				if (travelTime == null) travelTime = (link, time, person, vehicle) -> link.getLength() / link.getFreespeed();
+				networkModes[i] = new OneToManyTravelTimes(scenario.getNetwork(), mode, travelTime, getMaximumVelocity(scenario, mode));
+			} else if (teleported.containsKey(mode) && teleported.get(mode).getTeleportedModeSpeed() != null) {
+				teleportedSpeeds[i] = teleported.get(mode).getTeleportedModeSpeed();
+				Double factor = teleported.get(mode).getBeelineDistanceFactor();
+				beelineFactors[i] = (factor != null) ? factor : 1.0;
+			}
+		}
+	}
+
+	// Only the state schemas with action travel times estimate anything
+	private static boolean hasTransitEstimates(Scenario scenario) {
+		return scenario.getConfig().transit().isUseTransit()
+				&& ConfigUtils.addOrGetModule(scenario.getConfig(), RLConfigGroup.class).getStateSchema().hasActionTravelTimes();
+	}
+
+	// The QSim does not let vehicles go faster than their type allows (bikes on car links)
+	private static double getMaximumVelocity(Scenario scenario, String mode) {
+		VehicleType type = scenario.getVehicles().getVehicleTypes().get(Id.create(mode, VehicleType.class));
+		return (type != null) ? type.getMaximumVelocity() : 0;
+	}
+
+	public List<String> getModes() {
+		return Arrays.asList(modes);
+	}
+
+	/**
+	 * Estimates the travel time of every mode (in the order of {@link #getModes()}) from the end of
+	 * <code>fromLink</code> to the end of <code>toLink</code>.
+	 *
+	 * @param travelTimes filled with the estimates in seconds, NaN for modes without an estimate and
+	 * infinite for destinations the mode cannot reach
+	 */
+	public void estimate(Id<Link> fromLink, Id<Link> toLink, double departureTime, double[] travelTimes) {
+		int from = fromLink.index();
+		int to = toLink.index();
+		for (int mode = 0; mode < modes.length; mode++) {
+			travelTimes[mode] = estimate(mode, from, to, departureTime);
+		}
+	}
+
+	double estimate(int mode, int fromLink, int toLink, double departureTime) {
+		if (fromLink == toLink) return 0;
+		if (networkModes[mode] != null) {
+			float[] tree = getTree(mode, toNodes[fromLink], departureTime);
+			double toNode = tree[fromNodes[toLink]];
+			if (Double.isInfinite(toNode)) return Double.POSITIVE_INFINITY;
+			return toNode + networkModes[mode].getLinkTravelTime(links[toLink], departureTime + toNode);
+		}
+		if (mode == transitMode) {
+			// from the end of the origin link to the end of the destination link
+			Coord from = links[fromLink].getToNode().getCoord();
+			Coord to = links[toLink].getToNode().getCoord();
+			return getTransit().estimate(from.getX(), from.getY(), to.getX(), to.getY(), departureTime);
+		}
+		if (teleportedSpeeds[mode] > 0) {
+			double beeline = Math.hypot(linkX[toLink] - linkX[fromLink], linkY[toLink] - linkY[fromLink]);
+			return beeline * beelineFactors[mode] / teleportedSpeeds[mode];
+		}
+		return Double.NaN;
+	}
+
+	private TransitTravelTimeTable getTransit() {
+		TransitTravelTimeTable table = transit;
+		if (table == null) {
+			// the same shared table for every thread that gets here first
+			table = TransitTravelTimeTable.shared(transitScenario);
+			transit = table;
+		}
+		return table;
+	}
+
+	private float[] getTree(int mode, int originNode, double departureTime) {
+		int bin = (int) (departureTime / timeBinSize);
+		synchronized (this) {
+			lookups++;
+			float[] tree = findTree(bin, mode, originNode);
+			if (tree != null) return tree;
+		}
+
+		// Dijkstra without the lock, the other replanner threads keep looking up. Travel times at the
+		// start of the bin, so the tree does not depend on who asked first
+		float[] tree = networkModes[mode].calcTree(originNode, bin * timeBinSize);
+
+		synchronized (this) {
+			// another thread may have built the same tree meanwhile, the first one is kept
+			float[] existing = findTree(bin, mode, originNode);
+			if (existing != null) return existing;
+			treesBuilt++;
+			// the mobsim has left the bin while the tree was built
+			if (bin < firstBin) return tree;
+			if (treeCount >= maxTrees) {
+				// Full: start over rather than track the use of every tree
+				trees.clear();
+				treeCount = 0;
+			}
+			float[][][] binTrees = trees.computeIfAbsent(bin, b -> new float[modes.length][][]);
+			if (binTrees[mode] == null) binTrees[mode] = new float[nodes][];
+			binTrees[mode][originNode] = tree;
+			treeCount++;
+			return tree;
+		}
+	}
+
+	// Called with the lock held
+	private float[] findTree(int bin, int mode, int originNode) {
+		float[][][] binTrees = trees.get(bin);
+		if (binTrees == null || binTrees[mode] == null) return null;
+		return binTrees[mode][originNode];
+	}
+
+	/** Drops the trees of the time bins the mobsim has left. */
+	synchronized void invalidateBefore(double time) {
+		int bin = (int) (time / timeBinSize);
+		firstBin = bin;
+		Iterator<Map.Entry<Integer, float[][][]>> iterator = trees.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Integer, float[][][]> entry = iterator.next();
+			if (entry.getKey() >= bin) continue;
+			for (float[][] modeTrees : entry.getValue()) {
+				if (modeTrees == null) continue;
+				for (float[] tree : modeTrees) if (tree != null) treeCount--;
+			}
+			iterator.remove();
+		}
+	}
+
+	@Override
+	public synchronized void notifyMobsimInitialized(MobsimInitializedEvent e) {
+		// The travel times may have changed since the last iteration
+		trees.clear();
+		treeCount = 0;
+		treesBuilt = 0;
+		lookups = 0;
+		firstBin = 0;
+		currentBin = -1;
+	}
+
+	@Override
+	public void notifyMobsimBeforeSimStep(MobsimBeforeSimStepEvent e) {
+		int bin = (int) (e.getSimulationTime() / timeBinSize);
+		if (bin == currentBin) return;
+		currentBin = bin;
+		invalidateBefore(e.getSimulationTime());
+	}
+
+	public synchronized long getTreesBuilt() {
+		return treesBuilt;
+	}
+
+	public synchronized long getLookups() {
+		return lookups;
+	}
+
+	/** @return trees kept at the moment */
+	synchronized int getTreeCount() {
+		return treeCount;
+	}
+}
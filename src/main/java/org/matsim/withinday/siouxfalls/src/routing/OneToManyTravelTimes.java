@@ -0,0 +1,143 @@
+package org.matsim.withinday.siouxfalls.src.routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.router.util.TravelTime;
+
+/**
+ * Shortest travel time trees on the subnetwork of one mode. The subnetwork is kept as an adjacency
+ * array (outgoing links per node index), so that a tree is a single Dijkstra run over primitive
+ * arrays that yields the travel time to every node at once.
+ *
+ * Nodes are indexed by <code>Id&lt;Node&gt;.index()</code>. Links of other modes share the nodes, so
+ * an origin or destination on a link the mode cannot use (e.g. a car link for a pedestrian, next to
+ * its <code>_sidewalk</code> twin) is reached through the nodes of that link.
+ */
+final class OneToManyTravelTimes {
+
+	private final String mode;
+	private final TravelTime travelTime;
+	private final double maxSpeed;
+	private final int nodes;
+	// outgoing links of node n: offsets[n] .. offsets[n + 1]
+	private final int[] offsets;
+	private final Link[] outLinks;
+	private final int[] toNodes;
+
+	OneToManyTravelTimes(Network network, String mode, TravelTime travelTime, double maxSpeed) {
+		this.mode = mode;
+		this.travelTime = travelTime;
+		this.maxSpeed = maxSpeed;
+		this.nodes = Id.getNumberOfIds(Node.class);
+
+		List<List<Link>> adjacency = new ArrayList<>(nodes);
+		for (int i = 0; i < nodes; i++) adjacency.add(null);
+		int links = 0;
+		for (Link link : network.getLinks().values()) {
+			if (!link.getAllowedModes().contains(mode)) continue;
+			int from = link.getFromNode().getId().index();
+			if (adjacency.get(from) == null) adjacency.set(from, new ArrayList<>(4));
+			adjacency.get(from).add(link);
+			links++;
+		}
+		this.offsets = new int[nodes + 1];
+		this.outLinks = new Link[links];
+		this.toNodes = new int[links];
+		int next = 0;
+		for (int node = 0; node < nodes; node++) {
+			offsets[node] = next;
+			List<Link> out = adjacency.get(node);
+			if (out == null) continue;
+			for (Link link : out) {
+				outLinks[next] = link;
+				toNodes[next] = link.getToNode().getId().index();
+				next++;
+			}
+		}
+		offsets[nodes] = next;
+	}
+
+	String getMode() {
+		return mode;
+	}
+
+	double getLinkTravelTime(Link link, double time) {
+		double linkTravelTime = travelTime.getLinkTravelTime(link, time, null, null);
+		return (maxSpeed > 0) ? Math.max(linkTravelTime, link.getLength() / maxSpeed) : linkTravelTime;
+	}
+
+	/**
+	 * Time dependent Dijkstra from one node to all nodes of the subnetwork.
+	 *
+	 * @return travel time to every node index, infinite for nodes that cannot be reached
+	 */
+	float[] calcTree(int origin, double departureTime) {
+		float[] times = new float[nodes];
+		Arrays.fill(times, Float.POSITIVE_INFINITY);
+		boolean[] settled = new boolean[nodes];
+		// binary heap with lazy deletion: a node may be in it several times, the first pop counts
+		int[] heapNodes = new int[Math.max(16, outLinks.length + 1)];
+		double[] heapKeys = new double[heapNodes.length];
+		int heapSize = 0;
+
+		times[origin] = 0;
+		heapNodes[0] = origin;
+		heapKeys[0] = 0;
+		heapSize = 1;
+		while (heapSize > 0) {
+			int node = heapNodes[0];
+			double time = heapKeys[0];
+			heapSize--;
+			if (heapSize > 0) siftDown(heapNodes, heapKeys, heapSize, heapNodes[heapSize], heapKeys[heapSize]);
+			if (settled[node]) continue;
+			settled[node] = true;
+
+			for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+				int to = toNodes[i];
+				if (settled[to]) continue;
+				double arrival = time + getLinkTravelTime(outLinks[i], departureTime + time);
+				if (arrival >= times[to]) continue;
+				times[to] = (float) arrival;
+				if (heapSize == heapNodes.length) {
+					heapNodes = Arrays.copyOf(heapNodes, heapSize * 2);
+					heapKeys = Arrays.copyOf(heapKeys, heapSize * 2);
+				}
+				siftUp(heapNodes, heapKeys, heapSize++, to, arrival);
+			}
+		}
+		return times;
+	}
+
+	private static void siftUp(int[] nodes, double[] keys, int position, int node, double key) {
+		while (position > 0) {
+			int parent = (position - 1) >>> 1;
+			if (keys[parent] <= key) break;
+			nodes[position] = nodes[parent];
+			keys[position] = keys[parent];
+			position = parent;
+		}
+		nodes[position] = node;
+		keys[position] = key;
+	}
+
+	private static void siftDown(int[] nodes, double[] keys, int size, int node, double key) {
+		int position = 0;
+		while (true) {
+			int child = 2 * position + 1;
+			if (child >= size) break;
+			if (child + 1 < size && keys[child + 1] < keys[child]) child++;
+			if (keys[child] >= key) break;
+			nodes[position] = nodes[child];
+			keys[position] = keys[child];
+			position = child;
+		}
+		nodes[position] = node;
+		keys[position] = key;
+	}
+}
@@ -0,0 +1,265 @@
+package org.matsim.withinday.siouxfalls.src.routing;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.mobsim.framework.events.MobsimBeforeCleanupEvent;
+import org.matsim.core.mobsim.framework.events.MobsimInitializedEvent;
+import org.matsim.core.mobsim.framework.listeners.MobsimBeforeCleanupListener;
+import org.matsim.core.mobsim.framework.listeners.MobsimInitializedListener;
+import org.matsim.core.router.util.LeastCostPathCalculator.Path;
+import org.matsim.core.router.util.TravelDisutility;
+import org.matsim.core.router.util.TravelTime;
+
+/**
+ * Least-cost paths shared by all within-day replanners, keyed by (from node, to node, mode
+ * subnetwork and travel disutility, departure time bin). Size bounded with LRU eviction per lock
+ * stripe, and an entry is recomputed once the departure it is asked for lies more than
+ * <code>maxAge</code> seconds away from the time it was computed for, so the live travel times are
+ * picked up again. <code>maxAge</code> must be shorter than the time bin, otherwise nothing expires.
+ *
+ * The disutilities must not depend on the person: with randomized routing
+ * (<code>routing.routingRandomness</code> > 0) the cache is not installed at all, see
+ * {@link WithinDayRoutingModule}.
+ *
+ * The cache only answers while the mobsim is running, i.e. for within-day routing. Routing between
+ * iterations passes through, and the cache is emptied when a new mobsim starts.
+ */
+public final class RouteCache implements MobsimInitializedListener, MobsimBeforeCleanupListener {
+
+	private static final int STRIPES = 32;
+	// links whose minimum disutility tells the disutilities of one class apart
+	private static final int PROBE_LINKS = 16;
+
+	private final double timeBinSize;
+	private final double maxAge;
+	private final Stripe[] stripes;
+	// network -> travel time -> disutility; weak, a network or travel time that is gone takes its partitions along
+	private final Map<Network, Map<TravelTime, Map<DisutilityKey, Integer>>> partitions = new WeakHashMap<>();
+	private int partitionCount = 0;
+	private volatile boolean active = false;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder expired = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	public RouteCache(int maxSize, double timeBinSize, double maxAge) {
+		if (maxSize <= 0) throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+		if (maxAge >= timeBinSize) throw new IllegalArgumentException("maxAge " + maxAge + " must be shorter than the time bin " + timeBinSize + ", otherwise no path ever expires");
+		this.timeBinSize = timeBinSize;
+		this.maxAge = maxAge;
+		this.stripes = new Stripe[STRIPES];
+		int stripeSize = Math.max(1, maxSize / STRIPES);
+		for (int i = 0; i < STRIPES; i++) stripes[i] = new Stripe(stripeSize, evictions);
+	}
+
+	/**
+	 * Every (mode subnetwork, travel time, travel disutility) combination the routers are built for gets
+	 * its own partition of the key space. The network and the travel time are the per-mode bindings and
+	 * compared by identity. The routing modules create a new disutility for every router, so disutilities
+	 * count as equal if they are of the same class and have the same minimum costs on a sample of links,
+	 * which sets the disutilities of the modes (with their scoring parameters) apart.
+	 */
+	synchronized int getPartition(Network network, TravelDisutility travelDisutility, TravelTime travelTime) {
+		DisutilityKey key = new DisutilityKey(travelDisutility.getClass(), probe(network, travelDisutility));
+		return partitions.computeIfAbsent(network, n -> new WeakHashMap<>())
+				.computeIfAbsent(travelTime, t -> new HashMap<>())
+				.computeIfAbsent(key, k -> partitionCount++);
+	}
+
+	private static double[] probe(Network network, TravelDisutility travelDisutility) {
+		int links = Math.min(PROBE_LINKS, network.getLinks().size());
+		double[] costs = new double[links];
+		int step = Math.max(1, network.getLinks().size() / PROBE_LINKS);
+		int i = 0;
+		int probed = 0;
+		for (Link link : network.getLinks().values()) {
+			if (probed == links) break;
+			if (i++ % step == 0) costs[probed++] = travelDisutility.getLinkMinimumTravelDisutility(link);
+		}
+		return costs;
+	}
+
+	boolean isActive() {
+		return active;
+	}
+
+	int getTimeBin(double departureTime) {
+		return (int) (departureTime / timeBinSize);
+	}
+
+	/** @return the cached path or null if there is none that is fresh enough */
+	Path get(RouteKey key, double departureTime) {
+		Stripe stripe = stripe(key);
+		Entry entry;
+		synchronized (stripe) {
+			entry = stripe.get(key);
+		}
+		if (entry == null) {
+			misses.increment();
+			return null;
+		}
+		if (Math.abs(departureTime - entry.computedFor) > maxAge) {
+			expired.increment();
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		return entry.path;
+	}
+
+	void put(RouteKey key, Path path, double departureTime) {
+		Stripe stripe = stripe(key);
+		synchronized (stripe) {
+			stripe.put(key, new Entry(path, departureTime));
+		}
+	}
+
+	private Stripe stripe(RouteKey key) {
+		return stripes[(key.hashCode() & 0x7fffffff) % STRIPES];
+	}
+
+	public void clear() {
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				stripe.clear();
+			}
+		}
+	}
+
+	@Override
+	public void notifyMobsimInitialized(MobsimInitializedEvent e) {
+		clear();
+		hits.reset();
+		misses.reset();
+		expired.reset();
+		evictions.reset();
+		active = true;
+	}
+
+	@Override
+	public void notifyMobsimBeforeCleanup(MobsimBeforeCleanupEvent e) {
+		active = false;
+		System.out.println(getSummary());
+		clear();
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getExpired() {
+		return expired.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public double getHitRate() {
+		long lookups = getHits() + getMisses();
+		return (lookups == 0) ? 0.0 : (double) getHits() / lookups;
+	}
+
+	public String getSummary() {
+		return String.format("Route cache (bin %.0fs, max age %.0fs): %d hits, %d misses (%d expired), %d evictions, hit rate %.2f%%",
+				timeBinSize, maxAge, getHits(), getMisses(), getExpired(), getEvictions(), 100.0 * getHitRate());
+	}
+
+	/* package */ static final class RouteKey {
+		private final int partition;
+		private final int fromNode;
+		private final int toNode;
+		private final int timeBin;
+		private final int hash;
+
+		RouteKey(int partition, int fromNode, int toNode, int timeBin) {
+			this.partition = partition;
+			this.fromNode = fromNode;
+			this.toNode = toNode;
+			this.timeBin = timeBin;
+			int h = partition;
+			h = 31 * h + fromNode;
+			h = 31 * h + toNode;
+			h = 31 * h + timeBin;
+			this.hash = h ^ (h >>> 16);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (!(o instanceof RouteKey)) return false;
+			RouteKey other = (RouteKey) o;
+			return partition == other.partition && fromNode == other.fromNode && toNode == other.toNode && timeBin == other.timeBin;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	private static final class Entry {
+		final Path path;
+		final double computedFor;
+
+		Entry(Path path, double computedFor) {
+			this.path = path;
+			this.computedFor = computedFor;
+		}
+	}
+
+	// One lock stripe: a LinkedHashMap in access order drops its least recently used entry when full
+	private static final class Stripe extends LinkedHashMap<RouteKey, Entry> {
+		private final int maxSize;
+		private final LongAdder evictions;
+
+		Stripe(int maxSize, LongAdder evictions) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+			this.evictions = evictions;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<RouteKey, Entry> eldest) {
+			if (size() > maxSize) {
+				evictions.increment();
+				return true;
+			}
+			return false;
+		}
+	}
+
+	private static final class DisutilityKey {
+		private final Class<?> type;
+		private final double[] costs;
+
+		DisutilityKey(Class<?> type, double[] costs) {
+			this.type = type;
+			this.costs = costs;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof DisutilityKey)) return false;
+			DisutilityKey other = (DisutilityKey) o;
+			return type == other.type && Arrays.equals(costs, other.costs);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * type.hashCode() + Arrays.hashCode(costs);
+		}
+	}
+}
@@ -0,0 +1,387 @@
+package org.matsim.withinday.siouxfalls.src.routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.stream.IntStream;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.groups.RoutingConfigGroup.TeleportedModeParams;
+import org.matsim.core.utils.misc.OptionalTime;
+import org.matsim.pt.transitSchedule.api.Departure;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitRouteStop;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import org.matsim.withinday.siouxfalls.src.modules.RLConfigGroup;
+
+/**
+ * Stop to stop travel times and transfers of the transit schedule, per departure time bin.
+ *
+ * The schedule does not change during the day, so the table is computed once: for every bin start and
+ * every stop a connection scan over all departures of the schedule, with walking transfers between
+ * stops closer than <code>maxBeelineWalkConnectionDistance</code>. A query then only walks to the
+ * stops within the <code>searchRadius</code> of the origin and from those of the destination, like the
+ * transit router, and looks the rest up. A passenger reaching a stop within a bin waits for the start
+ * of the next bin, so the estimate is never faster than the schedule and at most one bin slower.
+ *
+ * Immutable once built, may be queried from any thread.
+ */
+public final class TransitTravelTimeTable {
+
+	// Journeys longer than this are treated as unreachable, which keeps every scan short
+	static final double MAX_TRAVEL_TIME = 3 * 3600.0;
+
+	private final int stops;
+	private final double[] stopX;
+	private final double[] stopY;
+
+	private final double searchRadius;
+	private final double extensionRadius;
+	private final double walkSpeed;
+	private final double beelineFactor;
+
+	private final double timeBinSize;
+	private final double firstBinStart;
+	// [bin][from stop * stops + to stop], infinite if unreachable
+	private final float[][] travelTimes;
+	private final byte[][] transfers;
+
+	// schedule -> parameters -> table, weak so that the table goes with its schedule
+	private static final Map<TransitSchedule, Map<List<Double>, TransitTravelTimeTable>> SHARED = new WeakHashMap<>();
+
+	/**
+	 * The table of the schedule of the scenario with the parameters of its config. Built on the first
+	 * call, then shared by every scenario with the same schedule instance, like the episodes of an
+	 * EpisodeRunner.
+	 */
+	public static TransitTravelTimeTable shared(Scenario scenario) {
+		Config config = scenario.getConfig();
+		TeleportedModeParams walk = getWalkParams(config);
+		List<Double> parameters = List.of(config.transitRouter().getSearchRadius(), config.transitRouter().getExtensionRadius(),
+				config.transitRouter().getMaxBeelineWalkConnectionDistance(), config.transitRouter().getAdditionalTransferTime(),
+				walk.getTeleportedModeSpeed(), getBeelineFactor(walk),
+				ConfigUtils.addOrGetModule(config, RLConfigGroup.class).getTransitEstimateTimeBin());
+		synchronized (SHARED) {
+			Map<List<Double>, TransitTravelTimeTable> tables = SHARED.computeIfAbsent(scenario.getTransitSchedule(), schedule -> new HashMap<>());
+			TransitTravelTimeTable table = tables.get(parameters);
+			if (table == null) {
+				long start = System.nanoTime();
+				table = new TransitTravelTimeTable(scenario.getTransitSchedule(), parameters.get(0), parameters.get(1), parameters.get(2),
+						parameters.get(3), parameters.get(4), parameters.get(5), parameters.get(6));
+				tables.put(parameters, table);
+				System.out.println("Transit travel time table: " + table.getStopCount() + " stops, " + table.getTimeBinCount() + " time bins in "
+						+ (System.nanoTime() - start) / 1_000_000 + " ms");
+			}
+			return table;
+		}
+	}
+
+	public TransitTravelTimeTable(TransitSchedule schedule, double searchRadius, double extensionRadius,
+			double maxTransferDistance, double additionalTransferTime, double walkSpeed, double beelineFactor, double timeBinSize) {
+		if (timeBinSize <= 0) throw new IllegalArgumentException("timeBinSize must be positive: " + timeBinSize);
+		this.searchRadius = searchRadius;
+		this.extensionRadius = extensionRadius;
+		this.walkSpeed = walkSpeed;
+		this.beelineFactor = beelineFactor;
+		this.timeBinSize = timeBinSize;
+
+		Map<Id<TransitStopFacility>, Integer> stopIndices = new HashMap<>();
+		List<TransitStopFacility> facilities = (schedule != null) ? new ArrayList<>(schedule.getFacilities().values()) : new ArrayList<>();
+		// the table grows with the square of the stops, it is meant for schedules like the Sioux Falls one
+		if (facilities.size() > 0xFFFF) throw new IllegalArgumentException("Too many transit stops for a stop to stop table: " + facilities.size());
+		this.stops = facilities.size();
+		this.stopX = new double[stops];
+		this.stopY = new double[stops];
+		for (int i = 0; i < stops; i++) {
+			stopIndices.put(facilities.get(i).getId(), i);
+			stopX[i] = facilities.get(i).getCoord().getX();
+			stopY[i] = facilities.get(i).getCoord().getY();
+		}
+
+		Connections connections = new Connections(schedule, stopIndices);
+		Footpaths footpaths = new Footpaths(stopX, stopY, maxTransferDistance, additionalTransferTime, walkSpeed, beelineFactor);
+
+		if (connections.size == 0) {
+			this.firstBinStart = 0;
+			this.travelTimes = new float[0][];
+			this.transfers = new byte[0][];
+			return;
+		}
+		this.firstBinStart = Math.floor(connections.departures[0] / timeBinSize) * timeBinSize;
+		int bins = (int) ((connections.departures[connections.size - 1] - firstBinStart) / timeBinSize) + 1;
+		this.travelTimes = new float[bins][];
+		this.transfers = new byte[bins][];
+		IntStream.range(0, bins).parallel().forEach(bin -> {
+			float[] binTravelTimes = new float[stops * stops];
+			byte[] binTransfers = new byte[stops * stops];
+			Scan scan = new Scan(stops, connections.trips);
+			double start = firstBinStart + bin * timeBinSize;
+			for (int origin = 0; origin < stops; origin++) {
+				scan.run(connections, footpaths, origin, start);
+				for (int destination = 0; destination < stops; destination++) {
+					binTravelTimes[origin * stops + destination] = (float) (scan.arrivals[destination] - start);
+					binTransfers[origin * stops + destination] = (byte) Math.min(Byte.MAX_VALUE, Math.max(0, scan.legs[destination] - 1));
+				}
+			}
+			travelTimes[bin] = binTravelTimes;
+			transfers[bin] = binTransfers;
+		});
+	}
+
+	private static TeleportedModeParams getWalkParams(Config config) {
+		TeleportedModeParams params = config.routing().getTeleportedModeParams().get(TransportMode.walk);
+		if (params == null || params.getTeleportedModeSpeed() == null) throw new IllegalArgumentException("The transit estimates need the teleported walk speed");
+		return params;
+	}
+
+	private static double getBeelineFactor(TeleportedModeParams params) {
+		return (params.getBeelineDistanceFactor() != null) ? params.getBeelineDistanceFactor() : 1.0;
+	}
+
+	public int getStopCount() {
+		return stops;
+	}
+
+	public int getTimeBinCount() {
+		return travelTimes.length;
+	}
+
+	/**
+	 * @return the travel time from <code>from</code> to <code>to</code> by transit, including the walks
+	 * to and from the stops and the waiting, or infinite if the schedule has no connection
+	 */
+	public double estimate(Coord from, Coord to, double departureTime) {
+		return estimate(from.getX(), from.getY(), to.getX(), to.getY(), departureTime);
+	}
+
+	double estimate(double fromX, double fromY, double toX, double toY, double departureTime) {
+		long best = search(fromX, fromY, toX, toY, departureTime);
+		return (best < 0) ? Double.POSITIVE_INFINITY : travelTime(best, fromX, fromY, toX, toY, departureTime);
+	}
+
+	/** @return the number of transfers of the connection {@link #estimate(Coord, Coord, double)} finds, -1 if there is none */
+	public int estimateTransfers(Coord from, Coord to, double departureTime) {
+		long best = search(from.getX(), from.getY(), to.getX(), to.getY(), departureTime);
+		if (best < 0) return -1;
+		int[] stopsAndBin = unpack(best);
+		return transfers[stopsAndBin[2]][stopsAndBin[0] * stops + stopsAndBin[1]];
+	}
+
+	// @return access stop, egress stop and bin of the fastest connection packed into a long, -1 if there is none
+	private long search(double fromX, double fromY, double toX, double toY, double departureTime) {
+		if (stops == 0) return -1;
+		int[] access = findStops(fromX, fromY);
+		int[] egress = findStops(toX, toY);
+		double bestTime = Double.POSITIVE_INFINITY;
+		long best = -1;
+		for (int a : access) {
+			double atStop = departureTime + walkTime(fromX, fromY, a);
+			int bin = (int) Math.ceil((atStop - firstBinStart) / timeBinSize);
+			if (bin < 0) bin = 0;
+			if (bin >= travelTimes.length) continue;
+			double untilBoarding = firstBinStart + bin * timeBinSize - departureTime;
+			float[] binTravelTimes = travelTimes[bin];
+			for (int e : egress) {
+				double time = untilBoarding + binTravelTimes[a * stops + e] + walkTime(toX, toY, e);
+				if (time < bestTime) {
+					bestTime = time;
+					best = ((long) bin << 32) | ((long) a << 16) | e;
+				}
+			}
+		}
+		return best;
+	}
+
+	private double travelTime(long best, double fromX, double fromY, double toX, double toY, double departureTime) {
+		int[] stopsAndBin = unpack(best);
+		double untilBoarding = firstBinStart + stopsAndBin[2] * timeBinSize - departureTime;
+		return untilBoarding + travelTimes[stopsAndBin[2]][stopsAndBin[0] * stops + stopsAndBin[1]] + walkTime(toX, toY, stopsAndBin[1]);
+	}
+
+	private static int[] unpack(long best) {
+		return new int[] { (int) ((best >>> 16) & 0xFFFF), (int) (best & 0xFFFF), (int) (best >>> 32) };
+	}
+
+	// Stops within the search radius, or the nearest one and those up to extensionRadius further away
+	private int[] findStops(double x, double y) {
+		int[] found = new int[stops];
+		int count = 0;
+		double nearest = Double.POSITIVE_INFINITY;
+		for (int stop = 0; stop < stops; stop++) {
+			double distance = Math.hypot(stopX[stop] - x, stopY[stop] - y);
+			nearest = Math.min(nearest, distance);
+			if (distance <= searchRadius) found[count++] = stop;
+		}
+		if (count == 0) {
+			for (int stop = 0; stop < stops; stop++) {
+				if (Math.hypot(stopX[stop] - x, stopY[stop] - y) <= nearest + extensionRadius) found[count++] = stop;
+			}
+		}
+		return Arrays.copyOf(found, count);
+	}
+
+	private double walkTime(double x, double y, int stop) {
+		return Math.hypot(stopX[stop] - x, stopY[stop] - y) * beelineFactor / walkSpeed;
+	}
+
+	/** All stop to stop hops of all departures, sorted by departure time. */
+	private static final class Connections {
+
+		final int size;
+		final int trips;
+		final int[] fromStops;
+		final int[] toStops;
+		final double[] departures;
+		final double[] arrivals;
+		final int[] tripIndices;
+
+		Connections(TransitSchedule schedule, Map<Id<TransitStopFacility>, Integer> stopIndices) {
+			List<double[]> hops = new ArrayList<>();
+			int trip = 0;
+			if (schedule != null) {
+				for (TransitLine line : schedule.getTransitLines().values()) {
+					for (TransitRoute route : line.getRoutes().values()) {
+						List<TransitRouteStop> routeStops = route.getStops();
+						for (Departure departure : route.getDepartures().values()) {
+							for (int i = 0; i + 1 < routeStops.size(); i++) {
+								TransitRouteStop from = routeStops.get(i);
+								TransitRouteStop to = routeStops.get(i + 1);
+								double leave = departure.getDepartureTime() + offset(from.getDepartureOffset(), from.getArrivalOffset());
+								double arrive = departure.getDepartureTime() + offset(to.getArrivalOffset(), to.getDepartureOffset());
+								hops.add(new double[] { leave, arrive, stopIndices.get(from.getStopFacility().getId()), stopIndices.get(to.getStopFacility().getId()), trip });
+							}
+							trip++;
+						}
+					}
+				}
+			}
+			hops.sort(Comparator.comparingDouble(hop -> hop[0]));
+			this.size = hops.size();
+			this.trips = trip;
+			this.fromStops = new int[size];
+			this.toStops = new int[size];
+			this.departures = new double[size];
+			this.arrivals = new double[size];
+			this.tripIndices = new int[size];
+			for (int i = 0; i < size; i++) {
+				double[] hop = hops.get(i);
+				departures[i] = hop[0];
+				arrivals[i] = hop[1];
+				fromStops[i] = (int) hop[2];
+				toStops[i] = (int) hop[3];
+				tripIndices[i] = (int) hop[4];
+			}
+		}
+
+		private static double offset(OptionalTime preferred, OptionalTime fallback) {
+			if (preferred.isDefined()) return preferred.seconds();
+			return fallback.isDefined() ? fallback.seconds() : 0;
+		}
+
+		// first connection departing at or after the time
+		int first(double time) {
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (departures[middle] < time) low = middle + 1;
+				else high = middle;
+			}
+			return low;
+		}
+	}
+
+	/** Walking transfers between nearby stops, as adjacency arrays. */
+	private static final class Footpaths {
+
+		final int[] offsets;
+		final int[] toStops;
+		final double[] durations;
+
+		Footpaths(double[] stopX, double[] stopY, double maxDistance, double additionalTransferTime, double walkSpeed, double beelineFactor) {
+			int stops = stopX.length;
+			List<double[]> paths = new ArrayList<>();
+			this.offsets = new int[stops + 1];
+			for (int from = 0; from < stops; from++) {
+				offsets[from] = paths.size();
+				for (int to = 0; to < stops; to++) {
+					if (to == from) continue;
+					double distance = Math.hypot(stopX[to] - stopX[from], stopY[to] - stopY[from]);
+					if (distance > maxDistance) continue;
+					paths.add(new double[] { to, distance * beelineFactor / walkSpeed + additionalTransferTime });
+				}
+			}
+			offsets[stops] = paths.size();
+			this.toStops = new int[paths.size()];
+			this.durations = new double[paths.size()];
+			for (int i = 0; i < paths.size(); i++) {
+				toStops[i] = (int) paths.get(i)[0];
+				durations[i] = paths.get(i)[1];
+			}
+		}
+	}
+
+	/** Connection scan from one stop, earliest arrival at every stop. Scratch arrays reused per bin. */
+	private static final class Scan {
+
+		final double[] arrivals;
+		final int[] legs;
+		final boolean[] boarded;
+		final int[] tripLegs;
+
+		Scan(int stops, int trips) {
+			this.arrivals = new double[stops];
+			this.legs = new int[stops];
+			this.boarded = new boolean[trips];
+			this.tripLegs = new int[trips];
+		}
+
+		void run(Connections connections, Footpaths footpaths, int origin, double start) {
+			Arrays.fill(arrivals, Double.POSITIVE_INFINITY);
+			Arrays.fill(legs, 0);
+			Arrays.fill(boarded, false);
+			arrivals[origin] = start;
+			walk(footpaths, origin);
+
+			double end = start + MAX_TRAVEL_TIME;
+			for (int c = connections.first(start); c < connections.size; c++) {
+				if (connections.departures[c] > end) break;
+				int trip = connections.tripIndices[c];
+				int from = connections.fromStops[c];
+				if (!boarded[trip]) {
+					if (arrivals[from] > connections.departures[c]) continue;
+					boarded[trip] = true;
+					tripLegs[trip] = legs[from] + 1;
+				}
+				int to = connections.toStops[c];
+				if (connections.arrivals[c] < arrivals[to]) {
+					arrivals[to] = connections.arrivals[c];
+					legs[to] = tripLegs[trip];
+					walk(footpaths, to);
+				}
+			}
+		}
+
+		private void walk(Footpaths footpaths, int stop) {
+			for (int i = footpaths.offsets[stop]; i < footpaths.offsets[stop + 1]; i++) {
+				int to = footpaths.toStops[i];
+				double arrival = arrivals[stop] + footpaths.durations[i];
+				if (arrival < arrivals[to]) {
+					arrivals[to] = arrival;
+					legs[to] = legs[stop];
+				}
+			}
+		}
+	}
+}
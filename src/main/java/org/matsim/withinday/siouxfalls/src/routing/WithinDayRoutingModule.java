@@ -0,0 +1,60 @@
+package org.matsim.withinday.siouxfalls.src.routing;
+
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.groups.ControllerConfigGroup.RoutingAlgorithmType;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.router.AStarLandmarksFactory;
+import org.matsim.core.router.DijkstraFactory;
+import org.matsim.core.router.speedy.SpeedyALTFactory;
+import org.matsim.core.router.util.LeastCostPathCalculatorFactory;
+import org.matsim.withinday.siouxfalls.src.modules.RLConfigGroup;
+
+/**
+ * Chooses the least-cost path calculator of all network routing modules, and with that of the
+ * within-day replanners, independently of <code>controller.routingAlgorithmType</code> (which the
+ * runner keeps at Dijkstra for the within-day module).
+ *
+ * The landmark based algorithms prepare their landmarks once per (mode sub-)network, using the
+ * minimal travel disutility of every link. Live within-day travel times can only make links slower
+ * than that, so the landmark bounds stay admissible and the preprocessing never has to be redone.
+ *
+ * Optionally puts the shared {@link RouteCache} in front of the calculators (routeCacheSize > 0,
+ * deterministic routing only).
+ */
+public class WithinDayRoutingModule extends AbstractModule {
+
+	@Override
+	public void install() {
+		RLConfigGroup rlConfig = ConfigUtils.addOrGetModule(getConfig(), RLConfigGroup.class);
+		RoutingAlgorithmType algorithm = rlConfig.getWithinDayRoutingAlgorithm();
+		if (algorithm == RoutingAlgorithmType.Dijkstra && rlConfig.getRouteCacheSize() <= 0) return;
+
+		LeastCostPathCalculatorFactory factory = createPathCalculatorFactory(algorithm, getConfig());
+		if (rlConfig.getRouteCacheSize() > 0 && getConfig().routing().getRoutingRandomness() > 0) {
+			// every person routes with a disutility of their own, a shared path would be wrong for all others
+			System.err.println("Within-day route cache disabled: it needs routing.routingRandomness = 0, not " + getConfig().routing().getRoutingRandomness());
+		} else if (rlConfig.getRouteCacheSize() > 0) {
+			RouteCache routeCache = new RouteCache(rlConfig.getRouteCacheSize(), rlConfig.getRouteCacheTimeBin(), rlConfig.getRouteCacheMaxAge());
+			bind(RouteCache.class).toInstance(routeCache);
+			addMobsimListenerBinding().toInstance(routeCache);
+			factory = new CachingLeastCostPathCalculatorFactory(factory, routeCache);
+			System.out.println("Within-day route cache enabled: " + rlConfig.getRouteCacheSize() + " paths");
+		}
+		// One factory instance for all modes, so that every (sub-)network is only prepared once
+		bind(LeastCostPathCalculatorFactory.class).toInstance(factory);
+		System.out.println("Within-day routing algorithm: " + algorithm);
+	}
+
+	public static LeastCostPathCalculatorFactory createPathCalculatorFactory(RoutingAlgorithmType algorithm, Config config) {
+		switch (algorithm) {
+			case SpeedyALT:
+				return new SpeedyALTFactory();
+			case AStarLandmarks:
+				return new AStarLandmarksFactory(config.global().getNumberOfThreads());
+			case Dijkstra:
+			default:
+				return new DijkstraFactory();
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package org.matsim.withinday.siouxfalls.src.scenario;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigGroup;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.withinday.siouxfalls.src.modules.RLConfigGroup;
+
+/**
+ * Drop-in for <code>ScenarioUtils.loadScenario</code> that keeps a binary snapshot of the loaded
+ * network, facilities, population, transit schedule and vehicles, so that repeated short runs do not
+ * parse the same XML files again.
+ *
+ * The snapshot is named after a SHA-256 key over the content of the input files and the config groups
+ * the loading depends on (network, plans, facilities, transit, vehicles and the coordinate system). A changed input or
+ * setting gives a new key, the scenario is then read from the XML files once and a new snapshot is
+ * written next to the old ones. Inputs the snapshot does not cover (time variant networks, lanes,
+ * households) are always read from XML.
+ */
+public final class ScenarioCache {
+
+	public static final String FILE_PREFIX = "scenario-";
+	public static final String FILE_SUFFIX = ".bin";
+
+	// global only for the coordinate system, the seed differs from run to run
+	private static final String[] CONFIG_GROUPS = { "network", "plans", "facilities", "transit", "vehicles" };
+
+	private ScenarioCache() {
+	}
+
+	/**
+	 * Loads the scenario through the cache directory of the withinDayRL config group
+	 * (<code>scenarioCacheDirectory</code>), or from XML as usual if there is none. Also works for
+	 * configs that were loaded without the RLConfigGroup.
+	 */
+	public static Scenario load(Config config) {
+		ConfigGroup group = config.getModule(RLConfigGroup.GROUP_NAME);
+		String directory = (group != null) ? group.getParams().get("scenarioCacheDirectory") : null;
+		if (directory == null || directory.isEmpty()) return ScenarioUtils.loadScenario(config);
+		return load(config, Paths.get(directory));
+	}
+
+	public static Scenario load(Config config, Path directory) {
+		String unsupported = getUnsupportedInput(config);
+		if (unsupported != null) {
+			System.out.println("Scenario cache not used: " + unsupported);
+			return ScenarioUtils.loadScenario(config);
+		}
+
+		String key;
+		try {
+			key = computeKey(config);
+		} catch (IOException e) {
+			System.err.println("Scenario cache not used, could not hash the inputs: " + e.getMessage());
+			return ScenarioUtils.loadScenario(config);
+		}
+		Path file = directory.resolve(FILE_PREFIX + key + FILE_SUFFIX);
+
+		if (Files.isRegularFile(file)) {
+			long start = System.nanoTime();
+			try (InputStream in = Files.newInputStream(file)) {
+				ScenarioSnapshotReader reader = new ScenarioSnapshotReader(in);
+				if (!key.equals(reader.readKey())) throw new IOException("snapshot of another key");
+				Scenario scenario = ScenarioUtils.createScenario(config);
+				reader.read(scenario);
+				System.out.printf("Scenario read from the cache %s in %.1f s%n", file, (System.nanoTime() - start) / 1e9);
+				return scenario;
+			} catch (IOException | RuntimeException e) {
+				// rebuilt below
+				System.err.println("Could not read the scenario cache " + file + ", reading the XML inputs: " + e.getMessage());
+			}
+		}
+
+		Scenario scenario = ScenarioUtils.loadScenario(config);
+		write(scenario, key, file);
+		return scenario;
+	}
+
+	private static void write(Scenario scenario, String key, Path file) {
+		Path temporary = file.resolveSibling(file.getFileName() + "." + ProcessHandle.current().pid() + ".tmp");
+		try {
+			Files.createDirectories(file.getParent());
+			try (OutputStream out = Files.newOutputStream(temporary)) {
+				new ScenarioSnapshotWriter(out).write(scenario, key);
+			}
+			// readers never see a half written snapshot
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			System.out.println("Scenario cache written to " + file);
+		} catch (IOException | RuntimeException e) {
+			System.err.println("Could not write the scenario cache " + file + ": " + e.getMessage());
+			try {
+				Files.deleteIfExists(temporary);
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	/** @return the reason why the scenario cannot be cached, null if it can */
+	static String getUnsupportedInput(Config config) {
+		if (config.network().isTimeVariantNetwork()) return "time variant network";
+		if (config.network().getLaneDefinitionsFile() != null) return "lanes";
+		if (config.households().getInputFile() != null) return "households";
+		return null;
+	}
+
+	/**
+	 * @return hex SHA-256 over the snapshot version, the settings of the config groups that affect the
+	 * loading and the content of all input files
+	 */
+	public static String computeKey(Config config) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		update(digest, "version=" + ScenarioSnapshotWriter.VERSION);
+		update(digest, "coordinateSystem=" + config.global().getCoordinateSystem());
+		for (String name : CONFIG_GROUPS) {
+			ConfigGroup group = config.getModule(name);
+			if (group == null) continue;
+			update(digest, "[" + name + "]");
+			for (Map.Entry<String, String> param : new TreeMap<>(group.getParams()).entrySet()) {
+				update(digest, param.getKey() + "=" + param.getValue());
+			}
+		}
+
+		String[] files = { config.network().getInputFile(), config.plans().getInputFile(), config.facilities().getInputFile(),
+				config.transit().getTransitScheduleFile(), config.transit().getVehiclesFile(), config.vehicles().getVehiclesFile() };
+		byte[] buffer = new byte[1 << 16];
+		for (String file : files) {
+			if (file == null) {
+				update(digest, "-");
+				continue;
+			}
+			URL url = ConfigGroup.getInputFileURL(config.getContext(), file);
+			try (InputStream in = new DigestInputStream(url.openStream(), digest)) {
+				while (in.read(buffer) >= 0) { }
+			}
+			update(digest, "|");
+		}
+
+		StringBuilder key = new StringBuilder();
+		for (byte b : digest.digest()) key.append(String.format("%02x", b));
+		return key.toString();
+	}
+
+	private static void update(MessageDigest digest, String value) {
+		digest.update(value.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+	}
+}
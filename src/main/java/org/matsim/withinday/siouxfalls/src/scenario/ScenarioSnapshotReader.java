@@ -0,0 +1,396 @@
+package org.matsim.withinday.siouxfalls.src.scenario;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.api.core.v01.population.PopulationFactory;
+import org.matsim.api.core.v01.population.Route;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.population.routes.RouteFactories;
+import org.matsim.core.population.routes.RouteUtils;
+import org.matsim.core.utils.misc.OptionalTime;
+import org.matsim.facilities.ActivityFacilities;
+import org.matsim.facilities.ActivityFacilitiesFactory;
+import org.matsim.facilities.ActivityFacility;
+import org.matsim.facilities.ActivityOption;
+import org.matsim.facilities.OpeningTimeImpl;
+import org.matsim.pt.transitSchedule.api.Departure;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitRouteStop;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitScheduleFactory;
+import org.matsim.pt.transitSchedule.api.TransitStopArea;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import org.matsim.utils.objectattributes.attributable.Attributes;
+import org.matsim.vehicles.Vehicle;
+import org.matsim.vehicles.VehicleType;
+import org.matsim.vehicles.VehicleUtils;
+import org.matsim.vehicles.Vehicles;
+
+/**
+ * Reads a snapshot of the {@link ScenarioSnapshotWriter} into the empty containers of a scenario
+ * created with <code>ScenarioUtils.createScenario</code>.
+ */
+final class ScenarioSnapshotReader {
+
+	private final DataInputStream in;
+	private final List<String> strings = new ArrayList<>();
+
+	ScenarioSnapshotReader(InputStream stream) {
+		this.in = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+	}
+
+	/** @return the key the snapshot was written for, without reading further */
+	String readKey() throws IOException {
+		if (in.readInt() != ScenarioSnapshotWriter.MAGIC) throw new IOException("Not a scenario snapshot");
+		int version = in.readInt();
+		if (version != ScenarioSnapshotWriter.VERSION) throw new IOException("Scenario snapshot of version " + version + ", expected " + ScenarioSnapshotWriter.VERSION);
+		return readString();
+	}
+
+	/** Reads the containers after {@link #readKey()}. */
+	void read(Scenario scenario) throws IOException {
+		if (in.readBoolean()) readNetwork(scenario.getNetwork());
+		if (in.readBoolean()) readFacilities(scenario.getActivityFacilities());
+		if (in.readBoolean()) readPopulation(scenario.getPopulation());
+		if (in.readBoolean()) readSchedule(scenario.getTransitSchedule());
+		if (in.readBoolean()) readVehicles(scenario.getTransitVehicles());
+		if (in.readBoolean()) readVehicles(scenario.getVehicles());
+	}
+
+	// ---- network ----
+
+	private void readNetwork(Network network) throws IOException {
+		network.setCapacityPeriod(in.readDouble());
+		network.setEffectiveCellSize(in.readDouble());
+		network.setEffectiveLaneWidth(in.readDouble());
+		readAttributes(network.getAttributes());
+
+		NetworkFactory factory = network.getFactory();
+		int nodes = in.readInt();
+		for (int i = 0; i < nodes; i++) {
+			Node node = factory.createNode(readId(Node.class), readCoord());
+			readAttributes(node.getAttributes());
+			network.addNode(node);
+		}
+		int links = in.readInt();
+		for (int i = 0; i < links; i++) {
+			Id<Link> id = readId(Link.class);
+			Node from = network.getNodes().get(readId(Node.class));
+			Node to = network.getNodes().get(readId(Node.class));
+			Link link = factory.createLink(id, from, to);
+			link.setLength(in.readDouble());
+			link.setFreespeed(in.readDouble());
+			link.setCapacity(in.readDouble());
+			link.setNumberOfLanes(in.readDouble());
+			link.setAllowedModes(readStrings());
+			readAttributes(link.getAttributes());
+			network.addLink(link);
+		}
+	}
+
+	// ---- facilities ----
+
+	private void readFacilities(ActivityFacilities facilities) throws IOException {
+		readAttributes(facilities.getAttributes());
+		ActivityFacilitiesFactory factory = facilities.getFactory();
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			Id<ActivityFacility> id = readId(ActivityFacility.class);
+			Coord coord = readCoord();
+			ActivityFacility facility = factory.createActivityFacility(id, coord, readId(Link.class));
+			int options = in.readInt();
+			for (int j = 0; j < options; j++) {
+				ActivityOption option = factory.createActivityOption(readString());
+				option.setCapacity(in.readDouble());
+				int openingTimes = in.readInt();
+				for (int k = 0; k < openingTimes; k++) option.addOpeningTime(new OpeningTimeImpl(in.readDouble(), in.readDouble()));
+				facility.addActivityOption(option);
+			}
+			readAttributes(facility.getAttributes());
+			facilities.addActivityFacility(facility);
+		}
+	}
+
+	// ---- population ----
+
+	private void readPopulation(Population population) throws IOException {
+		readAttributes(population.getAttributes());
+		PopulationFactory factory = population.getFactory();
+		RouteFactories routeFactories = factory.getRouteFactories();
+		int persons = in.readInt();
+		for (int i = 0; i < persons; i++) {
+			Person person = factory.createPerson(readId(Person.class));
+			readAttributes(person.getAttributes());
+			int plans = in.readInt();
+			for (int j = 0; j < plans; j++) {
+				boolean selected = in.readBoolean();
+				Plan plan = factory.createPlan();
+				double score = in.readDouble();
+				if (!Double.isNaN(score)) plan.setScore(score);
+				plan.setType(readString());
+				readAttributes(plan.getAttributes());
+				int elements = in.readInt();
+				for (int k = 0; k < elements; k++) {
+					if (in.readBoolean()) {
+						plan.addActivity(readActivity(factory));
+					} else {
+						plan.addLeg(readLeg(factory, routeFactories));
+					}
+				}
+				person.addPlan(plan);
+				if (selected) person.setSelectedPlan(plan);
+			}
+			population.addPerson(person);
+		}
+	}
+
+	private Activity readActivity(PopulationFactory factory) throws IOException {
+		String type = readString();
+		Id<Link> linkId = readId(Link.class);
+		Id<ActivityFacility> facilityId = readId(ActivityFacility.class);
+		Coord coord = readCoord();
+		Activity activity;
+		if (linkId != null) {
+			activity = factory.createActivityFromLinkId(type, linkId);
+		} else if (coord != null) {
+			activity = factory.createActivityFromCoord(type, coord);
+		} else {
+			activity = factory.createActivityFromActivityFacilityId(type, facilityId);
+		}
+		if (coord != null) activity.setCoord(coord);
+		if (facilityId != null) activity.setFacilityId(facilityId);
+		double startTime = in.readDouble();
+		double endTime = in.readDouble();
+		double maximumDuration = in.readDouble();
+		if (!Double.isNaN(startTime)) activity.setStartTime(startTime);
+		if (!Double.isNaN(endTime)) activity.setEndTime(endTime);
+		if (!Double.isNaN(maximumDuration)) activity.setMaximumDuration(maximumDuration);
+		readAttributes(activity.getAttributes());
+		return activity;
+	}
+
+	private Leg readLeg(PopulationFactory factory, RouteFactories routeFactories) throws IOException {
+		Leg leg = factory.createLeg(readString());
+		String routingMode = readString();
+		double departureTime = in.readDouble();
+		double travelTime = in.readDouble();
+		if (!Double.isNaN(departureTime)) leg.setDepartureTime(departureTime);
+		if (!Double.isNaN(travelTime)) leg.setTravelTime(travelTime);
+		readAttributes(leg.getAttributes());
+		if (routingMode != null) leg.setRoutingMode(routingMode);
+		if (!in.readBoolean()) return leg;
+
+		String routeType = readString();
+		Id<Link> startLinkId = readId(Link.class);
+		Id<Link> endLinkId = readId(Link.class);
+		Route route = routeFactories.createRoute(routeFactories.getRouteClassForType(routeType), startLinkId, endLinkId);
+		String description = readString();
+		if (description != null) route.setRouteDescription(description);
+		route.setDistance(in.readDouble());
+		double routeTravelTime = in.readDouble();
+		if (!Double.isNaN(routeTravelTime)) route.setTravelTime(routeTravelTime);
+		Id<Vehicle> vehicleId = readId(Vehicle.class);
+		if (vehicleId != null && route instanceof NetworkRoute) ((NetworkRoute) route).setVehicleId(vehicleId);
+		leg.setRoute(route);
+		return leg;
+	}
+
+	// ---- transit ----
+
+	private void readSchedule(TransitSchedule schedule) throws IOException {
+		readAttributes(schedule.getAttributes());
+		TransitScheduleFactory factory = schedule.getFactory();
+		int stops = in.readInt();
+		for (int i = 0; i < stops; i++) {
+			Id<TransitStopFacility> id = readId(TransitStopFacility.class);
+			Coord coord = readCoord();
+			TransitStopFacility stop = factory.createTransitStopFacility(id, coord, in.readBoolean());
+			Id<Link> linkId = readId(Link.class);
+			if (linkId != null) stop.setLinkId(linkId);
+			stop.setName(readString());
+			Id<TransitStopArea> stopAreaId = readId(TransitStopArea.class);
+			if (stopAreaId != null) stop.setStopAreaId(stopAreaId);
+			readAttributes(stop.getAttributes());
+			schedule.addStopFacility(stop);
+		}
+
+		int lines = in.readInt();
+		for (int i = 0; i < lines; i++) {
+			TransitLine line = factory.createTransitLine(readId(TransitLine.class));
+			line.setName(readString());
+			readAttributes(line.getAttributes());
+			int routes = in.readInt();
+			for (int j = 0; j < routes; j++) {
+				Id<TransitRoute> id = readId(TransitRoute.class);
+				String mode = readString();
+				String description = readString();
+				NetworkRoute networkRoute = null;
+				if (in.readBoolean()) {
+					Id<Link> startLinkId = readId(Link.class);
+					List<Id<Link>> linkIds = readIds(Link.class);
+					networkRoute = RouteUtils.createLinkNetworkRouteImpl(startLinkId, linkIds, readId(Link.class));
+				}
+				int routeStops = in.readInt();
+				List<TransitRouteStop> stopList = new ArrayList<>(routeStops);
+				for (int k = 0; k < routeStops; k++) {
+					TransitStopFacility stop = schedule.getFacilities().get(readId(TransitStopFacility.class));
+					TransitRouteStop routeStop = factory.createTransitRouteStop(stop, readTime(), readTime());
+					routeStop.setAwaitDepartureTime(in.readBoolean());
+					stopList.add(routeStop);
+				}
+				TransitRoute route = factory.createTransitRoute(id, networkRoute, stopList, mode);
+				route.setDescription(description);
+				readAttributes(route.getAttributes());
+				int departures = in.readInt();
+				for (int k = 0; k < departures; k++) {
+					Departure departure = factory.createDeparture(readId(Departure.class), in.readDouble());
+					Id<Vehicle> vehicleId = readId(Vehicle.class);
+					if (vehicleId != null) departure.setVehicleId(vehicleId);
+					route.addDeparture(departure);
+				}
+				line.addRoute(route);
+			}
+			schedule.addTransitLine(line);
+		}
+
+		while (in.readBoolean()) {
+			schedule.getMinimalTransferTimes().set(readId(TransitStopFacility.class), readId(TransitStopFacility.class), in.readDouble());
+		}
+	}
+
+	// ---- vehicles ----
+
+	private void readVehicles(Vehicles vehicles) throws IOException {
+		int types = in.readInt();
+		for (int i = 0; i < types; i++) {
+			VehicleType type = VehicleUtils.createVehicleType(readId(VehicleType.class));
+			type.setDescription(readString());
+			type.getCapacity().setSeats(readInteger());
+			type.getCapacity().setStandingRoom(readInteger());
+			type.setLength(in.readDouble());
+			type.setWidth(in.readDouble());
+			type.setMaximumVelocity(in.readDouble());
+			type.setPcuEquivalents(in.readDouble());
+			type.setFlowEfficiencyFactor(in.readDouble());
+			type.setNetworkMode(readString());
+			readAttributes(type.getAttributes());
+			vehicles.addVehicleType(type);
+		}
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			Id<Vehicle> id = readId(Vehicle.class);
+			VehicleType type = vehicles.getVehicleTypes().get(readId(VehicleType.class));
+			Vehicle vehicle = vehicles.getFactory().createVehicle(id, type);
+			readAttributes(vehicle.getAttributes());
+			vehicles.addVehicle(vehicle);
+		}
+	}
+
+	// ---- values ----
+
+	private <T> Id<T> readId(Class<T> type) throws IOException {
+		String value = readString();
+		return (value != null) ? Id.create(value, type) : null;
+	}
+
+	private <T> List<Id<T>> readIds(Class<T> type) throws IOException {
+		int size = in.readInt();
+		List<Id<T>> ids = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) ids.add(readId(type));
+		return ids;
+	}
+
+	private Set<String> readStrings() throws IOException {
+		int size = in.readInt();
+		Set<String> values = new HashSet<>();
+		for (int i = 0; i < size; i++) values.add(readString());
+		return values;
+	}
+
+	String readString() throws IOException {
+		int code = in.readInt();
+		if (code == ScenarioSnapshotWriter.NULL_STRING) return null;
+		if (code != ScenarioSnapshotWriter.NEW_STRING) return strings.get(code);
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		String value = new String(bytes, StandardCharsets.UTF_8);
+		strings.add(value);
+		return value;
+	}
+
+	private Coord readCoord() throws IOException {
+		if (!in.readBoolean()) return null;
+		double x = in.readDouble();
+		double y = in.readDouble();
+		return in.readBoolean() ? new Coord(x, y, in.readDouble()) : new Coord(x, y);
+	}
+
+	private OptionalTime readTime() throws IOException {
+		double seconds = in.readDouble();
+		return Double.isNaN(seconds) ? OptionalTime.undefined() : OptionalTime.defined(seconds);
+	}
+
+	private Integer readInteger() throws IOException {
+		return in.readBoolean() ? in.readInt() : null;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void readAttributes(Attributes attributes) throws IOException {
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			String name = readString();
+			byte type = in.readByte();
+			Object value;
+			switch (type) {
+				case ScenarioSnapshotWriter.STRING:
+					value = readString();
+					break;
+				case ScenarioSnapshotWriter.DOUBLE:
+					value = in.readDouble();
+					break;
+				case ScenarioSnapshotWriter.INTEGER:
+					value = in.readInt();
+					break;
+				case ScenarioSnapshotWriter.LONG:
+					value = in.readLong();
+					break;
+				case ScenarioSnapshotWriter.BOOLEAN:
+					value = in.readBoolean();
+					break;
+				case ScenarioSnapshotWriter.ENUM:
+					String className = readString();
+					String constant = readString();
+					try {
+						value = Enum.valueOf((Class<? extends Enum>) Class.forName(className), constant);
+					} catch (ClassNotFoundException | IllegalArgumentException e) {
+						throw new IOException("Attribute " + name + ": unknown enum constant " + className + "." + constant, e);
+					}
+					break;
+				default:
+					throw new IOException("Attribute " + name + " of unknown type " + type);
+			}
+			attributes.putAttribute(name, value);
+		}
+	}
+}
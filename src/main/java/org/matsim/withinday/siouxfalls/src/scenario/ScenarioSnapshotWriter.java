@@ -0,0 +1,382 @@
+package org.matsim.withinday.siouxfalls.src.scenario;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.api.core.v01.population.Route;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.utils.misc.OptionalTime;
+import org.matsim.facilities.ActivityFacilities;
+import org.matsim.facilities.ActivityFacility;
+import org.matsim.facilities.ActivityOption;
+import org.matsim.facilities.OpeningTime;
+import org.matsim.pt.transitSchedule.api.Departure;
+import org.matsim.pt.transitSchedule.api.MinimalTransferTimes;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitRouteStop;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import org.matsim.utils.objectattributes.attributable.Attributes;
+import org.matsim.vehicles.Vehicle;
+import org.matsim.vehicles.VehicleType;
+import org.matsim.vehicles.Vehicles;
+
+/**
+ * Writes the containers of a loaded scenario in the snapshot format of the {@link ScenarioCache}.
+ *
+ * <pre>
+ * header     : int magic 'RLSC' | int version | string key
+ * sections   : network | facilities | population | transit schedule | transit vehicles | vehicles,
+ *              each a boolean present flag and the content
+ * string     : int -1 (null) | int -2, int length, UTF-8 bytes (new) | int index (seen before)
+ * time       : double seconds, NaN if undefined
+ * attributes : int count | count * (string name | byte type | value)
+ * </pre>
+ *
+ * Every string (ids, modes, activity types, route descriptions) is written once and referenced by its
+ * number after that. Attributes of other types than strings, numbers, booleans and enums cannot be
+ * written; the snapshot then fails and the scenario is read from the XML files as before.
+ */
+final class ScenarioSnapshotWriter {
+
+	static final int MAGIC = 0x43534C52; // "RLSC" read as little-endian bytes
+	static final int VERSION = 1;
+
+	static final int NEW_STRING = -2;
+	static final int NULL_STRING = -1;
+
+	static final byte STRING = 0;
+	static final byte DOUBLE = 1;
+	static final byte INTEGER = 2;
+	static final byte LONG = 3;
+	static final byte BOOLEAN = 4;
+	static final byte ENUM = 5;
+
+	private final DataOutputStream out;
+	private final Map<String, Integer> strings = new HashMap<>();
+
+	ScenarioSnapshotWriter(OutputStream stream) {
+		this.out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+	}
+
+	void write(Scenario scenario, String key) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		writeString(key);
+		writeNetwork(scenario.getNetwork());
+		writeFacilities(scenario.getActivityFacilities());
+		writePopulation(scenario.getPopulation());
+		writeSchedule(scenario.getTransitSchedule());
+		writeVehicles(scenario.getTransitVehicles());
+		writeVehicles(scenario.getVehicles());
+		out.flush();
+	}
+
+	// ---- network ----
+
+	private void writeNetwork(Network network) throws IOException {
+		out.writeBoolean(network != null);
+		if (network == null) return;
+		out.writeDouble(network.getCapacityPeriod());
+		out.writeDouble(network.getEffectiveCellSize());
+		out.writeDouble(network.getEffectiveLaneWidth());
+		writeAttributes(network.getAttributes());
+
+		out.writeInt(network.getNodes().size());
+		for (Node node : network.getNodes().values()) {
+			writeId(node.getId());
+			writeCoord(node.getCoord());
+			writeAttributes(node.getAttributes());
+		}
+		out.writeInt(network.getLinks().size());
+		for (Link link : network.getLinks().values()) {
+			writeId(link.getId());
+			writeId(link.getFromNode().getId());
+			writeId(link.getToNode().getId());
+			out.writeDouble(link.getLength());
+			out.writeDouble(link.getFreespeed());
+			out.writeDouble(link.getCapacity());
+			out.writeDouble(link.getNumberOfLanes());
+			writeStrings(link.getAllowedModes());
+			writeAttributes(link.getAttributes());
+		}
+	}
+
+	// ---- facilities ----
+
+	private void writeFacilities(ActivityFacilities facilities) throws IOException {
+		out.writeBoolean(facilities != null);
+		if (facilities == null) return;
+		writeAttributes(facilities.getAttributes());
+		out.writeInt(facilities.getFacilities().size());
+		for (ActivityFacility facility : facilities.getFacilities().values()) {
+			writeId(facility.getId());
+			writeCoord(facility.getCoord());
+			writeId(facility.getLinkId());
+			out.writeInt(facility.getActivityOptions().size());
+			for (ActivityOption option : facility.getActivityOptions().values()) {
+				writeString(option.getType());
+				out.writeDouble(option.getCapacity());
+				out.writeInt(option.getOpeningTimes().size());
+				for (OpeningTime openingTime : option.getOpeningTimes()) {
+					out.writeDouble(openingTime.getStartTime());
+					out.writeDouble(openingTime.getEndTime());
+				}
+			}
+			writeAttributes(facility.getAttributes());
+		}
+	}
+
+	// ---- population ----
+
+	private void writePopulation(Population population) throws IOException {
+		out.writeBoolean(population != null);
+		if (population == null) return;
+		writeAttributes(population.getAttributes());
+		out.writeInt(population.getPersons().size());
+		for (Person person : population.getPersons().values()) {
+			writeId(person.getId());
+			writeAttributes(person.getAttributes());
+			List<? extends Plan> plans = person.getPlans();
+			out.writeInt(plans.size());
+			for (Plan plan : plans) {
+				out.writeBoolean(plan == person.getSelectedPlan());
+				Double score = plan.getScore();
+				out.writeDouble((score != null) ? score : Double.NaN);
+				writeString(plan.getType());
+				writeAttributes(plan.getAttributes());
+				out.writeInt(plan.getPlanElements().size());
+				for (PlanElement element : plan.getPlanElements()) {
+					if (element instanceof Activity) {
+						out.writeBoolean(true);
+						writeActivity((Activity) element);
+					} else {
+						out.writeBoolean(false);
+						writeLeg((Leg) element);
+					}
+				}
+			}
+		}
+	}
+
+	private void writeActivity(Activity activity) throws IOException {
+		writeString(activity.getType());
+		writeId(activity.getLinkId());
+		writeId(activity.getFacilityId());
+		writeCoord(activity.getCoord());
+		writeTime(activity.getStartTime());
+		writeTime(activity.getEndTime());
+		writeTime(activity.getMaximumDuration());
+		writeAttributes(activity.getAttributes());
+	}
+
+	private void writeLeg(Leg leg) throws IOException {
+		writeString(leg.getMode());
+		writeString(leg.getRoutingMode());
+		writeTime(leg.getDepartureTime());
+		writeTime(leg.getTravelTime());
+		writeAttributes(leg.getAttributes());
+		Route route = leg.getRoute();
+		out.writeBoolean(route != null);
+		if (route == null) return;
+		writeString(route.getRouteType());
+		writeId(route.getStartLinkId());
+		writeId(route.getEndLinkId());
+		writeString(route.getRouteDescription());
+		out.writeDouble(route.getDistance());
+		writeTime(route.getTravelTime());
+		writeId((route instanceof NetworkRoute) ? ((NetworkRoute) route).getVehicleId() : null);
+	}
+
+	// ---- transit ----
+
+	private void writeSchedule(TransitSchedule schedule) throws IOException {
+		out.writeBoolean(schedule != null);
+		if (schedule == null) return;
+		writeAttributes(schedule.getAttributes());
+		out.writeInt(schedule.getFacilities().size());
+		for (TransitStopFacility stop : schedule.getFacilities().values()) {
+			writeId(stop.getId());
+			writeCoord(stop.getCoord());
+			out.writeBoolean(stop.getIsBlockingLane());
+			writeId(stop.getLinkId());
+			writeString(stop.getName());
+			writeId(stop.getStopAreaId());
+			writeAttributes(stop.getAttributes());
+		}
+
+		out.writeInt(schedule.getTransitLines().size());
+		for (TransitLine line : schedule.getTransitLines().values()) {
+			writeId(line.getId());
+			writeString(line.getName());
+			writeAttributes(line.getAttributes());
+			out.writeInt(line.getRoutes().size());
+			for (TransitRoute route : line.getRoutes().values()) {
+				writeId(route.getId());
+				writeString(route.getTransportMode());
+				writeString(route.getDescription());
+				NetworkRoute networkRoute = route.getRoute();
+				out.writeBoolean(networkRoute != null);
+				if (networkRoute != null) {
+					writeId(networkRoute.getStartLinkId());
+					writeIds(networkRoute.getLinkIds());
+					writeId(networkRoute.getEndLinkId());
+				}
+				out.writeInt(route.getStops().size());
+				for (TransitRouteStop stop : route.getStops()) {
+					writeId(stop.getStopFacility().getId());
+					writeTime(stop.getArrivalOffset());
+					writeTime(stop.getDepartureOffset());
+					out.writeBoolean(stop.isAwaitDepartureTime());
+				}
+				writeAttributes(route.getAttributes());
+				out.writeInt(route.getDepartures().size());
+				for (Departure departure : route.getDepartures().values()) {
+					writeId(departure.getId());
+					out.writeDouble(departure.getDepartureTime());
+					writeId(departure.getVehicleId());
+				}
+			}
+		}
+
+		MinimalTransferTimes.MinimalTransferTimesIterator transfers = schedule.getMinimalTransferTimes().iterator();
+		while (transfers.hasNext()) {
+			transfers.next();
+			out.writeBoolean(true);
+			writeId(transfers.getFromStopId());
+			writeId(transfers.getToStopId());
+			out.writeDouble(transfers.getSeconds());
+		}
+		out.writeBoolean(false);
+	}
+
+	// ---- vehicles ----
+
+	private void writeVehicles(Vehicles vehicles) throws IOException {
+		out.writeBoolean(vehicles != null);
+		if (vehicles == null) return;
+		out.writeInt(vehicles.getVehicleTypes().size());
+		for (VehicleType type : vehicles.getVehicleTypes().values()) {
+			writeId(type.getId());
+			writeString(type.getDescription());
+			writeInteger(type.getCapacity().getSeats());
+			writeInteger(type.getCapacity().getStandingRoom());
+			out.writeDouble(type.getLength());
+			out.writeDouble(type.getWidth());
+			out.writeDouble(type.getMaximumVelocity());
+			out.writeDouble(type.getPcuEquivalents());
+			out.writeDouble(type.getFlowEfficiencyFactor());
+			writeString(type.getNetworkMode());
+			// access and egress times, door operation mode and the like
+			writeAttributes(type.getAttributes());
+		}
+		out.writeInt(vehicles.getVehicles().size());
+		for (Vehicle vehicle : vehicles.getVehicles().values()) {
+			writeId(vehicle.getId());
+			writeId(vehicle.getType().getId());
+			writeAttributes(vehicle.getAttributes());
+		}
+	}
+
+	// ---- values ----
+
+	private void writeId(Id<?> id) throws IOException {
+		writeString((id != null) ? id.toString() : null);
+	}
+
+	private void writeIds(List<? extends Id<?>> ids) throws IOException {
+		out.writeInt(ids.size());
+		for (Id<?> id : ids) writeId(id);
+	}
+
+	private void writeStrings(Collection<String> values) throws IOException {
+		out.writeInt(values.size());
+		for (String value : values) writeString(value);
+	}
+
+	void writeString(String value) throws IOException {
+		if (value == null) {
+			out.writeInt(NULL_STRING);
+			return;
+		}
+		Integer index = strings.get(value);
+		if (index != null) {
+			out.writeInt(index);
+			return;
+		}
+		strings.put(value, strings.size());
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(NEW_STRING);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private void writeCoord(Coord coord) throws IOException {
+		out.writeBoolean(coord != null);
+		if (coord == null) return;
+		out.writeDouble(coord.getX());
+		out.writeDouble(coord.getY());
+		out.writeBoolean(coord.hasZ());
+		if (coord.hasZ()) out.writeDouble(coord.getZ());
+	}
+
+	private void writeTime(OptionalTime time) throws IOException {
+		out.writeDouble(time.isDefined() ? time.seconds() : Double.NaN);
+	}
+
+	private void writeInteger(Integer value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) out.writeInt(value);
+	}
+
+	private void writeAttributes(Attributes attributes) throws IOException {
+		Map<String, Object> values = attributes.getAsMap();
+		out.writeInt(values.size());
+		for (Map.Entry<String, Object> entry : values.entrySet()) {
+			writeString(entry.getKey());
+			Object value = entry.getValue();
+			if (value instanceof String) {
+				out.writeByte(STRING);
+				writeString((String) value);
+			} else if (value instanceof Double) {
+				out.writeByte(DOUBLE);
+				out.writeDouble((Double) value);
+			} else if (value instanceof Integer) {
+				out.writeByte(INTEGER);
+				out.writeInt((Integer) value);
+			} else if (value instanceof Long) {
+				out.writeByte(LONG);
+				out.writeLong((Long) value);
+			} else if (value instanceof Boolean) {
+				out.writeByte(BOOLEAN);
+				out.writeBoolean((Boolean) value);
+			} else if (value instanceof Enum) {
+				out.writeByte(ENUM);
+				writeString(((Enum<?>) value).getDeclaringClass().getName());
+				writeString(((Enum<?>) value).name());
+			} else {
+				throw new IOException("Attribute " + entry.getKey() + " of type " + value.getClass().getName() + " cannot be written to a scenario snapshot");
+			}
+		}
+	}
+}
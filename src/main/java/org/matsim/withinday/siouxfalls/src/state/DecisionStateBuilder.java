@@ -0,0 +1,238 @@
+package org.matsim.withinday.siouxfalls.src.state;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.config.groups.ScoringConfigGroup.ActivityParams;
+import org.matsim.core.router.TripStructureUtils.Trip;
+import org.matsim.withinday.siouxfalls.src.policy.DecisionBatch;
+import org.matsim.withinday.siouxfalls.src.routing.ModeTravelTimeEstimator;
+
+/**
+ * Fills the state rows of a {@link DecisionBatch} following a {@link StateSchema}.
+ *
+ * Everything that does not change during the mobsim (activity parameters, carAvail, link coordinates)
+ * is looked up once into arrays and maps at construction. Per time step the builder takes the link
+ * congestion snapshot with the first row, so steps without decisions cost nothing; per row it only
+ * writes floats into the preallocated batch. The travel time estimates of V3 are cached per origin and time bin by the
+ * {@link ModeTravelTimeEstimator}, the trip rewards of V4 are kept up to date by the
+ * {@link TripRewardTracker}.
+ */
+public final class DecisionStateBuilder {
+
+	// V2 columns
+	private static final int TIME = 0;
+	private static final int DEPARTURE = 1;
+	private static final int CURRENT_ACTION = 2;
+	private static final int ACTIVITY_ELAPSED = 3;
+	private static final int ACTIVITY_DURATION = 4;
+	private static final int NEXT_ACTIVITY_DURATION = 5;
+	private static final int NEXT_ACTIVITY_LATEST_START = 6;
+	private static final int NEXT_ACTIVITY_CLOSING = 7;
+	private static final int CAR_AVAILABLE = 8;
+	private static final int BEELINE = 9;
+	private static final int ORIGIN_SPEED_RATIO = 10;
+	private static final int ORIGIN_DENSITY = 11;
+	private static final int DESTINATION_SPEED_RATIO = 12;
+	private static final int DESTINATION_DENSITY = 13;
+	private static final int NETWORK_SPEED_RATIO = 14;
+	// V4
+	private static final String PREVIOUS_TRIP_REWARD = "previous_trip_reward";
+
+	// Slack of an activity without opening restrictions, in hours
+	static final float UNRESTRICTED = 24.0f;
+
+	// per activity type: typical duration, latest start, closing time (seconds, NaN if undefined)
+	private static final int TYPICAL_DURATION = 0;
+	private static final int LATEST_START = 1;
+	private static final int CLOSING_TIME = 2;
+	private static final double[] UNKNOWN_TYPE = { Double.NaN, Double.NaN, Double.NaN };
+
+	private final StateSchema schema;
+	private final LinkCongestionTracker congestion;
+	private final Map<String, double[]> activityTypes;
+	private final float[] carAvailable;
+	private final double[] linkX;
+	private final double[] linkY;
+	private final ModeTravelTimeEstimator estimator;
+	private final double[] travelTimes;
+	private final TripRewardTracker rewards;
+	private final int rewardColumn;
+
+	private LinkCongestionTracker.Snapshot snapshot;
+
+	/** The schema V1 needs neither the scenario nor the congestion. */
+	public static DecisionStateBuilder v1() {
+		return new DecisionStateBuilder(StateSchema.V1, null, null, null, new HashMap<>(), new float[0], new double[0], new double[0]);
+	}
+
+	/**
+	 * @param congestion null for V1
+	 * @param estimator travel times of the candidate modes, in the order of the action codes (V3), may be null before V3
+	 * @param rewards rewards of the finished trips (V4), may be null before V4
+	 */
+	public static DecisionStateBuilder create(StateSchema schema, Scenario scenario, LinkCongestionTracker congestion, ModeTravelTimeEstimator estimator,
+			TripRewardTracker rewards) {
+		return new DecisionStateBuilder(schema, congestion, estimator, rewards,
+				getActivityTypes(scenario), getCarAvailability(scenario), getLinkCoordinates(scenario, true), getLinkCoordinates(scenario, false));
+	}
+
+	DecisionStateBuilder(StateSchema schema, LinkCongestionTracker congestion, ModeTravelTimeEstimator estimator, TripRewardTracker rewards,
+			Map<String, double[]> activityTypes, float[] carAvailable, double[] linkX, double[] linkY) {
+		if (schema != StateSchema.V1 && congestion == null) throw new IllegalArgumentException("State schema " + schema + " needs the link congestion");
+		if (schema.hasActionTravelTimes() && estimator == null) throw new IllegalArgumentException("State schema " + schema + " needs the mode travel time estimates");
+		this.rewardColumn = schema.getColumn(PREVIOUS_TRIP_REWARD);
+		if (this.rewardColumn >= 0 && rewards == null) throw new IllegalArgumentException("State schema " + schema + " needs the trip rewards");
+		this.schema = schema;
+		this.congestion = congestion;
+		this.estimator = estimator;
+		this.travelTimes = new double[(estimator != null) ? estimator.getModes().size() : 0];
+		this.rewards = rewards;
+		this.activityTypes = activityTypes;
+		this.carAvailable = carAvailable;
+		this.linkX = linkX;
+		this.linkY = linkY;
+	}
+
+	private static Map<String, double[]> getActivityTypes(Scenario scenario) {
+		Map<String, double[]> types = new HashMap<>();
+		for (ActivityParams params : scenario.getConfig().scoring().getActivityParams()) {
+			types.put(params.getActivityType(), new double[] {
+					params.getTypicalDuration().orElse(Double.NaN),
+					params.getLatestStartTime().orElse(Double.NaN),
+					params.getClosingTime().orElse(Double.NaN) });
+		}
+		return types;
+	}
+
+	// Same convention as the sampling: carAvail "never" means no car, everything else (also unset) a car
+	private static float[] getCarAvailability(Scenario scenario) {
+		float[] values = new float[Id.getNumberOfIds(Person.class)];
+		for (Person person : scenario.getPopulation().getPersons().values()) {
+			Object carAvail = person.getAttributes().getAttribute("carAvail");
+			values[person.getId().index()] = "never".equals(carAvail) ? 0.0f : 1.0f;
+		}
+		return values;
+	}
+
+	private static double[] getLinkCoordinates(Scenario scenario, boolean x) {
+		double[] values = new double[Id.getNumberOfIds(Link.class)];
+		for (Link link : scenario.getNetwork().getLinks().values()) {
+			Coord coord = link.getCoord();
+			values[link.getId().index()] = x ? coord.getX() : coord.getY();
+		}
+		return values;
+	}
+
+	public StateSchema getSchema() {
+		return schema;
+	}
+
+	public int getWidth() {
+		return schema.getWidth() + (schema.hasActionTravelTimes() ? travelTimes.length : 0);
+	}
+
+	/** Drops the network conditions of the previous time step. Called on the engine thread. */
+	public void beginStep(double time) {
+		this.snapshot = null;
+	}
+
+	/**
+	 * Writes the state of an agent that is about to leave <code>currentActivity</code> for
+	 * <code>trip</code> into the row.
+	 */
+	public void fill(DecisionBatch batch, int row, double time, double departureTime, Activity currentActivity, Trip trip, int personIndex) {
+		if (this.schema == StateSchema.V1) {
+			fillV1(batch, row, time, departureTime);
+			return;
+		}
+		Activity destination = trip.getDestinationActivity();
+		double beeline = getDistance(currentActivity, destination);
+		fillV2(batch, row, time, departureTime,
+				currentActivity.getStartTime().orElse(0), currentActivity.getType(), destination.getType(),
+				personIndex, currentActivity.getLinkId().index(), destination.getLinkId().index(), beeline);
+		if (this.schema.hasActionTravelTimes()) {
+			// a trip that should have started already starts now
+			this.estimator.estimate(currentActivity.getLinkId(), destination.getLinkId(), Math.max(time, departureTime), this.travelTimes);
+			fillTravelTimes(batch, row, this.travelTimes);
+		}
+		if (this.rewardColumn >= 0) fillReward(batch, row, this.rewards.getLastTripReward(personIndex));
+	}
+
+	private void fillV1(DecisionBatch batch, int row, double time, double departureTime) {
+		batch.setState(row, 0, (float) time);
+		batch.setState(row, 1, (float) departureTime);
+		batch.setState(row, 2, batch.getCurrentAction(row));
+	}
+
+	void fillV2(DecisionBatch batch, int row, double time, double departureTime, double activityStartTime,
+			String activityType, String nextActivityType, int personIndex, int originLink, int destinationLink, double beeline) {
+		double[] current = activityTypes.getOrDefault(activityType, UNKNOWN_TYPE);
+		double[] next = activityTypes.getOrDefault(nextActivityType, UNKNOWN_TYPE);
+
+		batch.setState(row, TIME, hours(time));
+		batch.setState(row, DEPARTURE, hours(departureTime));
+		batch.setState(row, CURRENT_ACTION, batch.getCurrentAction(row));
+		batch.setState(row, ACTIVITY_ELAPSED, hours(Math.max(0, time - activityStartTime)));
+		batch.setState(row, ACTIVITY_DURATION, hoursOrZero(current[TYPICAL_DURATION]));
+		batch.setState(row, NEXT_ACTIVITY_DURATION, hoursOrZero(next[TYPICAL_DURATION]));
+		batch.setState(row, NEXT_ACTIVITY_LATEST_START, slack(next[LATEST_START], departureTime));
+		batch.setState(row, NEXT_ACTIVITY_CLOSING, slack(next[CLOSING_TIME], departureTime));
+		batch.setState(row, CAR_AVAILABLE, (personIndex < carAvailable.length) ? carAvailable[personIndex] : 1.0f);
+		batch.setState(row, BEELINE, (float) (beeline / 1000.0));
+
+		LinkCongestionTracker.Snapshot conditions = this.snapshot;
+		if (conditions == null) {
+			conditions = this.congestion.getSnapshot();
+			this.snapshot = conditions;
+		}
+		batch.setState(row, ORIGIN_SPEED_RATIO, (float) conditions.getSpeedRatio(originLink));
+		batch.setState(row, ORIGIN_DENSITY, (float) conditions.getDensity(originLink));
+		batch.setState(row, DESTINATION_SPEED_RATIO, (float) conditions.getSpeedRatio(destinationLink));
+		batch.setState(row, DESTINATION_DENSITY, (float) conditions.getDensity(destinationLink));
+		batch.setState(row, NETWORK_SPEED_RATIO, (float) conditions.getNetworkSpeedRatio());
+	}
+
+	void fillTravelTimes(DecisionBatch batch, int row, double[] travelTimes) {
+		for (int action = 0; action < travelTimes.length; action++) {
+			double travelTime = travelTimes[action];
+			float value;
+			if (Double.isNaN(travelTime)) value = StateSchema.NO_ESTIMATE;
+			else if (Double.isInfinite(travelTime)) value = StateSchema.UNREACHABLE_H;
+			else value = Math.min(hours(travelTime), StateSchema.UNREACHABLE_H);
+			batch.setState(row, schema.getWidth() + action, value);
+		}
+	}
+
+	void fillReward(DecisionBatch batch, int row, double reward) {
+		batch.setState(row, this.rewardColumn, Double.isNaN(reward) ? 0.0f : (float) reward);
+	}
+
+	private double getDistance(Activity from, Activity to) {
+		Coord fromCoord = from.getCoord();
+		Coord toCoord = to.getCoord();
+		double fromX = (fromCoord != null) ? fromCoord.getX() : linkX[from.getLinkId().index()];
+		double fromY = (fromCoord != null) ? fromCoord.getY() : linkY[from.getLinkId().index()];
+		double toX = (toCoord != null) ? toCoord.getX() : linkX[to.getLinkId().index()];
+		double toY = (toCoord != null) ? toCoord.getY() : linkY[to.getLinkId().index()];
+		return Math.hypot(toX - fromX, toY - fromY);
+	}
+
+	private static float hours(double seconds) {
+		return (float) (seconds / 3600.0);
+	}
+
+	private static float hoursOrZero(double seconds) {
+		return Double.isNaN(seconds) ? 0.0f : hours(seconds);
+	}
+
+	private static float slack(double limit, double departureTime) {
+		return Double.isNaN(limit) ? UNRESTRICTED : hours(limit - departureTime);
+	}
+}
@@ -0,0 +1,293 @@
+package org.matsim.withinday.siouxfalls.src.state;
+
+import java.util.Arrays;
+
+import jakarta.inject.Inject;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
+import org.matsim.api.core.v01.events.handler.LinkLeaveEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleEntersTrafficEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleLeavesTrafficEventHandler;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.mobsim.framework.events.MobsimBeforeSimStepEvent;
+import org.matsim.core.mobsim.framework.events.MobsimInitializedEvent;
+import org.matsim.core.mobsim.framework.listeners.MobsimBeforeSimStepListener;
+import org.matsim.core.mobsim.framework.listeners.MobsimInitializedListener;
+import org.matsim.vehicles.Vehicle;
+
+/**
+ * Live traffic conditions per link: vehicles on the link, a moving average of the link travel times
+ * and the outflow of the last complete time window. Kept in primitive arrays indexed by
+ * <code>Id&lt;Link&gt;.index()</code> and updated from the link events without allocating.
+ *
+ * The events of a time step are all handled before the next step starts. The arrays are copied into
+ * a {@link Snapshot} by the first {@link #getSnapshot()} of a time step, which the within-day
+ * identification calls before the engines move the agents of the step; steps without decisions copy
+ * nothing. There are two snapshot buffers that take turns, so a snapshot must not be kept beyond the
+ * time step it was taken for.
+ */
+public final class LinkCongestionTracker implements LinkEnterEventHandler, LinkLeaveEventHandler,
+		VehicleEntersTrafficEventHandler, VehicleLeavesTrafficEventHandler, MobsimInitializedListener, MobsimBeforeSimStepListener {
+
+	// Weight of the newest travel time in the moving average
+	static final double TRAVEL_TIME_WEIGHT = 0.2;
+	static final double FLOW_WINDOW = 300.0;
+	private static final double CELL_SIZE = 7.5;
+
+	private final double[] freeTravelTimes;
+	private final double[] storageCapacities;
+
+	// Written by the events thread only
+	private final int[] occupancy;
+	private final double[] travelTimes;
+	private final double[] windowStarts;
+	private final int[] windowCounts;
+	private final int[] previousCounts;
+	private double[] vehicleEnterTimes = new double[0];
+
+	private final Snapshot[] buffers = new Snapshot[2];
+	private int nextBuffer = 0;
+	private volatile Snapshot current;
+	// the step that has started without a snapshot yet, NaN once it is taken
+	private volatile double pendingTime = Double.NaN;
+
+	@Inject
+	public LinkCongestionTracker(Scenario scenario) {
+		this(scenario.getNetwork());
+	}
+
+	public LinkCongestionTracker(Network network) {
+		this(getFreeTravelTimes(network), getStorageCapacities(network));
+	}
+
+	LinkCongestionTracker(double[] freeTravelTimes, double[] storageCapacities) {
+		int links = freeTravelTimes.length;
+		this.freeTravelTimes = freeTravelTimes;
+		this.storageCapacities = storageCapacities;
+		this.occupancy = new int[links];
+		this.travelTimes = new double[links];
+		this.windowStarts = new double[links];
+		this.windowCounts = new int[links];
+		this.previousCounts = new int[links];
+		for (int i = 0; i < buffers.length; i++) buffers[i] = new Snapshot(this, links);
+		clear();
+		publish(0);
+	}
+
+	private static double[] getFreeTravelTimes(Network network) {
+		double[] values = new double[Id.getNumberOfIds(Link.class)];
+		for (Link link : network.getLinks().values()) {
+			values[link.getId().index()] = link.getLength() / link.getFreespeed();
+		}
+		return values;
+	}
+
+	// Approximately what the QSim allows on the link, with the default storage capacity factor
+	private static double[] getStorageCapacities(Network network) {
+		double[] values = new double[Id.getNumberOfIds(Link.class)];
+		for (Link link : network.getLinks().values()) {
+			values[link.getId().index()] = Math.max(1.0, link.getLength() * link.getNumberOfLanes() / CELL_SIZE);
+		}
+		return values;
+	}
+
+	private void clear() {
+		Arrays.fill(occupancy, 0);
+		System.arraycopy(freeTravelTimes, 0, travelTimes, 0, travelTimes.length);
+		Arrays.fill(windowStarts, 0);
+		Arrays.fill(windowCounts, 0);
+		Arrays.fill(previousCounts, 0);
+		int vehicles = Math.max(vehicleEnterTimes.length, Id.getNumberOfIds(Vehicle.class));
+		if (vehicleEnterTimes.length < vehicles) vehicleEnterTimes = new double[vehicles];
+		Arrays.fill(vehicleEnterTimes, Double.NaN);
+	}
+
+	/** Copies the live arrays into the next snapshot buffer and makes it the current snapshot. */
+	void publish(double time) {
+		Snapshot snapshot = buffers[nextBuffer];
+		nextBuffer ^= 1;
+		System.arraycopy(occupancy, 0, snapshot.occupancy, 0, occupancy.length);
+		System.arraycopy(travelTimes, 0, snapshot.travelTimes, 0, travelTimes.length);
+		System.arraycopy(windowStarts, 0, snapshot.windowStarts, 0, windowStarts.length);
+		System.arraycopy(windowCounts, 0, snapshot.windowCounts, 0, windowCounts.length);
+		System.arraycopy(previousCounts, 0, snapshot.previousCounts, 0, previousCounts.length);
+		snapshot.time = time;
+		snapshot.networkSpeedRatio = networkSpeedRatio();
+		this.current = snapshot;
+		this.pendingTime = Double.NaN;
+	}
+
+	private double networkSpeedRatio() {
+		double sum = 0;
+		int links = 0;
+		for (int link = 0; link < travelTimes.length; link++) {
+			double travelTime = travelTimes[link];
+			if (travelTime <= 0) continue;
+			sum += Math.min(1.0, freeTravelTimes[link] / travelTime);
+			links++;
+		}
+		return (links > 0) ? sum / links : 1.0;
+	}
+
+	/** Starts a time step, its snapshot is taken when it is asked for. */
+	void beginStep(double time) {
+		this.pendingTime = time;
+	}
+
+	/** The conditions at the start of the current time step. Valid until the step is over. */
+	public Snapshot getSnapshot() {
+		if (!Double.isNaN(pendingTime)) publishPending();
+		return current;
+	}
+
+	private synchronized void publishPending() {
+		double time = pendingTime;
+		if (!Double.isNaN(time)) publish(time);
+	}
+
+	@Override
+	public void notifyMobsimInitialized(MobsimInitializedEvent e) {
+		clear();
+		publish(0);
+	}
+
+	@Override
+	public void notifyMobsimBeforeSimStep(MobsimBeforeSimStepEvent e) {
+		beginStep(e.getSimulationTime());
+	}
+
+	@Override
+	public void reset(int iteration) {
+		clear();
+	}
+
+	@Override
+	public void handleEvent(LinkEnterEvent event) {
+		occupancy[event.getLinkId().index()]++;
+		setEnterTime(event.getVehicleId().index(), event.getTime());
+	}
+
+	@Override
+	public void handleEvent(LinkLeaveEvent event) {
+		int link = event.getLinkId().index();
+		if (occupancy[link] > 0) occupancy[link]--;
+		int vehicle = event.getVehicleId().index();
+		double enterTime = getEnterTime(vehicle);
+		// Vehicles that entered traffic on this link did not travel all of it
+		if (!Double.isNaN(enterTime)) recordTravelTime(link, event.getTime() - enterTime, event.getTime());
+		setEnterTime(vehicle, Double.NaN);
+	}
+
+	@Override
+	public void handleEvent(VehicleEntersTrafficEvent event) {
+		occupancy[event.getLinkId().index()]++;
+		setEnterTime(event.getVehicleId().index(), Double.NaN);
+	}
+
+	@Override
+	public void handleEvent(VehicleLeavesTrafficEvent event) {
+		int link = event.getLinkId().index();
+		if (occupancy[link] > 0) occupancy[link]--;
+		setEnterTime(event.getVehicleId().index(), Double.NaN);
+	}
+
+	private void recordTravelTime(int link, double travelTime, double time) {
+		travelTimes[link] += TRAVEL_TIME_WEIGHT * (travelTime - travelTimes[link]);
+		if (time >= windowStarts[link] + FLOW_WINDOW) {
+			previousCounts[link] = (time < windowStarts[link] + 2 * FLOW_WINDOW) ? windowCounts[link] : 0;
+			windowCounts[link] = 0;
+			windowStarts[link] = Math.floor(time / FLOW_WINDOW) * FLOW_WINDOW;
+		}
+		windowCounts[link]++;
+	}
+
+	private double getEnterTime(int vehicle) {
+		return (vehicle < vehicleEnterTimes.length) ? vehicleEnterTimes[vehicle] : Double.NaN;
+	}
+
+	private void setEnterTime(int vehicle, double time) {
+		if (vehicle >= vehicleEnterTimes.length) {
+			// Vehicles created after the start of the mobsim (rare)
+			int length = vehicleEnterTimes.length;
+			vehicleEnterTimes = Arrays.copyOf(vehicleEnterTimes, Math.max(vehicle + 1, 2 * length));
+			Arrays.fill(vehicleEnterTimes, length, vehicleEnterTimes.length, Double.NaN);
+		}
+		vehicleEnterTimes[vehicle] = time;
+	}
+
+	/** The link conditions at the start of one time step, indexed by <code>Id&lt;Link&gt;.index()</code>. */
+	public static final class Snapshot {
+		private final LinkCongestionTracker tracker;
+		private final int[] occupancy;
+		private final double[] travelTimes;
+		private final double[] windowStarts;
+		private final int[] windowCounts;
+		private final int[] previousCounts;
+		private double time;
+		private double networkSpeedRatio = 1.0;
+
+		private Snapshot(LinkCongestionTracker tracker, int links) {
+			this.tracker = tracker;
+			this.occupancy = new int[links];
+			this.travelTimes = new double[links];
+			this.windowStarts = new double[links];
+			this.windowCounts = new int[links];
+			this.previousCounts = new int[links];
+		}
+
+		public double getTime() {
+			return time;
+		}
+
+		public int getLinkCount() {
+			return occupancy.length;
+		}
+
+		/** Vehicles on the link. */
+		public int getOccupancy(int link) {
+			return occupancy[link];
+		}
+
+		/** Occupancy relative to the storage capacity of the link. */
+		public double getDensity(int link) {
+			return occupancy[link] / tracker.storageCapacities[link];
+		}
+
+		/** Moving average of the travel times of the vehicles that left the link, free speed at first. */
+		public double getTravelTime(int link) {
+			return travelTimes[link];
+		}
+
+		/** Free speed travel time over the current travel time, 1 for an empty link. */
+		public double getSpeedRatio(int link) {
+			double travelTime = travelTimes[link];
+			return (travelTime > 0) ? Math.min(1.0, tracker.freeTravelTimes[link] / travelTime) : 1.0;
+		}
+
+		/** Mean speed ratio over all links with a travel time. */
+		public double getNetworkSpeedRatio() {
+			return networkSpeedRatio;
+		}
+
+		/** Vehicles per hour that left the link in the last complete five minute window. */
+		public double getFlow(int link) {
+			double elapsed = time - windowStarts[link];
+			int count;
+			if (elapsed < FLOW_WINDOW) {
+				count = previousCounts[link];
+			} else if (elapsed < 2 * FLOW_WINDOW) {
+				count = windowCounts[link];
+			} else {
+				count = 0;
+			}
+			return count * 3600.0 / FLOW_WINDOW;
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package org.matsim.withinday.siouxfalls.src.state;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.matsim.withinday.siouxfalls.src.policy.ModeActions;
+
+/**
+ * Versioned layout of the state rows the policy receives. A version is never changed once released, a
+ * new feature means a new version, so that trained policies and recorded logs keep their meaning. The
+ * policy server can check the width of every request (see DecisionBatchCodec) against the version it
+ * was trained for.
+ */
+public enum StateSchema {
+
+	/** The first prototype: simulation time and planned departure in seconds, code of the current mode. */
+	V1(false, "time_s", "departure_s", "current_action"),
+
+	/**
+	 * Times in hours, distances in km. Schedule constraints come from the activity parameters of the
+	 * scoring config, the network conditions from the {@link LinkCongestionTracker} snapshot at the
+	 * start of the time step.
+	 */
+	V2(false, "time_h", "departure_h", "current_action",
+			"activity_elapsed_h", "activity_typical_duration_h",
+			"next_activity_typical_duration_h", "next_activity_latest_start_slack_h", "next_activity_closing_slack_h",
+			"car_available", "beeline_km",
+			"origin_speed_ratio", "origin_density", "destination_speed_ratio", "destination_density",
+			"network_speed_ratio"),
+
+	/**
+	 * V2 followed by the estimated travel time of every action, in hours and in the order of the
+	 * {@link ModeActions} ("travel_time_&lt;mode&gt;_h"). See ModeTravelTimeEstimator. A mode that cannot
+	 * reach the destination gets {@link #UNREACHABLE_H}, a mode without an estimate gets
+	 * {@link #NO_ESTIMATE}.
+	 */
+	V3(true, "time_h", "departure_h", "current_action",
+			"activity_elapsed_h", "activity_typical_duration_h",
+			"next_activity_typical_duration_h", "next_activity_latest_start_slack_h", "next_activity_closing_slack_h",
+			"car_available", "beeline_km",
+			"origin_speed_ratio", "origin_density", "destination_speed_ratio", "destination_density",
+			"network_speed_ratio"),
+
+	/**
+	 * V3 with the reward of the last trip of the agent (see TripRewardTracker), in utils and 0 before
+	 * its first trip. Decided at the end of every activity, this is the reward of the trip that
+	 * followed its previous decision.
+	 */
+	V4(true, "time_h", "departure_h", "current_action",
+			"activity_elapsed_h", "activity_typical_duration_h",
+			"next_activity_typical_duration_h", "next_activity_latest_start_slack_h", "next_activity_closing_slack_h",
+			"car_available", "beeline_km",
+			"origin_speed_ratio", "origin_density", "destination_speed_ratio", "destination_density",
+			"network_speed_ratio", "previous_trip_reward");
+
+	public static final float UNREACHABLE_H = 24.0f;
+	public static final float NO_ESTIMATE = -1.0f;
+
+	private final boolean actionTravelTimes;
+	private final String[] columns;
+
+	StateSchema(boolean actionTravelTimes, String... columns) {
+		this.actionTravelTimes = actionTravelTimes;
+		this.columns = columns;
+	}
+
+	/** @return whether the version has one travel time column per action after its fixed columns */
+	public boolean hasActionTravelTimes() {
+		return actionTravelTimes;
+	}
+
+	/** @return the number of fixed columns, without the per action columns */
+	public int getWidth() {
+		return columns.length;
+	}
+
+	public int getWidth(ModeActions actions) {
+		return columns.length + (actionTravelTimes ? actions.size() : 0);
+	}
+
+	/** @return the fixed columns, without the per action columns */
+	public List<String> getColumns() {
+		return Arrays.asList(columns);
+	}
+
+	public List<String> getColumns(ModeActions actions) {
+		List<String> all = new ArrayList<>(Arrays.asList(columns));
+		if (actionTravelTimes) {
+			for (String mode : actions.getModes()) all.add("travel_time_" + mode + "_h");
+		}
+		return all;
+	}
+
+	/**
+	 * @return whether the column changes with the simulation time alone (the clock and the time spent
+	 * at the activity), not with the situation of the agent
+	 */
+	public boolean isClockColumn(int column) {
+		if (column < 0 || column >= columns.length) return false;
+		String name = columns[column];
+		return name.equals("time_s") || name.equals("time_h") || name.equals("activity_elapsed_h");
+	}
+
+	/** @return the fixed column of the feature or -1 if this version does not have it */
+	public int getColumn(String name) {
+		for (int i = 0; i < columns.length; i++) {
+			if (columns[i].equals(name)) return i;
+		}
+		return -1;
+	}
+}
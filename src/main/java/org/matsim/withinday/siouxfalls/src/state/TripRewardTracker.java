@@ -0,0 +1,342 @@
+package org.matsim.withinday.siouxfalls.src.state;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import jakarta.inject.Inject;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.events.ActivityEndEvent;
+import org.matsim.api.core.v01.events.ActivityStartEvent;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.PersonArrivalEvent;
+import org.matsim.api.core.v01.events.PersonDepartureEvent;
+import org.matsim.api.core.v01.events.PersonEntersVehicleEvent;
+import org.matsim.api.core.v01.events.PersonLeavesVehicleEvent;
+import org.matsim.api.core.v01.events.PersonStuckEvent;
+import org.matsim.api.core.v01.events.handler.ActivityEndEventHandler;
+import org.matsim.api.core.v01.events.handler.ActivityStartEventHandler;
+import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
+import org.matsim.api.core.v01.events.handler.PersonArrivalEventHandler;
+import org.matsim.api.core.v01.events.handler.PersonDepartureEventHandler;
+import org.matsim.api.core.v01.events.handler.PersonEntersVehicleEventHandler;
+import org.matsim.api.core.v01.events.handler.PersonLeavesVehicleEventHandler;
+import org.matsim.api.core.v01.events.handler.PersonStuckEventHandler;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.api.experimental.events.TeleportationArrivalEvent;
+import org.matsim.core.api.experimental.events.handler.TeleportationArrivalEventHandler;
+import org.matsim.core.config.groups.ScoringConfigGroup;
+import org.matsim.core.config.groups.ScoringConfigGroup.ActivityParams;
+import org.matsim.core.config.groups.ScoringConfigGroup.ModeParams;
+import org.matsim.core.router.TripStructureUtils;
+import org.matsim.vehicles.Vehicle;
+
+/**
+ * Reward of every trip of the population, accumulated from the events while the agents travel. A trip
+ * runs from the end of an activity to the start of the next one that is not a stage activity, its
+ * reward is final in the time step the agent arrives.
+ *
+ * The reward follows the leg scoring of the <code>scoring</code> config (default subpopulation): per
+ * leg the mode constant, the travel time with the marginal utility of traveling of the mode and the
+ * distance with its marginal utility of distance and monetary distance rate. Travel time is also
+ * charged with the marginal utility of performing, the activity time it costs. Pt waiting up to the
+ * first boarding of a leg counts with the marginal utility of waiting for pt, every further pt leg
+ * of a trip is a line switch. Arriving after the latest start time of the activity costs the late
+ * arrival penalty. The distance of network legs (also pt) is the length of the links entered in a
+ * vehicle, teleported legs take the distance of their teleportation.
+ *
+ * Everything is kept in primitive arrays indexed by <code>Id.index()</code> and updated from the
+ * events without allocating. Like the {@link LinkCongestionTracker}, the arrays are written by the
+ * events thread only; the decision states read the reward of a trip that has ended before.
+ */
+public final class TripRewardTracker implements ActivityEndEventHandler, ActivityStartEventHandler, PersonDepartureEventHandler,
+		PersonArrivalEventHandler, PersonStuckEventHandler, PersonEntersVehicleEventHandler, PersonLeavesVehicleEventHandler,
+		LinkEnterEventHandler, TeleportationArrivalEventHandler {
+
+	// per mode: constant, utils per second of travel, utils per meter
+	private static final int CONSTANT = 0;
+	private static final int TRAVELING = 1;
+	private static final int DISTANCE = 2;
+	private static final double[] UNKNOWN_MODE = { 0.0, 0.0, 0.0 };
+
+	private final Map<String, double[]> modeParams;
+	private final Map<String, Double> latestStartTimes;
+	private final double performing;
+	private final double lateArrival;
+	private final double waitingPt;
+	private final double lineSwitch;
+	private final double[] linkLengths;
+	private final boolean[] members;
+
+	// per person, NaN while not on a trip
+	private double[] tripRewards;
+	private double[] legDepartures;
+	private double[] legDistances;
+	private double[][] legModes;
+	private boolean[] legIsPt;
+	private boolean[] boarded;
+	private int[] ptLegs;
+	// per person, results of the last trip
+	private double[] lastRewards;
+	private double[] lastTripEnds;
+	private int[] completedTrips;
+
+	// per vehicle, persons of the population inside
+	private int[][] occupants = new int[0][];
+	private int[] occupantCounts = new int[0];
+
+	private long trips = 0;
+	private long stuckTrips = 0;
+	private double rewardSum = 0;
+
+	@Inject
+	public TripRewardTracker(Scenario scenario) {
+		this(getModeParams(scenario.getConfig().scoring()), getLatestStartTimes(scenario.getConfig().scoring()),
+				scenario.getConfig().scoring().getPerforming_utils_hr() / 3600.0,
+				scenario.getConfig().scoring().getLateArrival_utils_hr() / 3600.0,
+				scenario.getConfig().scoring().getMarginalUtlOfWaitingPt_utils_hr() / 3600.0,
+				scenario.getConfig().scoring().getUtilityOfLineSwitch(),
+				getLinkLengths(scenario), getMembers(scenario));
+	}
+
+	/**
+	 * @param modeParams per mode: constant, utils per second of travel, utils per meter
+	 * @param latestStartTimes per activity type, in seconds
+	 * @param performing utils per second of activity time lost while traveling
+	 * @param lateArrival utils per second of arriving late, normally negative
+	 * @param members per person index, whether the person is traced (not a transit driver)
+	 */
+	TripRewardTracker(Map<String, double[]> modeParams, Map<String, Double> latestStartTimes, double performing, double lateArrival,
+			double waitingPt, double lineSwitch, double[] linkLengths, boolean[] members) {
+		this.modeParams = modeParams;
+		this.latestStartTimes = latestStartTimes;
+		this.performing = performing;
+		this.lateArrival = lateArrival;
+		this.waitingPt = waitingPt;
+		this.lineSwitch = lineSwitch;
+		this.linkLengths = linkLengths;
+		this.members = members;
+
+		int persons = members.length;
+		this.tripRewards = new double[persons];
+		this.legDepartures = new double[persons];
+		this.legDistances = new double[persons];
+		this.legModes = new double[persons][];
+		this.legIsPt = new boolean[persons];
+		this.boarded = new boolean[persons];
+		this.ptLegs = new int[persons];
+		this.lastRewards = new double[persons];
+		this.lastTripEnds = new double[persons];
+		this.completedTrips = new int[persons];
+		reset(0);
+	}
+
+	private static Map<String, double[]> getModeParams(ScoringConfigGroup scoring) {
+		Map<String, double[]> modes = new HashMap<>();
+		for (ModeParams params : scoring.getModes().values()) {
+			modes.put(params.getMode(), new double[] {
+					params.getConstant(),
+					params.getMarginalUtilityOfTraveling() / 3600.0,
+					params.getMarginalUtilityOfDistance() + params.getMonetaryDistanceRate() * scoring.getMarginalUtilityOfMoney() });
+		}
+		return modes;
+	}
+
+	private static Map<String, Double> getLatestStartTimes(ScoringConfigGroup scoring) {
+		Map<String, Double> times = new HashMap<>();
+		for (ActivityParams params : scoring.getActivityParams()) {
+			if (params.getLatestStartTime().isDefined()) times.put(params.getActivityType(), params.getLatestStartTime().seconds());
+		}
+		return times;
+	}
+
+	private static double[] getLinkLengths(Scenario scenario) {
+		double[] lengths = new double[Id.getNumberOfIds(Link.class)];
+		for (Link link : scenario.getNetwork().getLinks().values()) lengths[link.getId().index()] = link.getLength();
+		return lengths;
+	}
+
+	private static boolean[] getMembers(Scenario scenario) {
+		boolean[] members = new boolean[Id.getNumberOfIds(Person.class)];
+		for (Id<Person> personId : scenario.getPopulation().getPersons().keySet()) members[personId.index()] = true;
+		return members;
+	}
+
+	@Override
+	public void reset(int iteration) {
+		Arrays.fill(tripRewards, Double.NaN);
+		Arrays.fill(legDepartures, Double.NaN);
+		Arrays.fill(legModes, null);
+		Arrays.fill(lastRewards, Double.NaN);
+		Arrays.fill(lastTripEnds, Double.NaN);
+		Arrays.fill(completedTrips, 0);
+		Arrays.fill(occupantCounts, 0);
+		trips = 0;
+		stuckTrips = 0;
+		rewardSum = 0;
+	}
+
+	@Override
+	public void handleEvent(ActivityEndEvent event) {
+		int person = member(event.getPersonId());
+		if (person < 0 || TripStructureUtils.isStageActivityType(event.getActType())) return;
+		tripRewards[person] = 0;
+		ptLegs[person] = 0;
+	}
+
+	@Override
+	public void handleEvent(PersonDepartureEvent event) {
+		int person = member(event.getPersonId());
+		if (person < 0 || Double.isNaN(tripRewards[person])) return;
+		legDepartures[person] = event.getTime();
+		legDistances[person] = 0;
+		legModes[person] = modeParams.getOrDefault(event.getLegMode(), UNKNOWN_MODE);
+		legIsPt[person] = TransportMode.pt.equals(event.getLegMode());
+		boarded[person] = false;
+		if (legIsPt[person] && ptLegs[person]++ > 0) tripRewards[person] += lineSwitch;
+	}
+
+	@Override
+	public void handleEvent(PersonEntersVehicleEvent event) {
+		int person = member(event.getPersonId());
+		if (person < 0) return;
+		int vehicle = vehicleIndex(event.getVehicleId());
+		if (occupants[vehicle] == null) occupants[vehicle] = new int[4];
+		if (occupantCounts[vehicle] == occupants[vehicle].length) occupants[vehicle] = Arrays.copyOf(occupants[vehicle], occupantCounts[vehicle] * 2);
+		occupants[vehicle][occupantCounts[vehicle]++] = person;
+
+		if (legIsPt[person] && !boarded[person] && !Double.isNaN(legDepartures[person])) {
+			// the wait counts as waiting instead of traveling
+			boarded[person] = true;
+			tripRewards[person] += (event.getTime() - legDepartures[person]) * (waitingPt - legModes[person][TRAVELING]);
+		}
+	}
+
+	@Override
+	public void handleEvent(PersonLeavesVehicleEvent event) {
+		int person = member(event.getPersonId());
+		if (person < 0) return;
+		int vehicle = vehicleIndex(event.getVehicleId());
+		int[] inside = occupants[vehicle];
+		for (int i = 0; i < occupantCounts[vehicle]; i++) {
+			if (inside[i] == person) {
+				inside[i] = inside[--occupantCounts[vehicle]];
+				return;
+			}
+		}
+	}
+
+	@Override
+	public void handleEvent(LinkEnterEvent event) {
+		int vehicle = event.getVehicleId().index();
+		if (vehicle >= occupantCounts.length || occupantCounts[vehicle] == 0) return;
+		double length = linkLengths[event.getLinkId().index()];
+		int[] inside = occupants[vehicle];
+		for (int i = 0; i < occupantCounts[vehicle]; i++) legDistances[inside[i]] += length;
+	}
+
+	@Override
+	public void handleEvent(TeleportationArrivalEvent event) {
+		int person = member(event.getPersonId());
+		if (person >= 0) legDistances[person] = event.getDistance();
+	}
+
+	@Override
+	public void handleEvent(PersonArrivalEvent event) {
+		int person = member(event.getPersonId());
+		if (person < 0 || Double.isNaN(legDepartures[person])) return;
+		endLeg(person, event.getTime());
+	}
+
+	@Override
+	public void handleEvent(ActivityStartEvent event) {
+		int person = member(event.getPersonId());
+		if (person < 0 || Double.isNaN(tripRewards[person]) || TripStructureUtils.isStageActivityType(event.getActType())) return;
+		Double latestStart = latestStartTimes.get(event.getActType());
+		if (latestStart != null && event.getTime() > latestStart) tripRewards[person] += (event.getTime() - latestStart) * lateArrival;
+		endTrip(person, event.getTime());
+	}
+
+	@Override
+	public void handleEvent(PersonStuckEvent event) {
+		int person = member(event.getPersonId());
+		if (person < 0 || Double.isNaN(tripRewards[person])) return;
+		// the trip is scored as far as it got
+		if (!Double.isNaN(legDepartures[person])) endLeg(person, event.getTime());
+		stuckTrips++;
+		endTrip(person, event.getTime());
+	}
+
+	private void endLeg(int person, double time) {
+		double[] mode = legModes[person];
+		double travelTime = time - legDepartures[person];
+		tripRewards[person] += mode[CONSTANT] + travelTime * (mode[TRAVELING] - performing) + legDistances[person] * mode[DISTANCE];
+		legDepartures[person] = Double.NaN;
+	}
+
+	private void endTrip(int person, double time) {
+		double reward = tripRewards[person];
+		tripRewards[person] = Double.NaN;
+		lastRewards[person] = reward;
+		lastTripEnds[person] = time;
+		completedTrips[person]++;
+		trips++;
+		rewardSum += reward;
+	}
+
+	private int member(Id<Person> personId) {
+		int index = personId.index();
+		return (index < members.length && members[index]) ? index : -1;
+	}
+
+	private int vehicleIndex(Id<Vehicle> vehicleId) {
+		int index = vehicleId.index();
+		if (index >= occupantCounts.length) {
+			int capacity = Math.max(index + 1, Math.max(Id.getNumberOfIds(Vehicle.class), occupantCounts.length * 2));
+			occupants = Arrays.copyOf(occupants, capacity);
+			occupantCounts = Arrays.copyOf(occupantCounts, capacity);
+		}
+		return index;
+	}
+
+	/** @return reward of the last completed trip of the person in this iteration, NaN if there is none */
+	public double getLastTripReward(int personIndex) {
+		return (personIndex < lastRewards.length) ? lastRewards[personIndex] : Double.NaN;
+	}
+
+	/** @return arrival time of the last completed trip of the person, NaN if there is none */
+	public double getLastTripEnd(int personIndex) {
+		return (personIndex < lastTripEnds.length) ? lastTripEnds[personIndex] : Double.NaN;
+	}
+
+	/** @return reward of the last trip if it ended after <code>time</code>, 0 otherwise */
+	public double getRewardSince(int personIndex, double time) {
+		double end = getLastTripEnd(personIndex);
+		return (end >= time) ? lastRewards[personIndex] : 0.0;
+	}
+
+	/** @return reward accumulated so far on the current trip, NaN if the person is not travelling */
+	public double getCurrentTripReward(int personIndex) {
+		return (personIndex < tripRewards.length) ? tripRewards[personIndex] : Double.NaN;
+	}
+
+	public int getCompletedTrips(int personIndex) {
+		return (personIndex < completedTrips.length) ? completedTrips[personIndex] : 0;
+	}
+
+	public long getTrips() {
+		return trips;
+	}
+
+	public long getStuckTrips() {
+		return stuckTrips;
+	}
+
+	public double getMeanReward() {
+		return (trips > 0) ? rewardSum / trips : Double.NaN;
+	}
+}
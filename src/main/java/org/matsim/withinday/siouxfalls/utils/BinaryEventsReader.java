@@ -0,0 +1,164 @@
+package org.matsim.withinday.siouxfalls.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.matsim.withinday.siouxfalls.utils.BinaryEventsWriter.Type;
+
+/**
+ * Memory-mapped reader of the files written by {@link BinaryEventsWriter}. Every column has its own
+ * mapping, so a scan over the types and times of all events does not touch the other columns.
+ */
+public final class BinaryEventsReader implements Closeable {
+
+	public interface EventVisitor {
+		void visit(BinaryEventsReader reader, int event);
+	}
+
+	private static final Type[] TYPES = Type.values();
+
+	private final FileChannel channel;
+	private final int iteration;
+	private final int eventCount;
+	private final MappedByteBuffer times;
+	private final MappedByteBuffer persons;
+	private final MappedByteBuffer links;
+	private final MappedByteBuffer labels;
+	private final MappedByteBuffer actions;
+	private final MappedByteBuffer types;
+	private final List<String> personNames = new ArrayList<>();
+	private final List<String> linkNames = new ArrayList<>();
+	private final List<String> labelNames = new ArrayList<>();
+
+	public BinaryEventsReader(Path file) throws IOException {
+		this.channel = FileChannel.open(file, StandardOpenOption.READ);
+
+		ByteBuffer header = ByteBuffer.allocate(BinaryEventsWriter.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		while (header.hasRemaining() && channel.read(header, header.position()) > 0) { }
+		header.flip();
+		if (header.remaining() < BinaryEventsWriter.HEADER_SIZE || header.getInt() != BinaryEventsWriter.MAGIC) {
+			throw new IOException(file + " is not a binary RL events file");
+		}
+		int version = header.getInt();
+		if (version != BinaryEventsWriter.VERSION) {
+			throw new IOException("Unsupported binary RL events version " + version);
+		}
+		this.iteration = header.getInt();
+		int columnCount = header.getInt();
+		if (columnCount != BinaryEventsWriter.COLUMN_COUNT) {
+			throw new IOException("Unexpected number of columns " + columnCount + " in " + file);
+		}
+		long count = header.getLong();
+		long dictionaryOffset = header.getLong();
+		// one mapping per column
+		if (count * 8 > Integer.MAX_VALUE) throw new IOException(file + " has too many events: " + count);
+		this.eventCount = (int) count;
+
+		this.times = map(0);
+		this.persons = map(1);
+		this.links = map(2);
+		this.labels = map(3);
+		this.actions = map(4);
+		this.types = map(5);
+
+		ByteBuffer dictionary = channel.map(FileChannel.MapMode.READ_ONLY, dictionaryOffset, channel.size() - dictionaryOffset).order(ByteOrder.LITTLE_ENDIAN);
+		readStrings(dictionary, personNames);
+		readStrings(dictionary, linkNames);
+		readStrings(dictionary, labelNames);
+	}
+
+	private MappedByteBuffer map(int column) throws IOException {
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, BinaryEventsWriter.columnOffset(column, eventCount),
+				BinaryEventsWriter.columnSize(column, eventCount));
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		return buffer;
+	}
+
+	private static void readStrings(ByteBuffer buffer, List<String> target) {
+		int count = buffer.getInt();
+		for (int i = 0; i < count; i++) {
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			target.add(new String(bytes, StandardCharsets.UTF_8));
+		}
+	}
+
+	public int eventCount() {
+		return eventCount;
+	}
+
+	public int getIteration() {
+		return iteration;
+	}
+
+	public double getTime(int event) {
+		return times.getDouble(8 * event);
+	}
+
+	public Type getType(int event) {
+		return TYPES[types.get(event)];
+	}
+
+	public int getPersonCode(int event) {
+		return persons.getInt(4 * event);
+	}
+
+	public int getLinkCode(int event) {
+		return links.getInt(4 * event);
+	}
+
+	public int getLabelCode(int event) {
+		return labels.getInt(4 * event);
+	}
+
+	public int getAction(int event) {
+		return actions.getInt(4 * event);
+	}
+
+	public String getPersonId(int event) {
+		return name(personNames, getPersonCode(event));
+	}
+
+	/** @return null if the event has no link */
+	public String getLinkId(int event) {
+		return name(linkNames, getLinkCode(event));
+	}
+
+	/** @return leg mode or activity type, null if the event has none */
+	public String getLabel(int event) {
+		return name(labelNames, getLabelCode(event));
+	}
+
+	public List<String> getPersonIds() {
+		return personNames;
+	}
+
+	private static String name(List<String> dictionary, int code) {
+		return (code < 0) ? null : dictionary.get(code);
+	}
+
+	public void forEach(EventVisitor visitor) {
+		for (int event = 0; event < eventCount; event++) visitor.visit(this, event);
+	}
+
+	public void forEach(Type type, EventVisitor visitor) {
+		byte ordinal = (byte) type.ordinal();
+		for (int event = 0; event < eventCount; event++) {
+			if (types.get(event) == ordinal) visitor.visit(this, event);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
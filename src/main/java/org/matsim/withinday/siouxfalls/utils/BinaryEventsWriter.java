@@ -0,0 +1,241 @@
+package org.matsim.withinday.siouxfalls.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Person;
+
+/**
+ * Compact binary events file of one iteration with only the events the RL pipeline reads. The
+ * events are kept column by column in memory and written by {@link #close()}. Read it with
+ * {@link BinaryEventsReader}.
+ *
+ * <pre>
+ * header (64 bytes) : int magic 'RLEV' | int version | int iteration | int columnCount
+ *                     | long eventCount | long dictionaryOffset | padding
+ * columns           : double[eventCount] time | int[eventCount] person | int[eventCount] link
+ *                     | int[eventCount] label | int[eventCount] action | byte[eventCount] type,
+ *                     each padded to a multiple of 8 bytes
+ * dictionary        : int personCount | personCount x (int length | UTF-8 bytes)
+ *                     | int linkCount | linkCount x (int length | UTF-8 bytes)
+ *                     | int labelCount | labelCount x (int length | UTF-8 bytes)
+ * </pre>
+ *
+ * <code>person</code>, <code>link</code> and <code>label</code> are positions in the dictionary,
+ * -1 if the event has none. The label is the leg mode of departures, arrivals, stuck agents and
+ * decisions and the activity type of activity starts and ends. <code>action</code> is the policy
+ * action code of a decision, -1 otherwise.
+ */
+public final class BinaryEventsWriter implements Closeable {
+
+	public static final int MAGIC = 0x56454C52; // "RLEV" read as little-endian bytes
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 64;
+	public static final int COLUMN_COUNT = 6;
+	public static final String FILE_NAME = "rl_events.bin";
+
+	// Stored as the ordinal, append only
+	public enum Type { DEPARTURE, ARRIVAL, ACTIVITY_START, ACTIVITY_END, STUCK, DECISION }
+
+	// time, person, link, label, action, type
+	static final int[] COLUMN_WIDTHS = { 8, 4, 4, 4, 4, 1 };
+
+	private final Path file;
+	private final int iteration;
+	private boolean closed = false;
+
+	private int size = 0;
+	private double[] times = new double[4096];
+	private int[] persons = new int[4096];
+	private int[] links = new int[4096];
+	private int[] labels = new int[4096];
+	private int[] actions = new int[4096];
+	private byte[] types = new byte[4096];
+
+	private final IdDictionary personCodes = new IdDictionary();
+	private final IdDictionary linkCodes = new IdDictionary();
+	private final Map<String, Integer> labelCodes = new HashMap<>();
+	private final List<String> labelNames = new ArrayList<>();
+
+	public BinaryEventsWriter(Path file, int iteration) {
+		this.file = file;
+		this.iteration = iteration;
+	}
+
+	/** @return byte offset of the column in a file with <code>eventCount</code> events */
+	public static long columnOffset(int column, long eventCount) {
+		long offset = HEADER_SIZE;
+		for (int c = 0; c < column; c++) offset += columnSize(c, eventCount);
+		return offset;
+	}
+
+	static long columnSize(int column, long eventCount) {
+		return (COLUMN_WIDTHS[column] * eventCount + 7) & ~7L;
+	}
+
+	/**
+	 * @param linkId may be null
+	 * @param label leg mode or activity type, may be null
+	 * @param action policy action code of a decision, -1 otherwise
+	 */
+	public synchronized void add(Type type, double time, Id<Person> personId, Id<Link> linkId, String label, int action) {
+		if (closed) return;
+		if (size == times.length) grow();
+		times[size] = time;
+		persons[size] = personCodes.code(personId);
+		links[size] = linkCodes.code(linkId);
+		labels[size] = labelCode(label);
+		actions[size] = action;
+		types[size] = (byte) type.ordinal();
+		size++;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public int getIteration() {
+		return iteration;
+	}
+
+	private void grow() {
+		int capacity = times.length * 2;
+		times = Arrays.copyOf(times, capacity);
+		persons = Arrays.copyOf(persons, capacity);
+		links = Arrays.copyOf(links, capacity);
+		labels = Arrays.copyOf(labels, capacity);
+		actions = Arrays.copyOf(actions, capacity);
+		types = Arrays.copyOf(types, capacity);
+	}
+
+	private int labelCode(String label) {
+		if (label == null) return -1;
+		Integer code = labelCodes.get(label);
+		if (code == null) {
+			code = labelNames.size();
+			labelNames.add(label);
+			labelCodes.put(label, code);
+		}
+		return code;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		if (file.getParent() != null) file.getParent().toFile().mkdirs();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+			long dictionaryOffset = columnOffset(COLUMN_COUNT, size);
+
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(iteration).putInt(COLUMN_COUNT);
+			buffer.putLong(size).putLong(dictionaryOffset);
+			pad(channel, buffer, HEADER_SIZE);
+
+			for (int i = 0; i < size; i++) {
+				if (buffer.remaining() < 8) flush(channel, buffer);
+				buffer.putDouble(times[i]);
+			}
+			writeInts(channel, buffer, persons);
+			writeInts(channel, buffer, links);
+			writeInts(channel, buffer, labels);
+			writeInts(channel, buffer, actions);
+			for (int i = 0; i < size; i++) {
+				if (!buffer.hasRemaining()) flush(channel, buffer);
+				buffer.put(types[i]);
+			}
+			pad(channel, buffer, dictionaryOffset);
+
+			personCodes.write(channel, buffer);
+			linkCodes.write(channel, buffer);
+			writeStrings(channel, buffer, labelNames);
+			flush(channel, buffer);
+		}
+	}
+
+	private void writeInts(FileChannel channel, ByteBuffer buffer, int[] column) throws IOException {
+		for (int i = 0; i < size; i++) {
+			if (buffer.remaining() < 4) flush(channel, buffer);
+			buffer.putInt(column[i]);
+		}
+		if ((size & 1) == 1) {
+			if (buffer.remaining() < 4) flush(channel, buffer);
+			buffer.putInt(0);
+		}
+	}
+
+	// Zeros up to the given file position
+	private static void pad(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (channel.position() + buffer.position() < position) {
+			if (!buffer.hasRemaining()) flush(channel, buffer);
+			buffer.put((byte) 0);
+		}
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) channel.write(buffer);
+		buffer.clear();
+	}
+
+	private static void writeStrings(FileChannel channel, ByteBuffer buffer, List<String> values) throws IOException {
+		if (buffer.remaining() < 4) flush(channel, buffer);
+		buffer.putInt(values.size());
+		for (String value : values) {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			if (buffer.remaining() < 4) flush(channel, buffer);
+			buffer.putInt(bytes.length);
+			if (bytes.length > buffer.remaining()) {
+				flush(channel, buffer);
+				ByteBuffer large = ByteBuffer.wrap(bytes);
+				while (large.hasRemaining()) channel.write(large);
+			} else {
+				buffer.put(bytes);
+			}
+		}
+	}
+
+	// Codes in order of appearance, looked up by the index of the id
+	private static final class IdDictionary {
+		private int[] codeByIndex = new int[1024];
+		private final List<String> names = new ArrayList<>();
+
+		IdDictionary() {
+			Arrays.fill(codeByIndex, -1);
+		}
+
+		int code(Id<?> id) {
+			if (id == null) return -1;
+			int index = id.index();
+			if (index >= codeByIndex.length) {
+				int oldLength = codeByIndex.length;
+				codeByIndex = Arrays.copyOf(codeByIndex, Math.max(index + 1, oldLength * 2));
+				Arrays.fill(codeByIndex, oldLength, codeByIndex.length, -1);
+			}
+			int code = codeByIndex[index];
+			if (code < 0) {
+				code = names.size();
+				names.add(id.toString());
+				codeByIndex[index] = code;
+			}
+			return code;
+		}
+
+		void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+			writeStrings(channel, buffer, names);
+		}
+	}
+}
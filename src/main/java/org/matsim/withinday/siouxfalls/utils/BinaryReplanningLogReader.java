@@ -0,0 +1,175 @@
+package org.matsim.withinday.siouxfalls.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Memory-mapped reader of the files written by {@link BinaryReplanningLogWriter}. Fields are read
+ * straight from the mapping on access, so scanning or filtering touches only the columns that are
+ * asked for. Records of one iteration are contiguous, {@link #firstRecordOfIteration(int)} finds
+ * them by binary search.
+ *
+ * Files of a run that did not close its log have no dictionary; the records are still readable and
+ * agent and mode names are reported as <code>#code</code>.
+ */
+public final class BinaryReplanningLogReader implements Closeable {
+
+    public interface RecordVisitor {
+        void visit(BinaryReplanningLogReader reader, long record);
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final int recordsPerSegment;
+    private final int stateWidth;
+    private final int recordSize;
+    private final long recordCount;
+    private final List<String> modes = new ArrayList<>();
+    private final List<String> agents = new ArrayList<>();
+
+    public BinaryReplanningLogReader(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+
+        ByteBuffer header = ByteBuffer.allocate(BinaryReplanningLogWriter.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) { }
+        header.flip();
+        if (header.remaining() < BinaryReplanningLogWriter.HEADER_SIZE || header.getInt() != BinaryReplanningLogWriter.MAGIC) {
+            throw new IOException(file + " is not a binary within-day log");
+        }
+        int version = header.getInt();
+        if (version != BinaryReplanningLogWriter.VERSION) {
+            throw new IOException("Unsupported binary within-day log version " + version);
+        }
+        this.stateWidth = header.getInt();
+        this.recordSize = header.getInt();
+        long count = header.getLong();
+        long dictionaryOffset = header.getLong();
+
+        if (dictionaryOffset == 0) {
+            // log was not closed: take every complete record
+            count = (channel.size() - BinaryReplanningLogWriter.HEADER_SIZE) / recordSize;
+        } else {
+            readDictionary(dictionaryOffset);
+        }
+        this.recordCount = count;
+
+        // records never straddle two mappings
+        this.recordsPerSegment = Integer.MAX_VALUE / recordSize;
+        int segmentCount = (int) ((recordCount + recordsPerSegment - 1) / recordsPerSegment);
+        this.segments = new MappedByteBuffer[segmentCount];
+        for (int s = 0; s < segmentCount; s++) {
+            long first = (long) s * recordsPerSegment;
+            long records = Math.min(recordsPerSegment, recordCount - first);
+            segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, BinaryReplanningLogWriter.HEADER_SIZE + first * recordSize, records * recordSize);
+            segments[s].order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    private void readDictionary(long offset) throws IOException {
+        ByteBuffer dictionary = channel.map(FileChannel.MapMode.READ_ONLY, offset, channel.size() - offset).order(ByteOrder.LITTLE_ENDIAN);
+        readStrings(dictionary, modes);
+        readStrings(dictionary, agents);
+    }
+
+    private static void readStrings(ByteBuffer buffer, List<String> target) {
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            target.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+    }
+
+    public long recordCount() {
+        return recordCount;
+    }
+
+    public int getStateWidth() {
+        return stateWidth;
+    }
+
+    public double getTime(long record) {
+        return segment(record).getDouble(offset(record));
+    }
+
+    public int getIteration(long record) {
+        return segment(record).getInt(offset(record) + 8);
+    }
+
+    public int getAgentCode(long record) {
+        return segment(record).getInt(offset(record) + 12);
+    }
+
+    public int getModeCode(long record) {
+        return segment(record).getInt(offset(record) + 16);
+    }
+
+    public int getAction(long record) {
+        return segment(record).getInt(offset(record) + 20);
+    }
+
+    public float getState(long record, int column) {
+        if (column < 0 || column >= stateWidth) throw new IndexOutOfBoundsException("State column " + column + " of " + stateWidth);
+        return segment(record).getFloat(offset(record) + BinaryReplanningLogWriter.FIXED_RECORD_SIZE + 4 * column);
+    }
+
+    public String getAgentId(long record) {
+        return name(agents, getAgentCode(record));
+    }
+
+    public String getMode(long record) {
+        return name(modes, getModeCode(record));
+    }
+
+    public List<String> getModes() {
+        return modes;
+    }
+
+    private static String name(List<String> dictionary, int code) {
+        return (code < dictionary.size()) ? dictionary.get(code) : "#" + code;
+    }
+
+    /** @return index of the first record of the iteration, or of the first record of a later iteration if it has none */
+    public long firstRecordOfIteration(int iteration) {
+        long low = 0;
+        long high = recordCount;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (getIteration(middle) < iteration) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    public void forEach(RecordVisitor visitor) {
+        for (long record = 0; record < recordCount; record++) visitor.visit(this, record);
+    }
+
+    public void forEachOfIteration(int iteration, RecordVisitor visitor) {
+        for (long record = firstRecordOfIteration(iteration); record < recordCount && getIteration(record) == iteration; record++) {
+            visitor.visit(this, record);
+        }
+    }
+
+    private MappedByteBuffer segment(long record) {
+        return segments[(int) (record / recordsPerSegment)];
+    }
+
+    private int offset(long record) {
+        return (int) (record % recordsPerSegment) * recordSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,166 @@
+package org.matsim.withinday.siouxfalls.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+
+/**
+ * Compact binary alternative to <code>withinday_log.xml</code>: one fixed-width little-endian record
+ * per replanning decision. Read it with {@link BinaryReplanningLogReader}.
+ *
+ * <pre>
+ * header (64 bytes) : int magic 'WDLB' | int version | int stateWidth | int recordSize
+ *                     | long recordCount | long dictionaryOffset | padding
+ * record            : double time | int iteration | int agent | int mode | int action
+ *                     | float[stateWidth] state | padding to a multiple of 8 bytes
+ * dictionary        : int modeCount | modeCount x (int length | UTF-8 bytes)
+ *                     | int agentCount | agentCount x (int length | UTF-8 bytes)
+ * </pre>
+ *
+ * <code>agent</code> and <code>mode</code> are positions in the dictionary, <code>action</code> is the
+ * policy action code (-1 if the mode was not chosen by a policy) and missing states are NaN. Count
+ * and dictionary offset are only filled in by {@link #close()}.
+ */
+public final class BinaryReplanningLogWriter implements Closeable {
+
+    public static final int MAGIC = 0x424C4457; // "WDLB" read as little-endian bytes
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+    public static final int FIXED_RECORD_SIZE = 24;
+    public static final String FILE_NAME = "withinday_log.bin";
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final int stateWidth;
+    private final int recordSize;
+    private long recordCount = 0;
+
+    private final Map<String, Integer> modeCodes = new HashMap<>();
+    private final List<String> modes = new ArrayList<>();
+    private int[] agentCodeByIndex = new int[1024];
+    private final List<Id<Person>> agents = new ArrayList<>();
+
+    public BinaryReplanningLogWriter(Path file, int stateWidth) throws IOException {
+        this.stateWidth = stateWidth;
+        this.recordSize = recordSize(stateWidth);
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.buffer = ByteBuffer.allocateDirect(Math.max(1 << 16, recordSize * 64)).order(ByteOrder.LITTLE_ENDIAN);
+        Arrays.fill(agentCodeByIndex, -1);
+        writeHeader(0, 0); // placeholder until close()
+        this.channel.position(HEADER_SIZE);
+    }
+
+    public static int recordSize(int stateWidth) {
+        int size = FIXED_RECORD_SIZE + 4 * stateWidth;
+        return (size + 7) & ~7;
+    }
+
+    /**
+     * @param state may be null, then the state columns are written as NaN
+     */
+    public void write(int iteration, double time, Id<Person> agentId, String mode, int action, float[] state, int stateOffset) throws IOException {
+        if (buffer.remaining() < recordSize) flushBuffer();
+
+        int start = buffer.position();
+        buffer.putDouble(time);
+        buffer.putInt(iteration);
+        buffer.putInt(agentCode(agentId));
+        buffer.putInt(modeCode(mode));
+        buffer.putInt(action);
+        for (int i = 0; i < stateWidth; i++) {
+            buffer.putFloat(state != null ? state[stateOffset + i] : Float.NaN);
+        }
+        while (buffer.position() - start < recordSize) buffer.put((byte) 0);
+        recordCount++;
+    }
+
+    public void flush() throws IOException {
+        flushBuffer();
+    }
+
+    private int agentCode(Id<Person> agentId) {
+        int index = agentId.index();
+        if (index >= agentCodeByIndex.length) {
+            int oldLength = agentCodeByIndex.length;
+            agentCodeByIndex = Arrays.copyOf(agentCodeByIndex, Math.max(index + 1, oldLength * 2));
+            Arrays.fill(agentCodeByIndex, oldLength, agentCodeByIndex.length, -1);
+        }
+        int code = agentCodeByIndex[index];
+        if (code < 0) {
+            code = agents.size();
+            agents.add(agentId);
+            agentCodeByIndex[index] = code;
+        }
+        return code;
+    }
+
+    private int modeCode(String mode) {
+        Integer code = modeCodes.get(mode);
+        if (code == null) {
+            code = modes.size();
+            modes.add(mode);
+            modeCodes.put(mode, code);
+        }
+        return code;
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    private void writeHeader(long count, long dictionaryOffset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(stateWidth).putInt(recordSize);
+        header.putLong(count).putLong(dictionaryOffset);
+        header.rewind();
+        long position = 0;
+        while (header.hasRemaining()) position += channel.write(header, position);
+    }
+
+    private void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (buffer.remaining() < 4 + bytes.length) flushBuffer();
+        buffer.putInt(bytes.length);
+        if (bytes.length > buffer.remaining()) {
+            flushBuffer();
+            ByteBuffer large = ByteBuffer.wrap(bytes);
+            while (large.hasRemaining()) channel.write(large);
+        } else {
+            buffer.put(bytes);
+        }
+    }
+
+    private void writeCount(int count) throws IOException {
+        if (buffer.remaining() < 4) flushBuffer();
+        buffer.putInt(count);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!channel.isOpen()) return;
+        flushBuffer();
+        long dictionaryOffset = channel.position();
+        writeCount(modes.size());
+        for (String mode : modes) writeString(mode);
+        writeCount(agents.size());
+        for (Id<Person> agent : agents) writeString(agent.toString());
+        flushBuffer();
+        writeHeader(recordCount, dictionaryOffset);
+        channel.close();
+    }
+}
@@ -0,0 +1,40 @@
+package org.matsim.withinday.siouxfalls.utils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Allows a mode on all links that allow another one, e.g. bike on every car link. The mode is
+ * appended to the <code>modes</code> of the link.
+ */
+public final class ModePermissionStage extends NetworkLinkStage {
+
+    private static final int VERSION = 1;
+
+    private final String requiredMode;
+    private final String addedMode;
+
+    public ModePermissionStage(String requiredMode, String addedMode) {
+        this.requiredMode = requiredMode;
+        this.addedMode = addedMode;
+    }
+
+    @Override
+    public int getVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public String getParameters() {
+        return "requiredMode=" + requiredMode + ";addedMode=" + addedMode;
+    }
+
+    @Override
+    void rewriteLink(Map<String, String> attributes, List<Map<String, String>> addedLinks) {
+        String modes = attributes.get("modes");
+        if (modes == null) return;
+        List<String> allowed = Arrays.asList(modes.split(","));
+        if (allowed.contains(requiredMode) && !allowed.contains(addedMode)) attributes.put("modes", modes + "," + addedMode);
+    }
+}
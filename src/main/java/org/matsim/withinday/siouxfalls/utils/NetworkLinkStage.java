@@ -0,0 +1,130 @@
+package org.matsim.withinday.siouxfalls.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Base of the stages that rewrite the links of a network file. The file is copied element by
+ * element, so the nodes, the attribute order and the formatting are kept and only one link is held
+ * at a time. Links added by {@link #rewriteLink} are written at the end of the <code>links</code>
+ * element. A change to the copy changes the output of every subclass, so it bumps their versions.
+ */
+abstract class NetworkLinkStage implements PreparationStage {
+
+    private static final String LINK_INDENT = "\n        ";
+
+    /**
+     * @param attributes of the <code>link</code> element in file order, may be changed
+     * @param addedLinks attributes of new links to add
+     */
+    abstract void rewriteLink(Map<String, String> attributes, List<Map<String, String>> addedLinks);
+
+    @Override
+    public void run(List<Path> inputs, Path output) throws IOException {
+        XMLInputFactory inputFactory = XMLInputFactory.newFactory();
+        // the DOCTYPE is copied as it is, the DTD itself is not fetched
+        inputFactory.setXMLResolver((publicId, systemId, baseUri, namespace) -> new ByteArrayInputStream(new byte[0]));
+
+        try (InputStream in = ScenarioPreparation.openInput(inputs.get(0)); OutputStream out = ScenarioPreparation.openOutput(output)) {
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+            XMLStreamWriter writer = XMLOutputFactory.newFactory().createXMLStreamWriter(out, "UTF-8");
+            List<Map<String, String>> addedLinks = new ArrayList<>();
+            // held back so that the added links go before the line break of </links>
+            String whitespace = null;
+            // an element is written as empty if its end follows right away
+            String pendingElement = null;
+            Map<String, String> pendingAttributes = null;
+
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeCharacters("\n");
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.END_ELEMENT && pendingElement != null) {
+                    writeElement(writer, pendingElement, pendingAttributes, true);
+                    pendingElement = null;
+                    continue;
+                }
+                if (pendingElement != null) {
+                    writeElement(writer, pendingElement, pendingAttributes, false);
+                    pendingElement = null;
+                }
+                if ((event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.SPACE) && reader.isWhiteSpace()) {
+                    if (whitespace != null) writer.writeCharacters(whitespace);
+                    whitespace = reader.getText();
+                    continue;
+                }
+                if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("links")) {
+                    for (Map<String, String> link : addedLinks) {
+                        writer.writeCharacters(LINK_INDENT);
+                        writeElement(writer, "link", link, true);
+                    }
+                    addedLinks.clear();
+                }
+                if (whitespace != null) {
+                    writer.writeCharacters(whitespace);
+                    whitespace = null;
+                }
+
+                switch (event) {
+                    case XMLStreamConstants.DTD:
+                        writer.writeDTD(reader.getText());
+                        writer.writeCharacters("\n");
+                        break;
+                    case XMLStreamConstants.START_ELEMENT:
+                        pendingElement = reader.getLocalName();
+                        pendingAttributes = new LinkedHashMap<>();
+                        for (int i = 0; i < reader.getAttributeCount(); i++) pendingAttributes.put(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                        if (pendingElement.equals("link")) rewriteLink(pendingAttributes, addedLinks);
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        writer.writeEndElement();
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.SPACE:
+                        writer.writeCharacters(reader.getText());
+                        break;
+                    case XMLStreamConstants.CDATA:
+                        writer.writeCData(reader.getText());
+                        break;
+                    case XMLStreamConstants.COMMENT:
+                        writer.writeComment(reader.getText());
+                        break;
+                    default:
+                        // processing instructions and the end of the document
+                        break;
+                }
+            }
+            if (whitespace != null) writer.writeCharacters(whitespace);
+            writer.writeEndDocument();
+            writer.writeCharacters("\n");
+            writer.flush();
+            writer.close();
+            reader.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Could not rewrite the network " + inputs.get(0) + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static void writeElement(XMLStreamWriter writer, String name, Map<String, String> attributes, boolean empty) throws XMLStreamException {
+        if (empty) {
+            writer.writeEmptyElement(name);
+        } else {
+            writer.writeStartElement(name);
+        }
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) writer.writeAttribute(attribute.getKey(), attribute.getValue());
+    }
+}
@@ -0,0 +1,48 @@
+package org.matsim.withinday.siouxfalls.utils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * The sample of {@link StreamingPopulationSampling} as a preparation stage, one rate per stage. The
+ * number of threads is not a parameter, the sample does not depend on it.
+ */
+public final class PopulationSampleStage implements PreparationStage {
+
+    private static final int VERSION = 1;
+
+    private final double rate;
+    private final long seed;
+    private final int threads;
+
+    public PopulationSampleStage(double rate, long seed, int threads) {
+        this.rate = rate;
+        this.seed = seed;
+        this.threads = threads;
+    }
+
+    @Override
+    public int getVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public String getParameters() {
+        return "rate=" + rate + ";seed=" + seed;
+    }
+
+    @Override
+    public void run(List<Path> inputs, Path output) throws IOException {
+        StreamingPopulationSampling sampling = new StreamingPopulationSampling(new double[] { rate }, new String[] { output.toString() }, threads, seed);
+        try {
+            sampling.run(inputs.get(0).toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while sampling " + inputs.get(0), e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not sample " + inputs.get(0), e.getCause());
+        }
+    }
+}
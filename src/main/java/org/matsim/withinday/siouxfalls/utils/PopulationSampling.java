@@ -81,7 +81,7 @@ public class PopulationSampling {
         new PopulationWriter(population).write(outputFile);
     }
 
-    private static String getPlanMainMode(Plan plan) {
+    static String getPlanMainMode(Plan plan) {
         boolean usesBus = false;
         String fallbackMode = "unknown";
 
@@ -111,7 +111,7 @@ public class PopulationSampling {
         return fallbackMode;
     }
 
-    private static void applyNewMode(Plan plan, String mode) {
+    static void applyNewMode(Plan plan, String mode) {
         for (PlanElement pe : plan.getPlanElements()) {
             if (pe instanceof Leg) {
                 Leg leg = (Leg) pe;
@@ -121,7 +121,7 @@ public class PopulationSampling {
         }
     }
 
-    private static double calculateCommuteDistance(Plan plan) {
+    static double calculateCommuteDistance(Plan plan) {
         Activity home = null;
         Activity work = null;
         for (PlanElement pe : plan.getPlanElements()) {
@@ -143,8 +143,11 @@ public class PopulationSampling {
             String mode = getPlanMainMode(p.getSelectedPlan());
             counts.put(mode, counts.getOrDefault(mode, 0) + 1);
         }
+        printReport(counts, population.getPersons().size());
+    }
+
+    static void printReport(Map<String, Integer> counts, int total) {
         System.out.println("\n--- FINAL SCENARIO SHARES ---");
-        int total = population.getPersons().size();
         for (Map.Entry<String, Integer> entry : counts.entrySet()) {
             double pct = (entry.getValue() * 100.0) / total;
             System.out.printf("Mode: %-15s | Count: %-5d | Share: %.2f%%\n", entry.getKey(), entry.getValue(), pct);
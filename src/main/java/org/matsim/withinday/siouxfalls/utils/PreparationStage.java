@@ -0,0 +1,26 @@
+package org.matsim.withinday.siouxfalls.utils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * One step of the {@link ScenarioPreparation}: reads the outputs of its input stages (or the source
+ * files) and writes one output file.
+ */
+public interface PreparationStage {
+
+    /**
+     * Everything besides the inputs that decides the output, e.g. <code>rate=0.1;seed=42</code>. Part
+     * of the cache key, so it has to change whenever the output would change.
+     */
+    String getParameters();
+
+    /**
+     * Version of the code of the stage, part of the cache key. Bump it with every change that changes
+     * the output for the same inputs and parameters, otherwise the old outputs are taken from the cache.
+     */
+    int getVersion();
+
+    void run(List<Path> inputs, Path output) throws IOException;
+}
@@ -0,0 +1,113 @@
+package org.matsim.withinday.siouxfalls.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+
+/**
+ * Bounded lock-free multi-producer/single-consumer ring of replanning log records. Records are kept
+ * in parallel primitive arrays, so logging an event does not allocate.
+ *
+ * Every slot carries a sequence number: a producer claims position p by a CAS on the tail, fills the
+ * slot and publishes it by setting the slot sequence to p + 1. The consumer reads the slot once its
+ * sequence is p + 1 and frees it for the next lap by setting it to p + capacity.
+ */
+final class ReplanningEventRing {
+
+    interface RecordConsumer {
+        // state is null if the ring was created without state columns
+        void accept(int iteration, double time, Id<Person> agentId, String mode, int action, float[] state, int stateOffset);
+    }
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final int[] iterations;
+    private final double[] times;
+    private final Object[] agentIds;
+    private final String[] modes;
+    private final int[] actions;
+    private final int stateWidth;
+    private final float[] states;
+
+    private final AtomicLong tail = new AtomicLong();
+    private long head = 0; // only touched by the consumer thread
+
+    ReplanningEventRing(int requestedCapacity, int stateWidth) {
+        if (requestedCapacity < 2) throw new IllegalArgumentException("Capacity must be at least 2: " + requestedCapacity);
+        // round up to a power of two so that the slot index is a mask operation
+        this.capacity = Integer.highestOneBit(requestedCapacity - 1) << 1;
+        this.mask = capacity - 1;
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) sequences.set(i, i);
+        this.iterations = new int[capacity];
+        this.times = new double[capacity];
+        this.agentIds = new Object[capacity];
+        this.modes = new String[capacity];
+        this.actions = new int[capacity];
+        this.stateWidth = stateWidth;
+        this.states = (stateWidth > 0) ? new float[capacity * stateWidth] : null;
+    }
+
+    /**
+     * @param state copied into the ring if it has state columns, may be null (stored as NaN)
+     * @return false if the ring is full
+     */
+    boolean offer(int iteration, double time, Id<Person> agentId, String mode, int action, float[] state, int stateOffset) {
+        long position = tail.get();
+        int index;
+        while (true) {
+            index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) break;
+                position = tail.get();
+            } else if (difference < 0) {
+                return false; // the consumer has not freed this slot yet
+            } else {
+                position = tail.get(); // another producer was faster
+            }
+        }
+        iterations[index] = iteration;
+        times[index] = time;
+        agentIds[index] = agentId;
+        modes[index] = mode;
+        actions[index] = action;
+        if (states != null) {
+            if (state != null) System.arraycopy(state, stateOffset, states, index * stateWidth, stateWidth);
+            else Arrays.fill(states, index * stateWidth, (index + 1) * stateWidth, Float.NaN);
+        }
+        sequences.set(index, position + 1);
+        return true;
+    }
+
+    /** Consumer side: hands up to maxRecords published records to the consumer, in claim order. */
+    @SuppressWarnings("unchecked")
+    int drain(RecordConsumer consumer, int maxRecords) {
+        int drained = 0;
+        while (drained < maxRecords) {
+            int index = (int) (head & mask);
+            if (sequences.get(index) != head + 1) break;
+
+            consumer.accept(iterations[index], times[index], (Id<Person>) agentIds[index], modes[index], actions[index], states, index * stateWidth);
+            agentIds[index] = null;
+            modes[index] = null;
+            sequences.set(index, head + capacity);
+            head++;
+            drained++;
+        }
+        return drained;
+    }
+
+    /** Consumer side: true if no claimed record is waiting, published or not. */
+    boolean isEmpty() {
+        return tail.get() == head;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,36 @@
+package org.matsim.withinday.siouxfalls.utils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Converts a binary within-day log back into the <code>withinday_log.xml</code> layout, so that
+ * existing tooling keeps working. Usage: <code>ReplanningLogConverter withinday_log.bin withinday_log.xml</code>
+ */
+public class ReplanningLogConverter {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: ReplanningLogConverter <input withinday_log.bin> <output withinday_log.xml>");
+            System.exit(1);
+        }
+        long records = convert(Paths.get(args[0]), Paths.get(args[1]));
+        System.out.println("Converted " + records + " replanning events.");
+    }
+
+    public static long convert(Path binaryLog, Path xmlLog) throws IOException {
+        XmlReplanningLogWriter xml = new XmlReplanningLogWriter();
+        try (BinaryReplanningLogReader reader = new BinaryReplanningLogReader(binaryLog);
+             PrintWriter writer = new PrintWriter(new BufferedWriter(Files.newBufferedWriter(xmlLog, StandardCharsets.UTF_8), 1 << 16))) {
+            xml.writeHeader(writer);
+            reader.forEach((log, record) -> xml.writeEvent(writer, log.getIteration(record), log.getTime(record), log.getAgentId(record), log.getMode(record)));
+            xml.writeFooter(writer);
+            return reader.recordCount();
+        }
+    }
+}
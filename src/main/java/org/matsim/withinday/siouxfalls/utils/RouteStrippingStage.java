@@ -0,0 +1,92 @@
+package org.matsim.withinday.siouxfalls.utils;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.api.core.v01.population.PopulationFactory;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.io.StreamingPopulationReader;
+import org.matsim.core.population.io.StreamingPopulationWriter;
+import org.matsim.core.scenario.ScenarioUtils;
+
+/**
+ * Turns a routed population into an unrouted one, streamed person by person: every pt trip
+ * (transit_walk and pt legs with their interaction activities) becomes a single pt leg, the other
+ * legs lose their route, departure and travel time, and the interaction activities are dropped. The
+ * mobsim routes the plans again.
+ */
+public final class RouteStrippingStage implements PreparationStage {
+
+    private static final int VERSION = 1;
+
+    @Override
+    public int getVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public String getParameters() {
+        return "ptModes=pt,transit_walk";
+    }
+
+    @Override
+    public void run(List<Path> inputs, Path output) {
+        Scenario scenario = ScenarioUtils.createScenario(ConfigUtils.createConfig());
+        PopulationFactory factory = scenario.getPopulation().getFactory();
+        StreamingPopulationWriter writer = new StreamingPopulationWriter();
+        writer.startStreaming(output.toString());
+        try {
+            StreamingPopulationReader reader = new StreamingPopulationReader(scenario);
+            reader.addAlgorithm(person -> {
+                stripRoutes(person, factory);
+                writer.run(person);
+            });
+            reader.readFile(inputs.get(0).toString());
+        } finally {
+            writer.closeStreaming();
+        }
+    }
+
+    static void stripRoutes(Person person, PopulationFactory factory) {
+        for (Plan plan : person.getPlans()) {
+            List<PlanElement> elements = plan.getPlanElements();
+            List<PlanElement> kept = new ArrayList<>(elements.size());
+            int i = 0;
+            while (i < elements.size()) {
+                PlanElement element = elements.get(i);
+                if (element instanceof Activity) {
+                    if (!isInteraction(element)) kept.add(element);
+                    i++;
+                    continue;
+                }
+
+                Leg leg = (Leg) element;
+                if (leg.getMode().equals("pt") || leg.getMode().equals("transit_walk")) {
+                    // one leg for the whole trip, up to the next real activity
+                    kept.add(factory.createLeg("pt"));
+                    i++;
+                    while (i < elements.size() && (elements.get(i) instanceof Leg || isInteraction(elements.get(i)))) i++;
+                } else {
+                    leg.setRoute(null);
+                    leg.setDepartureTimeUndefined();
+                    leg.setTravelTimeUndefined();
+                    kept.add(leg);
+                    i++;
+                }
+            }
+            elements.clear();
+            elements.addAll(kept);
+        }
+    }
+
+    private static boolean isInteraction(PlanElement element) {
+        return element instanceof Activity && ((Activity) element).getType().contains("interaction");
+    }
+}
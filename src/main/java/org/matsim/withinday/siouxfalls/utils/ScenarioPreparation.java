@@ -0,0 +1,253 @@
+package org.matsim.withinday.siouxfalls.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Builds the modified Sioux Falls inputs from the original network and population, in place of the
+ * scripts that were run by hand one after the other.
+ *
+ * <pre>
+ * network.xml        -> bikeOnCarLinks -> sidewalks -> networkwithsidewalks.xml
+ * population.xml.gz  -> sample         -> unrouted  -> population_10p.xml.gz, population_10p_unrouted.xml
+ * </pre>
+ *
+ * Every stage output is kept in the cache directory under a key over the stage, its version, its
+ * parameters and the keys of its inputs; the key of a source file is the hash of its content. A stage whose key has
+ * an output already is not run again, so after a change only the stages downstream of it run. Stages
+ * start as soon as their inputs are done, so the network and the population chain run in parallel.
+ *
+ * The committed inputs are not overwritten, the results are exported to the output directory.
+ *
+ * Arguments: input directory, sample rate, number of threads, seed, output directory.
+ */
+public final class ScenarioPreparation {
+
+    public static final String CACHE_DIRECTORY = "preparation-cache";
+
+    private final Path cacheDirectory;
+    // in declaration order, inputs always come first
+    private final List<Step> steps = new ArrayList<>();
+    private final Map<Step, List<Path>> exports = new LinkedHashMap<>();
+
+    public static void main(String[] args) throws Exception {
+        Path inputDirectory = Paths.get((args.length > 0) ? args[0] : "scenarios/sioux-falls/modified/input");
+        double rate = (args.length > 1) ? Double.parseDouble(args[1]) : 0.10;
+        int threads = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        long seed = (args.length > 3) ? Long.parseLong(args[3]) : 42;
+        Path outputDirectory = (args.length > 4) ? Paths.get(args[4]) : inputDirectory.resolveSibling("output").resolve("preparation");
+
+        ScenarioPreparation preparation = new ScenarioPreparation(inputDirectory.resolve(CACHE_DIRECTORY));
+
+        Step network = preparation.source(inputDirectory.resolve("network.xml"));
+        Step bikeOnCarLinks = preparation.stage("bikeOnCarLinks", new ModePermissionStage("car", "bike"), ".xml", network);
+        Step sidewalks = preparation.stage("sidewalks", new SidewalkStage(1.3, 9999, "pedestrian,bike"), ".xml", bikeOnCarLinks);
+        preparation.export(sidewalks, outputDirectory.resolve("networkwithsidewalks.xml"));
+
+        Step population = preparation.source(inputDirectory.resolve("population.xml.gz"));
+        Step sample = preparation.stage("sample", new PopulationSampleStage(rate, seed, threads), ".xml.gz", population);
+        Step unrouted = preparation.stage("unrouted", new RouteStrippingStage(), ".xml", sample);
+        String sampleFile = StreamingPopulationSampling.getOutputFile(population.getOutput().getFileName().toString(), rate);
+        preparation.export(sample, outputDirectory.resolve(sampleFile));
+        preparation.export(unrouted, outputDirectory.resolve(sampleFile.replace(".xml.gz", "_unrouted.xml")));
+
+        preparation.run();
+    }
+
+    public ScenarioPreparation(Path cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /** An input file of the pipeline. */
+    public Step source(Path file) {
+        Step step = new Step(file.getFileName().toString(), null, null, List.of());
+        step.output = file;
+        steps.add(step);
+        return step;
+    }
+
+    /**
+     * @param fileSuffix of the output in the cache directory, <code>.xml.gz</code> for compressed output
+     */
+    public Step stage(String name, PreparationStage stage, String fileSuffix, Step... inputs) {
+        for (Step input : inputs) {
+            if (!steps.contains(input)) throw new IllegalArgumentException("Input " + input.name + " of stage " + name + " is not part of this preparation");
+        }
+        Step step = new Step(name, stage, fileSuffix, Arrays.asList(inputs));
+        steps.add(step);
+        return step;
+    }
+
+    /** Copies the output of the step to the given file after the run. */
+    public void export(Step step, Path file) {
+        exports.computeIfAbsent(step, s -> new ArrayList<>()).add(file);
+    }
+
+    public void run() throws IOException {
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        Map<Step, CompletableFuture<Void>> futures = new HashMap<>();
+        try {
+            for (Step step : steps) {
+                CompletableFuture<?>[] inputs = step.inputs.stream().map(futures::get).toArray(CompletableFuture[]::new);
+                futures.put(step, CompletableFuture.allOf(inputs).thenRunAsync(() -> execute(step), executor));
+            }
+            // waits for the independent stages also if one failed
+            CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) throw ((UncheckedIOException) cause).getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        } finally {
+            executor.shutdown();
+        }
+
+        for (Map.Entry<Step, List<Path>> export : exports.entrySet()) {
+            for (Path file : export.getValue()) {
+                if (file.getParent() != null) Files.createDirectories(file.getParent());
+                Files.copy(export.getKey().output, file, StandardCopyOption.REPLACE_EXISTING);
+                System.out.println("Stage " + export.getKey().name + " exported to " + file);
+            }
+        }
+        System.out.printf("Scenario preparation done in %.1f s%n", (System.nanoTime() - start) / 1e9);
+    }
+
+    // Runs on the executor once all inputs are done
+    private void execute(Step step) {
+        try {
+            MessageDigest digest = newDigest();
+            if (step.stage == null) {
+                if (!Files.isRegularFile(step.output)) throw new IOException("Input file " + step.output + " not found");
+                try (InputStream in = new DigestInputStream(Files.newInputStream(step.output), digest)) {
+                    in.transferTo(OutputStream.nullOutputStream());
+                }
+                step.key = toHex(digest.digest());
+                return;
+            }
+
+            update(digest, step.name);
+            update(digest, step.stage.getClass().getName());
+            update(digest, Integer.toString(step.stage.getVersion()));
+            update(digest, step.stage.getParameters());
+            List<Path> inputs = new ArrayList<>();
+            for (Step input : step.inputs) {
+                update(digest, input.key);
+                inputs.add(input.output);
+            }
+            step.key = toHex(digest.digest());
+            step.output = cacheDirectory.resolve(step.name + "-" + step.key.substring(0, 16) + step.suffix);
+            if (Files.isRegularFile(step.output)) {
+                System.out.println("Stage " + step.name + " up to date: " + step.output);
+                return;
+            }
+
+            long start = System.nanoTime();
+            System.out.println("Stage " + step.name + " running, " + step.stage.getParameters());
+            Files.createDirectories(cacheDirectory);
+            // the suffix stays last, the stages pick the compression by it
+            Path temporary = cacheDirectory.resolve(step.name + "-" + step.key.substring(0, 16) + ".tmp" + step.suffix);
+            try {
+                step.stage.run(inputs, temporary);
+                // a stage that failed halfway never leaves an output under its key
+                Files.move(temporary, step.output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+            step.ran = true;
+            System.out.printf("Stage %s done in %.1f s: %s%n", step.name, (System.nanoTime() - start) / 1e9, step.output);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Stage " + step.name + " failed: " + e.getMessage(), e);
+        }
+    }
+
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) hex.append(String.format("%02x", b));
+        return hex.toString();
+    }
+
+    /** Opens an input of a stage, gunzipped if the name ends with <code>.gz</code>. */
+    static InputStream openInput(Path file) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(file), 1 << 16);
+        return file.toString().endsWith(".gz") ? new GZIPInputStream(in, 1 << 16) : in;
+    }
+
+    /** Creates the output of a stage, gzipped if the name ends with <code>.gz</code>. */
+    static OutputStream openOutput(Path file) throws IOException {
+        OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16);
+        return file.toString().endsWith(".gz") ? new GZIPOutputStream(out, 1 << 16) : out;
+    }
+
+    /** A source file or a stage of the preparation. The key and the output are set when it has run. */
+    public static final class Step {
+        private final String name;
+        private final PreparationStage stage;
+        private final String suffix;
+        private final List<Step> inputs;
+        private volatile String key;
+        private volatile Path output;
+        private volatile boolean ran = false;
+
+        private Step(String name, PreparationStage stage, String suffix, List<Step> inputs) {
+            this.name = name;
+            this.stage = stage;
+            this.suffix = suffix;
+            this.inputs = inputs;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public Path getOutput() {
+            return output;
+        }
+
+        /** @return false if the output was taken from the cache (and for source files) */
+        public boolean hasRun() {
+            return ran;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package org.matsim.withinday.siouxfalls.utils;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Adds a parallel sidewalk link <code>&lt;id&gt;_sidewalk</code> of the same length to every link,
+ * at walking speed and with a capacity high enough that walkers never queue.
+ */
+public final class SidewalkStage extends NetworkLinkStage {
+
+    public static final String SUFFIX = "_sidewalk";
+
+    private static final int VERSION = 1;
+
+    private final double freespeed;
+    private final double capacity;
+    private final String modes;
+
+    public SidewalkStage(double freespeed, double capacity, String modes) {
+        this.freespeed = freespeed;
+        this.capacity = capacity;
+        this.modes = modes;
+    }
+
+    @Override
+    public int getVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public String getParameters() {
+        return "freespeed=" + freespeed + ";capacity=" + capacity + ";modes=" + modes;
+    }
+
+    @Override
+    void rewriteLink(Map<String, String> attributes, List<Map<String, String>> addedLinks) {
+        Map<String, String> sidewalk = new LinkedHashMap<>();
+        sidewalk.put("id", attributes.get("id") + SUFFIX);
+        sidewalk.put("from", attributes.get("from"));
+        sidewalk.put("to", attributes.get("to"));
+        sidewalk.put("length", attributes.get("length"));
+        sidewalk.put("freespeed", Double.toString(freespeed));
+        sidewalk.put("capacity", Double.toString(capacity));
+        sidewalk.put("permlanes", "1.0");
+        sidewalk.put("modes", modes);
+        addedLinks.add(sidewalk);
+    }
+}
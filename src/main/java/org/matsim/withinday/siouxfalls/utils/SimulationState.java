@@ -1,5 +0,0 @@
-package org.matsim.withinday.siouxfalls.utils;
-
-public class SimulationState {
-    public static int currentIteration = 0;
-}
\ No newline at end of file
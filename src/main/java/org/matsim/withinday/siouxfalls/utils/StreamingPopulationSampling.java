@@ -0,0 +1,207 @@
+package org.matsim.withinday.siouxfalls.utils;
+
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.io.StreamingPopulationReader;
+import org.matsim.core.population.io.StreamingPopulationWriter;
+import org.matsim.core.scenario.ScenarioUtils;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Same rules as {@link PopulationSampling}, but the population is streamed person by person and
+ * several sample rates are written in one pass over the input.
+ *
+ * Every person draws from its own random generator, seeded from the base seed and the person id, so
+ * the output does not depend on the number of threads. The samples are nested: a person in the 1%
+ * sample is also in the 10% sample, with the same carAvail and bike decisions. The rule stage runs on
+ * a thread pool, the results are written in input order, and at most a fixed window of persons is
+ * held in memory.
+ *
+ * Arguments: input population, comma separated sample rates, number of threads, seed. The samples are
+ * written next to the input as population_&lt;rate&gt;p.xml.gz.
+ */
+public class StreamingPopulationSampling {
+
+    private static final double NETWORK_WALKER_SHARE = 0.05; // 5% Target for physical sidewalks
+    private static final int WINDOW_PER_THREAD = 256;
+
+    private final double[] rates;
+    private final long seed;
+    private final int threads;
+    private final Output[] outputs;
+
+    public static void main(String[] args) throws Exception {
+        String inputFile = (args.length > 0) ? args[0] : "scenarios/sioux-falls/modified/input/population.xml.gz";
+        String rateList = (args.length > 1) ? args[1] : "0.01,0.10,0.25";
+        int threads = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        long seed = (args.length > 3) ? Long.parseLong(args[3]) : 42;
+
+        String[] parts = rateList.split(",");
+        double[] rates = new double[parts.length];
+        String[] outputFiles = new String[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            rates[i] = Double.parseDouble(parts[i].trim());
+            outputFiles[i] = getOutputFile(inputFile, rates[i]);
+        }
+
+        new StreamingPopulationSampling(rates, outputFiles, threads, seed).run(inputFile);
+    }
+
+    public StreamingPopulationSampling(double[] rates, String[] outputFiles, int threads, long seed) {
+        if (rates.length != outputFiles.length) throw new IllegalArgumentException("One output file per sample rate needed");
+        this.rates = rates.clone();
+        this.seed = seed;
+        this.threads = Math.max(1, threads);
+        this.outputs = new Output[rates.length];
+        for (int i = 0; i < rates.length; i++) {
+            if (rates[i] <= 0 || rates[i] > 1) throw new IllegalArgumentException("Sample rate must be in (0, 1]: " + rates[i]);
+            outputs[i] = new Output(rates[i], outputFiles[i]);
+        }
+    }
+
+    public void run(String inputFile) throws InterruptedException, ExecutionException {
+        double maxRate = 0;
+        for (double rate : rates) maxRate = Math.max(maxRate, rate);
+        final double sampleRate = maxRate;
+
+        for (Output output : outputs) output.writer.startStreaming(output.file);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        // Persons in input order whose rules may still be running
+        Deque<Future<SampledPerson>> window = new ArrayDeque<>();
+        int windowSize = threads * WINDOW_PER_THREAD;
+        try {
+            Scenario scenario = ScenarioUtils.createScenario(ConfigUtils.createConfig());
+            StreamingPopulationReader reader = new StreamingPopulationReader(scenario);
+            reader.addAlgorithm(person -> {
+                Random random = new Random(personSeed(seed, person.getId().toString()));
+                // 1. Sampling (the draw decides for all rates, so the samples are nested)
+                double sampleDice = random.nextDouble();
+                if (sampleDice > sampleRate) return;
+
+                window.addLast(executor.submit(() -> applyRules(person, random, sampleDice)));
+                while (window.size() >= windowSize) writeNext(window);
+            });
+            reader.readFile(inputFile);
+
+            while (!window.isEmpty()) writeNext(window);
+        } catch (RuntimeException e) {
+            // rethrow the failure of a rule task as such
+            if (e.getCause() instanceof ExecutionException) throw (ExecutionException) e.getCause();
+            throw e;
+        } finally {
+            executor.shutdownNow();
+            for (Output output : outputs) output.writer.closeStreaming();
+        }
+
+        for (Output output : outputs) {
+            System.out.println("Sample " + output.rate + " written to " + output.file);
+            PopulationSampling.printReport(output.modeCounts, output.size);
+        }
+    }
+
+    // Runs on the pool: everything that does not depend on the other persons
+    private static SampledPerson applyRules(Person person, Random random, double sampleDice) {
+        Plan plan = person.getSelectedPlan();
+        String mainMode = PopulationSampling.getPlanMainMode(plan);
+
+        // 2. Assign Car Availability (79.3% threshold)
+        double carAvailDice = random.nextDouble();
+        String carAvail = (carAvailDice <= 0.793) ? "always" : "never";
+        person.getAttributes().putAttribute("carAvail", carAvail);
+
+        // 4. Convert Short-Distance Car users to Bike
+        if ("car".equals(mainMode)) {
+            double distance = PopulationSampling.calculateCommuteDistance(plan);
+            if (distance < 3000 && random.nextDouble() < 0.20) {
+                PopulationSampling.applyNewMode(plan, "bike");
+                mainMode = "bike";
+            }
+        }
+        return new SampledPerson(person, sampleDice, mainMode, carAvail);
+    }
+
+    // Runs on the reader thread, in input order
+    private void writeNext(Deque<Future<SampledPerson>> window) {
+        SampledPerson sampled;
+        try {
+            sampled = window.removeFirst().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+
+        for (Output output : outputs) {
+            if (sampled.sampleDice > output.rate) continue;
+            output.size++;
+            String mode = sampled.mainMode;
+
+            // 3. Logic for Walkers: the 5% quota is filled in input order, counted per sample
+            if ("walk".equals(mode)) {
+                if (output.networkWalkers < NETWORK_WALKER_SHARE * output.size) {
+                    PopulationSampling.applyNewMode(sampled.person.getSelectedPlan(), "network_walk");
+                    sampled.person.getAttributes().putAttribute("carAvail", sampled.carAvail);
+                    output.networkWalkers++;
+                    mode = "network_walk";
+                } else {
+                    PopulationSampling.applyNewMode(sampled.person.getSelectedPlan(), "car");
+                    sampled.person.getAttributes().putAttribute("carAvail", "always");
+                    mode = "car";
+                }
+            }
+
+            output.modeCounts.merge(mode, 1, Integer::sum);
+            output.writer.run(sampled.person);
+        }
+    }
+
+    static long personSeed(long seed, String personId) {
+        // SplitMix64 finalizer over the base seed and the id hash
+        long z = seed * 0x9E3779B97F4A7C15L + personId.hashCode();
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    static String getOutputFile(String inputFile, double rate) {
+        // 0.1 -> 10p, 0.005 -> 0.5p
+        String label = new BigDecimal(Double.toString(rate)).movePointRight(2).stripTrailingZeros().toPlainString();
+        String base = inputFile.endsWith(".xml.gz") ? inputFile.substring(0, inputFile.length() - ".xml.gz".length()) : inputFile;
+        return base + "_" + label + "p.xml.gz";
+    }
+
+    private static final class SampledPerson {
+        final Person person;
+        final double sampleDice;
+        final String mainMode;
+        final String carAvail;
+
+        SampledPerson(Person person, double sampleDice, String mainMode, String carAvail) {
+            this.person = person;
+            this.sampleDice = sampleDice;
+            this.mainMode = mainMode;
+            this.carAvail = carAvail;
+        }
+    }
+
+    private static final class Output {
+        final double rate;
+        final String file;
+        final StreamingPopulationWriter writer = new StreamingPopulationWriter();
+        final Map<String, Integer> modeCounts = new TreeMap<>();
+        int size = 0;
+        int networkWalkers = 0;
+
+        Output(double rate, String file) {
+            this.rate = rate;
+            this.file = file;
+        }
+    }
+}
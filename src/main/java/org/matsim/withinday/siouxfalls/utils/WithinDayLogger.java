@@ -1,22 +1,78 @@
 package org.matsim.withinday.siouxfalls.utils;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.population.Person;
-import org.matsim.core.utils.misc.Time;
 
 public class WithinDayLogger {
 
+    // What an asynchronous logger does when its queue is full
+    public enum OverflowPolicy { block, drop }
+
+    // xml: withinday_log.xml, binary: withinday_log.bin (see BinaryReplanningLogWriter)
+    public enum Format { xml, binary }
+
+    // Gets every decision as well, from the replanner threads
+    public interface DecisionListener {
+        void onDecision(double time, Id<Person> agentId, String mode, int action);
+    }
+
+    private static final int WRITER_BATCH_SIZE = 4096;
+    private static final long WRITER_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
     private final String logPath;
-    private double lastTime = -1.0;
-    private int lastIteration = -1;
-    private boolean isClosed = false;
+    private final Format format;
+    private final XmlReplanningLogWriter xml = new XmlReplanningLogWriter();
+    private BinaryReplanningLogWriter binary;
+    private volatile boolean isClosed = false;
+    private volatile DecisionListener decisionListener;
+
+    // Asynchronous mode only (ring == null means synchronous mode)
+    private final ReplanningEventRing ring;
+    private final OverflowPolicy overflowPolicy;
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private volatile boolean closing = false;
+    // set by the writer thread when it cannot write anymore, later events are dropped
+    private volatile boolean failed = false;
+    private Thread writerThread;
+    private Thread shutdownHook;
 
     public WithinDayLogger(String outputDirectory) {
+        this(outputDirectory, Format.xml, 0, 0, null);
+    }
+
+    public WithinDayLogger(String outputDirectory, int queueCapacity, OverflowPolicy overflowPolicy) {
+        this(outputDirectory, Format.xml, 0, queueCapacity, overflowPolicy);
+    }
+
+    /**
+     * @param stateWidth number of state columns stored per event in the binary format (0 for none)
+     * @param queueCapacity 0 for synchronous mode. Otherwise replanner threads only put the event into
+     * a bounded lock-free queue, and a single writer thread keeps the file open and writes the queued
+     * events in batches.
+     */
+    public WithinDayLogger(String outputDirectory, Format format, int stateWidth, int queueCapacity, OverflowPolicy overflowPolicy) {
         // Ensure path uses proper separators
-        System.out.println("DEBUG: Logger is being initialized for path: " + outputDirectory);
-        this.logPath = outputDirectory + File.separator + "withinday_log.xml";
-        initXmlFile();
+        System.out.println("DEBUG: " + (queueCapacity > 0 ? "Asynchronous " : "") + format + " logger is being initialized for path: " + outputDirectory);
+        this.format = format;
+        this.logPath = outputDirectory + File.separator + (format == Format.binary ? BinaryReplanningLogWriter.FILE_NAME : "withinday_log.xml");
+        this.ring = (queueCapacity > 0) ? new ReplanningEventRing(queueCapacity, format == Format.binary ? stateWidth : 0) : null;
+        this.overflowPolicy = overflowPolicy;
+        if (format == Format.binary) {
+            initBinaryFile(stateWidth);
+        } else {
+            initXmlFile();
+        }
+        if (ring != null) startWriter();
+        setupShutdownHook();
     }
 
 private void initXmlFile() {
@@ -25,66 +81,229 @@ private void initXmlFile() {
             if (file.getParentFile() != null) file.getParentFile().mkdirs();
 
             try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(logPath, false)))) {
-                writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-                writer.println("<withinDayReplanningLog>");
+                xml.writeHeader(writer);
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    // 2. Synchronized ensures Thread-Safety for Parallel Replanners
-    public synchronized void logReplanningEvent(int iteration, double time, Id<Person> agentId, String mode) {
-        if (isClosed) return;
+    private void initBinaryFile(int stateWidth) {
+        try {
+            File file = new File(logPath);
+            if (file.getParentFile() != null) file.getParentFile().mkdirs();
+            this.binary = new BinaryReplanningLogWriter(file.toPath(), stateWidth);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-        try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(logPath, true)))) {
-            
-            if (iteration != lastIteration) {
-                if (lastIteration != -1) {
-                    writer.println("    </simTime>");
-                    writer.println("</iteration>");
+    public void logReplanningEvent(int iteration, double time, Id<Person> agentId, String mode) {
+        logReplanningEvent(iteration, time, agentId, mode, -1, null, 0);
+    }
+
+    /**
+     * @param action policy action code, -1 if the mode was not chosen by a policy
+     * @param state decision state of the agent starting at stateOffset, may be null. Only kept by the binary format.
+     */
+    public void logReplanningEvent(int iteration, double time, Id<Person> agentId, String mode, int action, float[] state, int stateOffset) {
+        DecisionListener listener = decisionListener;
+        if (listener != null) listener.onDecision(time, agentId, mode, action);
+        if (ring == null) {
+            logSynchronously(iteration, time, agentId, mode, action, state, stateOffset);
+            return;
+        }
+        if (closing) return;
+        if (failed) {
+            droppedEvents.incrementAndGet();
+            return;
+        }
+
+        if (!ring.offer(iteration, time, agentId, mode, action, state, stateOffset)) {
+            if (overflowPolicy == OverflowPolicy.drop) {
+                droppedEvents.incrementAndGet();
+                return;
+            }
+            // Backpressure: wait for the writer to free a slot
+            int spins = 0;
+            while (!ring.offer(iteration, time, agentId, mode, action, state, stateOffset)) {
+                if (closing || failed) {
+                    droppedEvents.incrementAndGet();
+                    return;
                 }
-                writer.println("<iteration id=\"" + iteration + "\">");
-                lastIteration = iteration;
-                lastTime = -1.0; 
+                if (++spins < 100) Thread.onSpinWait();
+                else LockSupport.parkNanos(WRITER_IDLE_NANOS);
             }
+        }
+    }
 
-            if (time != lastTime) {
-                if (lastTime != -1.0) {
-                    writer.println("    </simTime>");
-                }
-                writer.println("    <simTime seconds=\"" + time + "\" display=\"" + Time.writeTime(time) + "\">");
-                lastTime = time;
+    // 2. Synchronized ensures Thread-Safety for Parallel Replanners
+    private synchronized void logSynchronously(int iteration, double time, Id<Person> agentId, String mode, int action, float[] state, int stateOffset) {
+        if (isClosed) return;
+
+        if (format == Format.binary) {
+            try {
+                if (binary != null) binary.write(iteration, time, agentId, mode, action, state, stateOffset);
+            } catch (IOException e) {
+                e.printStackTrace();
             }
+            return;
+        }
 
-            writer.println("        <agent id=\"" + agentId + "\">");
-            writer.println("            <mode>" + mode + "</mode>");
-            writer.println("        </agent>");
-            
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(logPath, true)))) {
+            xml.writeEvent(writer, iteration, time, agentId, mode);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    private void startWriter() {
+        this.writerThread = new Thread(this::runWriter, "WithinDayLogger-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    // Body of the single writer thread: one open channel, flushed whenever the queue runs empty. After an
+    // error the thread keeps emptying the queue without writing, so that no producer waits for a slot.
+    private void runWriter() {
+        if (format == Format.binary) {
+            // the error of the file creation has been reported already
+            if (binary == null) failed = true;
+            drainUntilClosed((iteration, time, agentId, mode, action, state, stateOffset) -> {
+                if (failed) {
+                    droppedEvents.incrementAndGet();
+                    return;
+                }
+                try {
+                    binary.write(iteration, time, agentId, mode, action, state, stateOffset);
+                } catch (IOException e) {
+                    fail(e);
+                    droppedEvents.incrementAndGet();
+                }
+            }, () -> {
+                if (failed) return;
+                try {
+                    binary.flush();
+                } catch (IOException e) {
+                    fail(e);
+                }
+            });
+            return;
+        }
+
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(Paths.get(logPath), StandardCharsets.UTF_8,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND))) {
+            drainUntilClosed((iteration, time, agentId, mode, action, state, stateOffset) -> {
+                if (failed) {
+                    droppedEvents.incrementAndGet();
+                } else {
+                    xml.writeEvent(writer, iteration, time, agentId, mode);
+                }
+            }, () -> {
+                if (failed) return;
+                // the PrintWriter keeps its errors to itself
+                writer.flush();
+                if (writer.checkError()) fail(new IOException("Could not write " + logPath));
+            });
+            if (!failed) xml.writeFooter(writer);
+        } catch (IOException e) {
+            fail(e);
+            drainUntilClosed((iteration, time, agentId, mode, action, state, stateOffset) -> droppedEvents.incrementAndGet(), () -> { });
+        }
+    }
+
+    private void fail(Exception e) {
+        if (failed) return;
+        failed = true;
+        System.err.println("WithinDay Log writer failed, the following events are dropped: " + e.getMessage());
+        e.printStackTrace();
+    }
+
+    private void drainUntilClosed(ReplanningEventRing.RecordConsumer consumer, Runnable flush) {
+        while (true) {
+            int written;
+            try {
+                written = ring.drain(consumer, WRITER_BATCH_SIZE);
+            } catch (RuntimeException e) {
+                // the record is taken again, and dropped, by the next drain
+                fail(e);
+                continue;
+            }
+            if (written == 0) {
+                if (ring.isEmpty()) {
+                    flush.run();
+                    if (closing) break;
+                    LockSupport.parkNanos(WRITER_IDLE_NANOS);
+                } else {
+                    // a producer has claimed a slot but not yet published it
+                    Thread.onSpinWait();
+                }
+            }
+        }
+    }
+
     // 3. The Shutdown Hook: Closes the XML tags even if you stop the simulation manually
     private void setupShutdownHook() {
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        this.shutdownHook = new Thread(() -> {
             closeLog();
-        }));
+        });
+        Runtime.getRuntime().addShutdownHook(this.shutdownHook);
     }
 
     public synchronized void closeLog() {
         if (isClosed) return;
-        try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(logPath, true)))) {
-            if (lastIteration != -1) {
-                writer.println("    </simTime>");
-                writer.println("</iteration>");
+
+        if (ring != null) {
+            // Let the writer drain the queue (and write the closing tags) before the file is closed
+            closing = true;
+            LockSupport.unpark(writerThread);
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (droppedEvents.get() > 0) {
+                System.err.println("WithinDay Log dropped " + droppedEvents.get() + " events because "
+                        + (failed ? "the writer failed." : "the queue was full."));
+            }
+        }
+
+        try {
+            if (format == Format.binary) {
+                if (binary != null) binary.close();
+            } else if (ring == null) {
+                try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(logPath, true)))) {
+                    xml.writeFooter(writer);
+                }
             }
-            writer.println("</withinDayReplanningLog>");
-            isClosed = true;
-            System.out.println("Successfully closed WithinDay Log.");
         } catch (IOException e) {
             e.printStackTrace();
+            return;
+        }
+        isClosed = true;
+        removeShutdownHook();
+        System.out.println("Successfully closed WithinDay Log.");
+    }
+
+    private void removeShutdownHook() {
+        if (Thread.currentThread() == shutdownHook) return;
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // JVM is already shutting down, the hook runs anyway
         }
     }
+
+    public void setDecisionListener(DecisionListener decisionListener) {
+        this.decisionListener = decisionListener;
+    }
+
+    /** @return true if the asynchronous writer could not write and drops the events */
+    public boolean hasFailed() {
+        return failed;
+    }
+
+    public long getDroppedEvents() {
+        return droppedEvents.get();
+    }
 }
@@ -0,0 +1,52 @@
+package org.matsim.withinday.siouxfalls.utils;
+
+import java.io.PrintWriter;
+
+import org.matsim.core.utils.misc.Time;
+
+/**
+ * Layout of <code>withinday_log.xml</code>. Remembers the open <code>&lt;iteration&gt;</code> and
+ * <code>&lt;simTime&gt;</code> elements, so events have to be passed in time order by a single thread.
+ */
+public final class XmlReplanningLogWriter {
+
+    private double lastTime = -1.0;
+    private int lastIteration = -1;
+
+    public void writeHeader(PrintWriter writer) {
+        writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        writer.println("<withinDayReplanningLog>");
+    }
+
+    public void writeEvent(PrintWriter writer, int iteration, double time, Object agentId, String mode) {
+        if (iteration != lastIteration) {
+            if (lastIteration != -1) {
+                writer.println("    </simTime>");
+                writer.println("</iteration>");
+            }
+            writer.println("<iteration id=\"" + iteration + "\">");
+            lastIteration = iteration;
+            lastTime = -1.0;
+        }
+
+        if (time != lastTime) {
+            if (lastTime != -1.0) {
+                writer.println("    </simTime>");
+            }
+            writer.println("    <simTime seconds=\"" + time + "\" display=\"" + Time.writeTime(time) + "\">");
+            lastTime = time;
+        }
+
+        writer.println("        <agent id=\"" + agentId + "\">");
+        writer.println("            <mode>" + mode + "</mode>");
+        writer.println("        </agent>");
+    }
+
+    public void writeFooter(PrintWriter writer) {
+        if (lastIteration != -1) {
+            writer.println("    </simTime>");
+            writer.println("</iteration>");
+        }
+        writer.println("</withinDayReplanningLog>");
+    }
+}
@@ -0,0 +1,232 @@
+package org.matsim.withinday.siouxfalls.src.checkpoint;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.PopulationFactory;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.PrepareForSimUtils;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.handler.BasicEventHandler;
+import org.matsim.core.mobsim.framework.listeners.MobsimBeforeSimStepListener;
+import org.matsim.core.mobsim.qsim.QSim;
+import org.matsim.core.mobsim.qsim.QSimBuilder;
+import org.matsim.core.population.routes.RouteUtils;
+import org.matsim.core.router.TripStructureUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.pt.transitSchedule.api.Departure;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitRouteStop;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitScheduleFactory;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import org.matsim.withinday.siouxfalls.src.modules.RLConfigGroup;
+
+public class PlanCheckpointTest {
+
+	// Everybody is at work
+	private static final double QUIET_TIME = 12 * 3600;
+
+	@TempDir
+	Path outputDirectory;
+
+	@Test
+	void testPlanStartsAtCurrentActivity() {
+		Scenario scenario = ScenarioUtils.createScenario(ConfigUtils.createConfig());
+		PopulationFactory factory = scenario.getPopulation().getFactory();
+		Person person = factory.createPerson(Id.createPersonId("1"));
+
+		// home - walk - pt interaction - pt - work - car - home
+		Plan plan = factory.createPlan();
+		Activity home = factory.createActivityFromLinkId("home", Id.createLinkId("1"));
+		home.setEndTime(7 * 3600);
+		plan.addActivity(home);
+		plan.addLeg(factory.createLeg("walk"));
+		plan.addActivity(factory.createInteractionActivityFromLinkId("pt interaction", Id.createLinkId("2")));
+		plan.addLeg(factory.createLeg("pt"));
+		Activity work = factory.createActivityFromLinkId("work", Id.createLinkId("3"));
+		work.setEndTime(16 * 3600);
+		plan.addActivity(work);
+		plan.addLeg(factory.createLeg("car"));
+		plan.addActivity(factory.createActivityFromLinkId("home", Id.createLinkId("1")));
+
+		// At work, within-day moved the end of the activity to 17:00
+		Plan atWork = PlanCheckpoint.createPlan(person, plan, 4, 17 * 3600);
+		assertEquals(3, atWork.getPlanElements().size());
+		Activity first = (Activity) atWork.getPlanElements().get(0);
+		assertEquals("work", first.getType());
+		assertEquals(17 * 3600, first.getEndTime().seconds(), 0.0);
+		// the executed plan is not touched
+		assertEquals(16 * 3600, work.getEndTime().seconds(), 0.0);
+
+		// On the pt leg: the trip starts again at home, not at the stage activity
+		assertEquals(0, PlanCheckpoint.findTripStart(plan, 3));
+		assertEquals(4, PlanCheckpoint.findTripStart(plan, 5));
+
+		// At the last activity: no end time
+		Plan atHome = PlanCheckpoint.createPlan(person, plan, 6, Double.POSITIVE_INFINITY);
+		assertEquals(1, atHome.getPlanElements().size());
+		assertEquals(false, ((Activity) atHome.getPlanElements().get(0)).getEndTime().isDefined());
+	}
+
+	@Test
+	void testTransitDeparturesBeforeCheckpoint() {
+		Scenario scenario = ScenarioUtils.createScenario(ConfigUtils.createConfig());
+		TransitSchedule schedule = scenario.getTransitSchedule();
+		TransitScheduleFactory factory = schedule.getFactory();
+		TransitStopFacility a = factory.createTransitStopFacility(Id.create("a", TransitStopFacility.class), new Coord(0, 0), false);
+		TransitStopFacility b = factory.createTransitStopFacility(Id.create("b", TransitStopFacility.class), new Coord(1000, 0), false);
+		schedule.addStopFacility(a);
+		schedule.addStopFacility(b);
+
+		// 30 minutes from a to b, every hour from 04:00 to 07:00
+		List<TransitRouteStop> stops = List.of(factory.createTransitRouteStop(a, 0, 0), factory.createTransitRouteStop(b, 1800, 1800));
+		TransitRoute route = factory.createTransitRoute(Id.create("route", TransitRoute.class), null, stops, "bus");
+		for (int hour = 4; hour <= 7; hour++) {
+			route.addDeparture(factory.createDeparture(Id.create("dep" + hour, Departure.class), hour * 3600));
+		}
+		TransitLine line = factory.createTransitLine(Id.create("line", TransitLine.class));
+		line.addRoute(route);
+		schedule.addTransitLine(line);
+
+		// 05:15: the 05:00 bus is on its way, the 04:00 bus has arrived
+		PlanCheckpoint checkpoint = PlanCheckpoint.capture(5 * 3600 + 900, Map.of(), scenario);
+		assertEquals(1, checkpoint.getTransitDeparturesInService());
+		assertEquals(0, checkpoint.getPopulation().getPersons().size());
+
+		assertEquals(2, checkpoint.trimTransitSchedule(schedule));
+		assertEquals(2, route.getDepartures().size());
+		assertEquals(0, checkpoint.trimTransitSchedule(schedule));
+	}
+
+	@Test
+	void testRestoredRunHasSameEvents() {
+		Scenario uninterrupted = createCommuteScenario(ConfigUtils.createConfig());
+		List<PlanCheckpoint> checkpoints = new ArrayList<>();
+		List<Map<String, String>> expected = runQSim(uninterrupted, QUIET_TIME, checkpoints);
+		PlanCheckpoint captured = checkpoints.get(0);
+		assertEquals(0, captured.getAgentsInFlight());
+		assertEquals(3, captured.getPopulation().getPersons().size());
+		String directory = outputDirectory.resolve("quiet").toString();
+		captured.write(directory);
+
+		Config config = ConfigUtils.createConfig();
+		ConfigUtils.addOrGetModule(config, RLConfigGroup.class).setCheckpointInput(directory);
+		Scenario restored = createCommuteScenario(config);
+		PlanCheckpoint checkpoint = PlanCheckpoint.restore(restored);
+		assertEquals(QUIET_TIME, config.qsim().getStartTime().seconds(), 0.0);
+		assertEquals(QUIET_TIME, checkpoint.getTime(), 0.0);
+
+		List<Map<String, String>> actual = runQSim(restored, QUIET_TIME, new ArrayList<>());
+		assertTrue(expected.size() > 0);
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	void testRestoreFailsWithAgentsOnLeg() {
+		// 06:00:30: the first commuter left home at 06:00
+		List<PlanCheckpoint> checkpoints = new ArrayList<>();
+		runQSim(createCommuteScenario(ConfigUtils.createConfig()), 6 * 3600 + 30, checkpoints);
+		assertEquals(1, checkpoints.get(0).getAgentsInFlight());
+		String directory = outputDirectory.resolve("travelling").toString();
+		checkpoints.get(0).write(directory);
+
+		Config config = ConfigUtils.createConfig();
+		ConfigUtils.addOrGetModule(config, RLConfigGroup.class).setCheckpointInput(directory);
+		Scenario scenario = createCommuteScenario(config);
+		assertThrows(IllegalStateException.class, () -> PlanCheckpoint.restore(scenario));
+	}
+
+	// Three car commuters between home on link 1 and work on link 3, leaving home at 06:00, 06:05 and 06:10
+	private static Scenario createCommuteScenario(Config config) {
+		Scenario scenario = ScenarioUtils.createScenario(config);
+		Network network = scenario.getNetwork();
+		NetworkFactory networkFactory = network.getFactory();
+		Node[] nodes = new Node[4];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = networkFactory.createNode(Id.createNodeId(i + 1), new Coord(i * 1000, 0));
+			network.addNode(nodes[i]);
+		}
+		int[][] links = { { 0, 1 }, { 1, 2 }, { 2, 3 }, { 3, 2 }, { 2, 1 }, { 1, 0 } };
+		for (int i = 0; i < links.length; i++) {
+			Link link = networkFactory.createLink(Id.createLinkId(i + 1), nodes[links[i][0]], nodes[links[i][1]]);
+			link.setLength(1000);
+			link.setFreespeed(10);
+			link.setCapacity(1800);
+			link.setNumberOfLanes(1);
+			network.addLink(link);
+		}
+
+		PopulationFactory factory = scenario.getPopulation().getFactory();
+		for (int i = 0; i < 3; i++) {
+			Person person = factory.createPerson(Id.createPersonId("commuter" + i));
+			Plan plan = factory.createPlan();
+			Activity home = factory.createActivityFromLinkId("home", Id.createLinkId(1));
+			home.setEndTime(6 * 3600 + i * 300);
+			plan.addActivity(home);
+			plan.addLeg(createCarLeg(factory, 1, List.of(2), 3));
+			Activity work = factory.createActivityFromLinkId("work", Id.createLinkId(3));
+			work.setEndTime(16 * 3600 + i * 300);
+			plan.addActivity(work);
+			plan.addLeg(createCarLeg(factory, 3, List.of(4, 5, 6), 1));
+			plan.addActivity(factory.createActivityFromLinkId("home", Id.createLinkId(1)));
+			person.addPlan(plan);
+			person.setSelectedPlan(plan);
+			scenario.getPopulation().addPerson(person);
+		}
+		return scenario;
+	}
+
+	private static Leg createCarLeg(PopulationFactory factory, int start, List<Integer> route, int end) {
+		Leg leg = factory.createLeg("car");
+		TripStructureUtils.setRoutingMode(leg, "car");
+		List<Id<Link>> linkIds = new ArrayList<>();
+		for (int link : route) linkIds.add(Id.createLinkId(link));
+		leg.setRoute(RouteUtils.createLinkNetworkRouteImpl(Id.createLinkId(start), linkIds, Id.createLinkId(end)));
+		return leg;
+	}
+
+	// Runs the QSim, captures a checkpoint at checkpointTime and returns the events from then on
+	private static List<Map<String, String>> runQSim(Scenario scenario, double checkpointTime, List<PlanCheckpoint> checkpoints) {
+		PrepareForSimUtils.createDefaultPrepareForSim(scenario).run();
+		List<Map<String, String>> events = new ArrayList<>();
+		EventsManager eventsManager = EventsUtils.createEventsManager();
+		eventsManager.addHandler((BasicEventHandler) (Event event) -> {
+			if (event.getTime() >= checkpointTime) events.add(event.getAttributes());
+		});
+
+		QSim qsim = new QSimBuilder(scenario.getConfig()).useDefaults().build(scenario, eventsManager);
+		qsim.addQueueSimulationListeners((MobsimBeforeSimStepListener) e -> {
+			if (checkpoints.isEmpty() && e.getSimulationTime() >= checkpointTime) {
+				checkpoints.add(PlanCheckpoint.capture(e.getSimulationTime(), qsim.getAgents(), scenario));
+			}
+		});
+		eventsManager.initProcessing();
+		qsim.run();
+		eventsManager.finishProcessing();
+		return events;
+	}
+}
@@ -0,0 +1,66 @@
+package org.matsim.withinday.siouxfalls.src.episodes;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.examples.ExamplesUtils;
+
+public class EpisodeRunnerTest {
+
+	private static final long BASE_SEED = 100;
+
+	@TempDir
+	Path outputDirectory;
+
+	@Test
+	void testSingleRunWritesToControllerOutput() {
+		Config config = ConfigUtils.createConfig();
+		config.controller().setOutputDirectory(outputDirectory.resolve("single").toString());
+		config.global().setRandomSeed(42);
+
+		EpisodeContext context = EpisodeContext.single(config);
+		assertEquals(outputDirectory.resolve("single").toString(), context.getOutputDirectory());
+		assertEquals(42, context.getSeed());
+	}
+
+	@Test
+	void testEpisodesRunSideBySide() throws Exception {
+		String configFile = IOUtils.extendUrl(ExamplesUtils.getTestScenarioURL("equil"), "config.xml").toString();
+		// two tiny episodes at the same time
+		List<EpisodeResult> results = new EpisodeRunner(configFile, outputDirectory.toString(), 2).run(2, BASE_SEED);
+
+		List<String> csv = Files.readAllLines(outputDirectory.resolve("episodes.csv"));
+		assertEquals(3, csv.size());
+		assertEquals(EpisodeResult.CSV_HEADER, csv.get(0));
+		assertEquals(2, results.size());
+		for (int episode = 0; episode < results.size(); episode++) {
+			EpisodeResult result = results.get(episode);
+			long seed = BASE_SEED + episode;
+			Path directory = outputDirectory.resolve("episode_" + episode);
+			assertTrue(result.isSuccess(), "episode " + episode + " failed: " + result.getError());
+			assertEquals(episode, result.getEpisodeId());
+			assertEquals(seed, result.getSeed());
+			assertEquals(directory.toString(), result.getOutputDirectory());
+
+			// its own within-day log and controller output, with the seed of the episode
+			assertTrue(Files.exists(directory.resolve("withinday_log.xml")), "no within-day log in " + directory);
+			String outputConfig = Files.readString(directory.resolve("output_config.xml"));
+			assertTrue(outputConfig.contains("\"randomSeed\" value=\"" + seed + "\""), "seed of episode " + episode);
+
+			String line = csv.get(episode + 1);
+			assertTrue(line.startsWith(episode + "," + seed + ",ok,"), line);
+			assertTrue(line.contains("," + directory + ","), line);
+		}
+		assertNotEquals(results.get(0).getOutputDirectory(), results.get(1).getOutputDirectory());
+	}
+}
@@ -0,0 +1,63 @@
+package org.matsim.withinday.siouxfalls.src.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ReplanningMetricsTest {
+
+	@TempDir
+	Path outputDirectory;
+
+	@Test
+	void testHistogramPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long micros = 1; micros <= 1000; micros++) histogram.record(micros * 1000);
+
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1_000_000, histogram.getMax());
+		// buckets are 1/16 of a power of two wide
+		assertEquals(500_000, histogram.getPercentile(50), 500_000 / 16.0);
+		assertEquals(990_000, histogram.getPercentile(99), 990_000 / 16.0);
+		assertEquals(1_000_000, histogram.getPercentile(100));
+	}
+
+	@Test
+	void testBinsPerIteration() throws Exception {
+		ReplanningMetrics metrics = new ReplanningMetrics(900.0, 1.0);
+		for (double time = 0; time < 1800; time++) {
+			metrics.startTimeStep(time);
+			metrics.recordIdentification(2, 1000);
+			metrics.recordPolicy(2, 5000);
+			metrics.recordReplanning(20_000);
+			metrics.recordRouting(15_000);
+		}
+		Path file = outputDirectory.resolve(ReplanningMetrics.FILE_NAME);
+		metrics.writeIteration(0, file.toString());
+
+		List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		assertEquals(3, lines.size());
+		assertTrue(lines.get(1).startsWith("0,00:00:00,00:15:00,1800,900,1800,"));
+		assertTrue(lines.get(2).startsWith("0,00:15:00,00:30:00,1800,900,1800,"));
+
+		String summary = metrics.getSummary();
+		assertTrue(summary.contains("3600 agents identified, 1800 replanned"), summary);
+		assertTrue(summary.contains("1800 s simulated"), summary);
+	}
+
+	@Test
+	void testSimulatedTimeWithLongerSteps() {
+		ReplanningMetrics metrics = new ReplanningMetrics(900.0, 5.0);
+		for (double time = 0; time < 1800; time += 5) metrics.startTimeStep(time);
+
+		String summary = metrics.getSummary();
+		assertTrue(summary.contains("1800 s simulated"), summary);
+	}
+}
@@ -0,0 +1,120 @@
+package org.matsim.withinday.siouxfalls.src.policy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class DecisionPrefetcherTest {
+
+	// time, departure, a congestion feature
+	private static final boolean[] CLOCK_COLUMNS = { true, false, false };
+
+	@Test
+	void testPrefetchedActionsAndDrift() throws Exception {
+		// Stand-in policy: always the second mode
+		DecisionPrefetcher prefetcher = new DecisionPrefetcher(batch -> {
+			for (int row = 0; row < batch.size(); row++) batch.setAction(row, 1);
+		}, false, CLOCK_COLUMNS, 0.1);
+
+		DecisionBatch ahead = new DecisionBatch(3, 4);
+		ahead.clear(100);
+		for (int agent = 0; agent < 3; agent++) {
+			int row = ahead.addRow(agent, 0);
+			ahead.setState(row, 0, 100);
+			ahead.setState(row, 1, 160);
+			ahead.setState(row, 2, 0.5f);
+		}
+		prefetcher.submit(ahead, new double[] { 160, 160, 160 });
+		prefetcher.awaitPending();
+		assertEquals(3, prefetcher.size());
+
+		DecisionBatch atDeparture = new DecisionBatch(3, 4);
+		atDeparture.clear(160);
+		// only the clock moved
+		int same = atDeparture.addRow(0, 0);
+		atDeparture.setState(same, 0, 160);
+		atDeparture.setState(same, 1, 160);
+		atDeparture.setState(same, 2, 0.55f);
+		// congestion changed
+		int drifted = atDeparture.addRow(1, 0);
+		atDeparture.setState(drifted, 0, 160);
+		atDeparture.setState(drifted, 1, 160);
+		atDeparture.setState(drifted, 2, 0.9f);
+		// never prefetched
+		int unknown = atDeparture.addRow(7, 0);
+
+		assertTrue(prefetcher.apply(atDeparture, same));
+		assertEquals(1, atDeparture.getAction(same));
+		assertFalse(prefetcher.apply(atDeparture, drifted));
+		assertEquals(0, atDeparture.getAction(drifted));
+		assertFalse(prefetcher.apply(atDeparture, unknown));
+		assertEquals(1, prefetcher.getHits());
+
+		// the third agent did not show up at 160
+		prefetcher.expire(161);
+		assertEquals(0, prefetcher.size());
+		// all rows used or forgotten, the batch is taken again
+		DecisionBatch next = prefetcher.takeBatch(170);
+		assertSame(ahead, next);
+		assertEquals(0, next.size());
+		prefetcher.close();
+	}
+
+	@Test
+	void testEngineCallHoldsBackPrefetchOnSharedPolicy() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger calls = new AtomicInteger();
+		DecisionPrefetcher prefetcher = new DecisionPrefetcher(batch -> {
+			calls.incrementAndGet();
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, true, CLOCK_COLUMNS, 0.1);
+
+		prefetcher.submit(batch(0), new double[] { 160 });
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		Thread releaser = new Thread(() -> {
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				return;
+			}
+			release.countDown();
+		});
+		releaser.start();
+		// the engine waits for the running prefetch call
+		prefetcher.beginEngineCall();
+		assertTrue(prefetcher.getEngineWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(50));
+
+		// and a prefetch call sent meanwhile waits for the engine
+		prefetcher.submit(batch(1), new double[] { 160 });
+		Thread.sleep(100);
+		assertEquals(1, calls.get());
+		prefetcher.endEngineCall();
+		prefetcher.awaitPending();
+		assertEquals(2, calls.get());
+		assertTrue(prefetcher.getSummary().contains("engine waited"));
+		releaser.join();
+		prefetcher.close();
+	}
+
+	private static DecisionBatch batch(int agent) {
+		DecisionBatch batch = new DecisionBatch(3, 1);
+		batch.clear(100);
+		int row = batch.addRow(agent, 0);
+		batch.setState(row, 0, 100);
+		batch.setState(row, 1, 160);
+		return batch;
+	}
+}
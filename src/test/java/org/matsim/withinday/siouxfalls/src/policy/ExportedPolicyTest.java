@@ -0,0 +1,93 @@
+package org.matsim.withinday.siouxfalls.src.policy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ExportedPolicyTest {
+
+	@TempDir
+	Path outputDirectory;
+
+	@Test
+	void testQTable() throws Exception {
+		// time (column 0) before/after 9:00 x current mode (column 2) car/other, 2 actions
+		ByteBuffer buffer = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(ExportedPolicy.QTABLE_MAGIC).putInt(ExportedPolicy.VERSION).putInt(DecisionBroker.STATE_WIDTH).putInt(2).putInt(2);
+		buffer.putInt(0).putInt(2).putFloat(9 * 3600);
+		buffer.putInt(2).putInt(2).putFloat(1);
+		float[] q = {
+				1, 0, // early, car: stay
+				0, 1, // early, other: stay
+				0, 1, // late, car: switch
+				Float.NaN, Float.NaN }; // late, other: never visited
+		for (float value : q) buffer.putFloat(value);
+		Path file = write("qtable.bin", buffer);
+
+		DecisionPolicy policy = ExportedPolicy.load(file, DecisionBroker.STATE_WIDTH, 2);
+		assertTrue(policy instanceof QTablePolicy);
+		DecisionBatch batch = new DecisionBatch(DecisionBroker.STATE_WIDTH, 4);
+		batch.clear(0.0);
+		addRow(batch, 8 * 3600, 0);
+		addRow(batch, 8 * 3600, 1);
+		addRow(batch, 9 * 3600, 0);
+		addRow(batch, 10 * 3600, 1);
+		policy.decide(batch);
+		assertEquals(0, batch.getAction(0));
+		assertEquals(1, batch.getAction(1));
+		assertEquals(1, batch.getAction(2));
+		// no finite Q-value, keeps the current action
+		assertEquals(1, batch.getAction(3));
+
+		assertThrows(IOException.class, () -> ExportedPolicy.load(file, DecisionBroker.STATE_WIDTH, 3));
+	}
+
+	@Test
+	void testMlp() throws Exception {
+		// hidden = relu(h - 9.5, 9.5 - h) with h the hour, output = (hidden_1, hidden_0): car before 9:30, pt after
+		float hour = 1.0f / 3600;
+		ByteBuffer buffer = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(ExportedPolicy.MLP_MAGIC).putInt(ExportedPolicy.VERSION).putInt(DecisionBroker.STATE_WIDTH).putInt(2).putInt(2);
+		buffer.putInt(DecisionBroker.STATE_WIDTH).putInt(2).putInt(MlpPolicy.Activation.relu.ordinal());
+		buffer.putFloat(hour).putFloat(0).putFloat(0).putFloat(-hour).putFloat(0).putFloat(0);
+		buffer.putFloat(-9.5f).putFloat(9.5f);
+		buffer.putInt(2).putInt(2).putInt(MlpPolicy.Activation.linear.ordinal());
+		buffer.putFloat(0).putFloat(1).putFloat(1).putFloat(0);
+		buffer.putFloat(0).putFloat(0);
+		Path file = write("mlp.bin", buffer);
+
+		DecisionPolicy policy = ExportedPolicy.load(file, DecisionBroker.STATE_WIDTH, 2);
+		assertTrue(policy instanceof MlpPolicy);
+		DecisionBatch batch = new DecisionBatch(DecisionBroker.STATE_WIDTH, 1);
+		for (int step = 0; step < 2; step++) {
+			batch.clear(step);
+			for (int h = 6; h < 12; h++) addRow(batch, h * 3600, 1);
+			policy.decide(batch);
+			for (int row = 0; row < batch.size(); row++) assertEquals((row + 6 < 10) ? 0 : 1, batch.getAction(row));
+		}
+
+		assertThrows(IOException.class, () -> ExportedPolicy.load(file, DecisionBroker.STATE_WIDTH + 1, 2));
+	}
+
+	private static void addRow(DecisionBatch batch, double time, int currentAction) {
+		int row = batch.addRow(batch.size(), currentAction);
+		batch.setState(row, 0, (float) time);
+		batch.setState(row, 2, currentAction);
+	}
+
+	private Path write(String name, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return Files.write(outputDirectory.resolve(name), bytes);
+	}
+}
@@ -0,0 +1,91 @@
+package org.matsim.withinday.siouxfalls.src.policy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.Test;
+
+public class PolicyTimeoutTest {
+
+	@Test
+	void testFallbackAndLateReply() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch lateAnswer = new CountDownLatch(1);
+		// Stand-in policy: always the second mode, hangs in the second call until released
+		int[] calls = { 0 };
+		DecisionPolicy slowPolicy = batch -> {
+			if (++calls[0] == 2) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			for (int row = 0; row < batch.size(); row++) batch.setAction(row, 1);
+			if (calls[0] == 2) lateAnswer.countDown();
+		};
+		// Fallback: always the third mode
+		DecisionPolicy fallback = batch -> {
+			for (int row = 0; row < batch.size(); row++) batch.setAction(row, 2);
+		};
+		PolicyTimeout timeout = new PolicyTimeout(slowPolicy, fallback, 0.05, 3, null);
+
+		// in time
+		DecisionBatch batch = batch(0, 3);
+		timeout.decide(batch);
+		assertEquals(1, batch.getAction(2));
+
+		// hangs, the fallback decides
+		batch = batch(1, 2);
+		timeout.decide(batch);
+		assertEquals(2, batch.getAction(0));
+		assertEquals(1, timeout.getTimeouts());
+
+		// still hanging, the next step falls back without waiting
+		batch = batch(2, 4);
+		timeout.decide(batch);
+		assertEquals(2, batch.getAction(3));
+		assertEquals(6, timeout.getFallbackRows());
+
+		// the late answer is dropped, the policy decides again
+		release.countDown();
+		lateAnswer.await();
+		Thread.sleep(10);
+		batch = batch(3, 1);
+		timeout.decide(batch);
+		assertEquals(1, batch.getAction(0));
+		assertEquals(1, timeout.getLateReplies());
+		assertEquals(1, timeout.getTimeouts());
+		timeout.close();
+	}
+
+	@Test
+	void testCurrentModesWithoutFallback() throws Exception {
+		PolicyTimeout timeout = new PolicyTimeout(batch -> {
+			try {
+				Thread.sleep(1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, null, 0.01, 3, null);
+		DecisionBatch batch = new DecisionBatch(3, 2);
+		batch.clear(0);
+		batch.addRow(0, 1);
+		batch.addRow(1, ModeActions.UNKNOWN);
+		timeout.decide(batch);
+		assertEquals(1, batch.getAction(0));
+		assertEquals(ModeActions.UNKNOWN, batch.getAction(1));
+		timeout.close();
+	}
+
+	private static DecisionBatch batch(double time, int rows) {
+		DecisionBatch batch = new DecisionBatch(3, rows);
+		batch.clear(time);
+		for (int agent = 0; agent < rows; agent++) {
+			int row = batch.addRow(agent, 0);
+			batch.setState(row, 0, (float) time);
+		}
+		return batch;
+	}
+}
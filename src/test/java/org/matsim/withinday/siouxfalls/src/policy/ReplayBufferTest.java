@@ -0,0 +1,131 @@
+package org.matsim.withinday.siouxfalls.src.policy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ReplayBufferTest {
+
+	@TempDir
+	Path outputDirectory;
+
+	@Test
+	void testTransitionsRingAndRestart() throws Exception {
+		Path file = outputDirectory.resolve(ReplayBuffer.FILE_NAME);
+		// every trip is worth minus the person index
+		ReplayBuffer.RewardSource rewards = (person, time) -> -person;
+		float[] states = { 1, 2, 10, 20, 100, 200 };
+
+		try (ReplayBuffer replay = new ReplayBuffer(file, 2, 4, 3, rewards)) {
+			// agent 1 decides at 8:00 and 17:00, agent 2 at 9:00 only
+			replay.add(0, 1, 8 * 3600, states, 0, 1);
+			replay.add(0, 2, 9 * 3600, states, 2, 0);
+			assertEquals(0, replay.getHead());
+			replay.add(0, 1, 17 * 3600, states, 4, 2);
+			assertEquals(1, replay.getHead());
+
+			assertTrue(replay.isPublished(0));
+			assertEquals(1, replay.getAgentIndex(0));
+			assertEquals(8 * 3600, replay.getTime(0), 0.0);
+			assertEquals(1, replay.getAction(0));
+			assertEquals(-1.0f, replay.getReward(0), 0.0f);
+			assertFalse(replay.isDone(0));
+			assertEquals(2.0f, replay.getState(0, 1), 0.0f);
+			assertEquals(200.0f, replay.getNextState(0, 1), 0.0f);
+
+			replay.endEpisode();
+			assertEquals(3, replay.getHead());
+			assertTrue(replay.isDone(1));
+			assertTrue(replay.isDone(2));
+			assertEquals(0.0f, replay.getNextState(2, 0), 0.0f);
+		}
+
+		// the next run continues the ring and overwrites the oldest transitions
+		try (ReplayBuffer replay = new ReplayBuffer(file, 2, 4, 3, rewards)) {
+			assertEquals(3, replay.getHead());
+			for (int decision = 0; decision < 3; decision++) replay.add(1, 0, decision * 3600, states, 2 * decision, decision);
+			assertEquals(5, replay.getHead());
+			assertEquals(1, replay.getTail());
+			assertFalse(replay.isPublished(0));
+			assertTrue(replay.isPublished(4));
+			assertEquals(1, replay.getIteration(4));
+			assertEquals(10.0f, replay.getState(4, 0), 0.0f);
+			assertEquals(100.0f, replay.getNextState(4, 0), 0.0f);
+		}
+
+		// another layout does not silently reuse the file
+		assertThrows(IOException.class, () -> new ReplayBuffer(file, 3, 4, 3, rewards));
+	}
+
+	@Test
+	void testReaderNeverSeesTornTransitions() throws Exception {
+		int writers = 4;
+		int personsPerWriter = 8;
+		int decisions = 2000;
+		Path file = outputDirectory.resolve("concurrent_" + ReplayBuffer.FILE_NAME);
+
+		// a small ring, so that the reader often races with a writer overwriting the record
+		try (ReplayBuffer replay = new ReplayBuffer(file, 2, 16, writers * personsPerWriter, (person, time) -> -person)) {
+			// decision d of person p: state (1000 p + d, 1000 p + d) and action d at time 10 d
+			List<Thread> threads = new ArrayList<>();
+			for (int writer = 0; writer < writers; writer++) {
+				int firstPerson = writer * personsPerWriter;
+				threads.add(new Thread(() -> {
+					for (int decision = 0; decision < decisions; decision++) {
+						for (int person = firstPerson; person < firstPerson + personsPerWriter; person++) {
+							float value = 1000 * person + decision;
+							replay.add(0, person, 10 * decision, new float[] { value, value }, 0, decision);
+						}
+					}
+				}));
+			}
+
+			AtomicBoolean writing = new AtomicBoolean(true);
+			List<String> torn = new ArrayList<>();
+			long[] checked = new long[1];
+			Thread reader = new Thread(() -> {
+				while (writing.get()) {
+					long head = replay.getHead();
+					for (long sequence = Math.max(replay.getTail(), head - 16); sequence < head; sequence++) {
+						if (!replay.isPublished(sequence)) continue;
+						int agent = replay.getAgentIndex(sequence);
+						int action = replay.getAction(sequence);
+						double time = replay.getTime(sequence);
+						float reward = replay.getReward(sequence);
+						float state = replay.getState(sequence, 0);
+						float state1 = replay.getState(sequence, 1);
+						float nextState = replay.getNextState(sequence, 0);
+						if (!replay.isPublished(sequence)) continue;
+
+						checked[0]++;
+						float expected = 1000 * agent + action;
+						if (state != expected || state1 != expected || nextState != expected + 1 || time != 10 * action || reward != -agent) {
+							torn.add("transition " + sequence + ": agent " + agent + ", action " + action + ", time " + time + ", reward " + reward
+									+ ", state " + state + "/" + state1 + ", next state " + nextState);
+						}
+					}
+				}
+			});
+
+			reader.start();
+			for (Thread thread : threads) thread.start();
+			for (Thread thread : threads) thread.join();
+			writing.set(false);
+			reader.join();
+
+			assertTrue(torn.isEmpty(), torn.isEmpty() ? "" : torn.get(0));
+			assertTrue(checked[0] > 0);
+			assertEquals(writers * personsPerWriter * (decisions - 1), replay.getHead());
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package org.matsim.withinday.siouxfalls.src.policy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SharedMemoryDecisionPolicyTest {
+
+	@TempDir
+	Path outputDirectory;
+
+	@Test
+	void testBatchRoundTripThroughSharedMemory() throws Exception {
+		// Stand-in policy: choose the mode code stored in the last state column
+		DecisionPolicy lastColumnPolicy = batch -> {
+			for (int row = 0; row < batch.size(); row++) {
+				batch.setAction(row, (int) batch.getState(row, batch.getStateWidth() - 1));
+			}
+		};
+		Path file = outputDirectory.resolve("policy.shm");
+
+		// fewer rows per request than in the batch, so the client has to split it
+		try (SharedMemoryPolicyServer server = new SharedMemoryPolicyServer(file, lastColumnPolicy, DecisionBroker.STATE_WIDTH, 300);
+			 SharedMemoryDecisionPolicy client = new SharedMemoryDecisionPolicy(file, DecisionBroker.STATE_WIDTH)) {
+
+			DecisionBatch batch = new DecisionBatch(DecisionBroker.STATE_WIDTH, 2);
+			for (int step = 0; step < 3; step++) {
+				batch.clear(6 * 3600 + step);
+				for (int i = 0; i < 1000; i++) {
+					int row = batch.addRow(i, 0);
+					batch.setState(row, 0, (float) batch.getTime());
+					batch.setState(row, 2, (i + step) % 5);
+				}
+				client.decide(batch);
+
+				assertEquals(1000, batch.size());
+				for (int row = 0; row < batch.size(); row++) {
+					assertEquals(row, batch.getAgentIndex(row));
+					assertEquals((row + step) % 5, batch.getAction(row));
+				}
+			}
+
+			// an empty step needs no round trip
+			batch.clear(7 * 3600);
+			client.decide(batch);
+			assertEquals(0, batch.size());
+		}
+	}
+
+	@Test
+	void testClosedServerAndWrongWidth() throws Exception {
+		Path file = outputDirectory.resolve("policy.shm");
+		SharedMemoryPolicyServer server = new SharedMemoryPolicyServer(file, new CurrentModePolicy(), DecisionBroker.STATE_WIDTH, 8);
+
+		assertThrows(IOException.class, () -> new SharedMemoryDecisionPolicy(file, DecisionBroker.STATE_WIDTH + 1));
+
+		try (SharedMemoryDecisionPolicy client = new SharedMemoryDecisionPolicy(file, DecisionBroker.STATE_WIDTH)) {
+			DecisionBatch batch = new DecisionBatch(DecisionBroker.STATE_WIDTH, 8);
+			batch.clear(0.0);
+			batch.addRow(7, 3);
+			batch.addRow(8, ModeActions.UNKNOWN);
+			batch.setAction(0, 1);
+			client.decide(batch);
+			assertEquals(3, batch.getAction(0));
+			assertEquals(ModeActions.UNKNOWN, batch.getAction(1));
+
+			server.close();
+			assertThrows(IOException.class, () -> client.decide(batch));
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package org.matsim.withinday.siouxfalls.src.policy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class SocketDecisionPolicyTest {
+
+	@Test
+	void testBatchRoundTripThroughLocalServer() throws Exception {
+		// Stand-in policy: choose the mode code stored in the last state column
+		DecisionPolicy lastColumnPolicy = batch -> {
+			for (int row = 0; row < batch.size(); row++) {
+				batch.setAction(row, (int) batch.getState(row, batch.getStateWidth() - 1));
+			}
+		};
+
+		try (LocalPolicyServer server = new LocalPolicyServer(lastColumnPolicy, DecisionBroker.STATE_WIDTH);
+			 SocketDecisionPolicy client = new SocketDecisionPolicy("localhost", server.getPort())) {
+
+			DecisionBatch batch = new DecisionBatch(DecisionBroker.STATE_WIDTH, 2);
+			for (int step = 0; step < 3; step++) {
+				batch.clear(6 * 3600 + step);
+				// more rows than the initial capacity, so the batch has to grow
+				for (int i = 0; i < 1000; i++) {
+					int row = batch.addRow(i, 0);
+					batch.setState(row, 0, (float) batch.getTime());
+					batch.setState(row, 2, (i + step) % 5);
+				}
+				client.decide(batch);
+
+				assertEquals(1000, batch.size());
+				for (int row = 0; row < batch.size(); row++) {
+					assertEquals(row, batch.getAgentIndex(row));
+					assertEquals((row + step) % 5, batch.getAction(row));
+				}
+			}
+		}
+	}
+
+	@Test
+	void testCurrentModePolicyKeepsCurrentActions() throws Exception {
+		try (LocalPolicyServer server = new LocalPolicyServer(new CurrentModePolicy(), DecisionBroker.STATE_WIDTH);
+			 SocketDecisionPolicy client = new SocketDecisionPolicy("localhost", server.getPort())) {
+
+			DecisionBatch batch = new DecisionBatch(DecisionBroker.STATE_WIDTH, 8);
+			batch.clear(0.0);
+			batch.addRow(7, 3);
+			batch.addRow(8, ModeActions.UNKNOWN);
+			batch.setAction(0, 1);
+			client.decide(batch);
+
+			assertEquals(3, batch.getAction(0));
+			assertEquals(ModeActions.UNKNOWN, batch.getAction(1));
+		}
+	}
+}
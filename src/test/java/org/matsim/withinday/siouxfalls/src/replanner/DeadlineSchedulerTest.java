@@ -0,0 +1,77 @@
+package org.matsim.withinday.siouxfalls.src.replanner;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class DeadlineSchedulerTest {
+
+	@Test
+	void testBudgetAndDeadlines() {
+		Map<String, Double> departures = new HashMap<>();
+		departures.put("a", 100.0);
+		departures.put("b", 100.0);
+		departures.put("c", 102.0);
+		departures.put("d", 110.0);
+
+		DeadlineScheduler<String> scheduler = new DeadlineScheduler<>();
+		// identified 10 seconds ahead
+		for (String agent : List.of("d", "c", "a", "b")) scheduler.add(agent, departures.get(agent), 90);
+		assertFalse(scheduler.add("a", 100.0, 90));
+
+		// two per step, earliest departures first
+		assertEquals(List.of("a", "b"), scheduler.next(90, 2, departures::get));
+		assertEquals(0, scheduler.getDeferred());
+		assertEquals(List.of("c", "d"), scheduler.next(91, 2, departures::get));
+		assertEquals(2, scheduler.getDeferred());
+		assertEquals(2.0, scheduler.getDeferralSeconds(), 0.0);
+		assertEquals(0, scheduler.size());
+	}
+
+	@Test
+	void testDueAgentsBeyondBudget() {
+		Map<String, Double> departures = new HashMap<>();
+		DeadlineScheduler<String> scheduler = new DeadlineScheduler<>();
+		for (String agent : List.of("a", "b", "c")) {
+			departures.put(agent, 100.0);
+			scheduler.add(agent, 100.0, 100);
+		}
+		departures.put("late", 200.0);
+		scheduler.add("late", 200.0, 100);
+
+		// all three depart now: over the budget of one, the later one waits
+		assertEquals(List.of("a", "b", "c"), scheduler.next(100, 1, departures::get));
+		assertEquals(2, scheduler.getOverBudget());
+		assertEquals(1, scheduler.size());
+	}
+
+	@Test
+	void testMovedAndMissedDeadlines() {
+		Map<String, Double> departures = new HashMap<>();
+		departures.put("moved", 100.0);
+		departures.put("gone", 100.0);
+		departures.put("missed", 50.0);
+
+		DeadlineScheduler<String> scheduler = new DeadlineScheduler<>();
+		scheduler.add("missed", 50.0, 40);
+		scheduler.add("moved", 100.0, 40);
+		scheduler.add("gone", 100.0, 40);
+
+		// the activity of "moved" ends later now, "gone" is not at an activity anymore
+		departures.put("moved", 300.0);
+		departures.put("gone", Double.NaN);
+		assertEquals(List.of(), scheduler.next(60, 0, departures::get));
+		assertEquals(1, scheduler.getMissed());
+		assertEquals(1, scheduler.getDropped());
+		assertEquals(1, scheduler.size());
+
+		assertEquals(List.of("moved"), scheduler.next(300, 0, departures::get));
+		assertEquals(1, scheduler.getDeferred());
+		assertEquals(260.0, scheduler.getDeferralSeconds(), 0.0);
+	}
+}
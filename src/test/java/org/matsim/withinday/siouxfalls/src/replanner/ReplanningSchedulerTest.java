@@ -0,0 +1,98 @@
+package org.matsim.withinday.siouxfalls.src.replanner;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.matsim.core.mobsim.framework.MobsimAgent;
+import org.matsim.withinday.replanning.identifiers.interfaces.DuringActivityAgentSelector;
+
+public class ReplanningSchedulerTest {
+
+	@Test
+	void testActivitiesShorterThanTheLookahead() {
+		ActivityAgents activities = new ActivityAgents();
+		// starts its activity at 100, for five seconds only
+		AgentState shortActivity = new AgentState(100, 105);
+		// its end moves from 120 to 105 at 101, into a window already asked at 95
+		AgentState movedEnd = new AgentState(0, 120);
+		activities.agents.add(shortActivity);
+		activities.agents.add(movedEnd);
+
+		ReplanningScheduler scheduler = new ReplanningScheduler(activities, 10, 1, 0, 0, null);
+		Map<AgentState, List<Double>> decisions = new HashMap<>();
+		for (double time = 90; time <= 130; time++) {
+			activities.now = time;
+			if (time == 101) movedEnd.end = 105;
+			for (MobsimAgent agent : scheduler.getAgentsToReplan(time)) {
+				decisions.computeIfAbsent(activities.states.get(agent), a -> new ArrayList<>()).add(time);
+			}
+			for (AgentState agent : activities.agents) {
+				if (agent.end == time) agent.state = MobsimAgent.State.LEG;
+			}
+		}
+
+		// each once, before it left
+		assertEquals(List.of(100.0), decisions.get(shortActivity));
+		assertEquals(List.of(101.0), decisions.get(movedEnd));
+		assertEquals(0, scheduler.getPendingAgents());
+	}
+
+	private static final class AgentState {
+		final double start;
+		double end;
+		MobsimAgent.State state = MobsimAgent.State.ACTIVITY;
+
+		AgentState(double start, double end) {
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	// Like the activity end identifier: an agent is listed at its activity end once it has started the activity
+	private static final class ActivityAgents extends DuringActivityAgentSelector {
+		final List<AgentState> agents = new ArrayList<>();
+		final Map<MobsimAgent, AgentState> states = new HashMap<>();
+		private final Map<AgentState, MobsimAgent> mobsimAgents = new HashMap<>();
+		double now;
+
+		@Override
+		public Set<MobsimAgent> getAgentsToReplan(double time) {
+			Set<MobsimAgent> ending = new LinkedHashSet<>();
+			for (AgentState agent : agents) {
+				if (agent.state == MobsimAgent.State.ACTIVITY && agent.start <= now && agent.end == time) ending.add(mobsimAgent(agent));
+			}
+			return ending;
+		}
+
+		private MobsimAgent mobsimAgent(AgentState agent) {
+			return mobsimAgents.computeIfAbsent(agent, a -> {
+				MobsimAgent proxy = (MobsimAgent) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { MobsimAgent.class }, (object, method, args) -> {
+					switch (method.getName()) {
+						case "getState":
+							return a.state;
+						case "getActivityEndTime":
+							return a.end;
+						case "hashCode":
+							return System.identityHashCode(object);
+						case "equals":
+							return object == args[0];
+						case "toString":
+							return "agent ending at " + a.end;
+						default:
+							throw new UnsupportedOperationException(method.getName());
+					}
+				});
+				states.put(proxy, a);
+				return proxy;
+			});
+		}
+	}
+}
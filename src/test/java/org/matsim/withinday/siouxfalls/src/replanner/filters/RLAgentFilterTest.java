@@ -0,0 +1,49 @@
+package org.matsim.withinday.siouxfalls.src.replanner.filters;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+
+public class RLAgentFilterTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void testFileLoadAndLiveUpdate() throws Exception {
+		Path file = directory.resolve("rl_agents.txt");
+		Files.write(file, Arrays.asList("# rl agents", "rl_1", "", "rl_2"), StandardCharsets.UTF_8);
+
+		RLAgentFilterFactory factory = new RLAgentFilterFactory(RLAgentSet.readFile(file));
+		RLAgentFilter filter = factory.createAgentFilter();
+		assertEquals(2, factory.getAgents().size());
+
+		Id<Person> other = Id.createPersonId("other");
+		Set<Id<Person>> identified = new HashSet<>(List.of(Id.createPersonId("rl_1"), Id.createPersonId("rl_2"), other));
+		filter.applyAgentFilter(identified, 0.0);
+		assertEquals(Set.of(Id.createPersonId("rl_1"), Id.createPersonId("rl_2")), identified);
+
+		// membership changes reach filters that were created before
+		factory.getAgents().remove(Id.createPersonId("rl_1"));
+		factory.getAgents().add(other);
+		assertFalse(filter.applyAgentFilter(Id.createPersonId("rl_1"), 0.0));
+		assertTrue(filter.applyAgentFilter(other, 0.0));
+		assertEquals(Set.of(Id.createPersonId("rl_2"), other), new HashSet<>(filter.getIncludedAgents()));
+
+		factory.getAgents().setAllAgents(true);
+		assertTrue(filter.applyAgentFilter(Id.createPersonId("rl_1"), 0.0));
+	}
+}
@@ -0,0 +1,94 @@
+package org.matsim.withinday.siouxfalls.src.routing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.core.scenario.ScenarioUtils;
+
+public class ModeTravelTimeEstimatorTest {
+
+	private static final double BIN = 900;
+	private static final double EIGHT = 8 * 3600;
+
+	@Test
+	void testTreesPerOriginAndBin() {
+		// 1 - 2 - 3, 1000 m links at 10 m/s in both directions
+		Scenario scenario = ScenarioUtils.createScenario(ConfigUtils.createConfig());
+		Network network = scenario.getNetwork();
+		Node[] nodes = new Node[3];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = network.getFactory().createNode(Id.createNodeId("estimator_" + i), new Coord(1000 * i, 0));
+			network.addNode(nodes[i]);
+		}
+		Id<Link> a = addLink(network, "estimator_a", nodes[0], nodes[1]);
+		Id<Link> b = addLink(network, "estimator_b", nodes[1], nodes[2]);
+		Id<Link> c = addLink(network, "estimator_c", nodes[2], nodes[1]);
+		Id<Link> d = addLink(network, "estimator_d", nodes[1], nodes[0]);
+
+		TravelTime freeSpeed = (link, time, person, vehicle) -> link.getLength() / link.getFreespeed();
+		ModeTravelTimeEstimator estimator = new ModeTravelTimeEstimator(scenario, List.of("car"), Map.of("car", freeSpeed), null, BIN, 3);
+		double[] travelTimes = new double[1];
+
+		// a and c end at node 2: one tree for both, any destination
+		estimator.estimate(a, b, EIGHT, travelTimes);
+		assertEquals(100.0, travelTimes[0], 1e-6);
+		estimator.estimate(a, d, EIGHT + 60, travelTimes);
+		estimator.estimate(c, d, EIGHT, travelTimes);
+		assertEquals(1, estimator.getTreesBuilt());
+		assertEquals(3, estimator.getLookups());
+
+		// another origin, then the same origin in the next bin
+		estimator.estimate(b, d, EIGHT, travelTimes);
+		assertEquals(200.0, travelTimes[0], 1e-6);
+		estimator.estimate(a, b, EIGHT + BIN, travelTimes);
+		assertEquals(3, estimator.getTreesBuilt());
+		assertEquals(5, estimator.getLookups());
+		assertEquals(3, estimator.getTreeCount());
+
+		// the mobsim leaves the 08:00 bin: its two trees are dropped, the 08:15 one is kept
+		estimator.invalidateBefore(EIGHT + BIN);
+		assertEquals(1, estimator.getTreeCount());
+		estimator.estimate(c, b, EIGHT + BIN, travelTimes);
+		assertEquals(3, estimator.getTreesBuilt());
+
+		// up to modeEstimateMaxTrees (3) trees, the next one starts over
+		estimator.estimate(b, d, EIGHT + BIN, travelTimes);
+		estimator.estimate(d, b, EIGHT + BIN, travelTimes);
+		assertEquals(5, estimator.getTreesBuilt());
+		assertEquals(3, estimator.getTreeCount());
+		estimator.estimate(a, b, EIGHT + 2 * BIN, travelTimes);
+		assertEquals(6, estimator.getTreesBuilt());
+		assertEquals(1, estimator.getTreeCount());
+		// the trees before the reset are built again
+		estimator.estimate(b, d, EIGHT + BIN, travelTimes);
+		assertEquals(7, estimator.getTreesBuilt());
+		assertEquals(2, estimator.getTreeCount());
+		assertEquals(10, estimator.getLookups());
+
+		// staying on the link needs no tree
+		estimator.estimate(a, a, EIGHT, travelTimes);
+		assertEquals(0.0, travelTimes[0], 0.0);
+		assertEquals(10, estimator.getLookups());
+	}
+
+	private static Id<Link> addLink(Network network, String id, Node from, Node to) {
+		Link link = network.getFactory().createLink(Id.createLinkId(id), from, to);
+		link.setLength(1000);
+		link.setFreespeed(10);
+		link.setCapacity(1800);
+		link.setNumberOfLanes(1);
+		network.addLink(link);
+		return link.getId();
+	}
+}
@@ -0,0 +1,72 @@
+package org.matsim.withinday.siouxfalls.src.routing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.network.algorithms.TransportModeNetworkFilter;
+import org.matsim.core.network.io.MatsimNetworkReader;
+import org.matsim.core.router.DijkstraFactory;
+import org.matsim.core.router.costcalculators.OnlyTimeDependentTravelDisutility;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.util.LeastCostPathCalculator.Path;
+import org.matsim.core.router.util.TravelTime;
+
+/**
+ * A one-to-many tree has to give every destination the travel time of the fastest path Dijkstra finds
+ * on the subnetwork of the mode.
+ */
+public class OneToManyTravelTimesTest {
+
+	private static final String NETWORK = "scenarios/sioux-falls/modified/input/networkwithsidewalks.xml";
+	private static final int ORIGINS = 10;
+	private static final int DESTINATIONS = 50;
+
+	private static final TravelTime LIVE_TRAVEL_TIME = (link, time, person, vehicle) -> {
+		double factor = 1.0 + ((link.getId().index() * 31 + (int) (time / 900)) % 7) * 0.5;
+		return factor * link.getLength() / link.getFreespeed();
+	};
+
+	@Test
+	void testTreeMatchesDijkstra() {
+		Network network = NetworkUtils.createNetwork();
+		new MatsimNetworkReader(network).readFile(NETWORK);
+
+		for (String mode : new String[] { "car", "bike", "pedestrian" }) {
+			Network subNetwork = NetworkUtils.createNetwork();
+			new TransportModeNetworkFilter(network).filter(subNetwork, Set.of(mode));
+			List<Node> nodes = new ArrayList<>(subNetwork.getNodes().values());
+			assertTrue(nodes.size() > 1, mode);
+
+			LeastCostPathCalculator dijkstra = new DijkstraFactory().createPathCalculator(subNetwork, new OnlyTimeDependentTravelDisutility(LIVE_TRAVEL_TIME), LIVE_TRAVEL_TIME);
+			OneToManyTravelTimes trees = new OneToManyTravelTimes(network, mode, LIVE_TRAVEL_TIME, 0);
+
+			Random random = new Random(4711);
+			for (int origin = 0; origin < ORIGINS; origin++) {
+				Node from = nodes.get(random.nextInt(nodes.size()));
+				double departure = 6 * 3600 + random.nextInt(4 * 3600);
+				float[] tree = trees.calcTree(from.getId().index(), departure);
+				assertEquals(0.0f, tree[from.getId().index()], 0.0f);
+
+				for (int destination = 0; destination < DESTINATIONS; destination++) {
+					Node to = nodes.get(random.nextInt(nodes.size()));
+					Path expected = dijkstra.calcLeastCostPath(from, to, departure, null, null);
+					String message = mode + " " + from.getId() + " -> " + to.getId();
+					if (expected == null) {
+						assertTrue(Float.isInfinite(tree[to.getId().index()]), message);
+						continue;
+					}
+					assertEquals(expected.travelTime, tree[to.getId().index()], 1e-5 * Math.max(1.0, expected.travelTime), message);
+				}
+			}
+		}
+	}
+}
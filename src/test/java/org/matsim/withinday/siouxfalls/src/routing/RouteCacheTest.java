@@ -0,0 +1,118 @@
+package org.matsim.withinday.siouxfalls.src.routing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.util.LeastCostPathCalculator.Path;
+import org.matsim.core.router.util.LeastCostPathCalculatorFactory;
+import org.matsim.core.router.util.TravelDisutility;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.vehicles.Vehicle;
+
+public class RouteCacheTest {
+
+	@Test
+	void testHitExpiryAndEviction() {
+		RouteCache cache = new RouteCache(32, 900.0, 600.0);
+		cache.notifyMobsimInitialized(null);
+
+		Path path = new Path(Collections.emptyList(), Collections.emptyList(), 60.0, 60.0);
+		RouteCache.RouteKey key = new RouteCache.RouteKey(0, 1, 2, cache.getTimeBin(7 * 3600));
+
+		assertNull(cache.get(key, 7 * 3600));
+		cache.put(key, path, 7 * 3600);
+		assertSame(path, cache.get(key, 7 * 3600 + 300));
+		// same key, but too far from the departure the path was computed for
+		assertNull(cache.get(key, 7 * 3600 + 700));
+		// other partition (e.g. bike subnetwork) does not share the entry
+		assertNull(cache.get(new RouteCache.RouteKey(1, 1, 2, cache.getTimeBin(7 * 3600)), 7 * 3600));
+
+		assertEquals(1, cache.getHits());
+		assertEquals(3, cache.getMisses());
+		assertEquals(1, cache.getExpired());
+
+		// one entry per stripe: filling the cache with many keys has to evict
+		for (int to = 0; to < 1000; to++) cache.put(new RouteCache.RouteKey(0, 1, to, 0), path, 0);
+		assertTrue(cache.getEvictions() > 0);
+
+		cache.notifyMobsimInitialized(null);
+		assertEquals(0, cache.getHits());
+		assertNull(cache.get(key, 7 * 3600));
+	}
+
+	@Test
+	void testRoutersOfTheFactoryShareEntries() {
+		RouteCache cache = new RouteCache(32, 900.0, 600.0);
+		cache.notifyMobsimInitialized(null);
+		Network network = NetworkUtils.createNetwork();
+		Node from = network.getFactory().createNode(Id.createNodeId("cache_from"), new Coord(0, 0));
+		Node to = network.getFactory().createNode(Id.createNodeId("cache_to"), new Coord(1000, 0));
+		network.addNode(from);
+		network.addNode(to);
+		network.addLink(network.getFactory().createLink(Id.createLinkId("cache_link"), from, to));
+		TravelTime travelTime = (link, time, person, vehicle) -> 60.0;
+
+		// the routing modules create a new disutility for every router
+		assertEquals(cache.getPartition(network, new ConstantDisutility(1.0), travelTime), cache.getPartition(network, new ConstantDisutility(1.0), travelTime));
+		// another mode with other scoring parameters
+		assertNotEquals(cache.getPartition(network, new ConstantDisutility(1.0), travelTime), cache.getPartition(network, new ConstantDisutility(2.0), travelTime));
+		TravelTime otherTravelTime = (link, time, person, vehicle) -> 60.0;
+		assertNotEquals(cache.getPartition(network, new ConstantDisutility(1.0), travelTime), cache.getPartition(network, new ConstantDisutility(1.0), otherTravelTime));
+
+		// the cost of a path is the constant of the disutility it was computed with
+		LeastCostPathCalculatorFactory delegate = (net, disutility, time) -> (fromNode, toNode, starttime, person, vehicle) ->
+				new Path(Collections.emptyList(), Collections.emptyList(), 60.0, disutility.getLinkMinimumTravelDisutility(null));
+		CachingLeastCostPathCalculatorFactory factory = new CachingLeastCostPathCalculatorFactory(delegate, cache);
+		LeastCostPathCalculator firstRouter = factory.createPathCalculator(network, new ConstantDisutility(1.0), travelTime);
+		LeastCostPathCalculator secondRouter = factory.createPathCalculator(network, new ConstantDisutility(1.0), travelTime);
+		LeastCostPathCalculator otherModeRouter = factory.createPathCalculator(network, new ConstantDisutility(2.0), travelTime);
+
+		Path first = firstRouter.calcLeastCostPath(from, to, 8 * 3600, null, null);
+		assertEquals(2.0, otherModeRouter.calcLeastCostPath(from, to, 8 * 3600, null, null).travelCost, 0.0);
+		assertEquals(0, cache.getHits());
+		// each router hits the entries of the other
+		assertSame(first, secondRouter.calcLeastCostPath(from, to, 8 * 3600 + 60, null, null));
+		Path back = secondRouter.calcLeastCostPath(to, from, 8 * 3600, null, null);
+		assertSame(back, firstRouter.calcLeastCostPath(to, from, 8 * 3600 + 60, null, null));
+		assertEquals(2, cache.getHits());
+		assertEquals(1.0, first.travelCost, 0.0);
+	}
+
+	@Test
+	void testMaxAgeBelowTimeBin() {
+		assertThrows(IllegalArgumentException.class, () -> new RouteCache(32, 900.0, 900.0));
+	}
+
+	private static final class ConstantDisutility implements TravelDisutility {
+		private final double value;
+
+		ConstantDisutility(double value) {
+			this.value = value;
+		}
+
+		@Override
+		public double getLinkTravelDisutility(Link link, double time, Person person, Vehicle vehicle) {
+			return value;
+		}
+
+		@Override
+		public double getLinkMinimumTravelDisutility(Link link) {
+			return value;
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package org.matsim.withinday.siouxfalls.src.routing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.scenario.MutableScenario;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.pt.transitSchedule.api.Departure;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitRouteStop;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitScheduleFactory;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import org.matsim.withinday.siouxfalls.src.modules.RLConfigGroup;
+
+public class TransitTravelTimeTableTest {
+
+	private static final double WALK_SPEED = 1.0;
+
+	@Test
+	void testTransferAndWaiting() {
+		TransitSchedule schedule = ScenarioUtils.createScenario(ConfigUtils.createConfig()).getTransitSchedule();
+		TransitScheduleFactory factory = schedule.getFactory();
+		TransitStopFacility a = addStop(schedule, "a", 0, 0);
+		TransitStopFacility b = addStop(schedule, "b", 5000, 0);
+		// 100 m walk from b
+		TransitStopFacility c = addStop(schedule, "c", 5000, 100);
+		TransitStopFacility d = addStop(schedule, "d", 5000, 5000);
+
+		// a -> b in 10 minutes at 08:00, c -> d in 10 minutes at 08:20
+		addLine(schedule, factory, "ab", 8 * 3600, factory.createTransitRouteStop(a, 0, 0), factory.createTransitRouteStop(b, 600, 600));
+		addLine(schedule, factory, "cd", 8 * 3600 + 1200, factory.createTransitRouteStop(c, 0, 0), factory.createTransitRouteStop(d, 600, 600));
+
+		TransitTravelTimeTable table = new TransitTravelTimeTable(schedule, 50, 0, 300, 0, WALK_SPEED, 1.0, 300);
+		assertEquals(4, table.getStopCount());
+
+		// leaving at the stop a at 08:00: arrival at d at 08:30
+		assertEquals(1800, table.estimate(new Coord(0, 0), new Coord(5000, 5000), 8 * 3600), 1e-6);
+		assertEquals(1, table.estimateTransfers(new Coord(0, 0), new Coord(5000, 5000), 8 * 3600));
+		// 10 m walks at both ends
+		assertEquals(1820, table.estimate(new Coord(-10, 0), new Coord(5000, 5010), 8 * 3600 - 10), 1e-6);
+		// the only bus has left
+		assertTrue(Double.isInfinite(table.estimate(new Coord(0, 0), new Coord(5000, 5000), 8 * 3600 + 60)));
+		// leaving earlier means waiting for the bus
+		assertEquals(3600 + 1800, table.estimate(new Coord(0, 0), new Coord(5000, 5000), 7 * 3600), 1e-6);
+	}
+
+	@Test
+	void testSharedPerSchedule() {
+		Scenario first = ScenarioUtils.createScenario(ConfigUtils.createConfig());
+		TransitSchedule schedule = first.getTransitSchedule();
+		TransitScheduleFactory factory = schedule.getFactory();
+		TransitStopFacility a = addStop(schedule, "a", 0, 0);
+		TransitStopFacility b = addStop(schedule, "b", 5000, 0);
+		addLine(schedule, factory, "ab", 8 * 3600, factory.createTransitRouteStop(a, 0, 0), factory.createTransitRouteStop(b, 600, 600));
+
+		// an episode with the same schedule
+		MutableScenario second = ScenarioUtils.createMutableScenario(ConfigUtils.createConfig());
+		second.setTransitSchedule(schedule);
+		TransitTravelTimeTable table = TransitTravelTimeTable.shared(first);
+		assertEquals(2, table.getStopCount());
+		assertSame(table, TransitTravelTimeTable.shared(second));
+
+		// other parameters or another schedule: another table
+		ConfigUtils.addOrGetModule(second.getConfig(), RLConfigGroup.class).setTransitEstimateTimeBin(600);
+		assertNotSame(table, TransitTravelTimeTable.shared(second));
+		assertNotSame(table, TransitTravelTimeTable.shared(ScenarioUtils.createScenario(ConfigUtils.createConfig())));
+	}
+
+	private static TransitStopFacility addStop(TransitSchedule schedule, String id, double x, double y) {
+		TransitStopFacility stop = schedule.getFactory().createTransitStopFacility(Id.create(id, TransitStopFacility.class), new Coord(x, y), false);
+		schedule.addStopFacility(stop);
+		return stop;
+	}
+
+	private static void addLine(TransitSchedule schedule, TransitScheduleFactory factory, String id, double departure, TransitRouteStop... stops) {
+		TransitRoute route = factory.createTransitRoute(Id.create(id, TransitRoute.class), null, List.of(stops), "bus");
+		route.addDeparture(factory.createDeparture(Id.create(id, Departure.class), departure));
+		TransitLine line = factory.createTransitLine(Id.create(id, TransitLine.class));
+		line.addRoute(route);
+		schedule.addTransitLine(line);
+	}
+}
@@ -0,0 +1,78 @@
+package org.matsim.withinday.siouxfalls.src.routing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.groups.ControllerConfigGroup.RoutingAlgorithmType;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.network.algorithms.TransportModeNetworkFilter;
+import org.matsim.core.network.io.MatsimNetworkReader;
+import org.matsim.core.router.DijkstraFactory;
+import org.matsim.core.router.costcalculators.OnlyTimeDependentTravelDisutility;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.util.LeastCostPathCalculator.Path;
+import org.matsim.core.router.util.LeastCostPathCalculatorFactory;
+import org.matsim.core.router.util.TravelDisutility;
+import org.matsim.core.router.util.TravelTime;
+
+/**
+ * The landmark based algorithms have to find routes as good as Dijkstra on every mode subnetwork of
+ * Sioux Falls, also when the live travel times are slower than the free speed times the landmarks
+ * were prepared with.
+ */
+public class WithinDayRoutingTest {
+
+	private static final String NETWORK = "scenarios/sioux-falls/modified/input/networkwithsidewalks.xml";
+	private static final int QUERIES = 200;
+
+	// Congestion that changes with the time of day, never faster than free speed
+	private static final TravelTime LIVE_TRAVEL_TIME = (link, time, person, vehicle) -> {
+		double factor = 1.0 + ((link.getId().index() * 31 + (int) (time / 900)) % 7) * 0.5;
+		return factor * link.getLength() / link.getFreespeed();
+	};
+
+	@Test
+	void testLandmarkRoutesMatchDijkstra() {
+		Network network = NetworkUtils.createNetwork();
+		new MatsimNetworkReader(network).readFile(NETWORK);
+		TravelDisutility disutility = new OnlyTimeDependentTravelDisutility(LIVE_TRAVEL_TIME);
+
+		for (String mode : new String[] { "car", "bike", "pedestrian" }) {
+			Network subNetwork = NetworkUtils.createNetwork();
+			new TransportModeNetworkFilter(network).filter(subNetwork, Set.of(mode));
+			List<Node> nodes = new ArrayList<>(subNetwork.getNodes().values());
+			assertTrue(nodes.size() > 1, mode);
+
+			LeastCostPathCalculator dijkstra = new DijkstraFactory().createPathCalculator(subNetwork, disutility, LIVE_TRAVEL_TIME);
+			for (RoutingAlgorithmType algorithm : new RoutingAlgorithmType[] { RoutingAlgorithmType.SpeedyALT, RoutingAlgorithmType.AStarLandmarks }) {
+				LeastCostPathCalculatorFactory factory = WithinDayRoutingModule.createPathCalculatorFactory(algorithm, ConfigUtils.createConfig());
+				LeastCostPathCalculator landmarks = factory.createPathCalculator(subNetwork, disutility, LIVE_TRAVEL_TIME);
+
+				Random random = new Random(4711);
+				for (int query = 0; query < QUERIES; query++) {
+					Node from = nodes.get(random.nextInt(nodes.size()));
+					Node to = nodes.get(random.nextInt(nodes.size()));
+					double departure = 6 * 3600 + random.nextInt(4 * 3600);
+
+					Path expected = dijkstra.calcLeastCostPath(from, to, departure, null, null);
+					Path actual = landmarks.calcLeastCostPath(from, to, departure, null, null);
+					String message = algorithm + " " + mode + " " + from.getId() + " -> " + to.getId();
+					assertEquals(expected == null, actual == null, message);
+					if (expected == null) continue;
+					// equal cost, the path itself may differ between equally good alternatives
+					assertEquals(expected.travelCost, actual.travelCost, 1e-6 * Math.max(1.0, expected.travelCost), message);
+					assertEquals(expected.travelTime, actual.travelTime, 1e-6 * Math.max(1.0, expected.travelTime), message);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package org.matsim.withinday.siouxfalls.src.scenario;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.PopulationFactory;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+
+public class ScenarioCacheTest {
+
+	@TempDir
+	Path outputDirectory;
+
+	@Test
+	void testSnapshotRoundTrip() throws Exception {
+		Scenario scenario = ScenarioUtils.createScenario(ConfigUtils.createConfig());
+		Network network = scenario.getNetwork();
+		NetworkFactory networkFactory = network.getFactory();
+		Node a = networkFactory.createNode(Id.createNodeId("a"), new Coord(0, 0));
+		Node b = networkFactory.createNode(Id.createNodeId("b"), new Coord(1000, 0));
+		network.addNode(a);
+		network.addNode(b);
+		Link link = networkFactory.createLink(Id.createLinkId("ab"), a, b);
+		link.setLength(1000);
+		link.setFreespeed(13.9);
+		link.setCapacity(1800);
+		link.setNumberOfLanes(2);
+		link.setAllowedModes(Set.of("car", "bike"));
+		link.getAttributes().putAttribute("type", "primary");
+		network.addLink(link);
+
+		PopulationFactory factory = scenario.getPopulation().getFactory();
+		Person person = factory.createPerson(Id.createPersonId("1"));
+		person.getAttributes().putAttribute("income", 3500.0);
+		Plan plan = factory.createPlan();
+		Activity home = factory.createActivityFromLinkId("home", Id.createLinkId("ab"));
+		home.setEndTime(7 * 3600);
+		plan.addActivity(home);
+		Leg leg = factory.createLeg("car");
+		leg.setRoutingMode("car");
+		plan.addLeg(leg);
+		plan.addActivity(factory.createActivityFromLinkId("work", Id.createLinkId("ab")));
+		plan.setScore(12.5);
+		person.addPlan(plan);
+		person.setSelectedPlan(plan);
+		scenario.getPopulation().addPerson(person);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		new ScenarioSnapshotWriter(bytes).write(scenario, "key");
+
+		Scenario copy = ScenarioUtils.createScenario(ConfigUtils.createConfig());
+		ScenarioSnapshotReader reader = new ScenarioSnapshotReader(new ByteArrayInputStream(bytes.toByteArray()));
+		assertEquals("key", reader.readKey());
+		reader.read(copy);
+
+		Link copyLink = copy.getNetwork().getLinks().get(Id.createLinkId("ab"));
+		assertEquals(1000, copyLink.getLength(), 0.0);
+		assertEquals(2, copyLink.getNumberOfLanes(), 0.0);
+		assertEquals(Set.of("car", "bike"), copyLink.getAllowedModes());
+		assertEquals("primary", copyLink.getAttributes().getAttribute("type"));
+		assertEquals(Id.createNodeId("b"), copyLink.getToNode().getId());
+
+		Person copyPerson = copy.getPopulation().getPersons().get(Id.createPersonId("1"));
+		assertEquals(3500.0, copyPerson.getAttributes().getAttribute("income"));
+		Plan copyPlan = copyPerson.getSelectedPlan();
+		assertEquals(12.5, copyPlan.getScore(), 0.0);
+		assertEquals(3, copyPlan.getPlanElements().size());
+		Activity copyHome = (Activity) copyPlan.getPlanElements().get(0);
+		assertEquals(7 * 3600, copyHome.getEndTime().seconds(), 0.0);
+		assertEquals(false, copyHome.getStartTime().isDefined());
+		Leg copyLeg = (Leg) copyPlan.getPlanElements().get(1);
+		assertEquals("car", copyLeg.getRoutingMode());
+		assertNull(copyLeg.getRoute());
+	}
+
+	@Test
+	void testKeyFollowsInputs() throws Exception {
+		Path plans = outputDirectory.resolve("plans.xml");
+		Files.writeString(plans, "<population></population>");
+		Config config = ConfigUtils.createConfig();
+		config.plans().setInputFile(plans.toString());
+
+		String key = ScenarioCache.computeKey(config);
+		assertEquals(key, ScenarioCache.computeKey(config));
+
+		// the seed does not matter for the loaded scenario
+		config.global().setRandomSeed(4711);
+		assertEquals(key, ScenarioCache.computeKey(config));
+
+		Files.writeString(plans, "<population> </population>");
+		assertNotEquals(key, ScenarioCache.computeKey(config));
+	}
+}
@@ -0,0 +1,95 @@
+package org.matsim.withinday.siouxfalls.src.state;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.vehicles.Vehicle;
+import org.matsim.withinday.siouxfalls.src.policy.DecisionBatch;
+import org.matsim.withinday.siouxfalls.src.policy.ModeActions;
+
+public class DecisionStateBuilderTest {
+
+	@Test
+	void testV2Row() {
+		int origin = Id.createLinkId("state_origin").index();
+		int destination = Id.createLinkId("state_destination").index();
+		int links = Id.getNumberOfIds(Link.class);
+		double[] freeTravelTimes = new double[links];
+		Arrays.fill(freeTravelTimes, 10.0);
+		double[] storageCapacities = new double[links];
+		Arrays.fill(storageCapacities, 10.0);
+		LinkCongestionTracker congestion = new LinkCongestionTracker(freeTravelTimes, storageCapacities);
+		// one slow vehicle on the destination link, two waiting there
+		Id<Vehicle> vehicle = Id.create("state_vehicle", Vehicle.class);
+		congestion.handleEvent(new LinkEnterEvent(0, vehicle, Id.createLinkId("state_destination")));
+		congestion.handleEvent(new LinkLeaveEvent(60, vehicle, Id.createLinkId("state_destination")));
+		congestion.handleEvent(new LinkEnterEvent(60, Id.create("state_vehicle_2", Vehicle.class), Id.createLinkId("state_destination")));
+		congestion.handleEvent(new LinkEnterEvent(61, Id.create("state_vehicle_3", Vehicle.class), Id.createLinkId("state_destination")));
+		congestion.publish(8 * 3600);
+
+		Map<String, double[]> activityTypes = new HashMap<>();
+		activityTypes.put("home", new double[] { 12 * 3600, Double.NaN, Double.NaN });
+		activityTypes.put("work", new double[] { 8 * 3600, 9 * 3600, 18 * 3600 });
+		float[] carAvailable = { 1.0f, 0.0f };
+		DecisionStateBuilder builder = new DecisionStateBuilder(StateSchema.V2, congestion, null, null, activityTypes, carAvailable, new double[links], new double[links]);
+		assertEquals(15, builder.getWidth());
+
+		DecisionBatch batch = new DecisionBatch(builder.getWidth(), 1);
+		batch.clear(8 * 3600);
+		builder.beginStep(8 * 3600);
+		int row = batch.addRow(1, 2);
+		// left home at 08:30 for work, 3 km away, without a car
+		builder.fillV2(batch, row, 8 * 3600, 8.5 * 3600, 0, "home", "work", 1, origin, destination, 3000);
+
+		StateSchema schema = StateSchema.V2;
+		assertEquals(8.0f, batch.getState(row, schema.getColumn("time_h")), 1e-6f);
+		assertEquals(8.5f, batch.getState(row, schema.getColumn("departure_h")), 1e-6f);
+		assertEquals(2.0f, batch.getState(row, schema.getColumn("current_action")), 0.0f);
+		assertEquals(8.0f, batch.getState(row, schema.getColumn("activity_elapsed_h")), 1e-6f);
+		assertEquals(12.0f, batch.getState(row, schema.getColumn("activity_typical_duration_h")), 1e-6f);
+		assertEquals(8.0f, batch.getState(row, schema.getColumn("next_activity_typical_duration_h")), 1e-6f);
+		assertEquals(0.5f, batch.getState(row, schema.getColumn("next_activity_latest_start_slack_h")), 1e-6f);
+		assertEquals(9.5f, batch.getState(row, schema.getColumn("next_activity_closing_slack_h")), 1e-6f);
+		assertEquals(0.0f, batch.getState(row, schema.getColumn("car_available")), 0.0f);
+		assertEquals(3.0f, batch.getState(row, schema.getColumn("beeline_km")), 1e-6f);
+		assertEquals(1.0f, batch.getState(row, schema.getColumn("origin_speed_ratio")), 0.0f);
+		assertEquals(0.0f, batch.getState(row, schema.getColumn("origin_density")), 0.0f);
+		double travelTime = 10.0 + LinkCongestionTracker.TRAVEL_TIME_WEIGHT * (60.0 - 10.0);
+		assertEquals((float) (10.0 / travelTime), batch.getState(row, schema.getColumn("destination_speed_ratio")), 1e-6f);
+		assertEquals(0.2f, batch.getState(row, schema.getColumn("destination_density")), 1e-6f);
+		// every other link is free flowing
+		assertEquals((float) ((links - 1 + 10.0 / travelTime) / links), batch.getState(row, schema.getColumn("network_speed_ratio")), 1e-6f);
+
+		// an activity type without parameters has no schedule constraint
+		builder.fillV2(batch, row, 8 * 3600, 8.5 * 3600, 0, "home", "shop", 0, origin, destination, 0);
+		assertEquals(DecisionStateBuilder.UNRESTRICTED, batch.getState(row, schema.getColumn("next_activity_latest_start_slack_h")), 0.0f);
+		assertEquals(1.0f, batch.getState(row, schema.getColumn("car_available")), 0.0f);
+	}
+
+	@Test
+	void testV3TravelTimes() {
+		ModeActions actions = new ModeActions("car", "bike", "pt");
+		assertEquals(18, StateSchema.V3.getWidth(actions));
+		assertEquals(15, StateSchema.V2.getWidth(actions));
+		assertEquals("travel_time_bike_h", StateSchema.V3.getColumns(actions).get(16));
+
+		DecisionStateBuilder builder = new DecisionStateBuilder(StateSchema.V2, new LinkCongestionTracker(new double[0], new double[0]), null, null,
+				new HashMap<>(), new float[0], new double[0], new double[0]);
+		DecisionBatch batch = new DecisionBatch(StateSchema.V3.getWidth(actions), 1);
+		batch.clear(0);
+		int row = batch.addRow(0, 0);
+		// car 30 minutes, bike cannot get there, no pt estimate
+		builder.fillTravelTimes(batch, row, new double[] { 1800, Double.POSITIVE_INFINITY, Double.NaN });
+		assertEquals(0.5f, batch.getState(row, 15), 1e-6f);
+		assertEquals(StateSchema.UNREACHABLE_H, batch.getState(row, 16), 0.0f);
+		assertEquals(StateSchema.NO_ESTIMATE, batch.getState(row, 17), 0.0f);
+	}
+}
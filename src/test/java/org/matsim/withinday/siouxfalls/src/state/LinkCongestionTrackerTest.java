@@ -0,0 +1,104 @@
+package org.matsim.withinday.siouxfalls.src.state;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.vehicles.Vehicle;
+
+public class LinkCongestionTrackerTest {
+
+	@Test
+	void testOccupancyTravelTimeAndFlow() {
+		Id<Link> first = Id.createLinkId("congestion_1");
+		Id<Link> second = Id.createLinkId("congestion_2");
+		int links = Id.getNumberOfIds(Link.class);
+		double[] freeTravelTimes = new double[links];
+		Arrays.fill(freeTravelTimes, 10.0);
+		double[] storageCapacities = new double[links];
+		Arrays.fill(storageCapacities, 4.0);
+		LinkCongestionTracker tracker = new LinkCongestionTracker(freeTravelTimes, storageCapacities);
+		int a = first.index();
+		int b = second.index();
+
+		Id<Vehicle> car = Id.create("congestion_car", Vehicle.class);
+		Id<Vehicle> bike = Id.create("congestion_bike", Vehicle.class);
+		// the car departs on a and drives over b, the bike enters b at 100
+		tracker.handleEvent(new VehicleEntersTrafficEvent(90, null, first, car, "car", 1.0));
+		tracker.handleEvent(new LinkLeaveEvent(95, car, first));
+		tracker.handleEvent(new LinkEnterEvent(95, car, second));
+		tracker.handleEvent(new LinkEnterEvent(100, bike, second));
+
+		tracker.publish(101);
+		LinkCongestionTracker.Snapshot snapshot = tracker.getSnapshot();
+		assertEquals(101, snapshot.getTime(), 0.0);
+		assertEquals(0, snapshot.getOccupancy(a));
+		assertEquals(2, snapshot.getOccupancy(b));
+		assertEquals(0.5, snapshot.getDensity(b), 1e-9);
+		// the car did not travel all of a: no travel time
+		assertEquals(10.0, snapshot.getTravelTime(a), 0.0);
+		assertEquals(1.0, snapshot.getSpeedRatio(a), 0.0);
+
+		// the car needs 35 s on b instead of 10
+		tracker.handleEvent(new LinkLeaveEvent(130, car, second));
+		tracker.handleEvent(new LinkEnterEvent(130, car, first));
+		tracker.handleEvent(new VehicleLeavesTrafficEvent(140, null, first, car, "car", 1.0));
+
+		// the snapshot of the step before is not changed by the events
+		assertEquals(2, snapshot.getOccupancy(b));
+		tracker.publish(141);
+		LinkCongestionTracker.Snapshot next = tracker.getSnapshot();
+		assertNotSame(snapshot, next);
+		assertEquals(1, next.getOccupancy(b));
+		assertEquals(0, next.getOccupancy(a));
+		double travelTime = 10.0 + LinkCongestionTracker.TRAVEL_TIME_WEIGHT * (35.0 - 10.0);
+		assertEquals(travelTime, next.getTravelTime(b), 1e-9);
+		assertEquals(10.0 / travelTime, next.getSpeedRatio(b), 1e-9);
+
+		// flow: the leave at 130 counts once its window [0, 300) is complete
+		assertEquals(0.0, next.getFlow(b), 0.0);
+		tracker.handleEvent(new LinkLeaveEvent(310, bike, second));
+		tracker.publish(311);
+		assertEquals(3600.0 / LinkCongestionTracker.FLOW_WINDOW, tracker.getSnapshot().getFlow(b), 1e-9);
+		tracker.publish(900);
+		assertEquals(0.0, tracker.getSnapshot().getFlow(b), 0.0);
+	}
+
+	@Test
+	void testSnapshotTakenOnFirstRequestOfStep() {
+		Id<Link> link = Id.createLinkId("congestion_lazy");
+		int links = Id.getNumberOfIds(Link.class);
+		LinkCongestionTracker tracker = new LinkCongestionTracker(new double[links], new double[links]);
+		Id<Vehicle> car = Id.create("congestion_lazy_car", Vehicle.class);
+
+		tracker.handleEvent(new LinkEnterEvent(95, car, link));
+		tracker.beginStep(100);
+		LinkCongestionTracker.Snapshot snapshot = tracker.getSnapshot();
+		assertEquals(100, snapshot.getTime(), 0.0);
+		assertEquals(1, snapshot.getOccupancy(link.index()));
+		assertSame(snapshot, tracker.getSnapshot());
+
+		// steps nobody asks about copy nothing, else the buffer of the snapshot would have been reused
+		tracker.handleEvent(new LinkLeaveEvent(100, car, link));
+		tracker.beginStep(101);
+		tracker.beginStep(102);
+		tracker.beginStep(103);
+		assertEquals(100, snapshot.getTime(), 0.0);
+		assertEquals(1, snapshot.getOccupancy(link.index()));
+
+		LinkCongestionTracker.Snapshot next = tracker.getSnapshot();
+		assertNotSame(snapshot, next);
+		assertEquals(103, next.getTime(), 0.0);
+		assertEquals(0, next.getOccupancy(link.index()));
+		assertEquals(100, snapshot.getTime(), 0.0);
+	}
+}
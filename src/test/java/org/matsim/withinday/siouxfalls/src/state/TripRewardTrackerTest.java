@@ -0,0 +1,92 @@
+package org.matsim.withinday.siouxfalls.src.state;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.ActivityEndEvent;
+import org.matsim.api.core.v01.events.ActivityStartEvent;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.PersonArrivalEvent;
+import org.matsim.api.core.v01.events.PersonDepartureEvent;
+import org.matsim.api.core.v01.events.PersonEntersVehicleEvent;
+import org.matsim.api.core.v01.events.PersonLeavesVehicleEvent;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.api.experimental.events.TeleportationArrivalEvent;
+import org.matsim.vehicles.Vehicle;
+
+public class TripRewardTrackerTest {
+
+	private static final double H = 3600.0;
+
+	@Test
+	void testCarAndPtTrips() {
+		Id<Person> agent = Id.createPersonId("reward_agent");
+		Id<Person> busDriver = Id.createPersonId("reward_bus_driver");
+		Id<Link> home = Id.createLinkId("reward_home");
+		Id<Link> middle = Id.createLinkId("reward_middle");
+		Id<Link> work = Id.createLinkId("reward_work");
+		Id<Vehicle> car = Id.create("reward_car", Vehicle.class);
+		Id<Vehicle> bus = Id.create("reward_bus", Vehicle.class);
+
+		double[] linkLengths = new double[Id.getNumberOfIds(Link.class)];
+		linkLengths[middle.index()] = 1000;
+		linkLengths[work.index()] = 500;
+		boolean[] members = new boolean[Id.getNumberOfIds(Person.class)];
+		members[agent.index()] = true;
+
+		Map<String, double[]> modes = new HashMap<>();
+		modes.put("car", new double[] { -4.2, -6 / H, -0.0002 });
+		modes.put("pt", new double[] { 0, -12 / H, -0.0001 });
+		modes.put("walk", new double[] { 0, -12 / H, 0 });
+		Map<String, Double> latestStarts = new HashMap<>();
+		latestStarts.put("work", 7 * H + 300);
+		TripRewardTracker rewards = new TripRewardTracker(modes, latestStarts, 6 / H, -18 / H, -6 / H, -1, linkLengths, members);
+
+		// by car to work, 10 minutes, 1.5 km, 5 minutes late
+		rewards.handleEvent(new ActivityEndEvent(7 * H, agent, home, null, "home", null));
+		rewards.handleEvent(new PersonDepartureEvent(7 * H, agent, home, "car", "car"));
+		rewards.handleEvent(new PersonEntersVehicleEvent(7 * H, agent, car));
+		rewards.handleEvent(new LinkEnterEvent(7 * H + 60, car, middle));
+		rewards.handleEvent(new LinkEnterEvent(7 * H + 300, car, work));
+		rewards.handleEvent(new PersonLeavesVehicleEvent(7 * H + 600, agent, car));
+		rewards.handleEvent(new PersonArrivalEvent(7 * H + 600, agent, work, "car"));
+		assertTrue(Double.isNaN(rewards.getLastTripReward(agent.index())));
+		rewards.handleEvent(new ActivityStartEvent(7 * H + 600, agent, work, null, "work", null));
+		// -4.2 - 600 s * 12 utils/h - 1500 m * 0.0002 - 300 s * 18 utils/h
+		assertEquals(-8.0, rewards.getLastTripReward(agent.index()), 1e-9);
+
+		// home by pt: walk, a bus after a 5 minute wait, a second bus
+		rewards.handleEvent(new ActivityEndEvent(17 * H, agent, work, null, "work", null));
+		rewards.handleEvent(new PersonDepartureEvent(17 * H, agent, work, "walk", "pt"));
+		rewards.handleEvent(new TeleportationArrivalEvent(17 * H + 120, agent, 100, "walk"));
+		rewards.handleEvent(new PersonArrivalEvent(17 * H + 120, agent, work, "walk"));
+		rewards.handleEvent(new ActivityStartEvent(17 * H + 120, agent, work, null, "pt interaction", null));
+		rewards.handleEvent(new ActivityEndEvent(17 * H + 120, agent, work, null, "pt interaction", null));
+		rewards.handleEvent(new PersonDepartureEvent(17 * H + 120, agent, work, "pt", "pt"));
+		rewards.handleEvent(new PersonEntersVehicleEvent(17 * H + 420, agent, bus));
+		rewards.handleEvent(new PersonEntersVehicleEvent(17 * H + 420, busDriver, bus));
+		rewards.handleEvent(new LinkEnterEvent(17 * H + 500, bus, middle));
+		rewards.handleEvent(new PersonLeavesVehicleEvent(17 * H + 720, agent, bus));
+		rewards.handleEvent(new PersonArrivalEvent(17 * H + 720, agent, middle, "pt"));
+		rewards.handleEvent(new PersonDepartureEvent(17 * H + 720, agent, middle, "pt", "pt"));
+		rewards.handleEvent(new PersonEntersVehicleEvent(17 * H + 720, agent, bus));
+		assertEquals(-0.6 - 2.6 - 1, rewards.getCurrentTripReward(agent.index()), 1e-9);
+		rewards.handleEvent(new PersonLeavesVehicleEvent(17 * H + 1320, agent, bus));
+		rewards.handleEvent(new PersonArrivalEvent(17 * H + 1320, agent, home, "pt"));
+		rewards.handleEvent(new ActivityStartEvent(17 * H + 1320, agent, home, null, "home", null));
+		// walk -0.6, first bus +0.5 waiting - 3 - 0.1 distance, second bus -1 line switch - 3
+		assertEquals(-7.2, rewards.getLastTripReward(agent.index()), 1e-9);
+		assertEquals(2, rewards.getCompletedTrips(agent.index()));
+		assertEquals(-7.6, rewards.getMeanReward(), 1e-9);
+
+		rewards.reset(1);
+		assertEquals(0, rewards.getCompletedTrips(agent.index()));
+		assertTrue(Double.isNaN(rewards.getLastTripReward(agent.index())));
+	}
+}
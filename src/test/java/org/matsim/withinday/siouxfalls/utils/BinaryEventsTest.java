@@ -0,0 +1,68 @@
+package org.matsim.withinday.siouxfalls.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.matsim.api.core.v01.Id;
+import org.matsim.withinday.siouxfalls.utils.BinaryEventsWriter.Type;
+
+public class BinaryEventsTest {
+
+	@TempDir
+	Path outputDirectory;
+
+	@Test
+	void testWriteAndRead() throws Exception {
+		Path file = outputDirectory.resolve("it.3").resolve("3." + BinaryEventsWriter.FILE_NAME);
+		// more events than the initial capacity, odd count for the padding of the int columns
+		int trips = 2501;
+		try (BinaryEventsWriter writer = new BinaryEventsWriter(file, 3)) {
+			for (int trip = 0; trip < trips; trip++) {
+				double time = 6 * 3600 + trip;
+				String agent = "agent_" + (trip % 7);
+				String mode = (trip % 2 == 0) ? "car" : "pt";
+				writer.add(Type.ACTIVITY_END, time, Id.createPersonId(agent), Id.createLinkId("l" + (trip % 5)), "home", -1);
+				writer.add(Type.DECISION, time, Id.createPersonId(agent), null, mode, trip % 2);
+				writer.add(Type.DEPARTURE, time, Id.createPersonId(agent), Id.createLinkId("l" + (trip % 5)), mode, -1);
+			}
+			writer.add(Type.STUCK, 30 * 3600, Id.createPersonId("agent_0"), null, null, -1);
+		}
+
+		try (BinaryEventsReader reader = new BinaryEventsReader(file)) {
+			assertEquals(3, reader.getIteration());
+			assertEquals(3 * trips + 1, reader.eventCount());
+			assertEquals(7, reader.getPersonIds().size());
+
+			int event = 3 * 1000;
+			assertEquals(Type.ACTIVITY_END, reader.getType(event));
+			assertEquals(6 * 3600 + 1000, reader.getTime(event), 0.0);
+			assertEquals("agent_" + (1000 % 7), reader.getPersonId(event));
+			assertEquals("l0", reader.getLinkId(event));
+			assertEquals("home", reader.getLabel(event));
+			assertEquals(-1, reader.getAction(event));
+
+			assertEquals(Type.DECISION, reader.getType(event + 1));
+			assertNull(reader.getLinkId(event + 1));
+			assertEquals("car", reader.getLabel(event + 1));
+			assertEquals(0, reader.getAction(event + 1));
+
+			int last = reader.eventCount() - 1;
+			assertEquals(Type.STUCK, reader.getType(last));
+			assertEquals("agent_0", reader.getPersonId(last));
+			assertNull(reader.getLabel(last));
+
+			int[] ptDecisions = new int[1];
+			reader.forEach(Type.DECISION, (events, e) -> {
+				if (events.getAction(e) == 1) {
+					assertEquals("pt", events.getLabel(e));
+					ptDecisions[0]++;
+				}
+			});
+			assertEquals(trips / 2, ptDecisions[0]);
+		}
+	}
+}
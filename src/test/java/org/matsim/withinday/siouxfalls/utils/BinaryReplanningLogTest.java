@@ -0,0 +1,87 @@
+package org.matsim.withinday.siouxfalls.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+
+public class BinaryReplanningLogTest {
+
+	@TempDir
+	Path outputDirectory;
+
+	private static final String[] MODES = { "car", "bike", "pt" };
+
+	@Test
+	void testWriteReadFilterAndConvert() throws Exception {
+		Path binaryLog = outputDirectory.resolve(BinaryReplanningLogWriter.FILE_NAME);
+		float[] states = new float[3 * 10];
+		for (int i = 0; i < states.length; i++) states[i] = i * 0.5f;
+
+		// expected xml, written with the same layout the logger uses
+		StringWriter expectedXml = new StringWriter();
+		XmlReplanningLogWriter xml = new XmlReplanningLogWriter();
+		try (PrintWriter expected = new PrintWriter(expectedXml);
+			 BinaryReplanningLogWriter writer = new BinaryReplanningLogWriter(binaryLog, 3)) {
+			xml.writeHeader(expected);
+			for (int iteration = 0; iteration < 4; iteration++) {
+				// iteration 2 has no decisions
+				if (iteration == 2) continue;
+				for (int event = 0; event < 10; event++) {
+					Id<Person> agent = Id.createPersonId("agent_" + (event % 4));
+					double time = 7 * 3600 + event / 3;
+					String mode = MODES[event % MODES.length];
+					// every other event without a policy decision
+					boolean decided = event % 2 == 0;
+					writer.write(iteration, time, agent, mode, decided ? event % MODES.length : -1, decided ? states : null, event * 3);
+					xml.writeEvent(expected, iteration, time, agent, mode);
+				}
+			}
+			xml.writeFooter(expected);
+		}
+
+		try (BinaryReplanningLogReader reader = new BinaryReplanningLogReader(binaryLog)) {
+			assertEquals(30, reader.recordCount());
+			assertEquals(3, reader.getStateWidth());
+
+			assertEquals(0, reader.firstRecordOfIteration(0));
+			assertEquals(10, reader.firstRecordOfIteration(1));
+			assertEquals(20, reader.firstRecordOfIteration(2));
+			assertEquals(20, reader.firstRecordOfIteration(3));
+			assertEquals(30, reader.firstRecordOfIteration(4));
+
+			int[] visited = new int[1];
+			reader.forEachOfIteration(3, (log, record) -> {
+				int event = (int) (record - 20);
+				assertEquals(3, log.getIteration(record));
+				assertEquals("agent_" + (event % 4), log.getAgentId(record));
+				assertEquals(MODES[event % MODES.length], log.getMode(record));
+				if (event % 2 == 0) {
+					assertEquals(event % MODES.length, log.getAction(record));
+					assertEquals(event * 1.5f + 1.0f, log.getState(record, 2), 0.0f);
+				} else {
+					assertEquals(-1, log.getAction(record));
+					assertTrue(Float.isNaN(log.getState(record, 0)));
+				}
+				visited[0]++;
+			});
+			assertEquals(10, visited[0]);
+			reader.forEachOfIteration(2, (log, record) -> visited[0]++);
+			assertEquals(10, visited[0]);
+		}
+
+		Path xmlLog = outputDirectory.resolve("withinday_log.xml");
+		assertEquals(30, ReplanningLogConverter.convert(binaryLog, xmlLog));
+		String converted = new String(Files.readAllBytes(xmlLog), StandardCharsets.UTF_8);
+		assertEquals(expectedXml.toString(), converted);
+	}
+}
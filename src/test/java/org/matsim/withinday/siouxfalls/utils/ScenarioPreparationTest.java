@@ -0,0 +1,141 @@
+package org.matsim.withinday.siouxfalls.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.matsim.withinday.siouxfalls.utils.ScenarioPreparation.Step;
+
+public class ScenarioPreparationTest {
+
+	@TempDir
+	Path outputDirectory;
+
+	@Test
+	void testOnlyChangedStagesRun() throws Exception {
+		Path a = outputDirectory.resolve("a.txt");
+		Path b = outputDirectory.resolve("b.txt");
+		Files.writeString(a, "a");
+		Files.writeString(b, "b");
+		Path cache = outputDirectory.resolve(ScenarioPreparation.CACHE_DIRECTORY);
+
+		// upper(a), concat(upper, b), upperB(b)
+		Step[] steps = prepare(cache, a, b, "x");
+		assertTrue(steps[0].hasRun() && steps[1].hasRun() && steps[2].hasRun());
+		assertEquals("Ab|x", Files.readString(steps[1].getOutput()));
+
+		steps = prepare(cache, a, b, "x");
+		assertTrue(!steps[0].hasRun() && !steps[1].hasRun() && !steps[2].hasRun());
+
+		// b changed: upper(a) is taken from the cache
+		Files.writeString(b, "c");
+		steps = prepare(cache, a, b, "x");
+		assertTrue(!steps[0].hasRun() && steps[1].hasRun() && steps[2].hasRun());
+		assertEquals("Ac|x", Files.readString(steps[1].getOutput()));
+
+		// a parameter of concat changed
+		steps = prepare(cache, a, b, "y");
+		assertTrue(!steps[0].hasRun() && steps[1].hasRun() && !steps[2].hasRun());
+
+		// back to the first inputs, all outputs are still there
+		Files.writeString(b, "b");
+		steps = prepare(cache, a, b, "x");
+		assertTrue(!steps[0].hasRun() && !steps[1].hasRun() && !steps[2].hasRun());
+		assertEquals("Ab|x", Files.readString(steps[1].getOutput()));
+
+		// the code of concat changed
+		steps = prepare(cache, a, b, "x", 2);
+		assertTrue(!steps[0].hasRun() && steps[1].hasRun() && !steps[2].hasRun());
+	}
+
+	@Test
+	void testNetworkStages() throws Exception {
+		Path network = outputDirectory.resolve("network.xml");
+		Files.writeString(network, String.join("\n",
+				"<?xml version=\"1.0\" encoding=\"UTF-8\"?>",
+				"<!DOCTYPE network SYSTEM \"http://www.matsim.org/files/dtd/network_v1.dtd\">",
+				"<network name=\"test\">",
+				"    <nodes>",
+				"        <node id=\"1\" x=\"0\" y=\"0\" />",
+				"        <node id=\"2\" x=\"100\" y=\"0\" />",
+				"    </nodes>",
+				"    <links capperiod=\"01:00:00\">",
+				"        <link id=\"12\" from=\"1\" to=\"2\" length=\"100.0\" modes=\"car\" capacity=\"600.0\" permlanes=\"1.0\" freespeed=\"12.5\" />",
+				"        <link id=\"21\" from=\"2\" to=\"1\" length=\"100.0\" modes=\"bus,pt\" capacity=\"600.0\" permlanes=\"1.0\" freespeed=\"12.5\" />",
+				"    </links>",
+				"</network>"));
+
+		ScenarioPreparation preparation = new ScenarioPreparation(outputDirectory.resolve(ScenarioPreparation.CACHE_DIRECTORY));
+		Step source = preparation.source(network);
+		Step bike = preparation.stage("bikeOnCarLinks", new ModePermissionStage("car", "bike"), ".xml", source);
+		Step sidewalks = preparation.stage("sidewalks", new SidewalkStage(1.3, 9999, "pedestrian,bike"), ".xml.gz", bike);
+		Path exported = outputDirectory.resolve("networkwithsidewalks.xml.gz");
+		preparation.export(sidewalks, exported);
+		preparation.run();
+
+		String xml;
+		try (InputStream in = ScenarioPreparation.openInput(exported)) {
+			xml = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+		assertTrue(xml.contains("<!DOCTYPE network SYSTEM \"http://www.matsim.org/files/dtd/network_v1.dtd\">"));
+		assertTrue(xml.contains("<link id=\"12\" from=\"1\" to=\"2\" length=\"100.0\" modes=\"car,bike\" capacity=\"600.0\""));
+		assertTrue(xml.contains("<link id=\"21\" from=\"2\" to=\"1\" length=\"100.0\" modes=\"bus,pt\" capacity=\"600.0\""));
+		assertTrue(xml.contains("<link id=\"12_sidewalk\" from=\"1\" to=\"2\" length=\"100.0\" freespeed=\"1.3\" capacity=\"9999.0\" permlanes=\"1.0\" modes=\"pedestrian,bike\"/>"));
+		assertTrue(xml.contains("<link id=\"21_sidewalk\""));
+		// the sidewalks come last in the links
+		assertTrue(xml.indexOf("21_sidewalk") < xml.indexOf("</links>") && xml.indexOf("\"21\"") < xml.indexOf("12_sidewalk"));
+	}
+
+	private static Step[] prepare(Path cache, Path a, Path b, String separator) throws IOException {
+		return prepare(cache, a, b, separator, 1);
+	}
+
+	private static Step[] prepare(Path cache, Path a, Path b, String separator, int concatVersion) throws IOException {
+		ScenarioPreparation preparation = new ScenarioPreparation(cache);
+		Step sourceA = preparation.source(a);
+		Step sourceB = preparation.source(b);
+		Step upper = preparation.stage("upper", new TextStage("", true, 1), ".txt", sourceA);
+		Step concat = preparation.stage("concat", new TextStage(separator, false, concatVersion), ".txt", upper, sourceB);
+		Step upperB = preparation.stage("upperB", new TextStage("", true, 1), ".txt", sourceB);
+		preparation.run();
+		return new Step[] { upper, concat, upperB };
+	}
+
+	// Concatenates the inputs, in upper case or followed by |separator
+	private static final class TextStage implements PreparationStage {
+		private final String separator;
+		private final boolean upperCase;
+		private final int version;
+
+		TextStage(String separator, boolean upperCase, int version) {
+			this.separator = separator;
+			this.upperCase = upperCase;
+			this.version = version;
+		}
+
+		@Override
+		public int getVersion() {
+			return version;
+		}
+
+		@Override
+		public String getParameters() {
+			return "separator=" + separator + ";upperCase=" + upperCase;
+		}
+
+		@Override
+		public void run(List<Path> inputs, Path output) throws IOException {
+			StringBuilder text = new StringBuilder();
+			for (Path input : inputs) text.append(Files.readString(input));
+			Files.writeString(output, upperCase ? text.toString().toUpperCase() : text + "|" + separator);
+		}
+	}
+}
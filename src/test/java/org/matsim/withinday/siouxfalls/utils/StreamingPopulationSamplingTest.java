@@ -0,0 +1,139 @@
+package org.matsim.withinday.siouxfalls.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.PopulationFactory;
+import org.matsim.api.core.v01.population.PopulationWriter;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.io.StreamingPopulationReader;
+import org.matsim.core.scenario.ScenarioUtils;
+
+public class StreamingPopulationSamplingTest {
+
+	private static final double[] RATES = { 0.01, 0.10, 0.25 };
+	private static final int PERSONS = 3000;
+
+	@TempDir
+	Path outputDirectory;
+
+	@Test
+	void testSamplesIndependentOfThreads() throws Exception {
+		Path input = outputDirectory.resolve("population.xml.gz");
+		Set<String> walkers = writePopulation(input);
+
+		String[] single = sample(input, "single", 1);
+		String[] parallel = sample(input, "parallel", 4);
+		for (int i = 0; i < RATES.length; i++) {
+			assertArrayEquals(Files.readAllBytes(Path.of(single[i])), Files.readAllBytes(Path.of(parallel[i])), "sample " + RATES[i]);
+		}
+
+		List<List<Person>> samples = new ArrayList<>();
+		for (String file : single) samples.add(read(file));
+
+		// nested: 1% in 10% in 25%, with the same decisions outside of the walker quota
+		for (int i = 1; i < samples.size(); i++) {
+			Map<String, Person> larger = new HashMap<>();
+			for (Person person : samples.get(i)) larger.put(person.getId().toString(), person);
+			for (Person person : samples.get(i - 1)) {
+				String id = person.getId().toString();
+				Person other = larger.get(id);
+				assertTrue(other != null, "person " + id + " of sample " + RATES[i - 1] + " missing in " + RATES[i]);
+				if (walkers.contains(id)) continue;
+				assertEquals(person.getAttributes().getAttribute("carAvail"), other.getAttributes().getAttribute("carAvail"));
+				assertEquals(mode(person), mode(other));
+			}
+			assertTrue(samples.get(i).size() > samples.get(i - 1).size());
+		}
+
+		// the 5% network walker quota is filled in output order, the other walkers drive
+		for (List<Person> sample : samples) {
+			int size = 0;
+			int networkWalkers = 0;
+			for (Person person : sample) {
+				size++;
+				if (!walkers.contains(person.getId().toString())) continue;
+				if (mode(person).equals("network_walk")) {
+					assertTrue(networkWalkers < 0.05 * size, "quota exceeded at person " + size);
+					networkWalkers++;
+				} else {
+					assertEquals("car", mode(person));
+					assertEquals("always", person.getAttributes().getAttribute("carAvail"));
+					assertTrue(networkWalkers >= 0.05 * size, "walker " + person.getId() + " drives below the quota");
+				}
+			}
+			assertTrue(networkWalkers > 0);
+		}
+	}
+
+	// Every third person walks, the others go by car or pt; returns the ids of the walkers
+	private static Set<String> writePopulation(Path file) {
+		Scenario scenario = ScenarioUtils.createScenario(ConfigUtils.createConfig());
+		PopulationFactory factory = scenario.getPopulation().getFactory();
+		Set<String> walkers = new HashSet<>();
+		for (int i = 0; i < PERSONS; i++) {
+			Person person = factory.createPerson(Id.createPersonId("p" + i));
+			String mode = (i % 3 == 0) ? "walk" : (i % 3 == 1) ? "car" : "pt";
+			if (mode.equals("walk")) walkers.add(person.getId().toString());
+			// short and long commutes, so that some car drivers switch to bike
+			double distance = (i % 2 == 0) ? 1500 : 8000;
+			Plan plan = factory.createPlan();
+			Activity home = factory.createActivityFromCoord("home", new Coord(0, 0));
+			home.setEndTime(7 * 3600 + i);
+			plan.addActivity(home);
+			plan.addLeg(factory.createLeg(mode));
+			Activity work = factory.createActivityFromCoord("work", new Coord(distance, 0));
+			work.setEndTime(16 * 3600);
+			plan.addActivity(work);
+			plan.addLeg(factory.createLeg(mode));
+			plan.addActivity(factory.createActivityFromCoord("home", new Coord(0, 0)));
+			person.addPlan(plan);
+			person.setSelectedPlan(plan);
+			scenario.getPopulation().addPerson(person);
+		}
+		new PopulationWriter(scenario.getPopulation()).write(file.toString());
+		return walkers;
+	}
+
+	private String[] sample(Path input, String directory, int threads) throws Exception {
+		Path output = Files.createDirectories(outputDirectory.resolve(directory));
+		String[] files = new String[RATES.length];
+		for (int i = 0; i < RATES.length; i++) {
+			files[i] = StreamingPopulationSampling.getOutputFile(output.resolve("population.xml.gz").toString(), RATES[i]);
+		}
+		new StreamingPopulationSampling(RATES, files, threads, 42).run(input.toString());
+		return files;
+	}
+
+	// In file order
+	private static List<Person> read(String file) {
+		List<Person> persons = new ArrayList<>();
+		StreamingPopulationReader reader = new StreamingPopulationReader(ScenarioUtils.createScenario(ConfigUtils.createConfig()));
+		reader.addAlgorithm(persons::add);
+		reader.readFile(file);
+		return persons;
+	}
+
+	private static String mode(Person person) {
+		return ((Leg) person.getSelectedPlan().getPlanElements().get(1)).getMode();
+	}
+}
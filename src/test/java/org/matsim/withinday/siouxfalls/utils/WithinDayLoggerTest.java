@@ -0,0 +1,110 @@
+package org.matsim.withinday.siouxfalls.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.concurrent.CyclicBarrier;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+import org.matsim.api.core.v01.Id;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+public class WithinDayLoggerTest {
+
+	@TempDir
+	Path outputDirectory;
+
+	@Test
+	void testAsynchronousLogKeepsNestingWithParallelReplanners() throws Exception {
+		int threads = 8;
+		int iterations = 3;
+		int steps = 20;
+		int eventsPerThreadAndStep = 50;
+
+		// small queue, so the replanner threads run into backpressure
+		WithinDayLogger logger = new WithinDayLogger(outputDirectory.toString(), 64, WithinDayLogger.OverflowPolicy.block);
+
+		// all threads log the same time step, like the parallel replanners between two QSim steps
+		CyclicBarrier barrier = new CyclicBarrier(threads);
+		Thread[] replanners = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final int thread = t;
+			replanners[t] = new Thread(() -> {
+				try {
+					for (int iteration = 0; iteration < iterations; iteration++) {
+						for (int step = 0; step < steps; step++) {
+							for (int i = 0; i < eventsPerThreadAndStep; i++) {
+								logger.logReplanningEvent(iteration, 6 * 3600 + step, Id.createPersonId(thread + "_" + i), "car");
+							}
+							barrier.await();
+						}
+					}
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			});
+			replanners[t].start();
+		}
+		for (Thread replanner : replanners) replanner.join();
+		logger.closeLog();
+
+		Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+				.parse(new File(outputDirectory.toFile(), "withinday_log.xml"));
+
+		NodeList iterationElements = document.getDocumentElement().getElementsByTagName("iteration");
+		assertEquals(iterations, iterationElements.getLength());
+		for (int i = 0; i < iterations; i++) {
+			Element iterationElement = (Element) iterationElements.item(i);
+			assertEquals(String.valueOf(i), iterationElement.getAttribute("id"));
+
+			NodeList simTimes = iterationElement.getElementsByTagName("simTime");
+			assertEquals(steps, simTimes.getLength());
+			for (int s = 0; s < steps; s++) {
+				Element simTime = (Element) simTimes.item(s);
+				assertEquals(String.valueOf(6 * 3600.0 + s), simTime.getAttribute("seconds"));
+				assertEquals(threads * eventsPerThreadAndStep, simTime.getElementsByTagName("agent").getLength());
+			}
+		}
+		assertEquals(0, logger.getDroppedEvents());
+	}
+
+	// The log files point to /dev/full, every write fails with "No space left on device"
+	@Test
+	@EnabledOnOs(OS.LINUX)
+	void testBlockingProducersGoOnAfterWriteErrors() throws Exception {
+		for (WithinDayLogger.Format format : WithinDayLogger.Format.values()) {
+			Path directory = Files.createDirectories(outputDirectory.resolve(format.name()));
+			String fileName = (format == WithinDayLogger.Format.binary) ? BinaryReplanningLogWriter.FILE_NAME : "withinday_log.xml";
+			Files.createSymbolicLink(directory.resolve(fileName), Paths.get("/dev/full"));
+
+			WithinDayLogger logger = new WithinDayLogger(directory.toString(), format, 0, 16, WithinDayLogger.OverflowPolicy.block);
+			assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+				Thread[] replanners = new Thread[4];
+				for (int t = 0; t < replanners.length; t++) {
+					final int thread = t;
+					replanners[t] = new Thread(() -> {
+						for (int i = 0; i < 20_000; i++) logger.logReplanningEvent(0, 6 * 3600 + i / 100, Id.createPersonId(thread + "_" + i % 100), "car");
+					});
+					replanners[t].start();
+				}
+				for (Thread replanner : replanners) replanner.join();
+				logger.closeLog();
+			}, format.name());
+			assertTrue(logger.hasFailed(), format.name());
+			assertTrue(logger.getDroppedEvents() > 0, format.name());
+		}
+	}
+}